@@ -17,6 +17,7 @@
  */
 package org.lealone.transaction.amte;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -27,11 +28,13 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.lealone.common.exceptions.DbException;
 import org.lealone.common.logging.Logger;
 import org.lealone.common.logging.LoggerFactory;
 import org.lealone.common.util.DataUtils;
 import org.lealone.common.util.DateTimeUtils;
 import org.lealone.common.util.ShutdownHookUtils;
+import org.lealone.storage.BackupTarget;
 import org.lealone.storage.Storage;
 import org.lealone.storage.StorageEventListener;
 import org.lealone.storage.StorageMap;
@@ -249,6 +252,26 @@ public class AMTransactionEngine extends TransactionEngineBase implements Storag
         checkpointService.checkpoint();
     }
 
+    @Override
+    public boolean containsPendingRedoLog(String mapName) {
+        return logSyncService.containsPendingRedoLog(mapName);
+    }
+
+    @Override
+    public void beginBackup() {
+        checkpointService.beginBackup();
+    }
+
+    @Override
+    public void backupRedoLogTo(BackupTarget target) throws IOException {
+        logSyncService.backupTo(target);
+    }
+
+    @Override
+    public void endBackup() {
+        checkpointService.endBackup();
+    }
+
     @Override
     public void beforeClose(Storage storage) {
         checkpoint();
@@ -263,7 +286,11 @@ public class AMTransactionEngine extends TransactionEngineBase implements Storag
 
         private static final int DEFAULT_COMMITTED_DATA_CACHE_SIZE = 32 * 1024 * 1024; // 32M
         private static final int DEFAULT_CHECKPOINT_PERIOD = 1 * 60 * 60 * 1000; // 1小时
-        private final AtomicBoolean checking = new AtomicBoolean(false);
+        // checking和backupCount的组合变化都在checkingLock中进行，备份开始时要等待正在执行的检查点结束
+        private final Object checkingLock = new Object();
+        private boolean checking;
+        // 正在进行的备份个数，备份期间不生成新的检查点，避免截断redo log
+        private final AtomicInteger backupCount = new AtomicInteger();
         private final Semaphore semaphore = new Semaphore(1);
         private final int committedDataCacheSize;
         private final long checkpointPeriod;
@@ -312,10 +339,45 @@ public class AMTransactionEngine extends TransactionEngineBase implements Storag
             checkpoint(true);
         }
 
+        void beginBackup() {
+            checkpoint();
+            synchronized (checkingLock) {
+                backupCount.incrementAndGet();
+                // 等待已经开始的检查点结束，之后开始的检查点会看到backupCount大于0，redo log就不会再被截断了
+                while (checking) {
+                    try {
+                        checkingLock.wait();
+                    } catch (InterruptedException e) {
+                        backupCount.decrementAndGet();
+                        throw DbException.convert(e);
+                    }
+                }
+            }
+        }
+
+        void endBackup() {
+            backupCount.decrementAndGet();
+        }
+
         // 按周期自动触发
         private void checkpoint(boolean force) {
-            if (!checking.compareAndSet(false, true))
-                return;
+            synchronized (checkingLock) {
+                // 备份期间不生成新的检查点
+                if (checking || backupCount.get() > 0 && !isClosed)
+                    return;
+                checking = true;
+            }
+            try {
+                executeCheckpoint(force);
+            } finally {
+                synchronized (checkingLock) {
+                    checking = false;
+                    checkingLock.notifyAll();
+                }
+            }
+        }
+
+        private void executeCheckpoint(boolean force) {
             long now = System.currentTimeMillis();
             boolean executeCheckpoint = force || isClosed || (lastSavedAt + checkpointPeriod < now);
 
@@ -345,7 +407,6 @@ public class AMTransactionEngine extends TransactionEngineBase implements Storag
                 lastSavedAt = now;
                 logSyncService.checkpoint(nextEvenTransactionId());
             }
-            checking.set(false);
         }
 
         @Override
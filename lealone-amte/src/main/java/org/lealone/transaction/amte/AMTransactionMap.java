@@ -17,8 +17,10 @@
  */
 package org.lealone.transaction.amte;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -70,6 +72,15 @@ public class AMTransactionMap<K, V> implements TransactionMap<K, V> {
         public K append(V value) {
             return (K) map.replicationAppend(session, value, valueType);
         }
+
+        @Override
+        public List<K> appendAll(List<V> values) {
+            List<K> keys = new ArrayList<>(values.size());
+            for (V v : values) {
+                keys.add(append(v));
+            }
+            return keys;
+        }
     }
 
     private final AMTransaction transaction;
@@ -413,6 +424,28 @@ public class AMTransactionMap<K, V> implements TransactionMap<K, V> {
         return key;
     }
 
+    @SuppressWarnings("unchecked")
+    @Override
+    public List<K> appendAll(List<V> values) {
+        int size = values.size();
+        List<TransactionalValue> refs = new ArrayList<>(size);
+        List<TransactionalValue> newValues = new ArrayList<>(size);
+        for (V value : values) {
+            TransactionalValue ref = TransactionalValue.createRef(null);
+            TransactionalValue newValue = TransactionalValue.createUncommitted(transaction, value, null,
+                    map.getValueType(), null, ref);
+            ref.setRefValue(newValue);
+            refs.add(ref);
+            newValues.add(newValue);
+        }
+        // 一次性分配所有的key，然后批量写入
+        List<K> keys = map.appendAll(refs);
+        for (int i = 0; i < size; i++) {
+            transaction.logAppend((StorageMap<Object, TransactionalValue>) map, keys.get(i), newValues.get(i));
+        }
+        return keys;
+    }
+
     ///////////////////////// 以下是直接委派的StorageMap接口API /////////////////////////
 
     @Override
@@ -506,6 +539,24 @@ public class AMTransactionMap<K, V> implements TransactionMap<K, V> {
         return (V) (oldValue == null ? null : oldValue.getValue());
     }
 
+    @Override
+    public void bulkLoadCommitted(Iterator<? extends Entry<K, V>> sortedEntries) {
+        Iterator<Entry<K, TransactionalValue>> it = new Iterator<Entry<K, TransactionalValue>>() {
+            @Override
+            public boolean hasNext() {
+                return sortedEntries.hasNext();
+            }
+
+            @Override
+            public Entry<K, TransactionalValue> next() {
+                Entry<K, V> e = sortedEntries.next();
+                DataUtils.checkArgument(e.getValue() != null, "The value may not be null");
+                return new DataUtils.MapEntry<>(e.getKey(), TransactionalValue.createCommitted(e.getValue()));
+            }
+        };
+        map.bulkLoad(it);
+    }
+
     @Override
     public Iterator<Entry<K, V>> entryIterator(K from) {
         return entryIterator(IterationParameters.create(from));
@@ -679,6 +730,47 @@ public class AMTransactionMap<K, V> implements TransactionMap<K, V> {
         map.putIfAbsent(key, ref, handler);
     }
 
+    @Override
+    public void addAllIfAbsent(List<K> keys, List<V> values, AsyncHandler<AsyncResult<K>> handler) {
+        transaction.checkNotClosed();
+        int size = keys.size();
+        List<TransactionalValue> refs = new ArrayList<>(size);
+        TransactionalLogRecord[] records = new TransactionalLogRecord[size];
+        String mapName = getName();
+        for (int i = 0; i < size; i++) {
+            V value = values.get(i);
+            DataUtils.checkArgument(value != null, "The value may not be null");
+            TransactionalValue ref = TransactionalValue.createRef();
+            TransactionalValue newValue = TransactionalValue.createUncommitted(transaction, value, null,
+                    map.getValueType(), null, ref);
+            ref.setRefValue(newValue);
+            refs.add(ref);
+            records[i] = transaction.log(mapName, keys.get(i), null, newValue);
+        }
+        // 跟addIfAbsent一样，只是所有key都处理完后才回调一次
+        map.putAllIfAbsent(keys, refs, ar -> {
+            AsyncResult<K> result = new AsyncResult<>();
+            if (ar.isSucceeded()) {
+                K duplicateKey = null;
+                List<TransactionalValue> oldValues = ar.getResult();
+                for (int i = 0; i < size; i++) {
+                    if (oldValues.get(i) != null) {
+                        records[i].undone = true;
+                        if (duplicateKey == null)
+                            duplicateKey = keys.get(i);
+                    }
+                }
+                result.setResult(duplicateKey);
+            } else {
+                for (TransactionalLogRecord r : records) {
+                    r.undone = true;
+                }
+                result.setCause(ar.getCause());
+            }
+            handler.handle(result);
+        });
+    }
+
     @Override
     public boolean tryUpdate(K key, V newValue, int[] columnIndexes, Object oldTransactionalValue) {
         DataUtils.checkArgument(newValue != null, "The newValue may not be null");
@@ -704,6 +796,8 @@ public class AMTransactionMap<K, V> implements TransactionMap<K, V> {
                     map.getValueType(), columnIndexes, oldTransactionalValue);
             transaction.log(mapName, key, refValue, newValue);
             if (oldTransactionalValue.compareAndSet(refValue, newValue)) {
+                // value是原地修改的，page没有经过put，要单独让zone map失效
+                map.markDirty(key);
                 return true;
             } else {
                 transaction.logUndo();
@@ -749,6 +843,17 @@ public class AMTransactionMap<K, V> implements TransactionMap<K, V> {
         return new Object[] { getUnwrapValue(key, ref), ref };
     }
 
+    @Override
+    public List<Object[]> getValueAndRefs(List<K> keys, int[] columnIndexes) {
+        List<TransactionalValue> refs = map.getAll(keys, columnIndexes);
+        List<Object[]> list = new ArrayList<>(refs.size());
+        for (int i = 0, size = refs.size(); i < size; i++) {
+            TransactionalValue ref = refs.get(i);
+            list.add(new Object[] { getUnwrapValue(keys.get(i), ref), ref });
+        }
+        return list;
+    }
+
     @Override
     public Object getTransactionalValue(K key) {
         return map.get(key);
@@ -147,6 +147,8 @@ public class TransactionalLogRecord {
                 else {
                     Object value = vt.read(kv);
                     map.put(key, TransactionalValue.createCommitted(value));
+                    // 重做的记录可能是用append增加的，不更新maxKey的话，下次append会覆盖它
+                    map.setMaxKey(key);
                 }
             }
         }
@@ -18,6 +18,7 @@
 package org.lealone.transaction.amte;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 
 import org.lealone.db.DataBuffer;
 import org.lealone.storage.type.StorageDataType;
@@ -107,6 +108,65 @@ public class TransactionalValueType implements StorageDataType {
         valueType.readColumn(buff, v.getValue(), columnIndex);
     }
 
+    @Override
+    public void writeColumn(DataBuffer buff, Object[] objs, int len, int columnIndex) {
+        valueType.writeColumn(buff, getValues(objs, len), len, columnIndex);
+    }
+
+    @Override
+    public void readColumn(ByteBuffer buff, Object[] objs, int len, int columnIndex) {
+        valueType.readColumn(buff, getValues(objs, len), len, columnIndex);
+    }
+
+    @Override
+    public Object getColumnStatistics(Object[] objs, int len, int columnIndex) {
+        // 未提交的值可能被回滚，其他事务还能看到旧值，此时统计信息不可靠，所以不生成
+        for (int i = 0; i < len; i++) {
+            if (!((TransactionalValue) objs[i]).isCommitted())
+                return null;
+        }
+        // REPEATABLE_READ和SERIALIZABLE的事务可能还在读oldValue链上的旧版本，
+        // zone map要覆盖所有版本，否则这些事务能读到的记录所在的page会被跳过
+        ArrayList<Object> values = null;
+        for (int i = 0; i < len; i++) {
+            TransactionalValue old = ((TransactionalValue) objs[i]).getOldValue();
+            if (old != null && values == null) {
+                values = new ArrayList<>(len + 1);
+                for (int j = 0; j < i; j++) {
+                    values.add(((TransactionalValue) objs[j]).getValue());
+                }
+            }
+            if (values != null) {
+                values.add(((TransactionalValue) objs[i]).getValue());
+                for (; old != null; old = old.getOldValue()) {
+                    if (old.getValue() != null)
+                        values.add(old.getValue());
+                }
+            }
+        }
+        if (values == null)
+            return valueType.getColumnStatistics(getValues(objs, len), len, columnIndex);
+        return valueType.getColumnStatistics(values.toArray(), values.size(), columnIndex);
+    }
+
+    @Override
+    public void writeColumnStatistics(DataBuffer buff, Object statistics) {
+        valueType.writeColumnStatistics(buff, statistics);
+    }
+
+    @Override
+    public Object readColumnStatistics(ByteBuffer buff) {
+        return valueType.readColumnStatistics(buff);
+    }
+
+    private static Object[] getValues(Object[] objs, int len) {
+        Object[] values = new Object[len];
+        for (int i = 0; i < len; i++) {
+            values[i] = ((TransactionalValue) objs[i]).getValue();
+        }
+        return values;
+    }
+
     @Override
     public void setColumns(Object oldObj, Object newObj, int[] columnIndexes) {
         valueType.setColumns(oldObj, newObj, columnIndexes);
@@ -17,16 +17,18 @@
  */
 package org.lealone.transaction.amte.log;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 import org.lealone.common.concurrent.WaitQueue;
+import org.lealone.storage.BackupTarget;
 import org.lealone.transaction.amte.AMTransaction;
 
 public abstract class LogSyncService extends Thread {
@@ -46,7 +48,8 @@ public abstract class LogSyncService extends Thread {
     protected RedoLog redoLog;
 
     // key: mapName, value: map key/value ByteBuffer list
-    private final HashMap<String, List<ByteBuffer>> pendingRedoLog = new HashMap<>();
+    // 延迟打开的map可能在不同的线程中重做各自的redo log
+    private final ConcurrentHashMap<String, List<ByteBuffer>> pendingRedoLog = new ConcurrentHashMap<>();
 
     public LogSyncService() {
         setName(getClass().getSimpleName());
@@ -136,6 +139,15 @@ public abstract class LogSyncService extends Thread {
         return pendingRedoLog.remove(mapName);
     }
 
+    public boolean containsPendingRedoLog(String mapName) {
+        return pendingRedoLog.containsKey(mapName);
+    }
+
+    public void backupTo(BackupTarget target) throws IOException {
+        if (redoLog != null)
+            redoLog.backupTo(target);
+    }
+
     public static LogSyncService create(Map<String, String> config) {
         LogSyncService logSyncService;
         String logSyncType = config.get("log_sync_type");
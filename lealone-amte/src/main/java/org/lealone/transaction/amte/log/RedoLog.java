@@ -18,6 +18,7 @@
 package org.lealone.transaction.amte.log;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -26,6 +27,7 @@ import java.util.Queue;
 import java.util.concurrent.LinkedTransferQueue;
 
 import org.lealone.db.Constants;
+import org.lealone.storage.BackupTarget;
 import org.lealone.storage.fs.FilePath;
 import org.lealone.storage.fs.FileUtils;
 
@@ -108,6 +110,20 @@ class RedoLog {
         currentChunk.close();
     }
 
+    // 在备份期间调用，此时不会生成新的检查点，所以旧的chunk文件不会被删除
+    void backupTo(BackupTarget target) throws IOException {
+        String storagePath = config.get("storagePath");
+        String entryNameBase = new File(storagePath).getName() + "/" + RedoLogChunk.CHUNK_FILE_NAME_PREFIX;
+        RedoLogChunk chunk = currentChunk;
+        for (int id : getAllChunkIds()) {
+            if (id < chunk.getId())
+                target.addFile(entryNameBase + id, RedoLogChunk.getChunkFileName(config, id));
+            else if (id == chunk.getId())
+                chunk.backupTo(target, entryNameBase + id);
+            // 比当前chunk新的文件是在开始备份redo log之后才创建的，不用备份
+        }
+    }
+
     void save() {
         currentChunk.save();
         if (currentChunk.logChunkSize() > logChunkSize) {
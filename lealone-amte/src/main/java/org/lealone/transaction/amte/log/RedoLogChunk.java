@@ -18,11 +18,14 @@
 package org.lealone.transaction.amte.log;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.Map;
 import java.util.concurrent.LinkedTransferQueue;
 
 import org.lealone.db.DataBuffer;
+import org.lealone.storage.BackupTarget;
 import org.lealone.storage.fs.FileStorage;
 import org.lealone.storage.fs.FileUtils;
 
@@ -35,7 +38,7 @@ class RedoLogChunk implements Comparable<RedoLogChunk> {
 
     static final String CHUNK_FILE_NAME_PREFIX = "redoLog" + RedoLog.NAME_ID_SEPARATOR;
 
-    private static String getChunkFileName(Map<String, String> config, int id) {
+    static String getChunkFileName(Map<String, String> config, int id) {
         String storagePath = config.get("storagePath");
         return storagePath + File.separator + CHUNK_FILE_NAME_PREFIX + id;
     }
@@ -115,6 +118,14 @@ class RedoLogChunk implements Comparable<RedoLogChunk> {
         }
     }
 
+    // 先把还在队列中的记录写到文件中，在锁中复制，不会复制到只写了一半的记录
+    synchronized void backupTo(BackupTarget target, String entryName) throws IOException {
+        save();
+        WritableByteChannel out = target.beginEntry(entryName);
+        fileStorage.transferTo(out);
+        target.endEntry();
+    }
+
     private void deleteOldChunkFiles() {
         for (int i = 0; i < id; i++) {
             String chunkFileName = getChunkFileName(config, i);
@@ -17,6 +17,7 @@
  */
 package org.lealone.storage.aose;
 
+import java.io.File;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -24,6 +25,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.lealone.common.util.CaseInsensitiveMap;
 import org.lealone.common.util.DataUtils;
@@ -33,6 +35,7 @@ import org.lealone.db.RunMode;
 import org.lealone.db.Session;
 import org.lealone.db.value.ValueString;
 import org.lealone.net.NetEndpoint;
+import org.lealone.storage.BackupTarget;
 import org.lealone.storage.PageOperationHandlerFactory;
 import org.lealone.storage.StorageBase;
 import org.lealone.storage.StorageCommand;
@@ -40,6 +43,7 @@ import org.lealone.storage.StorageMap;
 import org.lealone.storage.aose.btree.BTreeMap;
 import org.lealone.storage.aose.btree.BTreeMapBuilder;
 import org.lealone.storage.aose.btree.DistributedBTreeMap;
+import org.lealone.storage.aose.btree.LeafPageMigration;
 import org.lealone.storage.aose.rtree.RTreeMap;
 import org.lealone.storage.aose.rtree.RTreeMapBuilder;
 import org.lealone.storage.fs.FilePath;
@@ -59,6 +63,8 @@ public class AOStorage extends StorageBase {
 
     private final IDatabase db;
     private final PageOperationHandlerFactory pohFactory;
+    private final ConcurrentHashMap<String, Object> openingMaps = new ConcurrentHashMap<>();
+    private volatile LeafPageMigration leafPageMigration;
 
     AOStorage(Map<String, Object> config, PageOperationHandlerFactory pohFactory) {
         super(config);
@@ -81,6 +87,12 @@ public class AOStorage extends StorageBase {
         return pohFactory;
     }
 
+    @Override
+    public boolean hasPersistedMap(String name) {
+        // 每个map都有一个独立的目录，不用打开map就能知道它是否存在
+        return hasMap(name) || FileUtils.exists(getStoragePath() + File.separator + name);
+    }
+
     @Override
     public <K, V> StorageMap<K, V> openMap(String name, StorageDataType keyType, StorageDataType valueType,
             Map<String, String> parameters) {
@@ -137,16 +149,22 @@ public class AOStorage extends StorageBase {
     private <K, V> BTreeMap<K, V> openMap(String name, BTreeMapBuilder<K, V> builder, Map<String, String> parameters) {
         StorageMap<?, ?> map = maps.get(name);
         if (map == null) {
-            synchronized (this) {
-                map = maps.get(name);
-                if (map == null) {
-                    CaseInsensitiveMap<Object> c = new CaseInsensitiveMap<>(config);
-                    if (parameters != null)
-                        c.putAll(parameters);
-                    builder.name(name).config(c).aoStorage(this);
-                    map = builder.openMap();
-                    maps.put(name, map);
+            // 打开map时要读chunk文件，每个map用自己的锁，不同的map可以在多个线程中并行打开
+            Object lock = openingMaps.computeIfAbsent(name, k -> new Object());
+            try {
+                synchronized (lock) {
+                    map = maps.get(name);
+                    if (map == null) {
+                        CaseInsensitiveMap<Object> c = new CaseInsensitiveMap<>(config);
+                        if (parameters != null)
+                            c.putAll(parameters);
+                        builder.name(name).config(c).aoStorage(this);
+                        map = builder.openMap();
+                        maps.put(name, map);
+                    }
                 }
+            } finally {
+                openingMaps.remove(name, lock);
             }
         }
         return (BTreeMap<K, V>) map;
@@ -156,6 +174,27 @@ public class AOStorage extends StorageBase {
         return config.containsKey("readOnly");
     }
 
+    // 在线备份，不需要关闭存储，每个BTreeMap各自备份自己的chunk文件快照
+    @Override
+    public void backupTo(BackupTarget target, Long lastDate) {
+        if (isInMemory())
+            return;
+        String path = getStoragePath();
+        String entryNameBase = getBackupEntryNameBase(path);
+        for (FilePath dir : FilePath.get(path).newDirectoryStream()) {
+            String mapName = dir.getName();
+            if (mapName.startsWith(TEMP_NAME_PREFIX))
+                continue;
+            StorageMap<?, ?> map = maps.get(mapName);
+            if (map != null)
+                map = map.getRawMap();
+            if (map instanceof BTreeMap)
+                ((BTreeMap<?, ?>) map).backupTo(target, entryNameBase + "/" + mapName, lastDate);
+            else // 没有打开的map，文件不会被修改，直接复制即可
+                backupFiles(target, dir, entryNameBase + "/" + mapName, lastDate);
+        }
+    }
+
     private List<NetEndpoint> getReplicationEndpoints(String[] replicationHostIds) {
         return getReplicationEndpoints(Arrays.asList(replicationHostIds));
     }
@@ -222,6 +261,7 @@ public class AOStorage extends StorageBase {
     public void scaleIn(Object dbObject, RunMode oldRunMode, RunMode newRunMode, String[] oldEndpoints,
             String[] newEndpoints) {
         IDatabase db = (IDatabase) dbObject;
+        ArrayList<DistributedBTreeMap<?, ?>> btreeMaps = new ArrayList<>();
         for (StorageMap<?, ?> map : maps.values()) {
             map = map.getRawMap();
             if (map instanceof BTreeMap) {
@@ -232,10 +272,38 @@ public class AOStorage extends StorageBase {
                 if (oldEndpoints == null) {
                     btreeMap.replicateAllRemotePages();
                 } else {
-                    btreeMap.moveAllLocalLeafPages(oldEndpoints, newEndpoints);
+                    btreeMaps.add(btreeMap);
                 }
             }
         }
+        if (!btreeMaps.isEmpty()) {
+            int threads = getIntConfig("migrationThreads", 4);
+            long maxBytesPerSecond = getIntConfig("migrationMaxKBPerSecond", 0) * 1024L;
+            int maxRetries = getIntConfig("migrationMaxRetries", 3);
+            LeafPageMigration migration = new LeafPageMigration(db, oldEndpoints, newEndpoints, threads,
+                    maxBytesPerSecond, maxRetries);
+            leafPageMigration = migration;
+            migration.run(btreeMaps);
+        }
         db.notifyRunModeChanged();
     }
+
+    /**
+     * 返回最近一次缩容时每个map移动leaf page的进度，key是map名
+     */
+    public Map<String, String> getLeafPageMigrationProgress() {
+        LeafPageMigration migration = leafPageMigration;
+        return migration == null ? new HashMap<>(0) : migration.getProgress();
+    }
+
+    private int getIntConfig(String key, int defaultValue) {
+        Object value = config.get(key);
+        if (value == null)
+            return defaultValue;
+        try {
+            return Integer.parseInt(value.toString().trim());
+        } catch (NumberFormatException e) {
+            throw DataUtils.newIllegalArgumentException("Invalid value for {0}: {1}", key, value);
+        }
+    }
 }
@@ -5,10 +5,15 @@
  */
 package org.lealone.storage.aose.btree;
 
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.lealone.common.util.DataUtils;
+import org.lealone.common.util.UnsafeUtils;
 import org.lealone.storage.fs.FileStorage;
 
 /**
@@ -62,10 +67,72 @@ public class BTreeChunk {
     public FileStorage fileStorage;
     public long mapSize;
 
+    // 以下字段用于内存映射读，chunk文件写完之后就不再修改，所以可以映射整个文件
+    private volatile MappedByteBuffer mappedBuffer;
+    private boolean mapFailed;
+    private final AtomicInteger mappedBufferUsers = new AtomicInteger();
+    private volatile boolean unmapping;
+    private final AtomicBoolean unmapped = new AtomicBoolean();
+
     BTreeChunk(int id) {
         this.id = id;
     }
 
+    /**
+     * 返回映射到内存的整个chunk文件，返回非null时用完后要调用releaseMappedBuffer，
+     * 在此期间chunk被删除也不会解除映射
+     *
+     * @return 映射的buffer，不能映射或者chunk已被删除时返回null
+     */
+    ByteBuffer acquireMappedBuffer() {
+        mappedBufferUsers.incrementAndGet();
+        if (unmapping) {
+            releaseMappedBuffer();
+            return null;
+        }
+        MappedByteBuffer buffer = mappedBuffer;
+        if (buffer == null) {
+            synchronized (this) {
+                buffer = mappedBuffer;
+                if (buffer == null && !mapFailed) {
+                    buffer = fileStorage.mapReadOnly();
+                    if (buffer == null)
+                        mapFailed = true;
+                    else
+                        mappedBuffer = buffer;
+                }
+            }
+            if (buffer == null) {
+                releaseMappedBuffer();
+                return null;
+            }
+        }
+        return buffer;
+    }
+
+    void releaseMappedBuffer() {
+        if (mappedBufferUsers.decrementAndGet() == 0 && unmapping)
+            unmapIfUnused();
+    }
+
+    /**
+     * 删除chunk或关闭存储时调用，如果还有读操作在使用映射的buffer，由最后一个读操作解除映射
+     */
+    void unmap() {
+        unmapping = true;
+        if (mappedBufferUsers.get() == 0)
+            unmapIfUnused();
+    }
+
+    private void unmapIfUnused() {
+        if (mappedBuffer != null && unmapped.compareAndSet(false, true)) {
+            synchronized (this) {
+                UnsafeUtils.invokeCleaner(mappedBuffer);
+                mappedBuffer = null;
+            }
+        }
+    }
+
     /**
      * Calculate the fill rate in %. 0 means empty, 100 means full.
      *
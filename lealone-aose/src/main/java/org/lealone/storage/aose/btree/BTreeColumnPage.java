@@ -27,6 +27,7 @@ class BTreeColumnPage extends BTreePage {
     Object[] values;
     int columnIndex;
     ByteBuffer buff;
+    boolean encoded; // 是否按整列编码
 
     protected BTreeColumnPage(BTreeMap<?, ?> map) {
         super(map);
@@ -67,6 +68,7 @@ class BTreeColumnPage extends BTreePage {
         readCheckValue(buff, chunkId, offset, pageLength, disableCheck);
         buff.get(); // page type;
         int compressType = buff.get(); // page type;
+        encoded = (compressType & PageUtils.PAGE_COLUMN_ENCODED) != 0;
 
         // 解压完之后就结束了，因为还不知道具体的行，所以延迟对列进行反序列化
         ByteBuffer oldBuff = buff;
@@ -84,8 +86,12 @@ class BTreeColumnPage extends BTreePage {
         this.values = values;
         this.columnIndex = columnIndex;
         StorageDataType valueType = map.getValueType();
-        for (int row = 0, rowCount = values.length; row < rowCount; row++) {
-            valueType.readColumn(buff, values[row], columnIndex);
+        if (encoded) {
+            valueType.readColumn(buff, values, values.length, columnIndex);
+        } else {
+            for (int row = 0, rowCount = values.length; row < rowCount; row++) {
+                valueType.readColumn(buff, values[row], columnIndex);
+            }
         }
         buff = null;
         // recalculateMemory();
@@ -101,12 +107,10 @@ class BTreeColumnPage extends BTreePage {
         buff.putShort((short) 0);
         buff.put((byte) type);
         int compressTypePos = buff.position();
-        int compressType = 0;
+        int compressType = PageUtils.PAGE_COLUMN_ENCODED;
         buff.put((byte) compressType);
         int compressStart = buff.position();
-        for (int row = 0, rowCount = values.length; row < rowCount; row++) {
-            valueType.writeColumn(buff, values[row], columnIndex);
-        }
+        valueType.writeColumn(buff, values, values.length, columnIndex);
         compressPage(buff, compressStart, compressType, compressTypePos);
         int pageLength = buff.position() - start;
         buff.putInt(start, pageLength);
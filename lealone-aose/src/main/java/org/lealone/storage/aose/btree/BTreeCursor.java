@@ -67,11 +67,20 @@ class BTreeCursor<K, V> implements StorageMapCursor<K, V> {
      */
     private void min(BTreePage p, K from) {
         while (true) {
+            // 父节点还没有完成AddChild操作时，被切割的leaf page中的数据可能是旧的，要从临时的父节点开始找
+            if (p.dynamicInfo.isSplitted()) {
+                p = p.dynamicInfo.redirect;
+                continue;
+            }
             if (p.isLeaf()) {
                 int x = from == null ? 0 : p.binarySearch(from);
                 if (x < 0) {
                     x = -x - 1;
                 }
+                // zone map表明这个page中没有满足条件的记录，直接跳到page末尾，这样就不用读取它的列page了
+                if (parameters.pageFilter != null && p.canSkip(parameters.pageFilter)) {
+                    x = p.getKeyCount();
+                }
                 pos = new CursorPos(p, x, pos);
                 break;
             }
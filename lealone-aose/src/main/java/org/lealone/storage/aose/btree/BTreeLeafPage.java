@@ -19,7 +19,8 @@ package org.lealone.storage.aose.btree;
 
 import java.nio.ByteBuffer;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Predicate;
 
 import org.lealone.common.util.DataUtils;
 import org.lealone.db.DataBuffer;
@@ -29,6 +30,12 @@ import org.lealone.storage.type.StorageDataType;
 
 public class BTreeLeafPage extends BTreeLocalPage {
 
+    private static final AtomicReferenceFieldUpdater<BTreeLeafPage, Object[]> zoneMapUpdater = AtomicReferenceFieldUpdater
+            .newUpdater(BTreeLeafPage.class, Object[].class, "zoneMap");
+
+    // 保存时先放这个占位的zone map，保存的过程中page被修改了就会被清除
+    private static final Object[] ZONE_MAP_WRITING = new Object[0];
+
     /**
      * The values.
      * <p>
@@ -40,6 +47,8 @@ public class BTreeLeafPage extends BTreeLocalPage {
     private LeafPageMovePlan leafPageMovePlan;
     private ColumnPageReference[] columnPages;
     private volatile long totalCount;
+    // 列式存储时每一列的统计信息(zone map)，在从硬盘读出或保存时设置，page被修改后就失效
+    private volatile Object[] zoneMap;
 
     static class ColumnPageReference {
         BTreeColumnPage page;
@@ -137,6 +146,7 @@ public class BTreeLeafPage extends BTreeLocalPage {
         StorageDataType valueType = map.getValueType();
         addMemory(valueType.getMemory(value) - valueType.getMemory(old));
         values[index] = value;
+        invalidateZoneMap();
         return old;
     }
 
@@ -156,6 +166,7 @@ public class BTreeLeafPage extends BTreeLocalPage {
         values = aValues;
 
         totalCount = a;
+        invalidateZoneMap();
         BTreeLeafPage newPage = create(map, bKeys, bValues, bKeys.length, 0);
         newPage.replicationHostIds = replicationHostIds;
         recalculateMemory();
@@ -188,6 +199,7 @@ public class BTreeLeafPage extends BTreeLocalPage {
         values = newValues;
         keys[index] = key;
         values[index] = value;
+        invalidateZoneMap();
         totalCount++;
         map.incrementSize();// 累加全局计数器
         addMemory(map.getKeyType().getMemory(key) + map.getValueType().getMemory(value));
@@ -207,6 +219,7 @@ public class BTreeLeafPage extends BTreeLocalPage {
         Object[] newValues = new Object[keyLength - 1];
         DataUtils.copyExcept(values, newValues, keyLength, index);
         values = newValues;
+        invalidateZoneMap();
         totalCount--;
         map.decrementSize(); // 递减全局计数器
     }
@@ -270,8 +283,12 @@ public class BTreeLeafPage extends BTreeLocalPage {
             int columnPageLength = buff.getInt();
             int columnPageType = buff.get();
             ByteBuffer columnPageBuff = expandPage(buff, columnPageType, columnPageStartPos, columnPageLength);
-            for (int row = 0; row < keyLength; row++) {
-                valueType.readColumn(columnPageBuff, values[row], col);
+            if ((columnPageType & PageUtils.PAGE_COLUMN_ENCODED) != 0) {
+                valueType.readColumn(columnPageBuff, values, keyLength, col);
+            } else {
+                for (int row = 0; row < keyLength; row++) {
+                    valueType.readColumn(columnPageBuff, values[row], col);
+                }
             }
         }
         totalCount = keyLength;
@@ -312,6 +329,7 @@ public class BTreeLeafPage extends BTreeLocalPage {
         // columnPages[i].page = new BTreeColumnPage(map, values, i);
         // }
         replicationHostIds = readReplicationHostIds(buff);
+        zoneMap = readZoneMap(buff, valueType, columnCount);
         // 延迟加载
         // for (int col = 0; col < columnCount; col++) {
         // BTreeColumnPage page = (BTreeColumnPage) map.btreeStorage.readPage(columnPages[col].pos);
@@ -344,6 +362,61 @@ public class BTreeLeafPage extends BTreeLocalPage {
         }
     }
 
+    private static Object[] readZoneMap(ByteBuffer buff, StorageDataType valueType, int columnCount) {
+        // 老版本的page没有zone map
+        if (!buff.hasRemaining() || buff.get() == 0)
+            return null;
+        Object[] zoneMap = new Object[columnCount];
+        for (int col = 0; col < columnCount; col++) {
+            if (buff.get() == 1)
+                zoneMap[col] = valueType.readColumnStatistics(buff);
+        }
+        return zoneMap;
+    }
+
+    private Object[] writeZoneMap(DataBuffer buff, StorageDataType valueType, int columnCount) {
+        int keyLength = keys.length;
+        Object[] zoneMap = new Object[columnCount];
+        boolean found = false;
+        for (int col = 0; col < columnCount; col++) {
+            zoneMap[col] = valueType.getColumnStatistics(values, keyLength, col);
+            if (zoneMap[col] != null)
+                found = true;
+        }
+        if (!found) {
+            buff.put((byte) 0);
+            return null;
+        }
+        buff.put((byte) 1);
+        for (int col = 0; col < columnCount; col++) {
+            if (zoneMap[col] == null) {
+                buff.put((byte) 0);
+            } else {
+                buff.put((byte) 1);
+                valueType.writeColumnStatistics(buff, zoneMap[col]);
+            }
+        }
+        return zoneMap;
+    }
+
+    @Override
+    boolean canSkip(Predicate<Object[]> pageFilter) {
+        Object[] zoneMap = this.zoneMap;
+        return zoneMap != null && zoneMap != ZONE_MAP_WRITING && !pageFilter.test(zoneMap);
+    }
+
+    // 保存后的page还留在内存中(子页面引用或缓存)，所以写完也要设置zone map。
+    // 占位的zone map已经被清除说明写的过程中page被修改过，算出的zone map就不能用了
+    private void setZoneMap(Object[] zoneMap) {
+        zoneMapUpdater.compareAndSet(this, ZONE_MAP_WRITING, zoneMap);
+    }
+
+    @Override
+    void invalidateZoneMap() {
+        if (zoneMap != null)
+            zoneMap = null;
+    }
+
     void readColumnPage(int columnIndex) {
         BTreeColumnPage page = (BTreeColumnPage) map.btreeStorage.readPage(columnPages[columnIndex].pos);
         if (page.values == null) {
@@ -479,14 +552,12 @@ public class BTreeLeafPage extends BTreeLocalPage {
         for (int col = 0; col < columnCount; col++) {
             posArray[col] = buff.position();
             int columnPagPos = buff.position();
-            int columnPageType = PageUtils.PAGE_TYPE_LEAF;
+            int columnPageType = PageUtils.PAGE_TYPE_LEAF | PageUtils.PAGE_COLUMN_ENCODED;
             buff.putInt(0); // 回填pageLength
             int columnPageTypePos = buff.position();
             buff.put((byte) columnPageType);
             compressStart = buff.position();
-            for (int row = 0; row < keyLength; row++) {
-                valueType.writeColumn(buff, values[row], col);
-            }
+            valueType.writeColumn(buff, values, keyLength, col);
             compressPage(buff, compressStart, columnPageType, columnPageTypePos);
             int pageLength = buff.position() - columnPagPos;
             buff.putInt(columnPagPos, pageLength);
@@ -546,6 +617,9 @@ public class BTreeLeafPage extends BTreeLocalPage {
             valueType.writeMeta(buff, values[row]);
         }
         writeReplicationHostIds(replicationHostIds, buff);
+        if (!replicatePage)
+            this.zoneMap = ZONE_MAP_WRITING;
+        Object[] zoneMap = writeZoneMap(buff, valueType, columnCount);
         compressPage(buff, compressStart, type, typePos);
 
         int pageLength = buff.position() - start;
@@ -570,6 +644,7 @@ public class BTreeLeafPage extends BTreeLocalPage {
             return typePos + 1;
         }
 
+        setZoneMap(zoneMap);
         updateChunkAndCachePage(chunk, start, pageLength, type);
 
         if (removedInMemory) {
@@ -647,10 +722,13 @@ public class BTreeLeafPage extends BTreeLocalPage {
     }
 
     @Override
-    void moveAllLocalLeafPages(String[] oldEndpoints, String[] newEndpoints) {
-        DistributedBTreeMap<?, ?> map = (DistributedBTreeMap<?, ?>) this.map;
-        Set<NetEndpoint> candidateEndpoints = DistributedBTreeMap.getCandidateEndpoints(map.db, newEndpoints);
-        map.replicateOrMovePage(null, null, this, 0, oldEndpoints, false, candidateEndpoints);
+    void moveAllLocalLeafPages(String[] oldEndpoints, LeafPageMigration.MapMigration migration) {
+        migration.movePage(null, null, this, 0, oldEndpoints);
+    }
+
+    @Override
+    int countLocalLeafPages() {
+        return 1;
     }
 
     @Override
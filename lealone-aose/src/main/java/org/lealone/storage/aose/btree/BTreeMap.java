@@ -17,6 +17,9 @@
  */
 package org.lealone.storage.aose.btree;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -25,13 +28,16 @@ import org.lealone.db.IDatabase;
 import org.lealone.db.async.AsyncHandler;
 import org.lealone.db.async.AsyncResult;
 import org.lealone.db.value.ValueLong;
+import org.lealone.storage.BackupTarget;
 import org.lealone.storage.IterationParameters;
 import org.lealone.storage.PageKey;
 import org.lealone.storage.PageOperation;
+import org.lealone.storage.PageOperationHandler;
 import org.lealone.storage.PageOperationHandlerFactory;
 import org.lealone.storage.StorageMapBase;
 import org.lealone.storage.StorageMapCursor;
 import org.lealone.storage.aose.AOStorage;
+import org.lealone.storage.aose.btree.PageOperations.BatchWrite;
 import org.lealone.storage.aose.btree.PageOperations.Get;
 import org.lealone.storage.aose.btree.PageOperations.Put;
 import org.lealone.storage.aose.btree.PageOperations.PutIfAbsent;
@@ -59,6 +65,8 @@ public class BTreeMap<K, V> extends StorageMapBase<K, V> {
     protected final Map<String, Object> config;
     protected final BTreeStorage btreeStorage;
     protected final PageOperationHandlerFactory pohFactory;
+    // 当前map的node page操作都交给这个处理器，不同的map可以在不同的处理器上并行修改node page
+    protected final PageOperationHandler nodePageOperationHandler;
     protected PageStorageMode pageStorageMode = PageStorageMode.ROW_STORAGE;
 
     // btree的root page，最开始是一个leaf page，随时都会指向新的page
@@ -74,6 +82,7 @@ public class BTreeMap<K, V> extends StorageMapBase<K, V> {
         this.readOnly = config.containsKey("readOnly");
         this.config = config;
         this.pohFactory = aoStorage.getPageOperationHandlerFactory();
+        this.nodePageOperationHandler = pohFactory.nextNodePageOperationHandler();
 
         Object mode = config.get("pageStorageMode");
         if (mode != null) {
@@ -84,8 +93,9 @@ public class BTreeMap<K, V> extends StorageMapBase<K, V> {
 
         if (btreeStorage.lastChunk != null) {
             root = btreeStorage.readPage(btreeStorage.lastChunk.rootPagePos);
-            setMaxKey(lastKey());
+            // 先设置size，size为0时lastKey()总是返回null
             size.set(btreeStorage.lastChunk.mapSize);
+            setMaxKey(lastKey());
         } else {
             root = BTreeLeafPage.createEmpty(this);
         }
@@ -97,6 +107,10 @@ public class BTreeMap<K, V> extends StorageMapBase<K, V> {
             parallelDisabled = true;
     }
 
+    public PageOperationHandler getNodePageOperationHandler() {
+        return nodePageOperationHandler;
+    }
+
     void enableParallelIfNeeded() {
         if (parallelDisabled && root.isNode() && root.getRawChildPageCount() >= 2) {
             parallelDisabled = false;
@@ -123,6 +137,7 @@ public class BTreeMap<K, V> extends StorageMapBase<K, V> {
 
     @SuppressWarnings("unchecked")
     private V binarySearch(Object key, boolean allColumns) {
+        btreeStorage.recordRead();
         BTreePage p = root.gotoLeafPage(key);
         p = p.redirectIfSplited(key);
         int index = p.binarySearch(key);
@@ -131,12 +146,38 @@ public class BTreeMap<K, V> extends StorageMapBase<K, V> {
 
     @SuppressWarnings("unchecked")
     private V binarySearch(Object key, int[] columnIndexes) {
+        btreeStorage.recordRead();
         BTreePage p = root.gotoLeafPage(key);
         p = p.redirectIfSplited(key);
         int index = p.binarySearch(key);
         return index >= 0 ? (V) p.getValue(index, columnIndexes) : null;
     }
 
+    // keys按升序排好后，相邻的key大多落在同一个leaf page中，
+    // 只要key还在上一个leaf page的范围内就不用再从root page往下找了
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<V> getAll(List<K> keys, int[] columnIndexes) {
+        List<V> values = new ArrayList<>(keys.size());
+        BTreePage leaf = null;
+        for (K key : keys) {
+            btreeStorage.recordRead();
+            if (leaf == null || !isInLeafPage(leaf, key))
+                leaf = root.gotoLeafPage(key);
+            BTreePage p = leaf.redirectIfSplited(key);
+            int index = p.binarySearch(key);
+            values.add(index >= 0 ? (V) p.getValue(index, columnIndexes) : null);
+        }
+        return values;
+    }
+
+    // 已经切分或正在删除的page不能再复用
+    private boolean isInLeafPage(BTreePage leaf, Object key) {
+        int keyCount = leaf.getKeyCount();
+        return leaf.dynamicInfo.state == BTreePage.State.NORMAL && keyCount > 0
+                && keyType.compare(key, leaf.getKey(0)) >= 0 && keyType.compare(key, leaf.getKey(keyCount - 1)) <= 0;
+    }
+
     // 如果map是只读的或者已经关闭了就不能再写了，并且不允许值为null
     private void checkWrite(V value) {
         DataUtils.checkArgument(value != null, "The value may not be null");
@@ -192,6 +233,20 @@ public class BTreeMap<K, V> extends StorageMapBase<K, V> {
         return listener.await();
     }
 
+    @Override
+    public List<V> putAll(List<K> keys, List<V> values) {
+        PageOperation.Listener<List<V>> listener = getPageOperationListener();
+        putAll(keys, values, listener);
+        return listener.await();
+    }
+
+    @Override
+    public List<V> removeAll(List<K> keys) {
+        PageOperation.Listener<List<V>> listener = getPageOperationListener();
+        removeAll(keys, listener);
+        return listener.await();
+    }
+
     // 以下API子类会覆盖
     protected IDatabase getDatabase() {
         return null;
@@ -386,6 +441,129 @@ public class BTreeMap<K, V> extends StorageMapBase<K, V> {
         disableParallelIfNeeded();
     }
 
+    // 自底向上构建btree: 先把排好序的数据依次填满leaf page，再用每一层page的第一个key填满上一层的node page，
+    // 直到只剩一个page作为root page。不需要切割page，所有page都是填满的，并且每个page填满后就直接写到新的chunk中，
+    // 内存中只保留每一层page的位置和第一个key。
+    // 只能用于空map，并且构建过程中不能有其他线程并发访问这个map
+    @Override
+    public synchronized void bulkLoad(Iterator<? extends Map.Entry<K, V>> sortedEntries) {
+        checkWrite();
+        if (isShardingMode()) {
+            super.bulkLoad(sortedEntries);
+            return;
+        }
+        if (!isEmpty()) {
+            throw DataUtils.newIllegalStateException(DataUtils.ERROR_INTERNAL, "Bulk load requires an empty map: {0}",
+                    getName());
+        }
+        BTreeStorage.ChunkWriter writer = btreeStorage.createChunkWriter();
+        try {
+            int pageSplitSize = btreeStorage.getPageSplitSize();
+            // 跟顺序追加时的切割一样，leaf page只装满fillFactor
+            int leafPageSize = pageSplitSize * btreeStorage.getFillFactor() / 100;
+            ArrayList<Long> positions = new ArrayList<>();
+            ArrayList<Object> firstKeys = new ArrayList<>();
+            ArrayList<Object> keys = new ArrayList<>();
+            ArrayList<Object> values = new ArrayList<>();
+            int memory = PageUtils.PAGE_MEMORY;
+            long count = 0;
+            Object lastKey = null;
+            while (sortedEntries.hasNext()) {
+                Map.Entry<K, V> e = sortedEntries.next();
+                Object key = e.getKey();
+                Object value = e.getValue();
+                DataUtils.checkArgument(value != null, "The value may not be null");
+                if (lastKey != null && keyType.compare(lastKey, key) >= 0) {
+                    throw DataUtils.newIllegalArgumentException("Keys are not in ascending order: {0}, {1}", lastKey,
+                            key);
+                }
+                int mem = keyType.getMemory(key) + valueType.getMemory(value);
+                // 跟BTreeLocalPage.needSplit()的条件一致，page在超过pageSplitSize前就结束
+                if (memory + mem > leafPageSize && !keys.isEmpty()) {
+                    addLeafPage(writer, positions, firstKeys, keys, values);
+                    memory = PageUtils.PAGE_MEMORY;
+                }
+                keys.add(key);
+                values.add(value);
+                memory += mem;
+                lastKey = key;
+                count++;
+            }
+            if (count == 0) {
+                writer.abort();
+                return;
+            }
+            BTreePage p = addLeafPage(writer, positions, firstKeys, keys, values);
+            while (positions.size() > 1) {
+                p = addNodePages(writer, positions, firstKeys, pageSplitSize);
+            }
+            root.removeAllRecursive();
+            writer.finish(p.getPos(), count);
+            newRoot(p);
+            size.set(count);
+            setMaxKey(lastKey);
+            enableParallelIfNeeded();
+        } catch (RuntimeException e) {
+            writer.abort();
+            throw e;
+        }
+    }
+
+    private BTreePage addLeafPage(BTreeStorage.ChunkWriter writer, ArrayList<Long> positions,
+            ArrayList<Object> firstKeys, ArrayList<Object> keys, ArrayList<Object> values) {
+        BTreePage p = BTreeLeafPage.create(this, keys.toArray(), values.toArray(), keys.size(), 0);
+        positions.add(writer.write(p));
+        firstKeys.add(keys.get(0));
+        keys.clear();
+        values.clear();
+        return p;
+    }
+
+    // 把下一层的page按顺序装入node page，返回后positions和firstKeys中存放的是新的上一层，返回最后写的node page
+    private BTreePage addNodePages(BTreeStorage.ChunkWriter writer, ArrayList<Long> positions,
+            ArrayList<Object> firstKeys, int pageSplitSize) {
+        ArrayList<Long> parentPositions = new ArrayList<>();
+        ArrayList<Object> parentFirstKeys = new ArrayList<>();
+        BTreePage parent = null;
+        int size = positions.size();
+        int from = 0;
+        while (from < size) {
+            int memory = PageUtils.PAGE_MEMORY + PageUtils.PAGE_MEMORY_CHILD;
+            int to = from + 1;
+            while (to < size) {
+                int mem = keyType.getMemory(firstKeys.get(to)) + PageUtils.PAGE_MEMORY_CHILD;
+                if (memory + mem > pageSplitSize && to - from >= 2)
+                    break;
+                memory += mem;
+                to++;
+            }
+            // 不让最后一个node page只有一个子page
+            if (to == size - 1)
+                to = size;
+            int childCount = to - from;
+            Object[] keys = new Object[childCount - 1];
+            PageReference[] children = new PageReference[childCount];
+            for (int i = 0; i < childCount; i++) {
+                long pos = positions.get(from + i);
+                if (i == 0) {
+                    children[i] = new PageReference(null, pos, firstKeys.get(from + 1), true);
+                } else {
+                    keys[i - 1] = firstKeys.get(from + i);
+                    children[i] = new PageReference(null, pos, keys[i - 1], false);
+                }
+            }
+            parent = BTreeNodePage.create(this, keys, children, 0);
+            parentPositions.add(writer.write(parent));
+            parentFirstKeys.add(firstKeys.get(from));
+            from = to;
+        }
+        positions.clear();
+        positions.addAll(parentPositions);
+        firstKeys.clear();
+        firstKeys.addAll(parentFirstKeys);
+        return parent;
+    }
+
     @Override
     public synchronized void remove() {
         btreeStorage.remove();
@@ -474,6 +652,14 @@ public class BTreeMap<K, V> extends StorageMapBase<K, V> {
         return btreeStorage.getMemorySpaceUsed();
     }
 
+    public CompressionStatistics getCompressionStatistics() {
+        return btreeStorage.getCompressionStatistics();
+    }
+
+    public void backupTo(BackupTarget target, String entryNameBase, Long lastDate) {
+        btreeStorage.backupTo(target, entryNameBase, lastDate);
+    }
+
     public BTreePage getRootPage() {
         return root;
     }
@@ -486,6 +672,14 @@ public class BTreeMap<K, V> extends StorageMapBase<K, V> {
         return root.gotoLeafPage(key);
     }
 
+    // 不经过页面操作直接原地修改了key对应的value时调用
+    @Override
+    public void markDirty(K key) {
+        BTreePage p = root.gotoLeafPage(key);
+        p = p.redirectIfSplited(key);
+        p.invalidateZoneMap();
+    }
+
     //////////////////// 以下是异步API的实现 ////////////////////////////////
 
     @Override
@@ -528,6 +722,35 @@ public class BTreeMap<K, V> extends StorageMapBase<K, V> {
         pohFactory.addPageOperation(remove);
     }
 
+    @Override
+    public void putAll(List<K> keys, List<V> values, AsyncHandler<AsyncResult<List<V>>> handler) {
+        checkBatchWrite(keys, values);
+        BatchWrite<K, V> batch = new BatchWrite<>(this, BatchWrite.Type.PUT, keys, values, handler);
+        pohFactory.addPageOperation(batch);
+    }
+
+    @Override
+    public void putAllIfAbsent(List<K> keys, List<V> values, AsyncHandler<AsyncResult<List<V>>> handler) {
+        checkBatchWrite(keys, values);
+        BatchWrite<K, V> batch = new BatchWrite<>(this, BatchWrite.Type.PUT_IF_ABSENT, keys, values, handler);
+        pohFactory.addPageOperation(batch);
+    }
+
+    @Override
+    public void removeAll(List<K> keys, AsyncHandler<AsyncResult<List<V>>> handler) {
+        checkWrite();
+        BatchWrite<K, V> batch = new BatchWrite<>(this, BatchWrite.Type.REMOVE, keys, null, handler);
+        pohFactory.addPageOperation(batch);
+    }
+
+    private void checkBatchWrite(List<K> keys, List<V> values) {
+        DataUtils.checkArgument(keys.size() == values.size(), "The keys and values must have the same size");
+        for (V value : values) {
+            DataUtils.checkArgument(value != null, "The value may not be null");
+        }
+        checkWrite();
+    }
+
     @Override
     @SuppressWarnings("unchecked")
     public K append(V value, AsyncHandler<AsyncResult<V>> handler) {
@@ -20,7 +20,6 @@ package org.lealone.storage.aose.btree;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.Callable;
 
 import org.lealone.common.util.DataUtils;
@@ -449,30 +448,45 @@ public class BTreeNodePage extends BTreeLocalPage {
     }
 
     @Override
-    void moveAllLocalLeafPages(String[] oldEndpoints, String[] newEndpoints) {
-        DistributedBTreeMap<?, ?> map = (DistributedBTreeMap<?, ?>) this.map;
-        Set<NetEndpoint> candidateEndpoints = DistributedBTreeMap.getCandidateEndpoints(map.db, newEndpoints);
+    void moveAllLocalLeafPages(String[] oldEndpoints, LeafPageMigration.MapMigration migration) {
         for (int i = 0, len = keys.length; i <= len; i++) {
             if (!children[i].isRemotePage()) {
                 BTreePage p = getChildPage(i);
                 if (p.isNode()) {
-                    p.moveAllLocalLeafPages(oldEndpoints, newEndpoints);
+                    p.moveAllLocalLeafPages(oldEndpoints, migration);
                 } else {
                     List<String> replicationHostIds = p.getReplicationHostIds();
                     Object key = i == len ? keys[i - 1] : keys[i];
+                    String[] pageEndpoints;
                     if (replicationHostIds == null) {
-                        oldEndpoints = new String[0];
+                        pageEndpoints = new String[0];
                     } else {
-                        oldEndpoints = new String[replicationHostIds.size()];
-                        replicationHostIds.toArray(oldEndpoints);
+                        pageEndpoints = new String[replicationHostIds.size()];
+                        replicationHostIds.toArray(pageEndpoints);
                     }
                     PageKey pk = new PageKey(key, i == 0);
-                    map.replicateOrMovePage(pk, p, this, i, oldEndpoints, false, candidateEndpoints);
+                    migration.movePage(pk, p, this, i, pageEndpoints);
                 }
             }
         }
     }
 
+    @Override
+    int countLocalLeafPages() {
+        int count = 0;
+        for (int i = 0, len = children.length; i < len; i++) {
+            PageReference ref = children[i];
+            if (ref.isRemotePage())
+                continue;
+            // 不需要为了计数而读取leaf page
+            if (ref.page == null && PageUtils.isLeafPage(ref.pos))
+                count++;
+            else
+                count += getChildPage(i).countLocalLeafPages();
+        }
+        return count;
+    }
+
     @Override
     void replicatePage(DataBuffer buff, NetEndpoint localEndpoint) {
         BTreeNodePage p = copy(false);
@@ -21,6 +21,7 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Predicate;
 
 import org.lealone.common.compress.Compressor;
 import org.lealone.common.exceptions.DbException;
@@ -33,6 +34,7 @@ import org.lealone.storage.PageOperation;
 import org.lealone.storage.PageOperationHandler;
 import org.lealone.storage.aose.btree.PageOperations.TmpNodePage;
 import org.lealone.storage.fs.FileStorage;
+import org.lealone.storage.fs.ReadBufferPool;
 
 //所有的子类都不是多线程安全的，但是设计层面会保证对每个Page的更新都只由一个线程负责，
 //每个Page对应一个PageOperationHandler，由它处理对Page产生的操作。
@@ -108,7 +110,7 @@ public class BTreePage {
         if (isLeaf())
             handler = map.pohFactory.getPageOperationHandler();
         else if (isNode())
-            handler = map.pohFactory.getNodePageOperationHandler();
+            handler = map.getNodePageOperationHandler();
         else
             handler = null;
     }
@@ -466,6 +468,22 @@ public class BTreePage {
         throw ie();
     }
 
+    /**
+     * 页面中的值被原地修改后调用，列式存储时leaf page的zone map随之失效
+     */
+    void invalidateZoneMap() {
+    }
+
+    /**
+     * 列式存储时根据leaf page的zone map判断能否跳过整个page
+     *
+     * @param pageFilter 对zone map的判断条件
+     * @return true表示page中不可能有满足条件的记录
+     */
+    boolean canSkip(Predicate<Object[]> pageFilter) {
+        return false;
+    }
+
     /**
      * Remove this page and all child pages.
      */
@@ -485,25 +503,32 @@ public class BTreePage {
      * @param map the map
      * @param filePos the position in the file
      * @param maxPos the maximum position (the end of the chunk)
+     * @param pool the pool of read buffers
      * @return the page
      */
-    static BTreePage read(FileStorage fileStorage, long pos, BTreeMap<?, ?> map, long filePos, long maxPos) {
+    static BTreePage read(FileStorage fileStorage, long pos, BTreeMap<?, ?> map, long filePos, long maxPos,
+            ReadBufferPool pool) {
         int maxLength = PageUtils.getPageMaxLength(pos);
-        ByteBuffer buff = readPageBuff(fileStorage, maxLength, filePos, maxPos);
+        ByteBuffer buff = readPageBuff(fileStorage, maxLength, filePos, maxPos, pool);
         int type = PageUtils.getPageType(pos);
         BTreePage p = create(map, type);
         p.pos = pos;
         int chunkId = PageUtils.getPageChunkId(pos);
         int offset = PageUtils.getPageOffset(pos);
         p.read(buff, chunkId, offset, maxLength);
+        // 列page会一直引用读出来的buff，其他page读完后key和value都已复制出来了，buff可以放回池中
+        if (!(p instanceof BTreeColumnPage))
+            pool.offer(buff);
         return p;
     }
 
-    static ByteBuffer readPageBuff(FileStorage fileStorage, int maxLength, long filePos, long maxPos) {
+    static ByteBuffer readPageBuff(FileStorage fileStorage, int maxLength, long filePos, long maxPos,
+            ReadBufferPool pool) {
         ByteBuffer buff;
         if (maxLength == PageUtils.PAGE_LARGE) {
-            buff = fileStorage.readFully(filePos, 128);
+            buff = fileStorage.readFully(filePos, 128, pool);
             maxLength = buff.getInt();
+            pool.offer(buff);
         }
         maxLength = (int) Math.min(maxPos - filePos, maxLength);
         int length = maxLength;
@@ -511,10 +536,50 @@ public class BTreePage {
             throw DataUtils.newIllegalStateException(DataUtils.ERROR_FILE_CORRUPT,
                     "Illegal page length {0} reading at {1}; max pos {2} ", length, filePos, maxPos);
         }
-        buff = fileStorage.readFully(filePos, length);
+        buff = fileStorage.readFully(filePos, length, pool);
         return buff;
     }
 
+    /**
+     * Read a page from a chunk file that is mapped into memory.
+     *
+     * @param mapped the mapped chunk file
+     * @param pos the position
+     * @param map the map
+     * @param filePos the position in the file
+     * @param maxPos the maximum position (the end of the chunk)
+     * @return the page
+     */
+    static BTreePage read(ByteBuffer mapped, long pos, BTreeMap<?, ?> map, long filePos, long maxPos) {
+        int maxLength = PageUtils.getPageMaxLength(pos);
+        if (maxLength == PageUtils.PAGE_LARGE) {
+            maxLength = mapped.getInt((int) filePos);
+        }
+        maxLength = (int) Math.min(maxPos - filePos, maxLength);
+        int length = maxLength;
+        if (length < 0) {
+            throw DataUtils.newIllegalStateException(DataUtils.ERROR_FILE_CORRUPT,
+                    "Illegal page length {0} reading at {1}; max pos {2} ", length, filePos, maxPos);
+        }
+        ByteBuffer buff = mapped.duplicate();
+        buff.limit((int) filePos + length).position((int) filePos);
+        buff = buff.slice();
+        int type = PageUtils.getPageType(pos);
+        if (type == PageUtils.PAGE_TYPE_COLUMN) {
+            // 列page会一直引用buff，而chunk被删除后映射就解除了，所以要复制一份
+            ByteBuffer copy = ByteBuffer.allocate(length);
+            copy.put(buff);
+            copy.flip();
+            buff = copy;
+        }
+        BTreePage p = create(map, type);
+        p.pos = pos;
+        int chunkId = PageUtils.getPageChunkId(pos);
+        int offset = PageUtils.getPageOffset(pos);
+        p.read(buff, chunkId, offset, maxLength);
+        return p;
+    }
+
     private static BTreePage create(BTreeMap<?, ?> map, int type) {
         BTreePage p;
         if (type == PageUtils.PAGE_TYPE_LEAF)
@@ -572,7 +637,11 @@ public class BTreePage {
         throw ie();
     }
 
-    void moveAllLocalLeafPages(String[] oldEndpoints, String[] newEndpoints) {
+    void moveAllLocalLeafPages(String[] oldEndpoints, LeafPageMigration.MapMigration migration) {
+        throw ie();
+    }
+
+    int countLocalLeafPages() {
         throw ie();
     }
 
@@ -703,19 +772,26 @@ public class BTreePage {
                 if (compressionLevel == 1) {
                     compressor = storage.getCompressorFast();
                     compressType = PageUtils.PAGE_COMPRESSED;
-                } else {
+                } else if (compressionLevel == 2) {
                     compressor = storage.getCompressorHigh();
                     compressType = PageUtils.PAGE_COMPRESSED_HIGH;
+                } else {
+                    compressor = storage.getCompressorLZ4();
+                    compressType = PageUtils.PAGE_COMPRESSED_LZ4;
                 }
+                long t1 = System.nanoTime();
                 byte[] exp = new byte[expLen];
                 buff.position(compressStart).get(exp);
                 byte[] comp = new byte[expLen * 2];
                 int compLen = compressor.compress(exp, expLen, comp, 0);
                 int plus = DataUtils.getVarIntLen(compLen - expLen);
-                if (compLen + plus < expLen) {
+                boolean compressed = compLen + plus < expLen;
+                if (compressed) {
                     buff.position(typePos).put((byte) (type + compressType));
                     buff.position(compressStart).putVarInt(expLen - compLen).put(comp, 0, compLen);
                 }
+                storage.getCompressionStatistics().pageCompressed(expLen, compressed ? compLen + plus : expLen,
+                        compressed, System.nanoTime() - t1);
             }
         }
     }
@@ -723,11 +799,15 @@ public class BTreePage {
     ByteBuffer expandPage(ByteBuffer buff, int type, int start, int pageLength) {
         boolean compressed = (type & PageUtils.PAGE_COMPRESSED) != 0;
         if (compressed) {
+            long t1 = System.nanoTime();
+            BTreeStorage storage = map.getBTreeStorage();
             Compressor compressor;
             if ((type & PageUtils.PAGE_COMPRESSED_HIGH) == PageUtils.PAGE_COMPRESSED_HIGH) {
-                compressor = map.getBTreeStorage().getCompressorHigh();
+                compressor = storage.getCompressorHigh();
+            } else if ((type & PageUtils.PAGE_COMPRESSED_LZ4) == PageUtils.PAGE_COMPRESSED_LZ4) {
+                compressor = storage.getCompressorLZ4();
             } else {
-                compressor = map.getBTreeStorage().getCompressorFast();
+                compressor = storage.getCompressorFast();
             }
             int lenAdd = DataUtils.readVarInt(buff);
             int compLen = pageLength + start - buff.position();
@@ -736,6 +816,7 @@ public class BTreePage {
             int l = compLen + lenAdd;
             ByteBuffer newBuff = ByteBuffer.allocate(l);
             compressor.expand(comp, 0, compLen, newBuff.array(), newBuff.arrayOffset(), l);
+            storage.getCompressionStatistics().pageExpanded(System.nanoTime() - t1);
             return newBuff;
         }
         return buff;
@@ -19,7 +19,6 @@ package org.lealone.storage.aose.btree;
 
 import java.nio.ByteBuffer;
 import java.util.List;
-import java.util.Set;
 
 import org.lealone.db.DataBuffer;
 import org.lealone.net.NetEndpoint;
@@ -136,10 +135,13 @@ public class BTreeRemotePage extends BTreePage {
     }
 
     @Override
-    void moveAllLocalLeafPages(String[] oldEndpoints, String[] newEndpoints) {
-        DistributedBTreeMap<?, ?> map = (DistributedBTreeMap<?, ?>) this.map;
-        Set<NetEndpoint> candidateEndpoints = DistributedBTreeMap.getCandidateEndpoints(map.db, newEndpoints);
-        map.replicateOrMovePage(null, null, this, 0, oldEndpoints, false, candidateEndpoints);
+    void moveAllLocalLeafPages(String[] oldEndpoints, LeafPageMigration.MapMigration migration) {
+        migration.movePage(null, null, this, 0, oldEndpoints);
+    }
+
+    @Override
+    int countLocalLeafPages() {
+        return 1;
     }
 
     @Override
@@ -10,6 +10,7 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -20,22 +21,28 @@ import java.util.Map;
 import java.util.TreeSet;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.lealone.common.compress.CompressDeflate;
+import org.lealone.common.compress.CompressLZ4;
 import org.lealone.common.compress.CompressLZF;
 import org.lealone.common.compress.Compressor;
 import org.lealone.common.exceptions.DbException;
 import org.lealone.common.util.BitField;
+import org.lealone.common.util.CaseInsensitiveMap;
 import org.lealone.common.util.DataUtils;
 import org.lealone.common.util.MathUtils;
 import org.lealone.db.DataBuffer;
+import org.lealone.db.StatementCounters;
 import org.lealone.sql.SQLEngineManager;
 import org.lealone.sql.SQLStatementExecutor;
+import org.lealone.storage.BackupTarget;
 import org.lealone.storage.aose.AOStorage;
 import org.lealone.storage.aose.btree.PageOperations.CallableOperation;
 import org.lealone.storage.cache.CacheLongKeyLIRS;
 import org.lealone.storage.fs.FileStorage;
 import org.lealone.storage.fs.FileUtils;
+import org.lealone.storage.fs.ReadBufferPool;
 
 /**
  * A persistent storage for map.
@@ -78,6 +85,15 @@ public class BTreeStorage {
 
     private final int pageSplitSize;
     private final int minFillRate;
+
+    // 顺序追加导致page切割时左边的page保留的记录比例(百分比)，随机插入时总是从中间切割
+    private final int fillFactor;
+
+    // 开启后根据读写比例调整实际使用的pageSplitSize，读多写少时page变小，点查时读的数据更少
+    private final boolean adaptivePageSplitSize;
+    private final LongAdder readCount = new LongAdder();
+    private final LongAdder writeCount = new LongAdder();
+    private volatile int currentPageSplitSize;
     private final UncaughtExceptionHandler backgroundExceptionHandler;
 
     /**
@@ -87,13 +103,22 @@ public class BTreeStorage {
      */
     private final CacheLongKeyLIRS<BTreePage> cache;
 
+    // 打开chunk文件时用的参数，有page缓存时默认不再使用文件块缓存，避免同样的数据缓存两次
+    private final Map<String, Object> fileConfig;
+    private final ReadBufferPool readBufferPool;
+    // 直接从映射到内存的chunk文件中读page
+    private final boolean mmapChunkFile;
+
     /**
-     * The compression level for new pages (0 for disabled, 1 for fast, 2 for high).
+     * The compression level for new pages (0 for disabled, 1 for fast, 2 for high, 3 for lz4,
+     * 4 for lz4 with a deeper match search).
      * Even if disabled, the storage may contain (old) compressed pages.
      */
     private final int compressionLevel;
     private Compressor compressorFast;
     private Compressor compressorHigh;
+    private Compressor compressorLZ4;
+    private final CompressionStatistics compressionStatistics;
 
     private boolean closed;
     private IllegalStateException panicException;
@@ -101,6 +126,9 @@ public class BTreeStorage {
 
     private volatile boolean hasUnsavedChanges;
 
+    // 正在进行的备份个数，备份期间不能删除chunk文件
+    private int backupCount;
+
     /**
      * Create and open the storage.
      * 
@@ -111,11 +139,16 @@ public class BTreeStorage {
         this.map = map;
         Map<String, Object> config = map.config;
 
-        Object value = config.get("pageSplitSize");
-        pageSplitSize = value != null ? (Integer) value : 16 * 1024;
-
-        value = config.get("minFillRate");
-        minFillRate = value != null ? (Integer) value : 30;
+        pageSplitSize = getIntValue(config, "pageSplitSize", 16 * 1024);
+        currentPageSplitSize = pageSplitSize;
+        minFillRate = getIntValue(config, "minFillRate", 30);
+        fillFactor = getIntValue(config, "fillFactor", 90);
+        if (fillFactor < 50 || fillFactor > 100) {
+            throw DataUtils.newIllegalArgumentException("The fillFactor must be between 50 and 100: {0}",
+                    fillFactor);
+        }
+        Object value = config.get("adaptivePageSplitSize");
+        adaptivePageSplitSize = value != null && Boolean.parseBoolean(value.toString());
 
         backgroundExceptionHandler = (UncaughtExceptionHandler) config.get("backgroundExceptionHandler");
 
@@ -129,8 +162,19 @@ public class BTreeStorage {
             cache = null;
         }
 
-        value = config.get("compress");
-        compressionLevel = value == null ? 0 : (Integer) value;
+        fileConfig = new CaseInsensitiveMap<>(config);
+        if (cache != null && !fileConfig.containsKey("fileBlockCache"))
+            fileConfig.put("fileBlockCache", "none");
+        // 加密文件的解密过程要用到buffer的array()，只能用heap buffer
+        value = config.get("directReadBuffer");
+        boolean direct = value != null && Boolean.parseBoolean(value.toString());
+        readBufferPool = ReadBufferPool.getInstance(direct && config.get("encryptionKey") == null);
+
+        value = config.get("mmapChunkFile");
+        mmapChunkFile = value != null && Boolean.parseBoolean(value.toString());
+
+        compressionLevel = getCompressionLevel(config.get("compress"));
+        compressionStatistics = new CompressionStatistics(COMPRESSION_ALGORITHMS[compressionLevel]);
 
         btreeStoragePath = map.getStorage().getStoragePath() + File.separator + map.getName();
         if (!FileUtils.exists(btreeStoragePath))
@@ -235,10 +279,14 @@ public class BTreeStorage {
         return e;
     }
 
+    private static String getChunkFileName(int chunkId) {
+        return chunkId + AOStorage.SUFFIX_AO_FILE;
+    }
+
     private FileStorage getFileStorage(int chunkId) {
-        String chunkFileName = btreeStoragePath + File.separator + chunkId + AOStorage.SUFFIX_AO_FILE;
+        String chunkFileName = btreeStoragePath + File.separator + getChunkFileName(chunkId);
         FileStorage fileStorage = new FileStorage();
-        fileStorage.open(chunkFileName, map.config);
+        fileStorage.open(chunkFileName, fileConfig);
         return fileStorage;
     }
 
@@ -355,16 +403,23 @@ public class BTreeStorage {
 
     private BTreePage readLocalPageAsync(final long pos) {
         final SQLStatementExecutor sqlStatementExecutor = SQLEngineManager.getInstance().getSQLStatementExecutor();
-        if (sqlStatementExecutor == null)
-            return readLocalPageSync(pos);
         Callable<BTreePage> task = null;
         boolean taskInQueue = false;
         while (true) {
             BTreePage p = getPageFromCache(pos);
-            if (p != null)
+            if (p != null) {
+                // 只有第一次就在缓存中找到才算命中，异步读完后再从缓存中取到的已经算作未命中了
+                if (task == null)
+                    StatementCounters.pageCacheHit();
                 return p;
+            }
+            if (sqlStatementExecutor == null) {
+                StatementCounters.pageCacheMiss();
+                return readLocalPageSync(pos);
+            }
 
             if (task == null) {
+                StatementCounters.pageCacheMiss();
                 task = new Callable<BTreePage>() {
                     @Override
                     public BTreePage call() throws Exception {
@@ -381,6 +436,7 @@ public class BTreeStorage {
                     map.pohFactory.addPageOperation(new CallableOperation(task));
                     taskInQueue = true;
                 }
+                StatementCounters.statementYielded();
                 sqlStatementExecutor.executeNextStatement();
                 continue;
             } else {
@@ -404,7 +460,20 @@ public class BTreeStorage {
         BTreeChunk c = getChunk(pos);
         long filePos = getFilePos(PageUtils.getPageOffset(pos));
         long maxPos = c.blockCount * BLOCK_SIZE;
-        p = BTreePage.read(c.fileStorage, pos, map, filePos, maxPos);
+        p = null;
+        if (mmapChunkFile) {
+            ByteBuffer mapped = c.acquireMappedBuffer();
+            if (mapped != null) {
+                try {
+                    if (maxPos <= mapped.capacity())
+                        p = BTreePage.read(mapped, pos, map, filePos, maxPos);
+                } finally {
+                    c.releaseMappedBuffer();
+                }
+            }
+        }
+        if (p == null)
+            p = BTreePage.read(c.fileStorage, pos, map, filePos, maxPos, readBufferPool);
         cachePage(pos, p, p.getMemory());
         return p;
     }
@@ -450,12 +519,104 @@ public class BTreeStorage {
         return compressorHigh;
     }
 
+    Compressor getCompressorLZ4() {
+        if (compressorLZ4 == null) {
+            compressorLZ4 = new CompressLZ4();
+            // 两种LZ4级别的输出格式一样，解压都用这个实例
+            if (compressionLevel == 4)
+                compressorLZ4.setOptions("HIGH");
+        }
+        return compressorLZ4;
+    }
+
     int getCompressionLevel() {
         return compressionLevel;
     }
 
+    public CompressionStatistics getCompressionStatistics() {
+        return compressionStatistics;
+    }
+
+    private static final String[] COMPRESSION_ALGORITHMS = { "NO", "LZF", "DEFLATE", "LZ4", "LZ4HC" };
+
+    // compress参数可以是级别(0-4)，也可以是算法名，表和索引的PARAMETERS传进来的是字符串
+    private static int getCompressionLevel(Object value) {
+        if (value == null)
+            return 0;
+        int level = -1;
+        if (value instanceof Integer) {
+            level = (Integer) value;
+        } else {
+            String str = value.toString().trim().toUpperCase();
+            if (str.equals("NONE")) {
+                level = 0;
+            } else if (str.equals("FAST")) {
+                level = 1;
+            } else if (str.equals("HIGH")) {
+                level = 2;
+            } else {
+                for (int i = 0; i < COMPRESSION_ALGORITHMS.length; i++) {
+                    if (COMPRESSION_ALGORITHMS[i].equals(str) || String.valueOf(i).equals(str)) {
+                        level = i;
+                        break;
+                    }
+                }
+            }
+        }
+        if (level < 0 || level >= COMPRESSION_ALGORITHMS.length) {
+            throw DataUtils.newIllegalArgumentException(
+                    "Unsupported compress value: {0}, expected 0-4, no, lzf, deflate, lz4 or lz4hc", value);
+        }
+        return level;
+    }
+
+    // 表的PARAMETERS传进来的是字符串
+    private static int getIntValue(Map<String, Object> config, String key, int defaultValue) {
+        Object value = config.get(key);
+        if (value == null)
+            return defaultValue;
+        if (value instanceof Number)
+            return ((Number) value).intValue();
+        try {
+            return Integer.parseInt(value.toString().trim());
+        } catch (NumberFormatException e) {
+            throw DataUtils.newIllegalArgumentException("Invalid value for {0}: {1}", key, value);
+        }
+    }
+
     public int getPageSplitSize() {
-        return pageSplitSize;
+        return currentPageSplitSize;
+    }
+
+    int getFillFactor() {
+        return fillFactor;
+    }
+
+    void recordRead() {
+        if (adaptivePageSplitSize)
+            readCount.increment();
+    }
+
+    void recordWrite() {
+        // 只标记整个存储有未保存的修改，新写入的page没有pos，保存时才会被写入
+        if (!hasUnsavedChanges)
+            hasUnsavedChanges = true;
+        if (adaptivePageSplitSize)
+            writeCount.increment();
+    }
+
+    // 只影响之后的切割，已有的page不会变，读的比例越高page越小，最小是配置值的1/4
+    private void adjustPageSplitSize() {
+        long reads = readCount.sumThenReset();
+        long writes = writeCount.sumThenReset();
+        long total = reads + writes;
+        if (total < 1000) // 样本太少不调整
+            return;
+        int min = Math.min(pageSplitSize, Math.max(pageSplitSize / 4, 1024));
+        int target = (int) (pageSplitSize - (pageSplitSize - min) * reads / total);
+        // 每次只走一半，避免读写比例短暂波动时page大小来回变化
+        int size = (currentPageSplitSize + target) / 2;
+        currentPageSplitSize = Math.max(min, Math.min(pageSplitSize, size));
     }
 
     /**
@@ -542,6 +703,7 @@ public class BTreeStorage {
         closed = true;
         synchronized (this) {
             for (BTreeChunk c : chunks.values()) {
+                c.unmap();
                 if (c.fileStorage != null)
                     c.fileStorage.close();
             }
@@ -580,6 +742,9 @@ public class BTreeStorage {
             return;
         }
 
+        if (adaptivePageSplitSize)
+            adjustPageSplitSize();
+
         if (map.isReadOnly()) {
             throw DataUtils.newIllegalStateException(DataUtils.ERROR_WRITING_FAILED, "This storage is read-only");
         }
@@ -589,7 +754,10 @@ public class BTreeStorage {
         }
 
         try {
-            executeCompact(executeSave(false));
+            TreeSet<Long> removedPages = executeSave(false);
+            // 备份期间不做compact，被删除的page已经记录在chunkMetaData中，下次保存时还会回收
+            if (backupCount <= 0)
+                executeCompact(removedPages);
         } catch (IllegalStateException e) {
             throw panic(e);
         }
@@ -601,12 +769,8 @@ public class BTreeStorage {
 
     private TreeSet<Long> executeSave(boolean force) {
         DataBuffer buff = getDataBuffer();
-        int id = chunkIds.nextClearBit(1);
-        chunkIds.set(id);
-        BTreeChunk c = new BTreeChunk(id);
+        BTreeChunk c = createChunk();
         chunks.put(c.id, c);
-        c.pagePositions = new ArrayList<>();
-        c.pageLengths = new ArrayList<>();
 
         BTreePage p;
         TreeSet<Long> removedPages;
@@ -621,7 +785,24 @@ public class BTreeStorage {
         c.rootPagePos = p.getPos();
         p.writeEnd();
         // }
+        c.mapSize = map.size();
+
+        writeChunk(c, buff, removedPages);
+        releaseDataBuffer(buff);
+        return removedPages;
+    }
+
+    private BTreeChunk createChunk() {
+        int id = chunkIds.nextClearBit(1);
+        chunkIds.set(id);
+        BTreeChunk c = new BTreeChunk(id);
+        c.pagePositions = new ArrayList<>();
+        c.pageLengths = new ArrayList<>();
+        return c;
+    }
 
+    // 所有page都已经写到buff中了，再把chunk写到文件，并把它作为最新的chunk
+    private void writeChunk(BTreeChunk c, DataBuffer buff, TreeSet<Long> removedPages) {
         c.pagePositionsOffset = buff.position();
         for (long pos : c.pagePositions)
             buff.putLong(pos);
@@ -636,7 +817,6 @@ public class BTreeStorage {
 
         c.blockCount = chunkBodyLength / BLOCK_SIZE + CHUNK_HEADER_BLOCKS; // include chunk header(2 blocks).
         c.fileStorage = getFileStorage(c.id);
-        c.mapSize = map.size();
 
         // chunk header
         writeChunkHeader(c);
@@ -646,10 +826,65 @@ public class BTreeStorage {
 
         removedPages.addAll(readRemovedPages());
         writeChunkMetaData(c.id, removedPages);
-
-        releaseDataBuffer(buff);
         lastChunk = c;
-        return removedPages;
+    }
+
+    synchronized ChunkWriter createChunkWriter() {
+        checkOpen();
+        if (map.isReadOnly()) {
+            throw DataUtils.newIllegalStateException(DataUtils.ERROR_WRITING_FAILED, "This storage is read-only");
+        }
+        return new ChunkWriter(createChunk());
+    }
+
+    /**
+     * 批量装载时把page直接写到一个新的chunk中，写完的page不用再留在内存中，只要记住它的位置。
+     * <p>
+     * page的位置是相对chunk body的偏移量，所以写完的page都放在同一个buffer中，finish时一次写到chunk文件。
+     */
+    class ChunkWriter {
+
+        private final BTreeChunk chunk;
+        private final DataBuffer buff = DataBuffer.create();
+
+        private ChunkWriter(BTreeChunk chunk) {
+            this.chunk = chunk;
+        }
+
+        long write(BTreePage p) {
+            p.write(chunk, buff, false);
+            return p.getPos();
+        }
+
+        void finish(long rootPagePos, long mapSize) {
+            synchronized (BTreeStorage.this) {
+                TreeSet<Long> removedPages;
+                synchronized (BTreeStorage.this.removedPages) {
+                    removedPages = new TreeSet<>(BTreeStorage.this.removedPages);
+                    BTreeStorage.this.removedPages.clear();
+                }
+                chunk.rootPagePos = rootPagePos;
+                chunk.mapSize = mapSize;
+                chunks.put(chunk.id, chunk);
+                // 不在这里做compact，被删除的page已经记录在chunkMetaData中，下次保存时还会回收
+                try {
+                    writeChunk(chunk, buff, removedPages);
+                } catch (IllegalStateException e) {
+                    throw panic(e);
+                }
+            }
+        }
+
+        // 写到一半失败了，已经缓存的page位置都不能再用，chunk id留给下一个chunk
+        void abort() {
+            synchronized (BTreeStorage.this) {
+                if (cache != null) {
+                    for (long pos : chunk.pagePositions)
+                        cache.remove(pos);
+                }
+                chunkIds.clear(chunk.id);
+            }
+        }
     }
 
     /**
@@ -712,6 +947,7 @@ public class BTreeStorage {
     private void removeUnusedChunks(TreeSet<Long> removedPages) {
         int size = removedPages.size();
         for (BTreeChunk c : findUnusedChunks(removedPages)) {
+            c.unmap();
             c.fileStorage.close();
             c.fileStorage.delete();
             chunks.remove(c.id);
@@ -740,7 +976,8 @@ public class BTreeStorage {
                     unused = false;
                 }
             }
-            if (unused)
+            // 最新的chunk记录了root page的位置，即使它没有新写入的page也不能删除
+            if (unused && (lastChunk == null || c.id != lastChunk.id))
                 unusedChunks.add(c);
         }
         return unusedChunks;
@@ -813,6 +1050,69 @@ public class BTreeStorage {
 
     // //////////////////////////////// Compact END /////////////////////////////////////
 
+    // //////////////////////////////// Backup BEGIN ////////////////////////////////////
+
+    /**
+     * 在线备份，不会阻塞读写操作。
+     * <p>
+     * 先把内存中的修改保存为一个新的chunk，然后记下当前所有chunk和chunkMetaData的内容作为快照，
+     * chunk文件写完后就不会再修改，所以之后只要保证快照中的chunk文件不被删除，就可以在不加锁的情况下复制它们。
+     *
+     * @param target 备份目标
+     * @param entryNameBase 备份文件的路径前缀
+     * @param lastDate 不为null时只备份在这个时间之后生成的chunk文件
+     */
+    void backupTo(BackupTarget target, String entryNameBase, Long lastDate) {
+        List<BTreeChunk> snapshot = new ArrayList<>();
+        byte[] metaData;
+        synchronized (this) {
+            checkOpen();
+            save();
+            for (int id : getAllChunkIds()) {
+                BTreeChunk c = chunks.get(id);
+                if (c == null)
+                    c = readChunkHeader(id);
+                snapshot.add(c);
+            }
+            metaData = readChunkMetaData();
+            backupCount++;
+        }
+        try {
+            for (BTreeChunk c : snapshot) {
+                String fileName = c.fileStorage.getFileName();
+                if (lastDate != null && FileUtils.lastModified(fileName) < lastDate)
+                    continue;
+                WritableByteChannel out = target.beginEntry(entryNameBase + "/" + getChunkFileName(c.id));
+                // chunk文件写完之后就不会再修改了，加密时复制的是原始的密文
+                c.fileStorage.transferTo(out);
+                target.endEntry();
+            }
+            // 放在最后，只有chunk文件都备份成功了，备份才是可用的
+            target.addEntry(entryNameBase + "/chunkMetaData", metaData);
+        } catch (IOException e) {
+            throw DataUtils.newIllegalStateException(DataUtils.ERROR_WRITING_FAILED, "Failed to backup {0}",
+                    map.getName(), e);
+        } finally {
+            synchronized (this) {
+                backupCount--;
+            }
+        }
+    }
+
+    private synchronized byte[] readChunkMetaData() {
+        try {
+            byte[] bytes = new byte[(int) chunkMetaData.length()];
+            chunkMetaData.seek(0);
+            chunkMetaData.readFully(bytes);
+            return bytes;
+        } catch (IOException e) {
+            throw panic(DataUtils.newIllegalStateException(DataUtils.ERROR_READING_FAILED,
+                    "Failed to read chunkMetaData", e));
+        }
+    }
+
+    // //////////////////////////////// Backup END //////////////////////////////////////
+
     void readPagePositions(BTreeChunk c) {
         int size = c.pageCount;
         if (c.pagePositions == null) {
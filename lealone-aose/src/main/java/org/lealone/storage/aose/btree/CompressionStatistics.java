@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.storage.aose.btree;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个BTreeMap的page压缩统计信息，包括压缩率和压缩、解压耗费的CPU时间。
+ */
+public class CompressionStatistics {
+
+    private final String algorithm;
+    private final LongAdder compressedPages = new LongAdder();
+    private final LongAdder uncompressiblePages = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder storedBytes = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder expandedPages = new LongAdder();
+    private final LongAdder expandNanos = new LongAdder();
+
+    CompressionStatistics(String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    void pageCompressed(int rawLength, int storedLength, boolean compressed, long nanos) {
+        if (compressed)
+            compressedPages.increment();
+        else
+            uncompressiblePages.increment();
+        rawBytes.add(rawLength);
+        storedBytes.add(storedLength);
+        compressNanos.add(nanos);
+    }
+
+    void pageExpanded(long nanos) {
+        expandedPages.increment();
+        expandNanos.add(nanos);
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public long getCompressedPages() {
+        return compressedPages.sum();
+    }
+
+    // 压缩后反而没有变小，按原样保存的page数
+    public long getUncompressiblePages() {
+        return uncompressiblePages.sum();
+    }
+
+    public long getRawBytes() {
+        return rawBytes.sum();
+    }
+
+    public long getStoredBytes() {
+        return storedBytes.sum();
+    }
+
+    // 保存的字节数/原始字节数，越小越好，没有写过page时是1
+    public double getRatio() {
+        long raw = getRawBytes();
+        return raw == 0 ? 1 : (double) getStoredBytes() / raw;
+    }
+
+    public long getCompressNanos() {
+        return compressNanos.sum();
+    }
+
+    public long getExpandedPages() {
+        return expandedPages.sum();
+    }
+
+    public long getExpandNanos() {
+        return expandNanos.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "algorithm: %s, compressed pages: %d, uncompressible pages: %d, ratio: %.3f, "
+                        + "compress time: %d ms, expanded pages: %d, expand time: %d ms",
+                algorithm, getCompressedPages(), getUncompressiblePages(), getRatio(),
+                TimeUnit.NANOSECONDS.toMillis(getCompressNanos()), getExpandedPages(),
+                TimeUnit.NANOSECONDS.toMillis(getExpandNanos()));
+    }
+}
@@ -211,15 +211,17 @@ public class DistributedBTreeMap<K, V> extends BTreeMap<K, V> implements Distrib
     // client_server模式只有一个节点，在replication模式下，如果副本个数是1，那么也相当于client_server模式。
     private void replicateOrMovePage(PageKey pageKey, BTreePage p, BTreePage parent, int index, String[] oldEndpoints,
             boolean replicate) {
-        Set<NetEndpoint> candidateEndpoints = getCandidateEndpoints();
-        replicateOrMovePage(pageKey, p, parent, index, oldEndpoints, replicate, candidateEndpoints);
+        replicateOrMovePage(pageKey, p, parent, index, oldEndpoints, replicate, null);
     }
 
+    // migration不为null时表示是在LeafPageMigration中批量移动page
     void replicateOrMovePage(PageKey pageKey, BTreePage p, BTreePage parent, int index, String[] oldEndpoints,
-            boolean replicate, Set<NetEndpoint> candidateEndpoints) {
+            boolean replicate, LeafPageMigration.MapMigration migration) {
         if (oldEndpoints == null || oldEndpoints.length == 0) {
             DbException.throwInternalError("oldEndpoints is null");
         }
+        Set<NetEndpoint> candidateEndpoints = migration != null ? migration.getCandidateEndpoints()
+                : getCandidateEndpoints();
 
         List<NetEndpoint> oldReplicationEndpoints = getReplicationEndpoints(db, oldEndpoints);
         Set<NetEndpoint> oldEndpointSet;
@@ -232,7 +234,7 @@ public class DistributedBTreeMap<K, V> extends BTreeMap<K, V> implements Distrib
 
         List<NetEndpoint> newReplicationEndpoints = db.getReplicationEndpoints(oldEndpointSet, candidateEndpoints);
 
-        Session session = db.createInternalSession();
+        Session session = migration != null ? migration.getSession() : db.createInternalSession();
         LeafPageMovePlan leafPageMovePlan = null;
 
         if (oldEndpoints.length == 1) {
@@ -281,6 +283,8 @@ public class DistributedBTreeMap<K, V> extends BTreeMap<K, V> implements Distrib
         // 移动page到新的复制节点(page中包含数据)
         if (!newReplicationEndpoints.isEmpty()) {
             ReplicationSession rs = db.createReplicationSession(session, newReplicationEndpoints, true);
+            if (migration != null)
+                migration.beforeSend(p, false, newReplicationEndpoints.size());
             moveLeafPage(leafPageMovePlan.pageKey, p, rs, false, !replicate);
         }
 
@@ -295,6 +299,8 @@ public class DistributedBTreeMap<K, V> extends BTreeMap<K, V> implements Distrib
         // 移动page到其他节点(page中不包含数据，只包含这个page各数据副本所在节点信息)
         if (!otherEndpoints.isEmpty()) {
             ReplicationSession rs = db.createReplicationSession(session, otherEndpoints, true);
+            if (migration != null)
+                migration.beforeSend(p, true, otherEndpoints.size());
             moveLeafPage(leafPageMovePlan.pageKey, p, rs, true, !replicate);
         }
     }
@@ -524,6 +530,29 @@ public class DistributedBTreeMap<K, V> extends BTreeMap<K, V> implements Distrib
         }
     }
 
+    @Override
+    public boolean replicationAddIfAbsent(Session session, Object key, Object value, StorageDataType valueType) {
+        List<NetEndpoint> replicationEndpoints = getReplicationEndpoints(key);
+        ReplicationSession rs = db.createReplicationSession(session, replicationEndpoints);
+        try (DataBuffer k = DataBuffer.create();
+                DataBuffer v = DataBuffer.create();
+                StorageCommand c = rs.createStorageCommand()) {
+            ByteBuffer keyBuffer = k.write(keyType, key);
+            ByteBuffer valueBuffer = v.write(valueType, value);
+            return c.executeAddIfAbsent(null, getName(), keyBuffer, valueBuffer);
+        }
+    }
+
+    @Override
+    public boolean replicationRemove(Session session, Object key) {
+        List<NetEndpoint> replicationEndpoints = getReplicationEndpoints(key);
+        ReplicationSession rs = db.createReplicationSession(session, replicationEndpoints);
+        try (DataBuffer k = DataBuffer.create(); StorageCommand c = rs.createStorageCommand()) {
+            ByteBuffer keyBuffer = k.write(keyType, key);
+            return c.executeRemove(null, getName(), keyBuffer);
+        }
+    }
+
     @Override
     public Object replicationGet(Session session, Object key) {
         List<NetEndpoint> replicationEndpoints = getReplicationEndpoints(key);
@@ -655,7 +684,7 @@ public class DistributedBTreeMap<K, V> extends BTreeMap<K, V> implements Distrib
     }
 
     public void moveAllLocalLeafPages(String[] oldEndpoints, String[] newEndpoints) {
-        root.moveAllLocalLeafPages(oldEndpoints, newEndpoints);
+        new LeafPageMigration(db, oldEndpoints, newEndpoints, 1, 0, 0).run(Arrays.asList(this));
     }
 
     // 查找闭区间[from, to]对应的所有leaf page，并建立这些leaf page所在节点与page key的映射关系
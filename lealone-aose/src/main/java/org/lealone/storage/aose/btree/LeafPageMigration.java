@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.storage.aose.btree;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.lealone.common.exceptions.DbException;
+import org.lealone.common.logging.Logger;
+import org.lealone.common.logging.LoggerFactory;
+import org.lealone.db.IDatabase;
+import org.lealone.db.Session;
+import org.lealone.net.NetEndpoint;
+import org.lealone.storage.PageKey;
+
+/**
+ * 缩容或扩容时把本地的leaf page移到新的节点。
+ * 
+ * 多个map由多个线程并行移动，所有线程共享一个网络带宽上限，避免影响前台的读写，
+ * 每个map都记录了已经移动和剩余的page数。
+ * 移动失败的page会在所有page都试过一遍之后重试，已经移动过的page不会再移动。
+ */
+public class LeafPageMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(LeafPageMigration.class);
+
+    private final IDatabase db;
+    private final String[] oldEndpoints;
+    private final Set<NetEndpoint> candidateEndpoints;
+    private final int threads;
+    private final long maxBytesPerSecond; // 小于等于0时不限速
+    private final int maxRetries;
+    private final LinkedHashMap<String, MapMigration> mapMigrations = new LinkedHashMap<>();
+
+    private long nextSendTime; // 按带宽上限计算出的下一次可以发送的时间(纳秒)
+
+    public LeafPageMigration(IDatabase db, String[] oldEndpoints, String[] newEndpoints, int threads,
+            long maxBytesPerSecond, int maxRetries) {
+        this.db = db;
+        this.oldEndpoints = oldEndpoints;
+        this.candidateEndpoints = DistributedBTreeMap.getCandidateEndpoints(db, newEndpoints);
+        this.threads = Math.max(1, threads);
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        this.maxRetries = Math.max(0, maxRetries);
+    }
+
+    /**
+     * 移动这些map的所有本地leaf page，等所有map都移动完后才返回。
+     * 
+     * @param maps 要移动的map
+     */
+    public void run(Collection<DistributedBTreeMap<?, ?>> maps) {
+        ConcurrentLinkedQueue<MapMigration> queue = new ConcurrentLinkedQueue<>();
+        synchronized (mapMigrations) {
+            for (DistributedBTreeMap<?, ?> map : maps) {
+                MapMigration mm = new MapMigration(map);
+                mapMigrations.put(map.getName(), mm);
+                queue.add(mm);
+            }
+        }
+        int n = Math.min(threads, queue.size());
+        List<Thread> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Thread t = new Thread(() -> {
+                MapMigration mm;
+                while ((mm = queue.poll()) != null) {
+                    mm.run();
+                }
+            }, "LeafPageMigration-" + i);
+            t.setDaemon(true);
+            t.start();
+            list.add(t);
+        }
+        for (Thread t : list) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                throw DbException.convert(e);
+            }
+        }
+        int failedPages = 0;
+        for (MapMigration mm : getMapMigrations()) {
+            failedPages += mm.failedPages;
+        }
+        if (failedPages > 0) {
+            throw DbException.throwInternalError(failedPages + " leaf pages failed to move");
+        }
+    }
+
+    private List<MapMigration> getMapMigrations() {
+        synchronized (mapMigrations) {
+            return new ArrayList<>(mapMigrations.values());
+        }
+    }
+
+    /**
+     * 返回每个map的移动进度，key是map名
+     */
+    public Map<String, String> getProgress() {
+        LinkedHashMap<String, String> progress = new LinkedHashMap<>();
+        for (MapMigration mm : getMapMigrations()) {
+            progress.put(mm.map.getName(), mm.toString());
+        }
+        return progress;
+    }
+
+    private void throttle(int bytes) {
+        if (maxBytesPerSecond <= 0)
+            return;
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (nextSendTime < now)
+                nextSendTime = now;
+            waitNanos = nextSendTime - now;
+            nextSendTime += bytes * TimeUnit.SECONDS.toNanos(1) / maxBytesPerSecond;
+        }
+        if (waitNanos > 0)
+            LockSupport.parkNanos(waitNanos);
+    }
+
+    /**
+     * 一个map的移动任务和进度
+     */
+    class MapMigration {
+
+        final DistributedBTreeMap<?, ?> map;
+        // 已经移动过的leaf page的第一个key，重试时跳过这些page
+        private final HashSet<Object> movedPages = new HashSet<>();
+        private Session session;
+
+        volatile int totalPages;
+        volatile int movedPageCount;
+        volatile int failedPages;
+        volatile long movedBytes;
+
+        MapMigration(DistributedBTreeMap<?, ?> map) {
+            this.map = map;
+        }
+
+        void run() {
+            long start = System.currentTimeMillis();
+            try {
+                totalPages = map.getRootPage().countLocalLeafPages();
+                for (int i = 0; i <= maxRetries; i++) {
+                    if (i > 0)
+                        logger.warn("Retry to move {} leaf pages of map {}", failedPages, map.getName());
+                    failedPages = 0;
+                    map.getRootPage().moveAllLocalLeafPages(oldEndpoints, this);
+                    if (failedPages == 0)
+                        break;
+                }
+            } catch (Throwable t) {
+                failedPages = Math.max(1, totalPages - movedPageCount);
+                logger.error("Failed to move leaf pages of map " + map.getName(), t);
+            } finally {
+                if (session != null)
+                    session.close();
+            }
+            if (logger.isDebugEnabled())
+                logger.debug("Move leaf pages of map {}: {}, {} ms", map.getName(), this,
+                        System.currentTimeMillis() - start);
+        }
+
+        Set<NetEndpoint> getCandidateEndpoints() {
+            return candidateEndpoints;
+        }
+
+        // 整个map的移动过程只用一个session，这样到目标节点的连接可以复用
+        Session getSession() {
+            if (session == null)
+                session = db.createInternalSession();
+            return session;
+        }
+
+        void movePage(PageKey pageKey, BTreePage p, BTreePage parent, int index, String[] oldEndpoints) {
+            Object firstKey = p != null && p.getKeyCount() > 0 ? p.getKey(0) : null;
+            if (firstKey != null && movedPages.contains(firstKey))
+                return;
+            try {
+                map.replicateOrMovePage(pageKey, p, parent, index, oldEndpoints, false, this);
+                if (firstKey != null)
+                    movedPages.add(firstKey);
+                movedPageCount++;
+            } catch (Throwable t) {
+                // 只记录第一个错误，避免目标节点不可用时每个page都打印一次异常
+                if (failedPages++ == 0)
+                    logger.warn("Failed to move leaf page " + pageKey + " of map " + map.getName(), t);
+            }
+        }
+
+        // 按page占用的内存估算要发送的字节数，remote page只包含复制节点信息，不计入带宽
+        void beforeSend(BTreePage p, boolean remote, int targets) {
+            if (remote)
+                return;
+            int bytes = p.getMemory() * targets;
+            throttle(bytes);
+            movedBytes += bytes;
+        }
+
+        @Override
+        public String toString() {
+            int moved = movedPageCount;
+            return "moved: " + moved + ", remaining: " + Math.max(0, totalPages - moved) + ", failed: "
+                    + failedPages + ", bytes: " + movedBytes;
+        }
+    }
+}
@@ -17,7 +17,11 @@
  */
 package org.lealone.storage.aose.btree;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.lealone.common.exceptions.DbException;
 import org.lealone.db.async.AsyncHandler;
@@ -151,6 +155,13 @@ public abstract class PageOperations {
             // 看看是否被切割了
             p = p.redirectIfSplited(key);
 
+            // 切割后的新page有自己的处理器，AddChild完成后它会直接处理新page上的操作，
+            // 所以不能在旧page的处理器中通过重定向去写新page
+            if (isShiftEnabled && currentHandler != p.getHandler()) {
+                p.addPageOperation(this);
+                return PageOperationResult.SHIFTED;
+            }
+
             // 如果已经被删除，重新从root page开始
             DynamicInfo oldDynamicInfo = p.dynamicInfo;
             if (oldDynamicInfo.isRemoved()) {
@@ -174,12 +185,13 @@ public abstract class PageOperations {
 
             int index = p.binarySearch(key);
             Object result = writeLocal(index);
+            map.btreeStorage.recordWrite();
             handleAsyncResult(result); // 可以提前执行回调函数了，不需要考虑后续的代码
 
             // 看看当前leaf page是否需要进行切割
             // 当index<0时说明是要增加新值，其他操作不切割(暂时不考虑被更新的值过大，导致超过page size的情况)
             if (index < 0 && p.needSplit()) {
-                splitLeafPage(p);
+                splitLeafPage(p, isAppending(p, index));
                 return PageOperationResult.SPLITTING;
             } else {
                 return PageOperationResult.SUCCEEDED;
@@ -290,7 +302,7 @@ public abstract class PageOperations {
             if (p.isEmpty() && p != p.map.getRootPage()) { // 删除leaf page，但是root leaf page除外
                 p.dynamicInfo = new DynamicInfo(BTreePage.State.REMOVING);
                 RemoveChild task = new RemoveChild(p, key);
-                p.map.pohFactory.getNodePageOperationHandler().handlePageOperation(task);
+                p.map.getNodePageOperationHandler().handlePageOperation(task);
             }
             return old;
         }
@@ -301,6 +313,285 @@ public abstract class PageOperations {
         }
     }
 
+    // 批量写操作，包括: putAll、putAllIfAbsent、removeAll
+    // 先按key排序，然后按key所在的leaf page分组，每一组作为一个LeafBatchWrite交给对应leaf page的处理器处理，
+    // 这样每个leaf page只需要从root page定位一次、移交一次，所有key都处理完后也只回调一次
+    public static class BatchWrite<K, V> implements PageOperation {
+
+        public static enum Type {
+            PUT,
+            PUT_IF_ABSENT,
+            REMOVE;
+        }
+
+        final BTreeMap<K, V> map;
+        final Type type;
+        final Object[] keys; // 已排好序
+        final Object[] values; // 与keys的顺序一致，REMOVE时为null
+        final int[] positions; // 排序后的下标对应的原始下标
+        final Object[] results; // 按原始下标存放旧值
+        final AtomicInteger pendingKeys;
+        final AsyncHandler<AsyncResult<List<V>>> asyncResultHandler;
+
+        public BatchWrite(BTreeMap<K, V> map, Type type, List<K> keys, List<V> values,
+                AsyncHandler<AsyncResult<List<V>>> asyncResultHandler) {
+            this.map = map;
+            this.type = type;
+            this.asyncResultHandler = asyncResultHandler;
+            int size = keys.size();
+            // 用稳定的排序，相同的key按传入的顺序处理
+            Integer[] sortedPositions = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                sortedPositions[i] = i;
+            }
+            Arrays.sort(sortedPositions, (i1, i2) -> map.getKeyType().compare(keys.get(i1), keys.get(i2)));
+            this.keys = new Object[size];
+            this.values = values == null ? null : new Object[size];
+            this.positions = new int[size];
+            for (int i = 0; i < size; i++) {
+                int pos = sortedPositions[i];
+                positions[i] = pos;
+                this.keys[i] = keys.get(pos);
+                if (values != null)
+                    this.values[i] = values.get(pos);
+            }
+            results = new Object[size];
+            pendingKeys = new AtomicInteger(size);
+        }
+
+        @Override
+        public PageOperationResult run(PageOperationHandler currentHandler) {
+            if (keys.length == 0)
+                handleAsyncResult();
+            else
+                dispatch(0, keys.length, currentHandler);
+            return PageOperationResult.SUCCEEDED;
+        }
+
+        // 把[from, to)之间的key按所在的leaf page分组，
+        // 属于当前处理器的分组直接运行，否则都放到leaf page的处理器队列中，
+        // 远程page没有处理器，也直接运行
+        void dispatch(int from, int to, PageOperationHandler currentHandler) {
+            while (from < to) {
+                LeafBatchWrite<K, V> group = createGroup(from, to);
+                from = group.to;
+                PageOperationHandler handler = group.p.getHandler();
+                if (handler == null || handler == currentHandler)
+                    group.run(currentHandler);
+                else
+                    group.p.addPageOperation(group);
+            }
+        }
+
+        // 从root page开始找到keys[from]所在的leaf page，
+        // 同时得到这个leaf page中key的上界(不包含)，所有小于上界的key都属于同一组
+        private LeafBatchWrite<K, V> createGroup(int from, int to) {
+            BTreePage p = map.getRootPage();
+            Object key = keys[from];
+            Object upperBound = null;
+            while (p.isNode()) {
+                int index = p.binarySearch(key);
+                if (index < 0) {
+                    index = -index - 1;
+                } else {
+                    index++;
+                }
+                if (index < p.getKeyCount())
+                    upperBound = p.getKey(index);
+                p = p.getChildPage(index);
+            }
+            int end = from + 1;
+            if (upperBound == null) {
+                end = to;
+            } else {
+                while (end < to && map.getKeyType().compare(keys[end], upperBound) < 0)
+                    end++;
+            }
+            return new LeafBatchWrite<>(this, p, from, end);
+        }
+
+        @SuppressWarnings("unchecked")
+        Object writeLocal(BTreePage p, int index, int i) {
+            Object key = keys[i];
+            switch (type) {
+            case PUT:
+                if (index < 0) {
+                    p.insertLeaf(-index - 1, key, values[i]);
+                    map.setMaxKey(key);
+                    return null;
+                }
+                return p.setValue(index, values[i]);
+            case PUT_IF_ABSENT:
+                if (index < 0) {
+                    p.insertLeaf(-index - 1, key, values[i]);
+                    map.setMaxKey(key);
+                    return null;
+                }
+                return p.getValue(index);
+            default:
+                if (index < 0) {
+                    return null;
+                }
+                Object old = p.getValue(index);
+                p.remove(index);
+                if (p.isEmpty() && p != map.getRootPage()) { // 删除leaf page，但是root leaf page除外
+                    p.dynamicInfo = new DynamicInfo(BTreePage.State.REMOVING);
+                    RemoveChild task = new RemoveChild(p, key);
+                    map.getNodePageOperationHandler().handlePageOperation(task);
+                }
+                return old;
+            }
+        }
+
+        // 在分布式场景，leaf page已经被移到其他节点了，此时退化成单key的写操作
+        @SuppressWarnings("unchecked")
+        void writeSingle(int from, int to) {
+            for (int i = from; i < to; i++) {
+                final int pos = i;
+                K key = (K) keys[i];
+                AsyncHandler<AsyncResult<V>> handler = ar -> {
+                    if (ar.isSucceeded())
+                        setResult(pos, ar.getResult());
+                    completeKeys(1);
+                };
+                PageOperation po;
+                switch (type) {
+                case PUT:
+                    po = new Put<>(map, key, (V) values[i], handler);
+                    break;
+                case PUT_IF_ABSENT:
+                    po = new PutIfAbsent<>(map, key, (V) values[i], handler);
+                    break;
+                default:
+                    po = new Remove<>(map, key, handler);
+                }
+                map.pohFactory.addPageOperation(po);
+            }
+        }
+
+        void setResult(int i, Object result) {
+            results[positions[i]] = result;
+        }
+
+        void completeKeys(int count) {
+            if (count > 0 && pendingKeys.addAndGet(-count) == 0)
+                handleAsyncResult();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void handleAsyncResult() {
+            List<V> list = new ArrayList<>(results.length);
+            for (Object r : results) {
+                list.add((V) r);
+            }
+            AsyncResult<List<V>> ar = new AsyncResult<>();
+            ar.setResult(list);
+            asyncResultHandler.handle(ar);
+        }
+    }
+
+    // BatchWrite中属于同一个leaf page的一组key
+    static class LeafBatchWrite<K, V> implements PageOperation {
+        final BatchWrite<K, V> batch;
+        final int to;
+        int from;
+        BTreePage p;
+        boolean shifted;
+
+        LeafBatchWrite(BatchWrite<K, V> batch, BTreePage p, int from, int to) {
+            this.batch = batch;
+            this.p = p;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public PageOperationResult run(PageOperationHandler currentHandler) {
+            // 跟SingleWrite一样，root page是leaf page时不做并行化
+            BTreeMap<K, V> map = batch.map;
+            if (map.parallelDisabled) {
+                synchronized (map) {
+                    if (map.parallelDisabled) {
+                        PageOperationResult result = write(currentHandler, false);
+                        map.enableParallelIfNeeded();
+                        return result;
+                    }
+                }
+            }
+            return write(currentHandler, true);
+        }
+
+        private PageOperationResult write(PageOperationHandler currentHandler, boolean isShiftEnabled) {
+            // 处理分布式场景
+            if (p.isRemote() || p.getLeafPageMovePlan() != null) {
+                batch.writeSingle(from, to);
+                return PageOperationResult.SHIFTED;
+            }
+            if (isShiftEnabled && !shifted && currentHandler != p.getHandler()) {
+                shifted = true;
+                p.addPageOperation(this);
+                return PageOperationResult.SHIFTED;
+            }
+
+            PageOperationResult result = PageOperationResult.SUCCEEDED;
+            int start = from;
+            boolean handOff = false;
+            while (from < to) {
+                Object key = batch.keys[from];
+                p = p.redirectIfSplited(key);
+
+                // 跟SingleWrite一样，重定向到的新page只能由它自己的处理器写
+                if (isShiftEnabled && currentHandler != p.getHandler()) {
+                    handOff = true;
+                    break;
+                }
+
+                // 被删除了或者无法从删除中状态恢复，剩下的key重新从root page开始分组
+                DynamicInfo oldDynamicInfo = p.dynamicInfo;
+                if (oldDynamicInfo.isRemoved()) {
+                    break;
+                } else if (oldDynamicInfo.isRemoving()) {
+                    DynamicInfo newDynamicInfo = new DynamicInfo(BTreePage.State.NORMAL);
+                    if (!p.updateDynamicInfo(oldDynamicInfo, newDynamicInfo)) {
+                        break;
+                    }
+                }
+
+                int index = p.binarySearch(key);
+                batch.setResult(from, batch.writeLocal(p, index, from));
+                batch.map.btreeStorage.recordWrite();
+                from++;
+
+                if (index < 0 && p.needSplit()) {
+                    splitLeafPage(p, isAppending(p, index));
+                    result = PageOperationResult.SPLITTING;
+                    // 切割后的两个新leaf page在AddChild完成前不会再切割，剩下的key通过重定向交给新page的处理器，
+                    // 但是root leaf page切割后没有重定向，剩下的key只能重新从root page开始分组
+                    if (!p.dynamicInfo.isSplitted())
+                        break;
+                    continue;
+                }
+                // 删除leaf page后，剩下的key也重新从root page开始分组
+                if (p.dynamicInfo.isRemoving()) {
+                    break;
+                }
+            }
+            int count = from - start;
+            if (handOff) {
+                batch.completeKeys(count);
+                // 剩下的key交给新page的处理器，之后不能再访问当前对象的字段
+                p.addPageOperation(this);
+                return PageOperationResult.SHIFTED;
+            }
+            if (from < to) {
+                // 不能放回当前处理器的队列，同步调用时当前处理器可能正在等待结果
+                batch.dispatch(from, to, currentHandler);
+            }
+            batch.completeKeys(count);
+            return result;
+        }
+    }
+
     private static class PageReferenceContext {
         final BTreePage parent;
         final int index;
@@ -324,7 +615,7 @@ public abstract class PageOperations {
 
         private static void splitNodePage(BTreePage p, PageReferenceContext context) {
             if (context == null) { // 说明是root page要切割了
-                BTreePage root = splitPage(p).parent;
+                BTreePage root = splitPage(p, p.getKeyCount() / 2).parent;
                 p.map.newRoot(root);
             } else {
                 // node page的切割直接由单一的node page处理器处理，不会产生并发问题
@@ -479,11 +770,27 @@ public abstract class PageOperations {
         }
     }
 
-    private static void splitLeafPage(BTreePage p) {
+    // index是插入新key前binarySearch的返回值，新key插在page的最后面时认为是顺序追加，
+    // 比如自增主键，这时前面的page不会再有新记录了
+    private static boolean isAppending(BTreePage p, int index) {
+        return -index - 1 == p.getKeyCount() - 1;
+    }
+
+    // 顺序追加时按fillFactor切割，左边的page保留大部分记录，新记录写到右边的page，
+    // 否则从中间切割，两边都留出空间给之后的随机插入
+    private static int getSplitIndex(BTreePage p, boolean appending) {
+        int keyCount = p.getKeyCount();
+        if (!appending)
+            return keyCount / 2;
+        int at = keyCount * p.map.btreeStorage.getFillFactor() / 100;
+        return Math.max(1, Math.min(at, keyCount - 1));
+    }
+
+    private static void splitLeafPage(BTreePage p, boolean appending) {
         // 第一步:
         // 切开page，得到一个临时的父节点和两个新的leaf page
         // 临时父节点只能通过被切割的page重定向访问
-        TmpNodePage tmp = splitPage(p);
+        TmpNodePage tmp = splitPage(p, getSplitIndex(p, appending));
 
         // 第二步:
         // 如果是对root leaf page进行切割，因为当前只有一个线程在处理，所以直接替换root即可，这是安全的
@@ -507,16 +814,15 @@ public abstract class PageOperations {
         // 把AddChild操作放入父节点的处理器队列中，等候处理。
         // leaf page的切割需要更新父节点的相关数据，所以交由父节点处理器处理，避免引入复杂的并发问题
         AddChild task = new AddChild(tmp);
-        p.map.pohFactory.getNodePageOperationHandler().handlePageOperation(task);
+        p.map.getNodePageOperationHandler().handlePageOperation(task);
 
         // 第六步:
         // 对于分布式场景，通知发生切割了，需要选一个leaf page来移动
         p.map.fireLeafPageSplit(tmp.key);
     }
 
-    private static TmpNodePage splitPage(BTreePage p) {
+    private static TmpNodePage splitPage(BTreePage p, int at) {
         // 注意: 在这里被切割的页面可能是node page或leaf page
-        int at = p.getKeyCount() / 2;
         Object k = p.getKey(at);
         // 切割前必须copy当前被切割的页面，否则其他读线程可能读到切割过程中不一致的数据
         BTreePage old = p;
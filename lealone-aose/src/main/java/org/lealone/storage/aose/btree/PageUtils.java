@@ -42,6 +42,17 @@ public class PageUtils {
      */
     public static final int PAGE_COMPRESSED_HIGH = 2 + 4;
 
+    /**
+     * The bit mask for compressed pages (compression algorithm lz4).
+     */
+    public static final int PAGE_COMPRESSED_LZ4 = 2 + 8;
+
+    /**
+     * The bit mask for column pages written by StorageDataType.writeColumn(buff, objs, len, columnIndex),
+     * column pages without this bit are read row by row.
+     */
+    public static final int PAGE_COLUMN_ENCODED = 16;
+
     /**
      * The estimated number of bytes used per page object.
      */
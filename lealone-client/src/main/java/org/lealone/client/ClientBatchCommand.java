@@ -27,6 +27,7 @@ import org.lealone.db.Command;
 import org.lealone.db.CommandParameter;
 import org.lealone.db.CommandUpdateResult;
 import org.lealone.db.Session;
+import org.lealone.db.SysProperties;
 import org.lealone.db.result.Result;
 import org.lealone.db.value.Value;
 import org.lealone.net.AsyncCallback;
@@ -94,32 +95,40 @@ public class ClientBatchCommand implements Command {
         if (id == -1)
             id = session.getNextId();
 
+        // 大的批量分成多块发送，避免server端一次读入所有的参数，也不会长时间占用连接
+        int chunkSize = SysProperties.CLIENT_BATCH_CHUNK_SIZE;
         try {
             if (batchCommands != null) {
-                session.traceOperation("COMMAND_BATCH_STATEMENT_UPDATE", id);
-                transfer.writeRequestHeader(id, Session.COMMAND_BATCH_STATEMENT_UPDATE);
                 int size = batchCommands.size();
                 result = new int[size];
-                transfer.writeInt(size);
-                for (int i = 0; i < size; i++) {
-                    transfer.writeString(batchCommands.get(i));
+                for (int offset = 0; offset < size; offset += chunkSize) {
+                    int count = Math.min(chunkSize, size - offset);
+                    session.traceOperation("COMMAND_BATCH_STATEMENT_UPDATE", id);
+                    transfer.writeRequestHeader(id, Session.COMMAND_BATCH_STATEMENT_UPDATE);
+                    transfer.writeInt(count);
+                    for (int i = offset, end = offset + count; i < end; i++) {
+                        transfer.writeString(batchCommands.get(i));
+                    }
+                    getResultAsync(offset, count);
                 }
-                getResultAsync();
             } else {
-                session.traceOperation("COMMAND_BATCH_STATEMENT_PREPARED_UPDATE", id);
-                transfer.writeRequestHeader(id, Session.COMMAND_BATCH_STATEMENT_PREPARED_UPDATE);
                 int size = batchParameters.size();
                 result = new int[size];
-                transfer.writeInt(size);
-                Value[] values;
-                int len;
-                for (int i = 0; i < size; i++) {
-                    values = batchParameters.get(i);
-                    len = values.length;
-                    for (int m = 0; m < len; m++)
-                        transfer.writeValue(values[m]);
+                for (int offset = 0; offset < size; offset += chunkSize) {
+                    int count = Math.min(chunkSize, size - offset);
+                    session.traceOperation("COMMAND_BATCH_STATEMENT_PREPARED_UPDATE", id);
+                    transfer.writeRequestHeader(id, Session.COMMAND_BATCH_STATEMENT_PREPARED_UPDATE);
+                    transfer.writeInt(count);
+                    Value[] values;
+                    int len;
+                    for (int i = offset, end = offset + count; i < end; i++) {
+                        values = batchParameters.get(i);
+                        len = values.length;
+                        for (int m = 0; m < len; m++)
+                            transfer.writeValue(values[m]);
+                    }
+                    getResultAsync(offset, count);
                 }
-                getResultAsync();
             }
         } catch (IOException e) {
             session.handleException(e);
@@ -128,12 +137,12 @@ public class ClientBatchCommand implements Command {
         return 0;
     }
 
-    private void getResultAsync() throws IOException {
+    private void getResultAsync(int offset, int count) throws IOException {
         AsyncCallback<Void> ac = new AsyncCallback<Void>() {
             @Override
             public void runInternal() {
                 try {
-                    for (int i = 0, size = ClientBatchCommand.this.result.length; i < size; i++)
+                    for (int i = offset, end = offset + count; i < end; i++)
                         ClientBatchCommand.this.result[i] = transfer.readInt();
                 } catch (IOException e) {
                     throw DbException.convert(e);
@@ -150,11 +159,14 @@ public class ClientBatchCommand implements Command {
         if (session == null || session.isClosed()) {
             return;
         }
-        session.traceOperation("COMMAND_CLOSE", id);
-        try {
-            transfer.writeRequestHeader(id, Session.COMMAND_CLOSE).flush();
-        } catch (IOException e) {
-            trace.error(e, "close");
+        // 预编译语句的批量用的是预编译语句自己的id，server端的语句由JdbcPreparedStatement负责关闭
+        if (batchCommands != null) {
+            session.traceOperation("COMMAND_CLOSE", id);
+            try {
+                transfer.writeRequestHeader(id, Session.COMMAND_CLOSE).flush();
+            } catch (IOException e) {
+                trace.error(e, "close");
+            }
         }
         session = null;
         transfer = null;
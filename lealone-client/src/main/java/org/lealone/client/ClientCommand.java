@@ -10,6 +10,7 @@ import java.nio.ByteBuffer;
 import java.sql.ResultSetMetaData;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -519,6 +520,70 @@ public class ClientCommand implements StorageCommand {
         return bytes;
     }
 
+    @Override
+    public boolean executeAddIfAbsent(String replicationName, String mapName, ByteBuffer key, ByteBuffer value) {
+        int id = session.getNextId();
+        try {
+            boolean isDistributed = session.getParentTransaction() != null
+                    && !session.getParentTransaction().isAutoCommit();
+            if (isDistributed) {
+                session.traceOperation("COMMAND_STORAGE_DISTRIBUTED_TRANSACTION_ADD_IF_ABSENT", id);
+                transfer.writeRequestHeader(id, Session.COMMAND_STORAGE_DISTRIBUTED_TRANSACTION_ADD_IF_ABSENT);
+            } else {
+                session.traceOperation("COMMAND_STORAGE_ADD_IF_ABSENT", id);
+                transfer.writeRequestHeader(id, Session.COMMAND_STORAGE_ADD_IF_ABSENT);
+            }
+            transfer.writeString(mapName).writeByteBuffer(key).writeByteBuffer(value);
+            transfer.writeString(replicationName);
+            return readBooleanResult(id, isDistributed);
+        } catch (Exception e) {
+            session.handleException(e);
+        }
+        return false;
+    }
+
+    @Override
+    public boolean executeRemove(String replicationName, String mapName, ByteBuffer key) {
+        int id = session.getNextId();
+        try {
+            boolean isDistributed = session.getParentTransaction() != null
+                    && !session.getParentTransaction().isAutoCommit();
+            if (isDistributed) {
+                session.traceOperation("COMMAND_STORAGE_DISTRIBUTED_TRANSACTION_REMOVE", id);
+                transfer.writeRequestHeader(id, Session.COMMAND_STORAGE_DISTRIBUTED_TRANSACTION_REMOVE);
+            } else {
+                session.traceOperation("COMMAND_STORAGE_REMOVE", id);
+                transfer.writeRequestHeader(id, Session.COMMAND_STORAGE_REMOVE);
+            }
+            transfer.writeString(mapName).writeByteBuffer(key);
+            transfer.writeString(replicationName);
+            return readBooleanResult(id, isDistributed);
+        } catch (Exception e) {
+            session.handleException(e);
+        }
+        return false;
+    }
+
+    private boolean readBooleanResult(int id, boolean isDistributed) throws IOException {
+        AtomicBoolean resultRef = new AtomicBoolean();
+        AsyncCallback<Void> ac = new AsyncCallback<Void>() {
+            @Override
+            public void runInternal() {
+                try {
+                    if (isDistributed)
+                        session.getParentTransaction().addLocalTransactionNames(transfer.readString());
+                    resultRef.set(transfer.readBoolean());
+                } catch (IOException e) {
+                    throw DbException.convert(e);
+                }
+            }
+        };
+        transfer.addAsyncCallback(id, ac);
+        transfer.flush();
+        ac.await();
+        return resultRef.get();
+    }
+
     @Override
     public Object executeGet(String mapName, ByteBuffer key) {
         byte[] bytes = null;
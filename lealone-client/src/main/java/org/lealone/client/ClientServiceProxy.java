@@ -21,36 +21,94 @@ import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.lealone.client.jdbc.JdbcConnection;
+import org.lealone.common.util.JdbcUtils;
+import org.lealone.db.value.Value;
 
 public class ClientServiceProxy {
 
     private static final String sqlNoReturnValue = "{call EXECUTE_SERVICE_NO_RETURN_VALUE(?,?)}";
     private static final String sqlWithReturnValue = "{? = call EXECUTE_SERVICE_WITH_RETURN_VALUE(?,?)}";
 
-    public static String executeWithReturnValue(String url, String serviceName, String json) {
-        try (Connection conn = DriverManager.getConnection(url);
-                CallableStatement stmt = conn.prepareCall(sqlWithReturnValue)) {
-            stmt.setString(2, serviceName);
-            stmt.setString(3, json);
-            stmt.registerOutParameter(1, java.sql.Types.VARCHAR);
-            if (stmt.execute()) {
-                return stmt.getString(1);
+    private static final int QUEUE_SIZE = 3;
+
+    // key是服务所在节点的URL，每次调用都新建连接的代价太大，调用完后把连接放回队列给下次调用
+    private static final ConcurrentHashMap<String, ConcurrentLinkedQueue<Connection>> pool = new ConcurrentHashMap<>();
+
+    private static interface ServiceCall<T> {
+        T call(Connection conn) throws SQLException;
+    }
+
+    private static ConcurrentLinkedQueue<Connection> getQueue(String url) {
+        ConcurrentLinkedQueue<Connection> queue = pool.get(url);
+        if (queue == null) {
+            // 避免多个线程生成不同的ConcurrentLinkedQueue实例
+            synchronized (ClientServiceProxy.class) {
+                queue = pool.get(url);
+                if (queue == null) {
+                    queue = new ConcurrentLinkedQueue<>();
+                    pool.put(url, queue);
+                }
             }
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to execute service: " + serviceName, e);
         }
-        return null;
+        return queue;
     }
 
-    public static void executeNoReturnValue(String url, String serviceName, String json) {
-        try (Connection conn = DriverManager.getConnection(url);
-                CallableStatement stmt = conn.prepareCall(sqlNoReturnValue)) {
-            stmt.setString(1, serviceName);
-            stmt.setString(2, json);
-            stmt.execute();
+    private static <T> T execute(String url, String serviceName, ServiceCall<T> serviceCall) {
+        ConcurrentLinkedQueue<Connection> queue = getQueue(url);
+        Connection conn = null;
+        boolean succeeded = false;
+        try {
+            conn = queue.poll();
+            while (conn != null && conn.isClosed())
+                conn = queue.poll();
+            if (conn == null)
+                conn = DriverManager.getConnection(url);
+            T result = serviceCall.call(conn);
+            succeeded = true;
+            return result;
         } catch (SQLException e) {
             throw new RuntimeException("Failed to execute service: " + serviceName, e);
+        } finally {
+            // 出错后连接的状态不确定，不再放回队列
+            if (!succeeded || queue.size() >= QUEUE_SIZE)
+                JdbcUtils.closeSilently(conn);
+            else
+                queue.offer(conn);
         }
     }
 
+    public static String executeWithReturnValue(String url, String serviceName, String json) {
+        return execute(url, serviceName, conn -> {
+            try (CallableStatement stmt = conn.prepareCall(sqlWithReturnValue)) {
+                stmt.setString(2, serviceName);
+                stmt.setString(3, json);
+                stmt.registerOutParameter(1, java.sql.Types.VARCHAR);
+                if (stmt.execute()) {
+                    return stmt.getString(1);
+                }
+            }
+            return null;
+        });
+    }
+
+    public static void executeNoReturnValue(String url, String serviceName, String json) {
+        execute(url, serviceName, conn -> {
+            try (CallableStatement stmt = conn.prepareCall(sqlNoReturnValue)) {
+                stmt.setString(1, serviceName);
+                stmt.setString(2, json);
+                stmt.execute();
+            }
+            return null;
+        });
+    }
+
+    // 二进制调用路径，直接通过Transfer发送方法id和Value编码的参数，不经过SQL解析和json编解码
+    public static Value executeService(String url, String serviceName, int methodId, Value... methodArgs) {
+        return execute(url, serviceName,
+                conn -> ((JdbcConnection) conn).getSession().executeService(serviceName, methodId, methodArgs));
+    }
 }
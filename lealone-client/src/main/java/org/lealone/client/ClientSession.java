@@ -424,6 +424,36 @@ public class ClientSession extends SessionBase implements DataHandler, Transacti
         return 1;
     }
 
+    @Override
+    public synchronized Value executeService(String serviceName, int methodId, Value[] methodArgs) {
+        checkClosed();
+        try {
+            int id = getNextId();
+            traceOperation("COMMAND_EXECUTE_SERVICE", id);
+            transfer.writeRequestHeader(id, Session.COMMAND_EXECUTE_SERVICE);
+            transfer.writeString(serviceName).writeInt(methodId).writeInt(methodArgs.length);
+            for (Value v : methodArgs) {
+                transfer.writeValue(v);
+            }
+            AsyncCallback<Value> ac = new AsyncCallback<Value>() {
+                @Override
+                public void runInternal() {
+                    try {
+                        result = transfer.readValue();
+                    } catch (IOException e) {
+                        throw DbException.convert(e);
+                    }
+                }
+            };
+            transfer.addAsyncCallback(id, ac);
+            transfer.flush();
+            return ac.getResult();
+        } catch (Exception e) {
+            handleException(e);
+        }
+        return null;
+    }
+
     @Override
     public synchronized void commitTransaction(String allLocalTransactionNames) {
         checkClosed();
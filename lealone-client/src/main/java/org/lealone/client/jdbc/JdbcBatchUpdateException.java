@@ -10,6 +10,10 @@ import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.sql.BatchUpdateException;
 import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.lealone.common.exceptions.DbException;
+import org.lealone.db.api.ErrorCode;
 
 /**
  * Represents a batch update database exception.
@@ -26,6 +30,21 @@ public class JdbcBatchUpdateException extends BatchUpdateException {
         setNextException(next);
     }
 
+    /**
+     * INTERNAL
+     * 
+     * server端执行批量时失败的记录只返回EXECUTE_FAILED，跟嵌入模式一样需要抛出异常
+     */
+    static void checkResult(int[] updateCounts) throws JdbcBatchUpdateException {
+        for (int i = 0; i < updateCounts.length; i++) {
+            if (updateCounts[i] == Statement.EXECUTE_FAILED) {
+                SQLException next = DbException.get(ErrorCode.GENERAL_ERROR_1, "batch entry " + i + " failed")
+                        .getSQLException();
+                throw new JdbcBatchUpdateException(next, updateCounts);
+            }
+        }
+    }
+
     /**
      * INTERNAL
      */
@@ -37,6 +37,8 @@ import org.lealone.common.util.IOUtils;
 import org.lealone.common.util.Utils;
 import org.lealone.db.Command;
 import org.lealone.db.CommandParameter;
+import org.lealone.db.DelegatedSession;
+import org.lealone.db.Session;
 import org.lealone.db.api.ErrorCode;
 import org.lealone.db.async.AsyncHandler;
 import org.lealone.db.async.AsyncResult;
@@ -1149,11 +1151,16 @@ public class JdbcPreparedStatement extends JdbcStatement implements PreparedStat
             if (batchParameters == null || batchParameters.isEmpty())
                 return new int[0];
 
-            if (session instanceof ClientSession) {
-                ClientBatchCommand c = ((ClientSession) session).getClientBatchCommand(command, batchParameters);
+            Session s = session;
+            if (s instanceof DelegatedSession) // 例如AutoReconnectSession
+                s = ((DelegatedSession) s).getSession();
+            if (s instanceof ClientSession) {
+                ClientBatchCommand c = ((ClientSession) s).getClientBatchCommand(command, batchParameters);
                 c.executeUpdate();
                 int[] result = c.getResult();
                 c.close();
+                batchParameters = null;
+                JdbcBatchUpdateException.checkResult(result);
                 return result;
             } else {
                 int size = batchParameters.size();
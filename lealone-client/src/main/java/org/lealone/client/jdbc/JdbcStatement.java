@@ -19,6 +19,7 @@ import org.lealone.common.exceptions.DbException;
 import org.lealone.common.trace.TraceObject;
 import org.lealone.common.util.Utils;
 import org.lealone.db.Command;
+import org.lealone.db.DelegatedSession;
 import org.lealone.db.Session;
 import org.lealone.db.SysProperties;
 import org.lealone.db.api.ErrorCode;
@@ -731,11 +732,16 @@ public class JdbcStatement extends TraceObject implements Statement {
             if (batchCommands == null || batchCommands.isEmpty())
                 return new int[0];
 
-            if (session instanceof ClientSession) {
-                ClientBatchCommand c = ((ClientSession) session).getClientBatchCommand(batchCommands);
+            Session s = session;
+            if (s instanceof DelegatedSession) // 例如AutoReconnectSession
+                s = ((DelegatedSession) s).getSession();
+            if (s instanceof ClientSession) {
+                ClientBatchCommand c = ((ClientSession) s).getClientBatchCommand(batchCommands);
                 c.executeUpdate();
                 int[] result = c.getResult();
                 c.close();
+                batchCommands = null;
+                JdbcBatchUpdateException.checkResult(result);
                 return result;
             } else {
                 int size = batchCommands.size();
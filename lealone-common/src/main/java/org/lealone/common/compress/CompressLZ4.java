@@ -0,0 +1,314 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.common.compress;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * This class implements the LZ4 block format in pure Java. Compared with LZF it uses
+ * 64 KB back-reference offsets and unbounded match lengths, so it gets a better ratio
+ * on text-heavy data while compressing and expanding at a similar speed.
+ * </p>
+ * <p>
+ * Safety/Use Notes:
+ * </p>
+ * <ul>
+ * <li>Each instance should be used by a single thread only.</li>
+ * <li>The output area must have room for inLen + inLen / 255 + 16 bytes.</li>
+ * <li>Invalid compressed data can cause an ArrayIndexOutOfBoundsException.</li>
+ * </ul>
+ * <p>
+ * The compressed data is a series of sequences. Each sequence starts with a token byte,
+ * the high 4 bits are the literal length and the low 4 bits are the match length minus 4,
+ * the value 15 means more length bytes follow (each 255 means continue). Then come
+ * the literals, and a 2 byte little-endian back-reference offset. The last sequence only
+ * has literals.
+ * </p>
+ * <p>
+ * With the option "HIGH" the compressor follows a hash chain and keeps the longest of
+ * several candidate matches. This is about half as fast as the default mode but gets a
+ * better ratio than LZF, and the output is expanded by the same (fast) code.
+ * </p>
+ */
+public final class CompressLZ4 implements Compressor {
+
+    private static final int MIN_MATCH = 4;
+
+    /**
+     * The number of entries in the hash table (16384).
+     */
+    private static final int HASH_LOG = 14;
+    private static final int HASH_SIZE = 1 << HASH_LOG;
+
+    /**
+     * The maximum offset allowed for a back-reference (65535).
+     */
+    private static final int MAX_OFF = (1 << 16) - 1;
+
+    /**
+     * The last 5 bytes are always literals, and the last match must start
+     * at least 12 bytes before the end of the input.
+     */
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+
+    /**
+     * After 64 misses in a row the search step grows, so incompressible data is skipped quickly.
+     */
+    private static final int SKIP_TRIGGER = 6;
+
+    /**
+     * The number of candidate matches to check in high compression mode.
+     */
+    private static final int HIGH_SEARCH_DEPTH = 8;
+
+    /**
+     * Hash table for matching byte sequences (reused for performance).
+     */
+    private int[] cachedHashTable;
+
+    /**
+     * The previous position with the same hash, indexed by position & MAX_OFF (only for high mode).
+     */
+    private int[] cachedChainTable;
+
+    private boolean high;
+
+    @Override
+    public void setOptions(String options) {
+        high = options != null && "HIGH".equalsIgnoreCase(options.trim());
+    }
+
+    private static int readInt(byte[] in, int pos) {
+        return (in[pos] & 255) | ((in[pos + 1] & 255) << 8) | ((in[pos + 2] & 255) << 16) | (in[pos + 3] << 24);
+    }
+
+    private static int hash(int v) {
+        return (v * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    @Override
+    public int compress(byte[] in, int inLen, byte[] out, int outPos) {
+        if (high) {
+            return compressHigh(in, inLen, out, outPos);
+        }
+        int anchor = 0;
+        if (inLen > MF_LIMIT) {
+            int[] hashTab = cachedHashTable;
+            if (hashTab == null) {
+                hashTab = cachedHashTable = new int[HASH_SIZE];
+            }
+            Arrays.fill(hashTab, -1);
+            int limit = inLen - MF_LIMIT;
+            int matchLimit = inLen - LAST_LITERALS;
+            int inPos = 0;
+            int misses = 0;
+            while (inPos < limit) {
+                int v = readInt(in, inPos);
+                int h = hash(v);
+                int ref = hashTab[h];
+                hashTab[h] = inPos;
+                if (ref < 0 || inPos - ref > MAX_OFF || readInt(in, ref) != v) {
+                    inPos += 1 + (misses++ >>> SKIP_TRIGGER);
+                    continue;
+                }
+                misses = 0;
+                // 向前扩展
+                while (inPos > anchor && ref > 0 && in[inPos - 1] == in[ref - 1]) {
+                    inPos--;
+                    ref--;
+                }
+                int len = MIN_MATCH;
+                while (inPos + len < matchLimit && in[inPos + len] == in[ref + len]) {
+                    len++;
+                }
+                outPos = writeSequence(in, anchor, inPos - anchor, inPos - ref, len, out, outPos);
+                inPos += len;
+                anchor = inPos;
+                if (inPos < limit) {
+                    hashTab[hash(readInt(in, inPos - 2))] = inPos - 2;
+                }
+            }
+        }
+        return writeLastLiterals(in, anchor, inLen - anchor, out, outPos);
+    }
+
+    private int compressHigh(byte[] in, int inLen, byte[] out, int outPos) {
+        int anchor = 0;
+        if (inLen > MF_LIMIT) {
+            int[] hashTab = cachedHashTable;
+            if (hashTab == null) {
+                hashTab = cachedHashTable = new int[HASH_SIZE];
+            }
+            int[] chainTab = cachedChainTable;
+            if (chainTab == null) {
+                chainTab = cachedChainTable = new int[MAX_OFF + 1];
+            }
+            Arrays.fill(hashTab, -1);
+            int limit = inLen - MF_LIMIT;
+            int matchLimit = inLen - LAST_LITERALS;
+            int inPos = 0;
+            int nextInsert = 0;
+            int misses = 0;
+            while (inPos < limit) {
+                // 跳过的位置和match覆盖的位置也要加到链中，否则后面找不到它们
+                while (nextInsert <= inPos) {
+                    int h = hash(readInt(in, nextInsert));
+                    chainTab[nextInsert & MAX_OFF] = hashTab[h];
+                    hashTab[h] = nextInsert++;
+                }
+                int v = readInt(in, inPos);
+                int ref = chainTab[inPos & MAX_OFF];
+                int bestRef = -1;
+                int bestLen = 0;
+                for (int i = 0; i < HIGH_SEARCH_DEPTH && ref >= 0 && inPos - ref <= MAX_OFF; i++) {
+                    if (readInt(in, ref) == v) {
+                        int len = MIN_MATCH;
+                        while (inPos + len < matchLimit && in[inPos + len] == in[ref + len]) {
+                            len++;
+                        }
+                        if (len > bestLen) {
+                            bestLen = len;
+                            bestRef = ref;
+                        }
+                    }
+                    ref = chainTab[ref & MAX_OFF];
+                }
+                if (bestRef < 0) {
+                    inPos += 1 + (misses++ >>> SKIP_TRIGGER);
+                    continue;
+                }
+                misses = 0;
+                ref = bestRef;
+                while (inPos > anchor && ref > 0 && in[inPos - 1] == in[ref - 1]) {
+                    inPos--;
+                    ref--;
+                    bestLen++;
+                }
+                outPos = writeSequence(in, anchor, inPos - anchor, inPos - ref, bestLen, out, outPos);
+                inPos += bestLen;
+                anchor = inPos;
+            }
+        }
+        return writeLastLiterals(in, anchor, inLen - anchor, out, outPos);
+    }
+
+    private static int writeSequence(byte[] in, int literalPos, int literalLen, int offset, int matchLen,
+            byte[] out, int outPos) {
+        int tokenPos = outPos++;
+        int token;
+        if (literalLen >= 15) {
+            token = 15 << 4;
+            outPos = writeLength(literalLen - 15, out, outPos);
+        } else {
+            token = literalLen << 4;
+        }
+        System.arraycopy(in, literalPos, out, outPos, literalLen);
+        outPos += literalLen;
+        out[outPos++] = (byte) offset;
+        out[outPos++] = (byte) (offset >>> 8);
+        matchLen -= MIN_MATCH;
+        if (matchLen >= 15) {
+            token |= 15;
+            outPos = writeLength(matchLen - 15, out, outPos);
+        } else {
+            token |= matchLen;
+        }
+        out[tokenPos] = (byte) token;
+        return outPos;
+    }
+
+    private static int writeLastLiterals(byte[] in, int literalPos, int literalLen, byte[] out, int outPos) {
+        if (literalLen >= 15) {
+            out[outPos++] = (byte) (15 << 4);
+            outPos = writeLength(literalLen - 15, out, outPos);
+        } else {
+            out[outPos++] = (byte) (literalLen << 4);
+        }
+        System.arraycopy(in, literalPos, out, outPos, literalLen);
+        return outPos + literalLen;
+    }
+
+    private static int writeLength(int len, byte[] out, int outPos) {
+        while (len >= 255) {
+            out[outPos++] = (byte) 255;
+            len -= 255;
+        }
+        out[outPos++] = (byte) len;
+        return outPos;
+    }
+
+    @Override
+    public void expand(byte[] in, int inPos, int inLen, byte[] out, int outPos, int outLen) {
+        if (inPos < 0 || outPos < 0 || outLen < 0) {
+            throw new IllegalArgumentException();
+        }
+        int inEnd = inPos + inLen;
+        int outStart = outPos;
+        int outEnd = outPos + outLen;
+        while (true) {
+            int token = in[inPos++] & 255;
+            int literalLen = token >>> 4;
+            if (literalLen == 15) {
+                int b;
+                do {
+                    b = in[inPos++] & 255;
+                    literalLen += b;
+                } while (b == 255);
+            }
+            System.arraycopy(in, inPos, out, outPos, literalLen);
+            inPos += literalLen;
+            outPos += literalLen;
+            if (inPos >= inEnd) {
+                break;
+            }
+            int offset = (in[inPos++] & 255) | ((in[inPos++] & 255) << 8);
+            int matchLen = token & 15;
+            if (matchLen == 15) {
+                int b;
+                do {
+                    b = in[inPos++] & 255;
+                    matchLen += b;
+                } while (b == 255);
+            }
+            matchLen += MIN_MATCH;
+            int ref = outPos - offset;
+            if (offset == 0 || ref < outStart || outPos + matchLen > outEnd) {
+                throw new ArrayIndexOutOfBoundsException();
+            }
+            if (offset >= matchLen) {
+                System.arraycopy(out, ref, out, outPos, matchLen);
+                outPos += matchLen;
+            } else {
+                // 重叠的复制只能逐字节进行
+                for (int i = 0; i < matchLen; i++) {
+                    out[outPos++] = out[ref++];
+                }
+            }
+        }
+        if (outPos != outEnd) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+    }
+
+    @Override
+    public int getAlgorithm() {
+        return Compressor.LZ4;
+    }
+}
@@ -61,7 +61,7 @@ public class CompressTool {
      * supplied, LZF is used
      *
      * @param in the byte array with the original data
-     * @param algorithm the algorithm (LZF, DEFLATE)
+     * @param algorithm the algorithm (LZF, LZ4, DEFLATE)
      * @return the compressed data
      */
     public byte[] compress(byte[] in, String algorithm) {
@@ -245,6 +245,8 @@ public class CompressTool {
             return Compressor.LZF;
         } else if ("DEFLATE".equals(algorithm)) {
             return Compressor.DEFLATE;
+        } else if ("LZ4".equals(algorithm)) {
+            return Compressor.LZ4;
         } else {
             throw DbException.get(ErrorCode.UNSUPPORTED_COMPRESSION_ALGORITHM_1, algorithm);
         }
@@ -258,6 +260,8 @@ public class CompressTool {
             return new CompressLZF();
         case Compressor.DEFLATE:
             return new CompressDeflate();
+        case Compressor.LZ4:
+            return new CompressLZ4();
         default:
             throw DbException.get(ErrorCode.UNSUPPORTED_COMPRESSION_ALGORITHM_1, "" + algorithm);
         }
@@ -18,6 +18,8 @@
 package org.lealone.common.util;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 
@@ -58,6 +60,39 @@ public class UnsafeUtils {
         }
     }
 
+    /**
+     * 立即释放direct buffer或内存映射占用的内存，调用之后不能再访问这个buffer，否则会导致jvm崩溃
+     *
+     * @return 释放失败时返回false，此时只能等gc回收
+     */
+    public static boolean invokeCleaner(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect())
+            return false;
+        try {
+            // java 9及以上版本
+            Method m = UNSAFE.getClass().getMethod("invokeCleaner", ByteBuffer.class);
+            m.invoke(UNSAFE, buffer);
+            return true;
+        } catch (NoSuchMethodException e) {
+            // java 8
+            try {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    Method cleanMethod = cleaner.getClass().getMethod("clean");
+                    cleanMethod.setAccessible(true);
+                    cleanMethod.invoke(cleaner);
+                }
+                return true;
+            } catch (Throwable t) {
+                return false;
+            }
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+
     public static boolean compareAndSwapObject(Object object, long fieldOffset, Object cmp, Object val) {
         return UNSAFE.compareAndSwapObject(object, fieldOffset, cmp, val);
     }
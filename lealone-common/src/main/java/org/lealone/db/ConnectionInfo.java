@@ -36,7 +36,8 @@ public class ConnectionInfo implements Cloneable {
         KNOWN_SETTINGS.addAll(SetTypes.getTypes());
 
         String[] connectionSettings = { "IGNORE_UNKNOWN_SETTINGS", "INIT", "USER", "PASSWORD", "PASSWORD_HASH",
-                "IS_LOCAL", Constants.NET_FACTORY_NAME_KEY, "NETWORK_TIMEOUT" };
+                "IS_LOCAL", Constants.NET_FACTORY_NAME_KEY, "NETWORK_TIMEOUT",
+                Constants.CLIENT_CONNECTIONS_PER_ENDPOINT_KEY, Constants.CLIENT_NIO_EVENT_LOOP_COUNT_KEY };
 
         for (String key : connectionSettings) {
             if (SysProperties.CHECK && KNOWN_SETTINGS.contains(key)) {
@@ -38,6 +38,16 @@ public class Constants {
 
     public static final String NET_FACTORY_NAME_KEY = "NET_FACTORY_NAME";
 
+    /**
+     * 客户端到同一个server的物理连接数，session会按轮询的方式分散到这些连接上，默认是1
+     */
+    public static final String CLIENT_CONNECTIONS_PER_ENDPOINT_KEY = "CLIENT_CONNECTIONS_PER_ENDPOINT";
+
+    /**
+     * 客户端nio event loop的线程数，只在第一次建立连接时读取，默认是1
+     */
+    public static final String CLIENT_NIO_EVENT_LOOP_COUNT_KEY = "CLIENT_NIO_EVENT_LOOP_COUNT";
+
     public static final char NAME_SEPARATOR = '_';
 
     public static final String RESOURCES_DIR = "/org/lealone/common/resources/";
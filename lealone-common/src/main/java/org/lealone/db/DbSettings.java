@@ -94,6 +94,20 @@ public class DbSettings extends SettingsBase {
      */
     public final int analyzeSample = get("ANALYZE_SAMPLE", 10000);
 
+    /**
+     * Database setting <code>ANALYZE_HISTOGRAM_BUCKETS</code> (default: 32).<br />
+     * The number of buckets of the equi-depth histogram ANALYZE builds for
+     * each column. No histogram is built if set to 0.
+     */
+    public final int analyzeHistogramBuckets = get("ANALYZE_HISTOGRAM_BUCKETS", 32);
+
+    /**
+     * Database setting <code>ANALYZE_MOST_COMMON_VALUES</code> (default: 16).<br />
+     * The maximum number of most common values, together with their
+     * frequencies, ANALYZE keeps for each column.
+     */
+    public final int analyzeMostCommonValues = get("ANALYZE_MOST_COMMON_VALUES", 16);
+
     /**
      * Database setting <code>DATABASE_TO_UPPER</code> (default: true).<br />
      * Database short names are converted to uppercase for the DATABASE()
@@ -227,6 +241,24 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean optimizeEvaluatableSubqueries = get("OPTIMIZE_EVALUATABLE_SUBQUERIES", true);
 
+    /**
+     * Database setting <code>OPTIMIZE_CORRELATED_SUBQUERIES</code> (default:
+     * true).<br />
+     * Optimize EXISTS, IN(SELECT ...) and scalar subqueries that depend on
+     * the outer query. Results are cached by the values of the outer
+     * columns, and EXISTS / IN subqueries that are only correlated by
+     * equality conditions are evaluated as a hash semi join once the
+     * repeated lookups become more expensive than one scan of the table.
+     */
+    public final boolean optimizeCorrelatedSubqueries = get("OPTIMIZE_CORRELATED_SUBQUERIES", true);
+
+    /**
+     * Database setting <code>SUBQUERY_CACHE_SIZE</code> (default: 1024).<br />
+     * The maximum number of cached results per correlated subquery and
+     * statement execution. 0 disables the cache.
+     */
+    public final int subqueryCacheSize = get("SUBQUERY_CACHE_SIZE", 1024);
+
     /**
      * Database setting <code>OPTIMIZE_INSERT_FROM_SELECT</code>
      * (default: true).<br />
@@ -343,6 +375,43 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean persistent = get("PERSISTENT", true);
 
+    /**
+     * Database setting <code>LAZY_OPEN_MAPS</code>
+     * (default: true).<br />
+     * When the database is opened, only the metadata of tables and indexes is
+     * loaded, their storage maps are opened when they are first accessed.
+     * Maps that still have records in the redo log are always opened at once.
+     */
+    public final boolean lazyOpenMaps = get("LAZY_OPEN_MAPS", true);
+
+    /**
+     * Database setting <code>MAP_WARM_UP_THREADS</code>
+     * (default: 0).<br />
+     * The number of background threads that open the lazily opened maps
+     * after the database is opened. 0 means the maps are only opened on
+     * first access.
+     */
+    public final int mapWarmUpThreads = get("MAP_WARM_UP_THREADS", 0);
+
+    /**
+     * Database setting <code>INDEX_LOOKUP_BATCH_SIZE</code>
+     * (default: 256).<br />
+     * When a query reads rows through a secondary index, up to this many
+     * row keys are read from the index first, sorted, and then looked up in
+     * the primary index in key order. 0 or 1 means the rows are looked up
+     * one by one.
+     */
+    public final int indexLookupBatchSize = get("INDEX_LOOKUP_BATCH_SIZE", 256);
+
+    /**
+     * Database setting <code>EXPRESSION_COMPILE_THRESHOLD</code>
+     * (default: 0).<br />
+     * After a prepared query was executed this many times, its WHERE
+     * condition and the arithmetic expressions of its select list are
+     * compiled to Java classes. 0 means expressions are always interpreted.
+     */
+    public final int expressionCompileThreshold = get("EXPRESSION_COMPILE_THRESHOLD", 0);
+
     public final int cpu = get("CPU", 0);
 
     public final int memory = get("MEMORY", 0);
@@ -20,6 +20,7 @@ package org.lealone.db;
 import java.nio.ByteBuffer;
 
 import org.lealone.common.trace.Trace;
+import org.lealone.db.value.Value;
 import org.lealone.sql.ParsedStatement;
 import org.lealone.sql.PreparedStatement;
 import org.lealone.storage.StorageCommand;
@@ -41,6 +42,10 @@ public class DelegatedSession implements Session {
         this.session = session;
     }
 
+    public Session getSession() {
+        return session;
+    }
+
     @Override
     public void addSavepoint(String name) {
         session.addSavepoint(name);
@@ -330,4 +335,9 @@ public class DelegatedSession implements Session {
     public Session getNestedSession(String hostAndPort, boolean remote) {
         return session.getNestedSession(hostAndPort, remote);
     }
+
+    @Override
+    public Value executeService(String serviceName, int methodId, Value[] methodArgs) {
+        return session.executeService(serviceName, methodId, methodArgs);
+    }
 }
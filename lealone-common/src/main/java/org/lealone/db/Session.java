@@ -9,7 +9,9 @@ package org.lealone.db;
 import java.io.Closeable;
 import java.nio.ByteBuffer;
 
+import org.lealone.common.exceptions.DbException;
 import org.lealone.common.trace.Trace;
+import org.lealone.db.value.Value;
 import org.lealone.sql.ParsedStatement;
 import org.lealone.sql.PreparedStatement;
 import org.lealone.storage.StorageCommand;
@@ -73,6 +75,10 @@ public interface Session extends Closeable, Transaction.Participant {
     public static final int COMMAND_STORAGE_DISTRIBUTED_TRANSACTION_REPLICATION_PUT = 163;
     public static final int COMMAND_STORAGE_APPEND = 164;
     public static final int COMMAND_STORAGE_DISTRIBUTED_TRANSACTION_APPEND = 165;
+    public static final int COMMAND_STORAGE_ADD_IF_ABSENT = 166;
+    public static final int COMMAND_STORAGE_DISTRIBUTED_TRANSACTION_ADD_IF_ABSENT = 167;
+    public static final int COMMAND_STORAGE_REMOVE = 168;
+    public static final int COMMAND_STORAGE_DISTRIBUTED_TRANSACTION_REMOVE = 169;
 
     public static final int COMMAND_STORAGE_GET = 170;
     public static final int COMMAND_STORAGE_DISTRIBUTED_TRANSACTION_GET = 171;
@@ -83,7 +89,10 @@ public interface Session extends Closeable, Transaction.Participant {
     public static final int COMMAND_STORAGE_REPLICATE_ROOT_PAGES = 183;
     public static final int COMMAND_STORAGE_READ_PAGE = 184;
 
+    public static final int COMMAND_EXECUTE_SERVICE = 200;
+
     public static final int COMMAND_P2P_MESSAGE = 300;
+    public static final int COMMAND_P2P_MESSAGES = 301;
 
     public static final int STATUS_OK = 1000;
     public static final int STATUS_CLOSED = 1001;
@@ -249,4 +258,16 @@ public interface Session extends Closeable, Transaction.Participant {
     default String getUserName() {
         return null;
     }
+
+    /**
+     * 按方法id调用服务，参数和返回值都是Value，不需要经过json编码。
+     *
+     * @param serviceName 服务名
+     * @param methodId 方法在CREATE SERVICE语句中的定义顺序，从0开始
+     * @param methodArgs 方法参数
+     * @return 方法返回值，void方法返回ValueNull
+     */
+    default Value executeService(String serviceName, int methodId, Value[] methodArgs) {
+        throw DbException.getUnsupportedException("executeService");
+    }
 }
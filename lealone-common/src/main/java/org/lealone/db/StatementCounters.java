@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.db;
+
+/**
+ * 一条语句在执行过程中累计的计数器，只在打开QUERY_STATISTICS时才创建。
+ * 
+ * 语句总是在一个线程中一步一步执行的，每执行一步前把计数器设为当前线程的计数器，
+ * 执行完再恢复成原来的，这样存储层不需要知道当前的语句和session也能把计数记到正确的语句上，
+ * 而且计数器只被一个线程修改，不需要同步。
+ */
+public class StatementCounters {
+
+    private static final ThreadLocal<StatementCounters> current = new ThreadLocal<>();
+
+    public long rowsRead;
+    public long pageCacheHits;
+    public long pageCacheMisses;
+    public long lockWaitTimeNanos;
+    public long yields; // 因为等待page从硬盘读出来而让出线程的次数
+
+    public static StatementCounters getCurrent() {
+        return current.get();
+    }
+
+    /**
+     * 设置当前线程的计数器。
+     * 
+     * @param counters 新的计数器，可以是null
+     * @return 原来的计数器
+     */
+    public static StatementCounters setCurrent(StatementCounters counters) {
+        StatementCounters old = current.get();
+        if (old != counters)
+            current.set(counters);
+        return old;
+    }
+
+    public static void pageCacheHit() {
+        StatementCounters counters = current.get();
+        if (counters != null)
+            counters.pageCacheHits++;
+    }
+
+    public static void pageCacheMiss() {
+        StatementCounters counters = current.get();
+        if (counters != null)
+            counters.pageCacheMisses++;
+    }
+
+    public static void statementYielded() {
+        StatementCounters counters = current.get();
+        if (counters != null)
+            counters.yields++;
+    }
+}
@@ -88,6 +88,14 @@ public class SysProperties {
      */
     public static final boolean CHECK2 = getProperty("check2", false);
 
+    /**
+     * System property <code>client.batch.chunk.size</code> (default: 1000).<br />
+     * The maximum number of statements or parameter sets the JDBC client sends
+     * to the server in one request when a batch is executed. Larger batches
+     * are split into several requests.
+     */
+    public static final int CLIENT_BATCH_CHUNK_SIZE = Math.max(1, getProperty("client.batch.chunk.size", 1000));
+
     /**
      * System property <code>client.trace.directory</code> (default: trace.db/).<br />
      * Directory where the trace files of the JDBC client are stored (only for client / server).
@@ -23,6 +23,7 @@ import org.lealone.db.Session;
 import org.lealone.db.async.AsyncHandler;
 import org.lealone.db.async.AsyncResult;
 import org.lealone.db.result.Result;
+import org.lealone.db.value.Value;
 import org.lealone.storage.PageKey;
 
 public interface PreparedStatement extends SQLStatement {
@@ -80,6 +81,16 @@ public interface PreparedStatement extends SQLStatement {
     Yieldable<Result> createYieldableQuery(int maxRows, boolean scrollable,
             AsyncHandler<AsyncResult<Result>> asyncHandler);
 
+    /**
+     * 把JDBC批量执行的多组参数合并成一条语句，例如单行的INSERT可以合并成多行的INSERT
+     *
+     * @param batchParameters 每组参数的值
+     * @return 合并后的语句，不能合并时返回null
+     */
+    default PreparedStatement createBatchStatement(List<Value[]> batchParameters) {
+        return null;
+    }
+
     static interface Yieldable<T> {
         boolean run();
 
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.lealone.common.exceptions.DbException;
+import org.lealone.storage.fs.FileUtils;
+
+/**
+ * 备份的目标，可以是一个zip文件，也可以是一个目录。
+ *
+ * 文件名以'/'结尾或者是一个已经存在的目录时备份到目录中，否则备份到zip文件中。
+ * 备份到目录时可以直接用FileChannel.transferTo在文件之间复制，不需要经过用户态的缓冲区。
+ *
+ * @author zhh
+ */
+public abstract class BackupTarget implements Closeable {
+
+    public static BackupTarget create(String fileName) {
+        if (fileName.endsWith("/") || fileName.endsWith(File.separator) || FileUtils.isDirectory(fileName))
+            return new DirectoryTarget(fileName);
+        else
+            return new ZipTarget(fileName);
+    }
+
+    protected final String fileName;
+
+    protected BackupTarget(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * 开始写一个新的文件，返回的channel只在调用endEntry之前有效
+     *
+     * @param entryName 用'/'分隔的相对路径
+     * @return 写入文件内容的channel
+     */
+    public abstract WritableByteChannel beginEntry(String entryName) throws IOException;
+
+    public abstract void endEntry() throws IOException;
+
+    public void addEntry(String entryName, byte[] bytes) throws IOException {
+        WritableByteChannel out = beginEntry(entryName);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining())
+            out.write(buffer);
+        endEntry();
+    }
+
+    /**
+     * 复制一个不会再被修改的文件，例如已经关闭的文件
+     */
+    public void addFile(String entryName, String file) throws IOException {
+        WritableByteChannel out = beginEntry(entryName);
+        try (FileChannel in = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            long pos = 0;
+            long size = in.size();
+            while (pos < size) {
+                long n = in.transferTo(pos, size - pos, out);
+                if (n <= 0)
+                    break;
+                pos += n;
+            }
+        }
+        endEntry();
+    }
+
+    private static class ZipTarget extends BackupTarget {
+
+        private final ZipOutputStream out;
+        private final WritableByteChannel channel;
+
+        ZipTarget(String fileName) {
+            super(fileName);
+            OutputStream zip;
+            try {
+                zip = FileUtils.newOutputStream(fileName, false);
+            } catch (IOException e) {
+                throw DbException.convertIOException(e, fileName);
+            }
+            out = new ZipOutputStream(zip);
+            // chunk文件通常已经压缩过了，用最快的压缩级别，避免备份时占用太多cpu
+            out.setLevel(Deflater.BEST_SPEED);
+            channel = Channels.newChannel(out);
+        }
+
+        @Override
+        public WritableByteChannel beginEntry(String entryName) throws IOException {
+            out.putNextEntry(new ZipEntry(entryName));
+            return channel;
+        }
+
+        @Override
+        public void endEntry() throws IOException {
+            out.closeEntry();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static class DirectoryTarget extends BackupTarget {
+
+        private FileChannel current;
+
+        DirectoryTarget(String fileName) {
+            super(fileName);
+            FileUtils.createDirectories(fileName);
+        }
+
+        @Override
+        public WritableByteChannel beginEntry(String entryName) throws IOException {
+            Path file = Paths.get(fileName, entryName);
+            Files.createDirectories(file.getParent());
+            // 增量备份时会覆盖旧文件
+            current = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            return current;
+        }
+
+        @Override
+        public void endEntry() throws IOException {
+            try {
+                current.force(true);
+            } finally {
+                current.close();
+                current = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+        }
+    }
+}
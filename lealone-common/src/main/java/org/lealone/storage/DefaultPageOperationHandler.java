@@ -35,6 +35,7 @@ public class DefaultPageOperationHandler implements PageOperationHandler, Runnab
     // LinkedBlockingQueue测出的性能不如ConcurrentLinkedQueue好
     private final ConcurrentLinkedQueue<PageOperation> tasks = new ConcurrentLinkedQueue<>();
     private final AtomicLong size = new AtomicLong();
+    private final PageOperationMetrics metrics = new PageOperationMetrics();
     private final Semaphore haveWork = new Semaphore(1);
     private final String name;
     private final long loopInterval;
@@ -57,6 +58,11 @@ public class DefaultPageOperationHandler implements PageOperationHandler, Runnab
         return size.get();
     }
 
+    @Override
+    public PageOperationMetrics getMetrics() {
+        return metrics;
+    }
+
     @Override
     public void handlePageOperation(PageOperation task) {
         size.incrementAndGet();
@@ -81,6 +87,7 @@ public class DefaultPageOperationHandler implements PageOperationHandler, Runnab
             size.set(0);
             tasks.clear();
         }
+        metrics.reset();
     }
 
     public void start() {
@@ -126,7 +133,8 @@ public class DefaultPageOperationHandler implements PageOperationHandler, Runnab
     private void runTasks() {
         PageOperation task = tasks.poll();
         while (task != null) {
-            size.decrementAndGet();
+            long queueSize = size.decrementAndGet();
+            long start = System.nanoTime();
             try {
                 task.run(this);
                 // PageOperationResult result = task.run(this);
@@ -136,6 +144,7 @@ public class DefaultPageOperationHandler implements PageOperationHandler, Runnab
             } catch (Throwable e) {
                 logger.warn("Failed to run page operation: " + task, e);
             }
+            metrics.record(start, queueSize);
             task = tasks.poll();
         }
     }
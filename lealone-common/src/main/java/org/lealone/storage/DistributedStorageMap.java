@@ -32,6 +32,10 @@ public interface DistributedStorageMap<K, V> extends StorageMap<K, V> {
 
     Object replicationPut(Session session, Object key, Object value, StorageDataType valueType);
 
+    boolean replicationAddIfAbsent(Session session, Object key, Object value, StorageDataType valueType);
+
+    boolean replicationRemove(Session session, Object key);
+
     Object replicationGet(Session session, Object key);
 
     Object replicationAppend(Session session, Object value, StorageDataType valueType);
@@ -18,6 +18,7 @@
 package org.lealone.storage;
 
 import java.util.List;
+import java.util.function.Predicate;
 
 public class IterationParameters<K> {
 
@@ -26,6 +27,9 @@ public class IterationParameters<K> {
     public List<PageKey> pageKeys;
     public int[] columnIndexes;
     public boolean allColumns;
+    public int lookupBatchSize; // 通过二级索引回表时一批最多查找多少行，0表示逐行查找
+    // 列式存储时用leaf page中每一列的统计信息(zone map)判断这个page是否可能有满足条件的记录，返回false就跳过整个page
+    public Predicate<Object[]> pageFilter;
 
     public <K2> IterationParameters<K2> copy(K2 from, K2 to) {
         IterationParameters<K2> p = new IterationParameters<>();
@@ -33,6 +37,8 @@ public class IterationParameters<K> {
         p.to = to;
         p.pageKeys = pageKeys;
         p.columnIndexes = columnIndexes;
+        p.lookupBatchSize = lookupBatchSize;
+        p.pageFilter = pageFilter;
         return p;
     }
 
@@ -22,4 +22,8 @@ public interface PageOperationHandler {
     long getLoad();
 
     void handlePageOperation(PageOperation po);
+
+    default PageOperationMetrics getMetrics() {
+        return null;
+    }
 }
@@ -24,10 +24,20 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class PageOperationHandlerFactory {
 
-    protected PageOperationHandler nodePageOperationHandler;
-    protected PageOperationHandler[] leafPageOperationHandlers;;
+    // 每个BTreeMap固定用其中一个处理器执行AddChild、RemoveChild这类修改node page的操作，
+    // 同一个map的结构变化需要串行执行，不同的map之间互不影响，所以按map分区，避免所有的map都在一个线程上排队
+    protected PageOperationHandler[] nodePageOperationHandlers;
+    protected PageOperationHandler[] leafPageOperationHandlers;
+    private final AtomicInteger nodePageOperationHandlerIndex = new AtomicInteger(0);
+    private final int nodePageOperationHandlerCount;
 
     protected PageOperationHandlerFactory(Map<String, String> config, PageOperationHandler[] handlers) {
+        if (config.containsKey("node_page_operation_handler_count"))
+            nodePageOperationHandlerCount = Math.max(1,
+                    Integer.parseInt(config.get("node_page_operation_handler_count")));
+        else
+            nodePageOperationHandlerCount = 0; // 按处理器总数计算
+
         if (handlers != null) {
             setPageOperationHandlers(handlers);
             return;
@@ -42,11 +52,17 @@ public abstract class PageOperationHandlerFactory {
         handlerCount = Math.max(1, handlerCount);
 
         if (handlerCount == 1) {
-            nodePageOperationHandler = new DefaultPageOperationHandler("PageOperationHandler", config);
-            leafPageOperationHandlers = new PageOperationHandler[] { nodePageOperationHandler };
+            PageOperationHandler handler = new DefaultPageOperationHandler("PageOperationHandler", config);
+            nodePageOperationHandlers = new PageOperationHandler[] { handler };
+            leafPageOperationHandlers = new PageOperationHandler[] { handler };
         } else {
-            nodePageOperationHandler = new DefaultPageOperationHandler("NodePageOperationHandler", config);
-            handlerCount--;
+            int nodeCount = Math.min(getNodePageOperationHandlerCount(handlerCount), handlerCount - 1);
+            nodePageOperationHandlers = new PageOperationHandler[nodeCount];
+            for (int i = 0; i < nodeCount; i++) {
+                nodePageOperationHandlers[i] = new DefaultPageOperationHandler("NodePageOperationHandler-" + i,
+                        config);
+            }
+            handlerCount -= nodeCount;
             leafPageOperationHandlers = new PageOperationHandler[handlerCount];
             for (int i = 0; i < handlerCount; i++) {
                 leafPageOperationHandlers[i] = new DefaultPageOperationHandler("LeafPageOperationHandler-" + i, config);
@@ -55,13 +71,23 @@ public abstract class PageOperationHandlerFactory {
         startHandlers();
     }
 
+    // 默认每4个处理器分一个给node page
+    private int getNodePageOperationHandlerCount(int handlerCount) {
+        if (nodePageOperationHandlerCount > 0)
+            return nodePageOperationHandlerCount;
+        return Math.max(1, handlerCount / 4);
+    }
+
     public abstract PageOperationHandler getPageOperationHandler();
 
     public void setPageOperationHandlers(PageOperationHandler[] pageOperationHandlers) {
-        nodePageOperationHandler = pageOperationHandlers[0];
         int handlerCount = pageOperationHandlers.length;
+        // 外部传进来的处理器同时也处理其他任务，所以node page的处理器跟leaf page的处理器可以重叠
+        int nodeCount = Math.min(getNodePageOperationHandlerCount(handlerCount), handlerCount);
+        nodePageOperationHandlers = new PageOperationHandler[nodeCount];
+        System.arraycopy(pageOperationHandlers, 0, nodePageOperationHandlers, 0, nodeCount);
         if (handlerCount == 1) {
-            leafPageOperationHandlers = new PageOperationHandler[] { nodePageOperationHandler };
+            leafPageOperationHandlers = new PageOperationHandler[] { pageOperationHandlers[0] };
         } else {
             handlerCount--;
             leafPageOperationHandlers = new PageOperationHandler[handlerCount];
@@ -79,12 +105,30 @@ public abstract class PageOperationHandlerFactory {
         this.leafPageOperationHandlers = leafPageOperationHandlers;
     }
 
+    public PageOperationHandler[] getNodePageOperationHandlers() {
+        return nodePageOperationHandlers;
+    }
+
+    public void setNodePageOperationHandlers(PageOperationHandler[] nodePageOperationHandlers) {
+        this.nodePageOperationHandlers = nodePageOperationHandlers;
+    }
+
     public void setNodePageOperationHandler(PageOperationHandler handler) {
-        nodePageOperationHandler = handler;
+        nodePageOperationHandlers = new PageOperationHandler[] { handler };
     }
 
     public PageOperationHandler getNodePageOperationHandler() {
-        return nodePageOperationHandler != null ? nodePageOperationHandler : leafPageOperationHandlers[0];
+        return nodePageOperationHandlers != null ? nodePageOperationHandlers[0] : leafPageOperationHandlers[0];
+    }
+
+    /**
+     * 轮流分配node page的处理器，每个map在打开时调用一次，之后它的node page操作都交给这个处理器
+     */
+    public PageOperationHandler nextNodePageOperationHandler() {
+        if (nodePageOperationHandlers == null)
+            return leafPageOperationHandlers[0];
+        int index = nodePageOperationHandlerIndex.getAndIncrement() & Integer.MAX_VALUE;
+        return nodePageOperationHandlers[index % nodePageOperationHandlers.length];
     }
 
     public PageOperationHandler getPageOperationHandler(long id) {
@@ -110,8 +154,10 @@ public abstract class PageOperationHandlerFactory {
     }
 
     public void startHandlers() {
-        if (nodePageOperationHandler instanceof DefaultPageOperationHandler) {
-            ((DefaultPageOperationHandler) nodePageOperationHandler).start();
+        for (PageOperationHandler h : nodePageOperationHandlers) {
+            if (h instanceof DefaultPageOperationHandler) {
+                ((DefaultPageOperationHandler) h).start();
+            }
         }
         for (PageOperationHandler h : leafPageOperationHandlers) {
             if (h instanceof DefaultPageOperationHandler) {
@@ -121,8 +167,10 @@ public abstract class PageOperationHandlerFactory {
     }
 
     public void stopHandlers() {
-        if (nodePageOperationHandler instanceof DefaultPageOperationHandler) {
-            ((DefaultPageOperationHandler) nodePageOperationHandler).stop();
+        for (PageOperationHandler h : nodePageOperationHandlers) {
+            if (h instanceof DefaultPageOperationHandler) {
+                ((DefaultPageOperationHandler) h).stop();
+            }
         }
         for (PageOperationHandler h : leafPageOperationHandlers) {
             if (h instanceof DefaultPageOperationHandler) {
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.storage;
+
+/**
+ * 记录一个PageOperationHandler的队列长度和每个PageOperation的执行时间。
+ *
+ * 只由处理器自己的线程更新，其他线程读到的值可能稍微滞后，用于监控足够了。
+ */
+public class PageOperationMetrics {
+
+    private volatile long completedCount;
+    private volatile long totalRunNanos;
+    private volatile long maxRunNanos;
+    private volatile long lastQueueSize;
+    private volatile long maxQueueSize;
+
+    /**
+     * 执行完一个PageOperation后调用
+     *
+     * @param startNanos 开始执行时System.nanoTime()的值
+     * @param queueSize 取出这个PageOperation时队列中剩下的个数
+     */
+    public void record(long startNanos, long queueSize) {
+        long nanos = System.nanoTime() - startNanos;
+        completedCount++;
+        totalRunNanos += nanos;
+        if (nanos > maxRunNanos)
+            maxRunNanos = nanos;
+        lastQueueSize = queueSize;
+        if (queueSize > maxQueueSize)
+            maxQueueSize = queueSize;
+    }
+
+    public long getCompletedCount() {
+        return completedCount;
+    }
+
+    public long getTotalRunNanos() {
+        return totalRunNanos;
+    }
+
+    public long getAverageRunNanos() {
+        long count = completedCount;
+        return count == 0 ? 0 : totalRunNanos / count;
+    }
+
+    public long getMaxRunNanos() {
+        return maxRunNanos;
+    }
+
+    public long getQueueSize() {
+        return lastQueueSize;
+    }
+
+    public long getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    public void reset() {
+        completedCount = 0;
+        totalRunNanos = 0;
+        maxRunNanos = 0;
+        lastQueueSize = 0;
+        maxQueueSize = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "completed: " + completedCount + ", avg run: " + getAverageRunNanos() / 1000 + "us, max run: "
+                + maxRunNanos / 1000 + "us, queue: " + lastQueueSize + ", max queue: " + maxQueueSize;
+    }
+}
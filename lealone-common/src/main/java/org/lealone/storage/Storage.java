@@ -33,6 +33,13 @@ public interface Storage {
 
     boolean hasMap(String name);
 
+    /**
+     * 跟hasMap不同，这里不要求map已经打开，只要它的数据已经保存到存储中就返回true
+     */
+    default boolean hasPersistedMap(String name) {
+        return hasMap(name);
+    }
+
     StorageMap<?, ?> getMap(String name);
 
     Set<String> getMapNames();
@@ -51,7 +58,19 @@ public interface Storage {
 
     void drop();
 
-    void backupTo(String fileName);
+    default void backupTo(String fileName) {
+        backupTo(fileName, null);
+    }
+
+    /**
+     * 备份到zip文件或目录中
+     *
+     * @param fileName zip文件名或目录
+     * @param lastDate 不为null时是增量备份，只备份在这个时间(毫秒)之后生成的文件
+     */
+    void backupTo(String fileName, Long lastDate);
+
+    void backupTo(BackupTarget target, Long lastDate);
 
     void close();
 
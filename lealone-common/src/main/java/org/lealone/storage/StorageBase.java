@@ -18,17 +18,12 @@
 package org.lealone.storage;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import org.lealone.common.exceptions.DbException;
-import org.lealone.common.util.IOUtils;
 import org.lealone.db.Constants;
 import org.lealone.storage.fs.FilePath;
 import org.lealone.storage.fs.FileUtils;
@@ -74,7 +69,7 @@ public abstract class StorageBase implements Storage {
         int i = 0;
         String name = null;
         while (true) {
-            name = TEMP_NAME_PREFIX + i;
+            name = TEMP_NAME_PREFIX + i++;
             if (!maps.containsKey(name))
                 return name;
         }
@@ -120,15 +115,25 @@ public abstract class StorageBase implements Storage {
     }
 
     @Override
-    public void backupTo(String fileName) {
+    public void backupTo(String fileName, Long lastDate) {
+        try (BackupTarget target = BackupTarget.create(fileName)) {
+            backupTo(target, lastDate);
+        } catch (IOException e) {
+            throw DbException.convertIOException(e, fileName);
+        }
+    }
+
+    @Override
+    public void backupTo(BackupTarget target, Long lastDate) {
         if (isInMemory())
             return;
         save();
         // TODO 如何在不关闭存储的情况下备份，可能相关的文件在打开时就用排它锁锁住了，所以读不了
+        // 子类可以覆盖这个方法实现在线备份，例如AOStorage
         close();
 
         String path = getStoragePath(); // 可能是一个文件或目录
-        backupFiles(path, fileName);
+        backupFiles(target, path, lastDate);
     }
 
     @Override
@@ -165,31 +170,36 @@ public abstract class StorageBase implements Storage {
         listeners.remove(listener);
     }
 
-    private static void backupFiles(String path, String toFile) {
-        try (OutputStream zip = FileUtils.newOutputStream(toFile, false);
-                ZipOutputStream out = new ZipOutputStream(zip)) {
-            FilePath p = FilePath.get(path);
-            if (p.isDirectory()) {
-                String pathShortName = path.replace('\\', '/');
-                pathShortName = pathShortName.substring(pathShortName.lastIndexOf('/') + 1);
-                FilePath dir = FilePath.get(path);
-                for (FilePath map : dir.newDirectoryStream()) {
-                    String entryNameBase = pathShortName + "/" + map.getName();
-                    for (FilePath file : map.newDirectoryStream()) {
-                        backupFile(out, file.newInputStream(), entryNameBase + "/" + file.getName());
-                    }
-                }
-            } else {
-                backupFile(out, p.newInputStream(), p.getName());
+    protected static String getBackupEntryNameBase(String path) {
+        String pathShortName = path.replace('\\', '/');
+        return pathShortName.substring(pathShortName.lastIndexOf('/') + 1);
+    }
+
+    protected static void backupFiles(BackupTarget target, String path, Long lastDate) {
+        FilePath p = FilePath.get(path);
+        if (p.isDirectory()) {
+            String pathShortName = getBackupEntryNameBase(path);
+            for (FilePath map : p.newDirectoryStream()) {
+                backupFiles(target, map, pathShortName + "/" + map.getName(), lastDate);
             }
-        } catch (IOException e) {
-            throw DbException.convertIOException(e, toFile);
+        } else {
+            backupFile(target, p, p.getName(), lastDate);
+        }
+    }
+
+    protected static void backupFiles(BackupTarget target, FilePath dir, String entryNameBase, Long lastDate) {
+        for (FilePath file : dir.newDirectoryStream()) {
+            backupFile(target, file, entryNameBase + "/" + file.getName(), lastDate);
         }
     }
 
-    private static void backupFile(ZipOutputStream out, InputStream in, String entryName) throws IOException {
-        out.putNextEntry(new ZipEntry(entryName));
-        IOUtils.copyAndCloseInput(in, out);
-        out.closeEntry();
+    private static void backupFile(BackupTarget target, FilePath file, String entryName, Long lastDate) {
+        if (lastDate != null && file.lastModified() < lastDate)
+            return;
+        try {
+            target.addFile(entryName, file.toRealPath().toString());
+        } catch (IOException e) {
+            throw DbException.convertIOException(e, file.toString());
+        }
     }
 }
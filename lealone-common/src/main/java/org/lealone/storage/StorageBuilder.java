@@ -92,6 +92,42 @@ public abstract class StorageBuilder {
         return set("cacheSize", mb);
     }
 
+    /**
+     * Set how blocks of the chunk files are cached: "file" gives every file its
+     * own 1 MB block cache, "global" shares one block cache between all files
+     * and "none" reads the files directly. The default is "none" when the page
+     * cache is enabled, so that the same data is not cached twice, otherwise
+     * "file".
+     *
+     * @param mode the block cache mode
+     * @return this
+     */
+    public StorageBuilder fileBlockCache(String mode) {
+        return set("fileBlockCache", mode);
+    }
+
+    /**
+     * Read pages into pooled direct buffers. This has no effect for encrypted
+     * stores.
+     *
+     * @return this
+     */
+    public StorageBuilder directReadBuffer() {
+        return set("directReadBuffer", true);
+    }
+
+    /**
+     * Read pages directly from chunk files mapped into memory, so that the
+     * operating system page cache is used without copying. Chunk files are
+     * unmapped when they are deleted. This has no effect for encrypted
+     * stores.
+     *
+     * @return this
+     */
+    public StorageBuilder mmapChunkFile() {
+        return set("mmapChunkFile", true);
+    }
+
     /**
      * Compress data before writing using the LZF algorithm. This will save
      * about 50% of the disk space, but will slow down read and write
@@ -122,6 +158,18 @@ public abstract class StorageBuilder {
         return set("compress", 2);
     }
 
+    /**
+     * Compress data before writing using the LZ4 algorithm. It compresses
+     * and expands about as fast as LZF, but saves more disk space on text data.
+     * <p>
+     * This setting only affects writes, like {@link #compress()}.
+     * 
+     * @return this
+     */
+    public StorageBuilder compressLZ4() {
+        return set("compress", 3);
+    }
+
     /**
      * Set the amount of memory a page should contain at most, in bytes,
      * before it is split. The default is 16 KB for persistent stores and 4
@@ -136,6 +184,30 @@ public abstract class StorageBuilder {
         return set("pageSplitSize", pageSplitSize);
     }
 
+    /**
+     * Set the percentage (50 to 100) of entries kept in the left page when a
+     * page is split because of sequential inserts, and how full the leaf pages
+     * are filled by a bulk load. The default is 90. Pages split by random
+     * inserts are always split in half.
+     *
+     * @param fillFactor the fill factor
+     * @return this
+     */
+    public StorageBuilder fillFactor(int fillFactor) {
+        return set("fillFactor", fillFactor);
+    }
+
+    /**
+     * Adjust the page split size between a quarter of pageSplitSize and
+     * pageSplitSize according to the observed read/write mix. Read-mostly maps
+     * get smaller pages.
+     *
+     * @return this
+     */
+    public StorageBuilder adaptivePageSplitSize() {
+        return set("adaptivePageSplitSize", true);
+    }
+
     /**
      * Set the listener to be used for exceptions that occur when writing in
      * the background thread.
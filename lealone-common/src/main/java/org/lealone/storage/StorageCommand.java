@@ -26,6 +26,12 @@ public interface StorageCommand extends Command, AutoCloseable {
 
     Object executePut(String replicationName, String mapName, ByteBuffer key, ByteBuffer value, boolean raw);
 
+    // key已经存在时返回false
+    boolean executeAddIfAbsent(String replicationName, String mapName, ByteBuffer key, ByteBuffer value);
+
+    // key被其他事务锁住时返回false，key不存在时不用删除，返回true
+    boolean executeRemove(String replicationName, String mapName, ByteBuffer key);
+
     Object executeGet(String mapName, ByteBuffer key);
 
     LeafPageMovePlan prepareMoveLeafPage(String mapName, LeafPageMovePlan leafPageMovePlan);
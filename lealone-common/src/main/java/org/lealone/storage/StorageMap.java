@@ -17,6 +17,11 @@
  */
 package org.lealone.storage;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
 import org.lealone.common.exceptions.DbException;
 import org.lealone.db.async.AsyncHandler;
 import org.lealone.db.async.AsyncResult;
@@ -64,6 +69,22 @@ public interface StorageMap<K, V> {
         return get(key);
     }
 
+    /**
+     * Get the values of multiple keys. If the keys are sorted in ascending order,
+     * an implementation can look up all keys of the same leaf page in one step.
+     *
+     * @param keys the keys
+     * @param columnIndexes the columns to read, null means all columns
+     * @return the values, in the same order as the keys (null if the key did not exist)
+     */
+    default List<V> getAll(List<K> keys, int[] columnIndexes) {
+        List<V> values = new ArrayList<>(keys.size());
+        for (K key : keys) {
+            values.add(get(key, columnIndexes));
+        }
+        return values;
+    }
+
     /**
      * Add or replace a key-value pair.
      *
@@ -230,6 +251,71 @@ public interface StorageMap<K, V> {
 
     K append(V value);
 
+    /**
+     * Append multiple values, the keys are allocated in one step.
+     *
+     * @param values the values (may not contain null)
+     * @return the new keys, in the same order as the values
+     */
+    default List<K> appendAll(List<V> values) {
+        List<K> keys = new ArrayList<>(values.size());
+        for (V v : values) {
+            keys.add(append(v));
+        }
+        return keys;
+    }
+
+    /**
+     * Add or replace multiple key-value pairs.
+     *
+     * @param keys the keys (may not contain null)
+     * @param values the values, in the same order as the keys
+     * @return the old values, in the same order as the keys (null if the key did not exist)
+     */
+    default List<V> putAll(List<K> keys, List<V> values) {
+        List<V> oldValues = new ArrayList<>(keys.size());
+        for (int i = 0, size = keys.size(); i < size; i++) {
+            oldValues.add(put(keys.get(i), values.get(i)));
+        }
+        return oldValues;
+    }
+
+    /**
+     * Remove multiple key-value pairs.
+     *
+     * @param keys the keys (may not contain null)
+     * @return the old values, in the same order as the keys (null if the key did not exist)
+     */
+    default List<V> removeAll(List<K> keys) {
+        List<V> oldValues = new ArrayList<>(keys.size());
+        for (K key : keys) {
+            oldValues.add(remove(key));
+        }
+        return oldValues;
+    }
+
+    /**
+     * Load key-value pairs that are already sorted by key into an empty map.
+     * The keys must be in strictly ascending order.
+     *
+     * @param sortedEntries the entries, sorted by key
+     */
+    default void bulkLoad(Iterator<? extends Map.Entry<K, V>> sortedEntries) {
+        while (sortedEntries.hasNext()) {
+            Map.Entry<K, V> e = sortedEntries.next();
+            put(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * 原地修改了key对应的值之后调用(比如事务map对value做compareAndSet)，
+     * 让底层存储知道key所在页面的值已经变了，比如让页面的zone map失效。
+     *
+     * @param key the key
+     */
+    default void markDirty(K key) {
+    }
+
     void setMaxKey(Object key);
 
     long getDiskSpaceUsed();
@@ -274,6 +360,27 @@ public interface StorageMap<K, V> {
         return k;
     }
 
+    // 以下是批量写操作的异步API，所有key都处理完后只回调一次handler，
+    // 结果是每个key对应的旧值，顺序与传入的keys一致
+
+    default void putAll(List<K> keys, List<V> values, AsyncHandler<AsyncResult<List<V>>> handler) {
+        List<V> oldValues = putAll(keys, values);
+        handleAsyncResult(handler, oldValues);
+    }
+
+    default void putAllIfAbsent(List<K> keys, List<V> values, AsyncHandler<AsyncResult<List<V>>> handler) {
+        List<V> oldValues = new ArrayList<>(keys.size());
+        for (int i = 0, size = keys.size(); i < size; i++) {
+            oldValues.add(putIfAbsent(keys.get(i), values.get(i)));
+        }
+        handleAsyncResult(handler, oldValues);
+    }
+
+    default void removeAll(List<K> keys, AsyncHandler<AsyncResult<List<V>>> handler) {
+        List<V> oldValues = removeAll(keys);
+        handleAsyncResult(handler, oldValues);
+    }
+
     static <R> void handleAsyncResult(AsyncHandler<AsyncResult<R>> handler, R result) {
         AsyncResult<R> ar = new AsyncResult<>();
         ar.setResult(result);
@@ -17,6 +17,8 @@
  */
 package org.lealone.storage;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.lealone.common.util.DataUtils;
@@ -75,6 +77,20 @@ public abstract class StorageMapBase<K, V> implements StorageMap<K, V> {
         return key;
     }
 
+    // 一次性分配一段连续的key，然后用批量写操作写入，新的key总是递增的，所以不需要再排序
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<K> appendAll(List<V> values) {
+        int size = values.size();
+        long last = maxKey.addAndGet(size);
+        List<K> keys = new ArrayList<>(size);
+        for (long k = last - size + 1; k <= last; k++) {
+            keys.add((K) ValueLong.get(k));
+        }
+        putAll(keys, values);
+        return keys;
+    }
+
     // 如果新key比lastKey大就更新lastKey
     // 允许多线程并发更新
     @Override
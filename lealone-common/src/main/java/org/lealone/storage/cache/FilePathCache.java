@@ -9,6 +9,8 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.lealone.storage.fs.FileBase;
 import org.lealone.storage.fs.FilePathWrapper;
@@ -18,13 +20,40 @@ import org.lealone.storage.fs.FilePathWrapper;
  */
 public class FilePathCache extends FilePathWrapper {
 
+    // 所有文件共享的块缓存，key的高32位是文件id，低32位是块号
+    private static volatile CacheLongKeyLIRS<ByteBuffer> globalCache;
+    private static final AtomicInteger nextFileId = new AtomicInteger();
+
+    private static CacheLongKeyLIRS<ByteBuffer> getGlobalCache(int cacheSizeMb) {
+        if (globalCache == null) {
+            synchronized (FilePathCache.class) {
+                if (globalCache == null) {
+                    CacheLongKeyLIRS.Config cc = new CacheLongKeyLIRS.Config();
+                    cc.maxMemory = cacheSizeMb * 1024L * 1024L;
+                    globalCache = new CacheLongKeyLIRS<ByteBuffer>(cc);
+                }
+            }
+        }
+        return globalCache;
+    }
+
+    /**
+     * 每个文件有自己的1M缓存
+     */
     public static FileChannel wrap(FileChannel f) {
-        return new FileCache(f);
+        return new FileCache(f, null);
+    }
+
+    /**
+     * 所有文件共享一个缓存，只有第一次调用时的cacheSizeMb有效
+     */
+    public static FileChannel wrapGlobal(FileChannel f, int cacheSizeMb) {
+        return new FileCache(f, getGlobalCache(cacheSizeMb));
     }
 
     @Override
     public FileChannel open(String mode) throws IOException {
-        return new FileCache(getBase().open(mode));
+        return new FileCache(getBase().open(mode), null);
     }
 
     @Override
@@ -41,16 +70,30 @@ public class FilePathCache extends FilePathWrapper {
         private final FileChannel base;
 
         private final CacheLongKeyLIRS<ByteBuffer> cache;
+        private final boolean global;
+        private long keyBase;
 
-        {
-            CacheLongKeyLIRS.Config cc = new CacheLongKeyLIRS.Config();
-            // 1 MB cache size
-            cc.maxMemory = 1024 * 1024;
-            cache = new CacheLongKeyLIRS<ByteBuffer>(cc);
+        FileCache(FileChannel base, CacheLongKeyLIRS<ByteBuffer> globalCache) {
+            this.base = base;
+            if (globalCache != null) {
+                cache = globalCache;
+                global = true;
+                keyBase = newKeyBase();
+            } else {
+                CacheLongKeyLIRS.Config cc = new CacheLongKeyLIRS.Config();
+                // 1 MB cache size
+                cc.maxMemory = 1024 * 1024;
+                cache = new CacheLongKeyLIRS<ByteBuffer>(cc);
+                global = false;
+            }
         }
 
-        FileCache(FileChannel base) {
-            this.base = base;
+        private static long newKeyBase() {
+            return (nextFileId.incrementAndGet() & 0xFFFFFFFFL) << 32;
+        }
+
+        private long getCacheKey(long cachePos) {
+            return keyBase + cachePos / CACHE_BLOCK_SIZE;
         }
 
         @Override
@@ -80,7 +123,8 @@ public class FilePathCache extends FilePathWrapper {
             int off = (int) (position - cachePos);
             int len = CACHE_BLOCK_SIZE - off;
             len = Math.min(len, dst.remaining());
-            ByteBuffer buff = cache.get(cachePos);
+            long key = getCacheKey(cachePos);
+            ByteBuffer buff = cache.get(key);
             if (buff == null) {
                 buff = ByteBuffer.allocate(CACHE_BLOCK_SIZE);
                 long pos = cachePos;
@@ -96,7 +140,7 @@ public class FilePathCache extends FilePathWrapper {
                 }
                 int read = buff.position();
                 if (read == CACHE_BLOCK_SIZE) {
-                    cache.put(cachePos, buff, CACHE_BLOCK_SIZE);
+                    cache.put(key, buff, CACHE_BLOCK_SIZE);
                 } else {
                     if (read <= 0) {
                         return -1;
@@ -119,7 +163,10 @@ public class FilePathCache extends FilePathWrapper {
 
         @Override
         public FileChannel truncate(long newSize) throws IOException {
-            cache.clear();
+            if (global)
+                keyBase = newKeyBase(); // 旧的块不会再被访问，由LIRS自己淘汰
+            else
+                cache.clear();
             base.truncate(newSize);
             return this;
         }
@@ -141,7 +188,7 @@ public class FilePathCache extends FilePathWrapper {
                 int len = src.remaining();
                 long p = getCachePos(position);
                 while (len > 0) {
-                    cache.remove(p);
+                    cache.remove(getCacheKey(p));
                     p += CACHE_BLOCK_SIZE;
                     len -= CACHE_BLOCK_SIZE;
                 }
@@ -153,6 +200,12 @@ public class FilePathCache extends FilePathWrapper {
             base.force(metaData);
         }
 
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            // 写操作都直接写到base，所以base中的数据总是最新的，不需要经过缓存
+            return base.transferTo(position, count, target);
+        }
+
         @Override
         public FileLock tryLock(long position, long size, boolean shared) throws IOException {
             return base.tryLock(position, size, shared);
@@ -8,9 +8,11 @@ package org.lealone.storage.fs;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * This file system stores files on disk and uses java.nio to access the files.
@@ -79,6 +81,16 @@ class FileNio extends FileBase {
         return channel.write(src, position);
     }
 
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        return channel.transferTo(position, count, target);
+    }
+
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+        return channel.map(mode, position, size);
+    }
+
     @Override
     public FileChannel truncate(long newLength) throws IOException {
         long size = channel.size();
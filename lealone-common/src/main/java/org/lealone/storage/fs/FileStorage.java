@@ -6,12 +6,15 @@
  */
 package org.lealone.storage.fs;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.lang.ref.Reference;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
 import java.util.Map;
 
@@ -106,6 +109,12 @@ public class FileStorage {
      */
     protected FileChannel encryptedFile;
 
+    /**
+     * The file without encryption and block cache, only set if encryption is
+     * not used.
+     */
+    protected FileChannel baseFile;
+
     /**
      * The file lock.
      */
@@ -579,6 +588,25 @@ public class FileStorage {
         return dst;
     }
 
+    /**
+     * Read from the file into a buffer taken from the pool. The caller should
+     * give the buffer back to the pool when it is no longer used.
+     *
+     * @param pos the read position
+     * @param len the number of bytes to read
+     * @param pool the buffer pool
+     * @return the byte buffer
+     */
+    public ByteBuffer readFully(long pos, int len, ReadBufferPool pool) {
+        ByteBuffer dst = pool.poll(len);
+        if (len > 0) {
+            DataUtils.readFully(file, pos, dst);
+            readCount++;
+            readBytes += len;
+        }
+        return dst;
+    }
+
     /**
      * Write to the file.
      *
@@ -593,6 +621,31 @@ public class FileStorage {
         writeBytes += len;
     }
 
+    /**
+     * Transfer all the raw bytes of the file to the target channel,
+     * the data is not decrypted if encryption is used.
+     *
+     * @param target the target channel
+     */
+    public void transferTo(WritableByteChannel target) {
+        FileChannel f = encryptedFile != null ? encryptedFile : file;
+        try {
+            long pos = 0;
+            long len = f.size();
+            while (len > 0) {
+                long n = f.transferTo(pos, len, target);
+                if (n <= 0)
+                    throw new EOFException();
+                pos += n;
+                len -= n;
+            }
+            readCount++;
+        } catch (IOException e) {
+            throw DataUtils.newIllegalStateException(DataUtils.ERROR_READING_FAILED,
+                    "Transfer failed for file {0}", fileName, e);
+        }
+    }
+
     /**
      * Try to open the file.
      *
@@ -630,12 +683,14 @@ public class FileStorage {
         this.readOnly = readOnly;
         try {
             file = f.open(readOnly ? "r" : "rw");
-            if (encryptionKey != null) {
+            if (encryptionKey == null)
+                baseFile = file;
+            else {
                 byte[] key = FilePathEncrypt.getPasswordBytes(encryptionKey);
                 encryptedFile = file;
                 file = new FilePathEncrypt.FileEncrypt(fileName, key, file);
             }
-            file = FilePathCache.wrap(file);
+            file = wrapBlockCache(file, config);
             try {
                 if (readOnly) {
                     fileLock = file.tryLock(0, Long.MAX_VALUE, true);
@@ -657,6 +712,26 @@ public class FileStorage {
         }
     }
 
+    /**
+     * 块缓存的模式，用fileBlockCache参数指定:
+     * file(默认): 每个文件各自有1M的块缓存;
+     * global: 所有文件共享一个块缓存，大小由fileBlockCacheSize指定，单位是M，默认16M;
+     * none: 不用块缓存，直接按位置读文件，适合上层已经有page缓存的场景，避免同样的数据缓存两次。
+     */
+    private static FileChannel wrapBlockCache(FileChannel file, Map<String, ?> config) {
+        Object mode = config.get("fileBlockCache");
+        if (mode == null || mode.toString().equalsIgnoreCase("file"))
+            return FilePathCache.wrap(file);
+        if (mode.toString().equalsIgnoreCase("none"))
+            return file;
+        if (mode.toString().equalsIgnoreCase("global")) {
+            Object size = config.get("fileBlockCacheSize");
+            int mb = size == null ? 16 : Integer.parseInt(size.toString());
+            return FilePathCache.wrapGlobal(file, mb);
+        }
+        throw DataUtils.newIllegalArgumentException("Unknown fileBlockCache: {0}", mode);
+    }
+
     /**
      * Close this file.
      */
@@ -674,6 +749,26 @@ public class FileStorage {
                     fileName, e);
         } finally {
             file = null;
+            baseFile = null;
+        }
+    }
+
+    /**
+     * Map the whole file into memory in read-only mode. The mapped buffer is
+     * still valid after the file is closed.
+     *
+     * @return the mapped buffer, or null if the file is encrypted or can not
+     *         be mapped
+     */
+    public MappedByteBuffer mapReadOnly() {
+        FileChannel f = baseFile;
+        if (f == null)
+            return null;
+        try {
+            return f.map(FileChannel.MapMode.READ_ONLY, 0, f.size());
+        } catch (UnsupportedOperationException | IllegalArgumentException | IOException e) {
+            // 不支持内存映射的文件系统或者文件太大(超过2G)，还是用普通的读方式
+            return null;
         }
     }
 
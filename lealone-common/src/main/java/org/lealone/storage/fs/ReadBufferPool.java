@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.storage.fs;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 读page时复用的ByteBuffer池。
+ *
+ * 按2的幂分档，最小4K，跟磁盘块对齐，大于1M的不复用。
+ * 使用direct buffer时FileChannel可以直接把数据读进来，不需要再经过JDK内部的临时direct buffer复制一次。
+ */
+public class ReadBufferPool {
+
+    private static final int MIN_SHIFT = 12; // 4K
+    private static final int MAX_SHIFT = 20; // 1M
+    // 每一档最多缓存的个数
+    private static final int MAX_POOLED = 16;
+
+    private static final ReadBufferPool HEAP = new ReadBufferPool(false);
+    private static final ReadBufferPool DIRECT = new ReadBufferPool(true);
+
+    public static ReadBufferPool getInstance(boolean direct) {
+        return direct ? DIRECT : HEAP;
+    }
+
+    private final boolean direct;
+    private final ConcurrentLinkedQueue<ByteBuffer>[] pools;
+    // 每一档已经放入的个数，先占位再放入，取出后再减，所以不会小于队列的实际长度
+    private final AtomicIntegerArray poolSizes;
+
+    @SuppressWarnings("unchecked")
+    private ReadBufferPool(boolean direct) {
+        this.direct = direct;
+        int count = MAX_SHIFT - MIN_SHIFT + 1;
+        pools = new ConcurrentLinkedQueue[count];
+        poolSizes = new AtomicIntegerArray(count);
+        for (int i = 0; i < count; i++) {
+            pools[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    private static int getIndex(int capacity) {
+        if (capacity <= (1 << MIN_SHIFT))
+            return 0;
+        int shift = 32 - Integer.numberOfLeadingZeros(capacity - 1);
+        return shift > MAX_SHIFT ? -1 : shift - MIN_SHIFT;
+    }
+
+    /**
+     * 返回一个position为0，limit为len的buffer，用完后调用offer放回池中
+     */
+    public ByteBuffer poll(int len) {
+        int index = getIndex(len);
+        if (index < 0)
+            return allocate(len);
+        ByteBuffer buff = pools[index].poll();
+        if (buff == null) {
+            buff = allocate(1 << (index + MIN_SHIFT));
+        } else {
+            poolSizes.decrementAndGet(index);
+            buff.clear();
+        }
+        buff.limit(len);
+        return buff;
+    }
+
+    public void offer(ByteBuffer buff) {
+        if (buff == null || buff.isDirect() != direct)
+            return;
+        int capacity = buff.capacity();
+        int index = getIndex(capacity);
+        // 只接收从这里分配出去的buffer
+        if (index < 0 || capacity != (1 << (index + MIN_SHIFT)))
+            return;
+        while (true) {
+            int size = poolSizes.get(index);
+            if (size >= MAX_POOLED)
+                return;
+            if (poolSizes.compareAndSet(index, size, size + 1))
+                break;
+        }
+        pools[index].offer(buff);
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+}
@@ -0,0 +1,510 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.storage.memory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.StampedLock;
+
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueLong;
+import org.lealone.storage.StorageMapCursor;
+import org.lealone.storage.type.StorageDataType;
+
+/**
+ * key是long的内存map，内存表的primary index用它来存放记录。
+ * <p>
+ * key直接放在leaf page的long数组中，增加记录只是在数组中移动元素，
+ * 不像ConcurrentSkipListMap那样每条记录都要分配Node和Index对象，也不用一直引用key对象。
+ * <p>
+ * leaf page按key的范围从左到右连起来(B-link)，每个leaf page有自己的锁，
+ * get先用乐观读，跟写操作冲突时才加读锁；写操作只锁一个leaf page。
+ * directory是lowKey到leaf page的ConcurrentSkipListMap，每个leaf page只占一项，
+ * 切割时在持有leaf page写锁的情况下加入新的leaf page，合并时在持有左右两个leaf page写锁的情况下删除，
+ * 读写操作通过directory找到leaf page，如果切割还没加入directory，顺着right找到的也是正确的leaf page。
+ * 
+ * @param <K> the key class
+ * @param <V> the value class
+ */
+public class LongKeyMemoryMap<K, V> extends MemoryMap<K, V> {
+
+    /**
+     * 通过map的参数mapType指定使用这种map
+     */
+    public static final String MAP_TYPE = "LongKeyMemoryMap";
+
+    private static final int LEAF_CAPACITY = 64;
+    // leaf page中的记录少于这个数时尝试合并到左边的leaf page
+    private static final int MERGE_THRESHOLD = LEAF_CAPACITY / 4;
+
+    private static class Leaf {
+        final StampedLock lock = new StampedLock();
+        final Lock readLock = lock.asReadLock();
+        final Lock writeLock = lock.asWriteLock();
+
+        // 包含[lowKey, highKey)范围的key，right为null时没有上限
+        final long lowKey;
+        long highKey;
+        Leaf right;
+        final long[] keys = new long[LEAF_CAPACITY];
+        final Object[] values = new Object[LEAF_CAPACITY];
+        int size;
+        boolean removed; // 已经合并到左边的leaf page了，或者map被clear了
+
+        Leaf(long lowKey) {
+            this.lowKey = lowKey;
+        }
+
+        boolean contains(long key) {
+            return key >= lowKey && (right == null || key < highKey);
+        }
+
+        int binarySearch(long key) {
+            return Arrays.binarySearch(keys, 0, size, key);
+        }
+    }
+
+    private final Object clearLock = new Object();
+    private volatile ConcurrentSkipListMap<Long, Leaf> directory;
+
+    public LongKeyMemoryMap(String name, StorageDataType keyType, StorageDataType valueType,
+            MemoryStorage memoryStorage, Map<String, String> parameters) {
+        super(name, keyType, valueType, memoryStorage, parameters, null);
+        directory = newDirectory();
+    }
+
+    // 第一个leaf page的lowKey是Long.MIN_VALUE，它不会被合并，所以总能找到小于等于key的leaf page
+    private static ConcurrentSkipListMap<Long, Leaf> newDirectory() {
+        ConcurrentSkipListMap<Long, Leaf> directory = new ConcurrentSkipListMap<>();
+        directory.put(Long.MIN_VALUE, new Leaf(Long.MIN_VALUE));
+        return directory;
+    }
+
+    private static long toLong(Object key) {
+        return key instanceof ValueLong ? ((ValueLong) key).getLong() : ((Value) key).getLong();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> K toKey(long key) {
+        return (K) ValueLong.get(key);
+    }
+
+    private Leaf findLeaf(long key) {
+        return directory.floorEntry(key).getValue();
+    }
+
+    private Leaf readLockLeaf(long key) {
+        Leaf leaf = findLeaf(key);
+        while (true) {
+            leaf.readLock.lock();
+            Leaf next = leaf.removed ? findLeaf(key) : (leaf.contains(key) ? null : leaf.right);
+            if (next == null)
+                return leaf;
+            leaf.readLock.unlock();
+            leaf = next;
+        }
+    }
+
+    private Leaf writeLockLeaf(long key) {
+        Leaf leaf = findLeaf(key);
+        while (true) {
+            leaf.writeLock.lock();
+            Leaf next = leaf.removed ? findLeaf(key) : (leaf.contains(key) ? null : leaf.right);
+            if (next == null)
+                return leaf;
+            leaf.writeLock.unlock();
+            leaf = next;
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        long k = toLong(key);
+        Leaf leaf = findLeaf(k);
+        while (true) {
+            long stamp = leaf.lock.tryOptimisticRead();
+            if (stamp == 0)
+                break;
+            // 乐观读时数组可能正在被修改，读到的只是候选结果，validate通过后才能用
+            boolean removed = leaf.removed;
+            Leaf right = leaf.right;
+            long highKey = leaf.highKey;
+            int index = Arrays.binarySearch(leaf.keys, 0, Math.min(leaf.size, LEAF_CAPACITY), k);
+            Object value = index >= 0 ? leaf.values[index] : null;
+            if (!leaf.lock.validate(stamp))
+                break;
+            if (removed)
+                leaf = findLeaf(k);
+            else if (right != null && k >= highKey)
+                leaf = right;
+            else
+                return (V) value;
+        }
+        // 跟写操作冲突了，加读锁再找
+        leaf = readLockLeaf(k);
+        try {
+            int index = leaf.binarySearch(k);
+            return index >= 0 ? (V) leaf.values[index] : null;
+        } finally {
+            leaf.readLock.unlock();
+        }
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return put(key, value, false);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return put(key, value, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V put(K key, V value, boolean onlyIfAbsent) {
+        long k = toLong(key);
+        while (true) {
+            Leaf leaf = writeLockLeaf(k);
+            try {
+                int index = leaf.binarySearch(k);
+                if (index >= 0) {
+                    V old = (V) leaf.values[index];
+                    if (!onlyIfAbsent) {
+                        leaf.values[index] = value;
+                        afterReplace(value, old);
+                    }
+                    return old;
+                }
+                if (leaf.size < LEAF_CAPACITY) {
+                    // 在锁中检查和占用内存，如果超出上限就不会插入
+                    reserveMemory(key, value);
+                    setMaxKey(key);
+                    index = -index - 1;
+                    int moved = leaf.size - index;
+                    if (moved > 0) {
+                        System.arraycopy(leaf.keys, index, leaf.keys, index + 1, moved);
+                        System.arraycopy(leaf.values, index, leaf.values, index + 1, moved);
+                    }
+                    leaf.keys[index] = k;
+                    leaf.values[index] = value;
+                    leaf.size++;
+                    size.incrementAndGet();
+                    return null;
+                }
+                split(leaf, k);
+            } finally {
+                leaf.writeLock.unlock();
+            }
+        }
+    }
+
+    // 调用者持有leaf page的写锁，新的leaf page要在释放写锁之前加入directory，
+    // 否则它可能先被合并掉，之后又被加进directory
+    private void split(Leaf leaf, long key) {
+        int size = leaf.size;
+        // 总是在最右边追加时只把新key放到新的leaf page，这样左边的leaf page是满的
+        int at = leaf.right == null && key > leaf.keys[size - 1] ? size : size / 2;
+        Leaf right = new Leaf(at == size ? key : leaf.keys[at]);
+        int moved = size - at;
+        System.arraycopy(leaf.keys, at, right.keys, 0, moved);
+        System.arraycopy(leaf.values, at, right.values, 0, moved);
+        Arrays.fill(leaf.values, at, size, null);
+        right.size = moved;
+        right.highKey = leaf.highKey;
+        right.right = leaf.right;
+        leaf.highKey = right.lowKey;
+        leaf.right = right;
+        leaf.size = at;
+        directory.put(right.lowKey, right);
+    }
+
+    // 把leaf page中剩下的记录合并到左边的leaf page，这样删除记录后不会留下很多空的leaf page
+    private void merge(long key) {
+        ConcurrentSkipListMap<Long, Leaf> directory = this.directory;
+        Map.Entry<Long, Leaf> e = directory.floorEntry(key);
+        if (e.getKey() == Long.MIN_VALUE)
+            return;
+        Leaf leaf = e.getValue();
+        Leaf left = directory.lowerEntry(e.getKey()).getValue();
+        // 总是先锁左边的leaf page，跟其他合并操作和clear的加锁顺序一样
+        left.writeLock.lock();
+        leaf.writeLock.lock();
+        try {
+            // 加锁前结构被其他线程改变了，放弃这次合并，留给以后的删除操作
+            if (left.removed || leaf.removed || left.right != leaf)
+                return;
+            int size = leaf.size;
+            // 空的leaf page总是可以合并，否则左边的leaf page不能太满，免得合并后马上又要切割
+            if (size >= MERGE_THRESHOLD || size > 0 && left.size + size > LEAF_CAPACITY * 3 / 4)
+                return;
+            System.arraycopy(leaf.keys, 0, left.keys, left.size, size);
+            System.arraycopy(leaf.values, 0, left.values, left.size, size);
+            left.size += size;
+            left.highKey = leaf.highKey;
+            left.right = leaf.right;
+            leaf.removed = true;
+            directory.remove(leaf.lowKey, leaf);
+        } finally {
+            leaf.writeLock.unlock();
+            left.writeLock.unlock();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(K key) {
+        long k = toLong(key);
+        Leaf leaf = writeLockLeaf(k);
+        V old;
+        boolean merge;
+        try {
+            int index = leaf.binarySearch(k);
+            if (index < 0)
+                return null;
+            old = (V) leaf.values[index];
+            int moved = leaf.size - index - 1;
+            if (moved > 0) {
+                System.arraycopy(leaf.keys, index + 1, leaf.keys, index, moved);
+                System.arraycopy(leaf.values, index + 1, leaf.values, index, moved);
+            }
+            leaf.values[--leaf.size] = null;
+            // 跟插入一样在锁中修改计数器，clear时才能得到准确的结果
+            afterRemove(key, old);
+            // 只在刚好少于合并阈值和变空时尝试合并，避免左边的leaf page太满时每次删除都尝试
+            merge = leaf.lowKey != Long.MIN_VALUE && (leaf.size == MERGE_THRESHOLD - 1 || leaf.size == 0);
+        } finally {
+            leaf.writeLock.unlock();
+        }
+        if (merge)
+            merge(k);
+        return old;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean replace(K key, V oldValue, V newValue) {
+        long k = toLong(key);
+        Leaf leaf = writeLockLeaf(k);
+        try {
+            int index = leaf.binarySearch(k);
+            if (index < 0)
+                return false;
+            V old = (V) leaf.values[index];
+            if (!old.equals(oldValue))
+                return false;
+            leaf.values[index] = newValue;
+            afterReplace(newValue, old);
+            return true;
+        } finally {
+            leaf.writeLock.unlock();
+        }
+    }
+
+    // 大于(或等于)给定key的最小key
+    private K ceiling(long key, boolean inclusive) {
+        if (!inclusive) {
+            if (key == Long.MAX_VALUE)
+                return null;
+            key++;
+        }
+        while (true) {
+            Leaf leaf = readLockLeaf(key);
+            try {
+                int index = leaf.binarySearch(key);
+                if (index < 0)
+                    index = -index - 1;
+                if (index < leaf.size)
+                    return toKey(leaf.keys[index]);
+                if (leaf.right == null)
+                    return null;
+                key = leaf.highKey;
+            } finally {
+                leaf.readLock.unlock();
+            }
+        }
+    }
+
+    // 小于(或等于)给定key的最大key
+    private K floor(long key, boolean inclusive) {
+        if (!inclusive) {
+            if (key == Long.MIN_VALUE)
+                return null;
+            key--;
+        }
+        while (true) {
+            Leaf leaf = readLockLeaf(key);
+            try {
+                int index = leaf.binarySearch(key);
+                if (index < 0)
+                    index = -index - 2;
+                if (index >= 0)
+                    return toKey(leaf.keys[index]);
+                if (leaf.lowKey == Long.MIN_VALUE)
+                    return null;
+                key = leaf.lowKey - 1;
+            } finally {
+                leaf.readLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public K firstKey() {
+        return ceiling(Long.MIN_VALUE, true);
+    }
+
+    @Override
+    public K lastKey() {
+        return floor(Long.MAX_VALUE, true);
+    }
+
+    @Override
+    public K lowerKey(K key) {
+        return floor(toLong(key), false);
+    }
+
+    @Override
+    public K floorKey(K key) {
+        return floor(toLong(key), true);
+    }
+
+    @Override
+    public K higherKey(K key) {
+        return ceiling(toLong(key), false);
+    }
+
+    @Override
+    public K ceilingKey(K key) {
+        return ceiling(toLong(key), true);
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return firstKey() == null;
+    }
+
+    @Override
+    public StorageMapCursor<K, V> cursor(K from) {
+        return new LongKeyMemoryMapCursor(from == null ? Long.MIN_VALUE : toLong(from));
+    }
+
+    // 从左到右锁住所有的leaf page，这样正在写的操作都已经完成了，之后的写操作会发现leaf page被删除了，
+    // 然后到新的directory中重新找
+    @Override
+    public void clear() {
+        synchronized (clearLock) {
+            ArrayList<Leaf> leaves = new ArrayList<>();
+            Leaf leaf = directory.firstEntry().getValue();
+            while (leaf != null) {
+                leaf.writeLock.lock();
+                leaves.add(leaf);
+                leaf = leaf.right;
+            }
+            try {
+                size.set(0);
+                memorySpaceUsed.set(0);
+                directory = newDirectory();
+                for (Leaf l : leaves)
+                    l.removed = true;
+            } finally {
+                for (Leaf l : leaves)
+                    l.writeLock.unlock();
+            }
+        }
+    }
+
+    // 每次复制一个leaf page中的记录，不用一直加锁，跟ConcurrentSkipListMap的cursor一样不保证读到最新的记录
+    private class LongKeyMemoryMapCursor implements StorageMapCursor<K, V> {
+
+        private final long[] keys = new long[LEAF_CAPACITY];
+        private final Object[] values = new Object[LEAF_CAPACITY];
+        private int size;
+        private int index;
+        private boolean hasRight;
+        private long rightKey;
+        private K key;
+        private V value;
+
+        LongKeyMemoryMapCursor(long from) {
+            load(from);
+        }
+
+        private void load(long from) {
+            Leaf leaf = readLockLeaf(from);
+            try {
+                int i = leaf.binarySearch(from);
+                if (i < 0)
+                    i = -i - 1;
+                size = leaf.size - i;
+                System.arraycopy(leaf.keys, i, keys, 0, size);
+                System.arraycopy(leaf.values, i, values, 0, size);
+                index = 0;
+                hasRight = leaf.right != null;
+                rightKey = leaf.highKey;
+            } finally {
+                leaf.readLock.unlock();
+            }
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (index >= size) {
+                if (!hasRight)
+                    return false;
+                load(rightKey);
+            }
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public K next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            key = toKey(keys[index]);
+            value = (V) values[index];
+            values[index++] = null;
+            return key;
+        }
+
+        @Override
+        public void remove() {
+            LongKeyMemoryMap.this.remove(key);
+        }
+    }
+}
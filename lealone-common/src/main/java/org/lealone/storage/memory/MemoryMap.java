@@ -17,9 +17,15 @@
  */
 package org.lealone.storage.memory;
 
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.lealone.common.exceptions.DbException;
+import org.lealone.common.util.DataUtils;
+import org.lealone.db.value.ValueInt;
+import org.lealone.db.value.ValueLong;
 import org.lealone.storage.StorageMapBase;
 import org.lealone.storage.StorageMapCursor;
 import org.lealone.storage.type.StorageDataType;
@@ -43,16 +49,109 @@ public class MemoryMap<K, V> extends StorageMapBase<K, V> {
 
         @Override
         public int compare(K k1, K k2) {
+            // 内存表的primary key都是ValueLong，跳表每次查找都要比较很多次，
+            // 直接比较long值，不必每次都经过StorageDataType和Value.compareTo层层调用
+            if (k1 instanceof ValueLong && k2 instanceof ValueLong)
+                return Long.compare(((ValueLong) k1).getLong(), ((ValueLong) k2).getLong());
+            if (k1 instanceof ValueInt && k2 instanceof ValueInt)
+                return Integer.compare(((ValueInt) k1).getInt(), ((ValueInt) k2).getInt());
             return keyType.compare(k1, k2);
         }
     }
 
+    /**
+     * 单个map能使用的最大内存(单位字节)，通过表的PARAMETERS(maxMemorySize=...)指定，小于等于0表示不限制
+     */
+    public static final String MAX_MEMORY_SIZE = "maxMemorySize";
+
     protected final ConcurrentSkipListMap<K, V> skipListMap;
     protected boolean closed;
 
+    // ConcurrentSkipListMap.size()需要遍历所有元素，所以单独维护记录数
+    protected final AtomicLong size = new AtomicLong();
+    protected final AtomicLong memorySpaceUsed = new AtomicLong();
+    protected final long maxMemorySize;
+
     public MemoryMap(String name, StorageDataType keyType, StorageDataType valueType, MemoryStorage memoryStorage) {
+        this(name, keyType, valueType, memoryStorage, null);
+    }
+
+    public MemoryMap(String name, StorageDataType keyType, StorageDataType valueType, MemoryStorage memoryStorage,
+            Map<String, String> parameters) {
+        this(name, keyType, valueType, memoryStorage, parameters,
+                new ConcurrentSkipListMap<>(new KeyComparator<K>(keyType)));
+    }
+
+    // 子类自己存放记录时skipListMap为null
+    protected MemoryMap(String name, StorageDataType keyType, StorageDataType valueType, MemoryStorage memoryStorage,
+            Map<String, String> parameters, ConcurrentSkipListMap<K, V> skipListMap) {
         super(name, keyType, valueType, memoryStorage);
-        skipListMap = new ConcurrentSkipListMap<>(new KeyComparator<K>(keyType));
+        this.skipListMap = skipListMap;
+        maxMemorySize = getMaxMemorySize(parameters);
+    }
+
+    private static long getMaxMemorySize(Map<String, String> parameters) {
+        String v = parameters == null ? null : parameters.get(MAX_MEMORY_SIZE);
+        if (v == null)
+            return -1;
+        try {
+            return Long.parseLong(v.trim());
+        } catch (NumberFormatException e) {
+            throw DbException.getInvalidValueException(MAX_MEMORY_SIZE, v);
+        }
+    }
+
+    protected int getMemory(K key, V value) {
+        return keyType.getMemory(key) + valueType.getMemory(value);
+    }
+
+    /**
+     * 增加新记录之前调用，先占用内存再插入，检查上限和增加内存使用量是一个原子操作，
+     * 这样并发插入时也不会超出上限。只在增加新记录时检查，更新和删除记录不受限制，
+     * 这样超出上限后依然可以通过删除记录来释放内存。
+     *
+     * @return 占用的内存，如果最后没有插入要通过releaseMemory还回去
+     */
+    protected int reserveMemory(K key, V value) {
+        int memory = getMemory(key, value);
+        if (maxMemorySize <= 0) {
+            memorySpaceUsed.addAndGet(memory);
+            return memory;
+        }
+        while (true) {
+            long used = memorySpaceUsed.get();
+            if (used >= maxMemorySize) {
+                // 不能用ErrorCode.OUT_OF_MEMORY，它会导致数据库被关闭
+                throw DataUtils.newIllegalStateException(DataUtils.ERROR_WRITING_FAILED,
+                        "Memory map {0} exceeds {1}: {2}", getName(), MAX_MEMORY_SIZE, maxMemorySize);
+            }
+            if (memorySpaceUsed.compareAndSet(used, used + memory))
+                return memory;
+        }
+    }
+
+    protected void releaseMemory(int memory) {
+        memorySpaceUsed.addAndGet(-memory);
+    }
+
+    protected void afterPut(K key, V value, V old) {
+        if (old == null) {
+            size.incrementAndGet();
+            memorySpaceUsed.addAndGet(getMemory(key, value));
+        } else {
+            afterReplace(value, old);
+        }
+    }
+
+    protected void afterReplace(V value, V old) {
+        memorySpaceUsed.addAndGet(valueType.getMemory(value) - valueType.getMemory(old));
+    }
+
+    protected void afterRemove(K key, V old) {
+        if (old != null) {
+            size.decrementAndGet();
+            memorySpaceUsed.addAndGet(-getMemory(key, old));
+        }
     }
 
     @Override
@@ -63,23 +162,58 @@ public class MemoryMap<K, V> extends StorageMapBase<K, V> {
     @Override
     public V put(K key, V value) {
         setMaxKey(key);
-        return skipListMap.put(key, value);
+        if (maxMemorySize <= 0) {
+            V old = skipListMap.put(key, value);
+            afterPut(key, value, old);
+            return old;
+        }
+        // 有内存上限时只有新记录才要占用内存，通过putIfAbsent的返回值知道是不是新记录
+        while (true) {
+            V old = skipListMap.get(key);
+            if (old == null) {
+                int memory = reserveMemory(key, value);
+                old = skipListMap.putIfAbsent(key, value);
+                if (old == null) {
+                    size.incrementAndGet();
+                    return null;
+                }
+                releaseMemory(memory); // 其他线程先插入了相同的key，改成更新
+            }
+            if (skipListMap.replace(key, old, value)) {
+                afterReplace(value, old);
+                return old;
+            }
+        }
     }
 
     @Override
     public V putIfAbsent(K key, V value) {
+        V old = skipListMap.get(key);
+        if (old != null) // 已经存在时不占用内存，也就不受上限的限制
+            return old;
         setMaxKey(key);
-        return skipListMap.putIfAbsent(key, value);
+        int memory = reserveMemory(key, value);
+        old = skipListMap.putIfAbsent(key, value);
+        if (old == null)
+            size.incrementAndGet();
+        else
+            releaseMemory(memory);
+        return old;
     }
 
     @Override
     public V remove(K key) {
-        return skipListMap.remove(key);
+        V old = skipListMap.remove(key);
+        afterRemove(key, old);
+        return old;
     }
 
     @Override
     public boolean replace(K key, V oldValue, V newValue) {
-        return skipListMap.replace(key, oldValue, newValue);
+        boolean replaced = skipListMap.replace(key, oldValue, newValue);
+        if (replaced)
+            afterPut(key, newValue, oldValue);
+        return replaced;
     }
 
     @Override
@@ -148,7 +282,7 @@ public class MemoryMap<K, V> extends StorageMapBase<K, V> {
 
     @Override
     public long size() {
-        return skipListMap.size();
+        return size.get();
     }
 
     @Override
@@ -168,13 +302,20 @@ public class MemoryMap<K, V> extends StorageMapBase<K, V> {
 
     @Override
     public StorageMapCursor<K, V> cursor(K from) {
-        return new MemoryMapCursor<>(
+        return new MemoryMapCursor<>(this,
                 from == null ? skipListMap.entrySet().iterator() : skipListMap.tailMap(from).entrySet().iterator());
     }
 
     @Override
     public void clear() {
         skipListMap.clear();
+        size.set(0);
+        memorySpaceUsed.set(0);
+    }
+
+    @Override
+    public long getMemorySpaceUsed() {
+        return memorySpaceUsed.get();
     }
 
     @Override
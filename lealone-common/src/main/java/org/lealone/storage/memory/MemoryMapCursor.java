@@ -24,10 +24,12 @@ import org.lealone.storage.StorageMapCursor;
 
 public class MemoryMapCursor<K, V> implements StorageMapCursor<K, V> {
 
+    private final MemoryMap<K, V> map;
     private final Iterator<Entry<K, V>> iterator;
     private Entry<K, V> e;
 
-    public MemoryMapCursor(Iterator<Entry<K, V>> iterator) {
+    public MemoryMapCursor(MemoryMap<K, V> map, Iterator<Entry<K, V>> iterator) {
+        this.map = map;
         this.iterator = iterator;
     }
 
@@ -54,6 +56,7 @@ public class MemoryMapCursor<K, V> implements StorageMapCursor<K, V> {
 
     @Override
     public void remove() {
-        iterator.remove();
+        // 通过map删除，这样才能同步更新记录数和内存使用量
+        map.remove(e.getKey());
     }
 }
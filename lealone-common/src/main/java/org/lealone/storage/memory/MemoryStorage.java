@@ -37,7 +37,11 @@ public class MemoryStorage extends StorageBase {
             synchronized (this) {
                 map = (MemoryMap<K, V>) maps.get(name);
                 if (map == null) {
-                    map = new MemoryMap<>(name, keyType, valueType, this);
+                    String mapType = parameters == null ? null : parameters.get("mapType");
+                    if (LongKeyMemoryMap.MAP_TYPE.equalsIgnoreCase(mapType))
+                        map = new LongKeyMemoryMap<>(name, keyType, valueType, this, parameters);
+                    else
+                        map = new MemoryMap<>(name, keyType, valueType, this, parameters);
                     maps.put(name, map);
                 }
             }
@@ -25,6 +25,7 @@ import java.util.List;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.concurrent.Future;
+import java.util.function.BiFunction;
 
 import org.lealone.db.Command;
 import org.lealone.db.CommandParameter;
@@ -237,6 +238,48 @@ public class ReplicationCommand implements StorageCommand {
         }
     }
 
+    @Override
+    public boolean executeAddIfAbsent(String replicationName, String mapName, ByteBuffer key, ByteBuffer value) {
+        return executeWrite((rn, c) -> c.executeAddIfAbsent(rn, mapName, key.slice(), value.slice()));
+    }
+
+    @Override
+    public boolean executeRemove(String replicationName, String mapName, ByteBuffer key) {
+        return executeWrite((rn, c) -> c.executeRemove(rn, mapName, key.slice()));
+    }
+
+    // 跟put不一样，addIfAbsent和remove在部分节点上成功后再重试会得到不一样的结果，所以失败时不重试
+    private boolean executeWrite(BiFunction<String, StorageCommand, Boolean> write) {
+        int n = session.n;
+        final String rn = session.createReplicationName();
+        final WriteResponseHandler writeResponseHandler = new WriteResponseHandler(n);
+        final ArrayList<Exception> exceptions = new ArrayList<>(1);
+
+        for (int i = 0; i < n; i++) {
+            final StorageCommand c = (StorageCommand) this.commands[i];
+            Runnable command = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writeResponseHandler.response(write.apply(rn, c));
+                    } catch (Exception e) {
+                        writeResponseHandler.onFailure();
+                        exceptions.add(e);
+                    }
+                }
+            };
+            ThreadPool.executor.submit(command);
+        }
+
+        try {
+            return (Boolean) writeResponseHandler.getResult(session.rpcTimeoutMillis);
+        } catch (WriteTimeoutException | WriteFailureException e) {
+            if (!exceptions.isEmpty())
+                e.initCause(exceptions.get(0));
+            throw e;
+        }
+    }
+
     @Override
     public Object executeGet(final String mapName, final ByteBuffer key) {
         int n = session.n;
@@ -151,6 +151,58 @@ public interface StorageDataType {
         // do nothing
     }
 
+    /**
+     * Write one column of a list of objects, used by column pages.
+     * Implementations may choose a type-aware encoding for the whole column.
+     *
+     * @param buff the target buffer
+     * @param objs the objects
+     * @param len the number of objects to write
+     * @param columnIndex the column index
+     */
+    default void writeColumn(DataBuffer buff, Object[] objs, int len, int columnIndex) {
+        for (int i = 0; i < len; i++) {
+            writeColumn(buff, objs[i], columnIndex);
+        }
+    }
+
+    /**
+     * Read one column of a list of objects written by
+     * {@link #writeColumn(DataBuffer, Object[], int, int)}.
+     *
+     * @param buff the source buffer
+     * @param objs the objects
+     * @param len the number of objects to read
+     * @param columnIndex the column index
+     */
+    default void readColumn(ByteBuffer buff, Object[] objs, int len, int columnIndex) {
+        for (int i = 0; i < len; i++) {
+            readColumn(buff, objs[i], columnIndex);
+        }
+    }
+
+    /**
+     * Compute the statistics (min, max, null count ...) of one column of a
+     * list of objects, used as the zone map of a column page.
+     *
+     * @param objs the objects
+     * @param len the number of objects
+     * @param columnIndex the column index
+     * @return the statistics, or null if not supported
+     */
+    default Object getColumnStatistics(Object[] objs, int len, int columnIndex) {
+        return null;
+    }
+
+    default void writeColumnStatistics(DataBuffer buff, Object statistics) {
+        // do nothing
+    }
+
+    default Object readColumnStatistics(ByteBuffer buff) {
+        // do nothing
+        return null;
+    }
+
     default void setColumns(Object oldObj, Object newObj, int[] columnIndexes) {
         // do nothing
     }
@@ -20,6 +20,7 @@ package org.lealone.transaction;
 import java.sql.Connection;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.function.BooleanSupplier;
 
 import org.lealone.common.exceptions.DbException;
 import org.lealone.db.Session;
@@ -163,6 +164,16 @@ public interface Transaction {
 
         default void await() {
         }
+
+        /**
+         * 把还没有执行完的嵌套操作交给监听器，等待异步操作完成时会反复执行它，直到它返回false。
+         * 
+         * @param operation 返回true表示还没有执行完
+         * @return false表示监听器不支持，调用者要自己把操作执行完
+         */
+        default boolean addPendingOperation(BooleanSupplier operation) {
+            return false;
+        }
     }
 
     class SyncListener implements Listener {
@@ -17,7 +17,10 @@
  */
 package org.lealone.transaction;
 
+import java.io.IOException;
+
 import org.lealone.db.PluggableEngine;
+import org.lealone.storage.BackupTarget;
 
 public interface TransactionEngine extends PluggableEngine {
 
@@ -38,4 +41,28 @@ public interface TransactionEngine extends PluggableEngine {
     void removeTransactionMap(String name);
 
     void checkpoint();
+
+    /**
+     * 启动时redo log中还有这个map的记录没有重做，这样的map不能延迟打开，否则下一次检查点之后这些记录就丢失了
+     */
+    default boolean containsPendingRedoLog(String mapName) {
+        return false;
+    }
+
+    /**
+     * 开始在线备份，先做一次检查点，然后直到调用endBackup之前都不再生成新的检查点，
+     * 这样redo log就不会被截断，备份期间所做的修改都能在redo log中找到
+     */
+    default void beginBackup() {
+        checkpoint();
+    }
+
+    /**
+     * 备份从beginBackup时的检查点开始的redo log，恢复时重做这些记录，各个map的备份就能恢复到同一个时间点
+     */
+    default void backupRedoLogTo(BackupTarget target) throws IOException {
+    }
+
+    default void endBackup() {
+    }
 }
@@ -18,9 +18,16 @@
  */
 package org.lealone.transaction;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.lealone.db.async.AsyncHandler;
+import org.lealone.db.async.AsyncResult;
 import org.lealone.storage.IterationParameters;
 import org.lealone.storage.StorageMap;
 
@@ -51,6 +58,18 @@ public interface TransactionMap<K, V> extends StorageMap<K, V> {
      */
     public V putCommitted(K key, V value);
 
+    /**
+     * Load entries that are already sorted by key into an empty map, without adding undo log entries.
+     *
+     * @param sortedEntries the entries, sorted by key
+     */
+    public default void bulkLoadCommitted(Iterator<? extends Entry<K, V>> sortedEntries) {
+        while (sortedEntries.hasNext()) {
+            Entry<K, V> e = sortedEntries.next();
+            putCommitted(e.getKey(), e.getValue());
+        }
+    }
+
     /**
      * Iterate over entries.
      *
@@ -80,6 +99,61 @@ public interface TransactionMap<K, V> extends StorageMap<K, V> {
 
     public void addIfAbsent(K key, V value, Transaction.Listener listener);
 
+    /**
+     * 同步版本的addIfAbsent，等到写完后才返回
+     *
+     * @param key the key
+     * @param value the value
+     * @return key已经存在时返回false
+     */
+    public default boolean addIfAbsentSync(K key, V value) {
+        AtomicBoolean added = new AtomicBoolean(true);
+        Transaction.SyncListener listener = new Transaction.SyncListener() {
+            @Override
+            public void operationUndo() {
+                added.set(false);
+                super.operationUndo();
+            }
+        };
+        addIfAbsent(key, value, listener);
+        listener.await();
+        return added.get();
+    }
+
+    /**
+     * 批量版本的addIfAbsent，所有key都处理完后只回调一次handler，
+     * 如果有key已经存在，回调的结果是其中一个已经存在的key，否则结果为null
+     *
+     * @param keys the keys
+     * @param values the values, in the same order as the keys
+     * @param handler the handler
+     */
+    public default void addAllIfAbsent(List<K> keys, List<V> values, AsyncHandler<AsyncResult<K>> handler) {
+        int size = keys.size();
+        AtomicInteger pending = new AtomicInteger(size);
+        AtomicReference<K> duplicateKey = new AtomicReference<>();
+        if (size == 0) {
+            StorageMap.handleAsyncResult(handler, null);
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            K key = keys.get(i);
+            addIfAbsent(key, values.get(i), new Transaction.Listener() {
+                @Override
+                public void operationUndo() {
+                    duplicateKey.compareAndSet(null, key);
+                    operationComplete();
+                }
+
+                @Override
+                public void operationComplete() {
+                    if (pending.decrementAndGet() == 0)
+                        StorageMap.handleAsyncResult(handler, duplicateKey.get());
+                }
+            });
+        }
+    }
+
     public default boolean tryUpdate(K key, V newValue) {
         Object oldTransactionalValue = getTransactionalValue(key);
         return tryUpdate(key, newValue, null, oldTransactionalValue);
@@ -103,6 +177,12 @@ public interface TransactionMap<K, V> extends StorageMap<K, V> {
 
     public boolean tryRemove(K key, Object oldTransactionalValue);
 
+    // 跟tryRemove(K)一样，但是key不存在时不用删除，直接返回true
+    public default boolean tryRemoveIfPresent(K key) {
+        Object oldTransactionalValue = getTransactionalValue(key);
+        return oldTransactionalValue == null || tryRemove(key, oldTransactionalValue);
+    }
+
     public default boolean tryLock(K key) {
         Object oldTransactionalValue = getTransactionalValue(key);
         return tryLock(key, oldTransactionalValue);
@@ -114,5 +194,21 @@ public interface TransactionMap<K, V> extends StorageMap<K, V> {
 
     public Object[] getValueAndRef(K key, int[] columnIndexes);
 
+    /**
+     * Get the values and the raw transactional values of multiple keys,
+     * see {@link #getValueAndRef(Object, int[])}.
+     *
+     * @param keys the keys, preferably sorted in ascending order
+     * @param columnIndexes the columns to read, null means all columns
+     * @return one [value, ref] pair per key, in the same order as the keys
+     */
+    public default List<Object[]> getValueAndRefs(List<K> keys, int[] columnIndexes) {
+        List<Object[]> list = new ArrayList<>(keys.size());
+        for (K key : keys) {
+            list.add(getValueAndRef(key, columnIndexes));
+        }
+        return list;
+    }
+
     public Object getTransactionalValue(K key);
 }
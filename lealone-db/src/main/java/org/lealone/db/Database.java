@@ -14,6 +14,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -23,7 +24,9 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 import org.lealone.common.exceptions.DbException;
 import org.lealone.common.trace.Trace;
@@ -68,6 +71,7 @@ import org.lealone.net.NetEndpointManagerHolder;
 import org.lealone.sql.SQLEngine;
 import org.lealone.sql.SQLEngineManager;
 import org.lealone.sql.SQLParser;
+import org.lealone.storage.BackupTarget;
 import org.lealone.storage.LobStorage;
 import org.lealone.storage.Storage;
 import org.lealone.storage.StorageBuilder;
@@ -113,6 +117,13 @@ public class Database implements DataHandler, DbObject, IDatabase {
     private final Set<ServerSession> userSessions = Collections.synchronizedSet(new HashSet<ServerSession>());
     private ServerSession exclusiveSession;
     private final BitField objectIds = new BitField();
+    // 元数据表中的记录被其他事务锁住时，updateMeta在这里等那些事务结束
+    private final Object metaRowLockWaiter = new Object();
+    private final Consumer<Boolean> metaRowUnlockListener = committed -> {
+        synchronized (metaRowLockWaiter) {
+            metaRowLockWaiter.notifyAll();
+        }
+    };
     private final Object lobSyncObject = new Object();
 
     private Schema mainSchema;
@@ -124,6 +135,11 @@ public class Database implements DataHandler, DbObject, IDatabase {
     private Table meta;
     private Index metaIdIndex;
     private boolean starting;
+    // 启动时打开和延迟打开的map个数，延迟打开的map如果需要在后台预热，就放到deferredMapOpeners中
+    private int openedMapCount;
+    private int deferredMapCount;
+    private ArrayList<Runnable> deferredMapOpeners;
+    private String openStatistics;
     private TraceSystem traceSystem;
     private Trace trace;
     private Role publicRole;
@@ -157,6 +173,8 @@ public class Database implements DataHandler, DbObject, IDatabase {
     private int cacheSize;
     private int compactMode;
     private SourceCompiler compiler;
+    // 生成的表达式源代码 -> 编译好的类，类是用这个数据库的SourceCompiler编译的，所以每个数据库一份
+    private final ConcurrentHashMap<String, Class<?>> compiledExpressions = new ConcurrentHashMap<>();
     private volatile boolean metaTablesInitialized;
     private LobStorage lobStorage;
     private int defaultTableType = Table.TYPE_CACHED;
@@ -165,7 +183,7 @@ public class Database implements DataHandler, DbObject, IDatabase {
 
     private boolean queryStatistics;
     private int queryStatisticsMaxEntries = Constants.QUERY_STATISTICS_MAX_ENTRIES;
-    private QueryStatisticsData queryStatisticsData;
+    private volatile QueryStatisticsData queryStatisticsData;
 
     private final int id;
     private final String name;
@@ -421,7 +439,9 @@ public class Database implements DataHandler, DbObject, IDatabase {
 
             systemSession = new SystemSession(this, systemUser, ++nextSessionId);
 
+            long t1 = System.currentTimeMillis();
             openMetaTable();
+            long t2 = System.currentTimeMillis();
 
             if (!readOnly) {
                 // set CREATE_BUILD in a new database
@@ -434,8 +454,12 @@ public class Database implements DataHandler, DbObject, IDatabase {
                 }
             }
             systemSession.commit();
+            long t3 = System.currentTimeMillis();
+            openStatistics = "open meta table: " + (t2 - t1) + " ms, maps opened: " + openedMapCount
+                    + ", maps deferred: " + deferredMapCount + ", total: " + (t3 - t1) + " ms";
+            warmUpDeferredMaps();
 
-            trace.info("opened {0}", name);
+            trace.info("opened {0} ({1})", name, openStatistics);
         } catch (Throwable e) {
             if (e instanceof OutOfMemoryError) {
                 e.fillInStackTrace();
@@ -496,6 +520,65 @@ public class Database implements DataHandler, DbObject, IDatabase {
         starting = false;
     }
 
+    /**
+     * 数据库启动时调用，决定表或索引的map是否延迟到第一次访问时再打开。
+     * 
+     * 有redo log还没重做的map必须马上打开，否则检查点之后这些redo log就丢失了；
+     * replication和sharding模式会按map的名称直接访问map，也不能延迟打开。
+     *
+     * @param mapName map的名称
+     * @param opener 预热时用来打开map，对于已经打开或已经删除的map什么都不做
+     * @return 是否延迟打开
+     */
+    public boolean deferMapOpen(String mapName, Runnable opener) {
+        if (!starting)
+            return false;
+        if (!dbSettings.lazyOpenMaps || !persistent || (runMode != RunMode.CLIENT_SERVER && runMode != RunMode.EMBEDDED)
+                || transactionEngine.containsPendingRedoLog(mapName)) {
+            openedMapCount++;
+            return false;
+        }
+        deferredMapCount++;
+        if (dbSettings.mapWarmUpThreads > 0) {
+            if (deferredMapOpeners == null)
+                deferredMapOpeners = new ArrayList<>();
+            deferredMapOpeners.add(opener);
+        }
+        return true;
+    }
+
+    // 在后台用多个线程并行打开启动时延迟打开的map，每个map的chunk文件是独立的，可以并行读
+    private void warmUpDeferredMaps() {
+        ArrayList<Runnable> openers = deferredMapOpeners;
+        deferredMapOpeners = null;
+        if (openers == null)
+            return;
+        int threads = Math.min(dbSettings.mapWarmUpThreads, openers.size());
+        AtomicInteger next = new AtomicInteger();
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(() -> {
+                for (int index; (index = next.getAndIncrement()) < openers.size();) {
+                    if (closing)
+                        break;
+                    try {
+                        openers.get(index).run();
+                    } catch (Throwable e) {
+                        trace.error(e, "warm up map");
+                    }
+                }
+            }, "MapWarmUp-" + getShortName() + "-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * 最近一次打开数据库时各个阶段的耗时
+     */
+    public String getOpenStatistics() {
+        return openStatistics;
+    }
+
     public synchronized void rollbackMetaTable(ServerSession session) {
         ArrayList<MetaRecord> records = new ArrayList<>();
         Cursor cursor = metaIdIndex.find(systemSession, null, null);
@@ -882,9 +965,16 @@ public class Database implements DataHandler, DbObject, IDatabase {
             if (cursor.next()) {
                 Row found = cursor.get();
                 meta.removeRow(session, found);
-                synchronized (objectIds) {
-                    objectIds.clear(id);
-                }
+                // 删除操作是异步提交的，提交之前这条记录还在元数据表中，
+                // 新的对象马上重用这个id时会违反主键约束，所以等提交之后再回收
+                session.addTransactionEndListener(committed -> {
+                    if (committed) {
+                        synchronized (objectIds) {
+                            objectIds.clear(id);
+                        }
+                    }
+                });
+                session.addTransactionEndListener(metaRowUnlockListener);
             }
         }
     }
@@ -898,10 +988,50 @@ public class Database implements DataHandler, DbObject, IDatabase {
     public void updateMeta(ServerSession session, DbObject obj) {
         // lockMeta(session);
         int id = obj.getId();
+        if (id > 0 && !starting && !obj.isTemporary()) {
+            // 在同一个事务中先删除再增加相同的id会违反主键约束，所以直接更新原有的记录
+            Row oldRow = lockMetaRow(session, id);
+            if (oldRow != null) {
+                Row newRow = meta.getTemplateRow();
+                new MetaRecord(obj).setRecord(newRow);
+                newRow.setKey(oldRow.getKey());
+                // updateRow会等待所有索引都更新完
+                meta.updateRow(session, oldRow, newRow, Arrays.asList(meta.getColumns()));
+                return;
+            }
+        }
         removeMeta(session, id);
         addMeta(session, obj);
     }
 
+    // 找到并锁住对象在元数据表中的记录，找不到时返回null。
+    // 记录被其他事务锁住时(比如前一条自动提交的DDL还在异步提交)，等它们结束后再锁，否则修改会被丢掉
+    private Row lockMetaRow(ServerSession session, int id) {
+        long deadline = System.currentTimeMillis() + session.getLockTimeout();
+        synchronized (metaRowLockWaiter) {
+            while (true) {
+                Cursor cursor = getMetaCursor(session, id);
+                if (!cursor.next()) {
+                    return null;
+                }
+                Row row = cursor.get();
+                if (meta.tryLockRow(session, row)) {
+                    session.addTransactionEndListener(metaRowUnlockListener);
+                    return row;
+                }
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    throw DbException.get(ErrorCode.LOCK_TIMEOUT_1, meta.getName());
+                }
+                try {
+                    metaRowLockWaiter.wait(wait);
+                } catch (InterruptedException e) {
+                    throw DbException.convert(e);
+                }
+            }
+        }
+    }
+
     /**
      * Add an object to the database.
      *
@@ -2053,6 +2183,10 @@ public class Database implements DataHandler, DbObject, IDatabase {
         return compiler;
     }
 
+    public ConcurrentHashMap<String, Class<?>> getCompiledExpressions() {
+        return compiledExpressions;
+    }
+
     @Override
     public LobStorage getLobStorage() {
         return lobStorage;
@@ -2116,8 +2250,34 @@ public class Database implements DataHandler, DbObject, IDatabase {
     }
 
     public void backupTo(String fileName) {
-        for (Storage s : getStorages()) {
-            s.backupTo(fileName);
+        backupTo(fileName, null);
+    }
+
+    /**
+     * 在线备份所有存储，备份期间不阻塞读写操作。
+     *
+     * @param fileName zip文件名，以'/'结尾或者是一个已经存在的目录时备份到目录中
+     * @param lastDate 不为null时是增量备份，只备份在这个时间(毫秒)之后生成的文件
+     */
+    public void backupTo(String fileName, Long lastDate) {
+        // 先做一次检查点，让已提交的数据都保存到存储中，
+        // 未提交的数据即使被备份了，恢复后也会被读时撤销机制撤销。
+        // 各个map是在不同的时间点保存的，所以备份结束前不能再做检查点，
+        // 最后把这个检查点之后的redo log也备份下来，恢复时重做，所有map就都恢复到同一个时间点了
+        if (persistent)
+            transactionEngine.beginBackup();
+        // 所有存储都写到同一个备份目标中，不能各自打开fileName，否则后面的会覆盖前面的
+        try (BackupTarget target = BackupTarget.create(fileName)) {
+            for (Storage s : getStorages()) {
+                s.backupTo(target, lastDate);
+            }
+            if (persistent)
+                transactionEngine.backupRedoLogTo(target);
+        } catch (IOException e) {
+            throw DbException.convertIOException(e, fileName);
+        } finally {
+            if (persistent)
+                transactionEngine.endBackup();
         }
     }
 
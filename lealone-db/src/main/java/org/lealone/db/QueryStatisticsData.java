@@ -8,14 +8,21 @@ package org.lealone.db;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
 
 /**
  * Maintains query statistics.
+ *
+ * 每条语句执行完都会调用update，所以这里不能有全局锁，
+ * 统计值都放在LongAdder这类分段累加的计数器中，读取时再合并。
+ * 语句按指纹(把常量替换成?之后的SQL)归类，执行时间另外用一个直方图记录，用来计算p50/p95/p99。
  */
 public class QueryStatisticsData {
 
@@ -26,23 +33,34 @@ public class QueryStatisticsData {
         }
     };
 
-    private final HashMap<String, QueryEntry> map = new HashMap<String, QueryEntry>();
+    private static final Comparator<Accumulator> ACCUMULATOR_COMPARATOR = new Comparator<Accumulator>() {
+        @Override
+        public int compare(Accumulator o1, Accumulator o2) {
+            return (int) Math.signum(o1.lastUpdateTime - o2.lastUpdateTime);
+        }
+    };
+
+    private final ConcurrentHashMap<String, Accumulator> map = new ConcurrentHashMap<>();
+    private final AtomicBoolean ageing = new AtomicBoolean();
 
-    private int maxQueryEntries;
+    private volatile int maxQueryEntries;
 
     public QueryStatisticsData(int maxQueryEntries) {
         this.maxQueryEntries = maxQueryEntries;
     }
 
-    public synchronized void setMaxQueryEntries(int maxQueryEntries) {
+    public void setMaxQueryEntries(int maxQueryEntries) {
         this.maxQueryEntries = maxQueryEntries;
     }
 
-    public synchronized List<QueryEntry> getQueries() {
-        // return a copy of the map so we don't have to
-        // worry about external synchronization
-        ArrayList<QueryEntry> list = new ArrayList<QueryEntry>();
-        list.addAll(map.values());
+    public List<QueryEntry> getQueries() {
+        // 返回的是当前统计值的快照，调用者不需要考虑并发问题
+        ArrayList<QueryEntry> list = new ArrayList<QueryEntry>(map.size());
+        for (Accumulator a : map.values()) {
+            QueryEntry entry = a.snapshot();
+            if (entry.count > 0)
+                list.add(entry);
+        }
         // only return the newest 100 entries
         Collections.sort(list, QUERY_ENTRY_COMPARATOR);
         return list.subList(0, Math.min(list.size(), maxQueryEntries));
@@ -56,32 +74,294 @@ public class QueryStatisticsData {
      *            to execute
      * @param rowCount the query or update row count
      */
-    public synchronized void update(String sqlStatement, long executionTimeNanos, int rowCount) {
-        QueryEntry entry = map.get(sqlStatement);
-        if (entry == null) {
-            entry = new QueryEntry(sqlStatement);
-            map.put(sqlStatement, entry);
+    public void update(String sqlStatement, long executionTimeNanos, int rowCount) {
+        update(getFingerprint(sqlStatement), executionTimeNanos, rowCount, null);
+    }
+
+    /**
+     * Update query statistics.
+     *
+     * @param fingerprint the normalized statement, see {@link #getFingerprint(String)}
+     * @param executionTimeNanos the time in nanoseconds the query/update took
+     *            to execute
+     * @param rowCount the query or update row count
+     * @param counters the counters collected during the execution, may be null
+     */
+    public void update(String fingerprint, long executionTimeNanos, int rowCount, StatementCounters counters) {
+        Accumulator a = map.get(fingerprint);
+        if (a == null) {
+            a = map.computeIfAbsent(fingerprint, k -> new Accumulator(k));
         }
-        entry.update(executionTimeNanos, rowCount);
+        a.update(executionTimeNanos, rowCount, counters);
 
         // Age-out the oldest entries if the map gets too big.
         // Test against 1.5 x max-size so we don't do this too often
-        if (map.size() > maxQueryEntries * 1.5f) {
-            // Sort the entries by age
-            ArrayList<QueryEntry> list = new ArrayList<QueryEntry>();
-            list.addAll(map.values());
-            Collections.sort(list, QUERY_ENTRY_COMPARATOR);
-            // Create a set of the oldest 1/3 of the entries
-            HashSet<QueryEntry> oldestSet = new HashSet<QueryEntry>(list.subList(0, list.size() / 3));
-            // Loop over the map using the set and remove
-            // the oldest 1/3 of the entries.
-            for (Iterator<Entry<String, QueryEntry>> it = map.entrySet().iterator(); it.hasNext();) {
-                Entry<String, QueryEntry> mapEntry = it.next();
-                if (oldestSet.contains(mapEntry.getValue())) {
-                    it.remove();
+        if (map.size() > maxQueryEntries * 1.5f && ageing.compareAndSet(false, true)) {
+            try {
+                ageOut();
+            } finally {
+                ageing.set(false);
+            }
+        }
+    }
+
+    private void ageOut() {
+        ArrayList<Accumulator> list = new ArrayList<Accumulator>(map.values());
+        if (list.size() <= maxQueryEntries * 1.5f)
+            return;
+        Collections.sort(list, ACCUMULATOR_COMPARATOR);
+        // remove the oldest 1/3 of the entries
+        for (int i = 0, size = list.size() / 3; i < size; i++) {
+            Accumulator a = list.get(i);
+            map.remove(a.fingerprint, a);
+        }
+    }
+
+    private static final Pattern IN_LIST = Pattern.compile("\\bIN ?\\( ?\\?( ?, ?\\?)* ?\\)");
+
+    /**
+     * 生成语句的指纹，只有常量不同的语句会得到相同的指纹。
+     *
+     * 字符串和数字常量替换成?，IN列表中的多个常量或参数合并成一个，
+     * 去掉注释，连续的空白变成一个空格，不在双引号中的字符都转成大写。
+     *
+     * @param sql the SQL statement
+     * @return the fingerprint
+     */
+    public static String getFingerprint(String sql) {
+        int len = sql.length();
+        StringBuilder buff = new StringBuilder(len);
+        boolean space = false;
+        for (int i = 0; i < len;) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = true;
+                i++;
+                continue;
+            } else if (c == '-' && i + 1 < len && sql.charAt(i + 1) == '-') {
+                i = skipUntil(sql, i + 2, "\n");
+                space = true;
+                continue;
+            } else if (c == '/' && i + 1 < len && sql.charAt(i + 1) == '*') {
+                i = skipUntil(sql, i + 2, "*/");
+                space = true;
+                continue;
+            }
+            if (space) {
+                if (buff.length() > 0)
+                    buff.append(' ');
+                space = false;
+            }
+            if (c == '\'') {
+                // 字符串常量，两个单引号是转义
+                i++;
+                while (i < len) {
+                    if (sql.charAt(i++) == '\'') {
+                        if (i < len && sql.charAt(i) == '\'')
+                            i++;
+                        else
+                            break;
+                    }
+                }
+                buff.append('?');
+            } else if (c == '"') {
+                // 带双引号的标识符原样保留
+                int end = sql.indexOf('"', i + 1);
+                end = end < 0 ? len : end + 1;
+                buff.append(sql, i, end);
+                i = end;
+            } else if (isNumberStart(sql, i) && !endsWithIdentifierPart(buff)) {
+                i++;
+                while (i < len) {
+                    char ch = sql.charAt(i);
+                    if (Character.isDigit(ch) || ch == '.') {
+                        i++;
+                    } else if ((ch == 'e' || ch == 'E') && i + 1 < len) {
+                        char next = sql.charAt(i + 1);
+                        if (next == '+' || next == '-')
+                            i += 2;
+                        else
+                            i++;
+                    } else {
+                        break;
+                    }
                 }
+                buff.append('?');
+            } else {
+                buff.append(Character.toUpperCase(c));
+                i++;
             }
         }
+        return IN_LIST.matcher(buff).replaceAll("IN(...)");
+    }
+
+    private static int skipUntil(String sql, int start, String end) {
+        int i = sql.indexOf(end, start);
+        return i < 0 ? sql.length() : i + end.length();
+    }
+
+    private static boolean isNumberStart(String sql, int i) {
+        char c = sql.charAt(i);
+        if (Character.isDigit(c))
+            return true;
+        return c == '.' && i + 1 < sql.length() && Character.isDigit(sql.charAt(i + 1));
+    }
+
+    private static boolean endsWithIdentifierPart(StringBuilder buff) {
+        int len = buff.length();
+        if (len == 0)
+            return false;
+        char c = buff.charAt(len - 1);
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    /**
+     * 一种简化的HDR直方图，每个2的幂区间再分成16个等宽的子区间，
+     * 所以得到的百分位数最多有1/16的相对误差，但是不管数值多大都只需要固定的976个计数器。
+     */
+    static final class LatencyHistogram {
+
+        private static final int SUB_BUCKET_BITS = 4;
+        private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+        void record(long value) {
+            counts.incrementAndGet(getBucketIndex(value < 0 ? 0 : value));
+        }
+
+        long[] getCounts() {
+            long[] a = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++)
+                a[i] = counts.get(i);
+            return a;
+        }
+
+        static int getBucketIndex(long value) {
+            if (value < SUB_BUCKET_COUNT)
+                return (int) value;
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+            int subBucket = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+            return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+        }
+
+        // 桶中的最大值
+        static long getHighestValue(int index) {
+            if (index < SUB_BUCKET_COUNT)
+                return index;
+            int shift = index / SUB_BUCKET_COUNT - 1;
+            long subBucket = SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT;
+            long high = ((subBucket + 1) << shift) - 1;
+            return high < 0 ? Long.MAX_VALUE : high;
+        }
+
+        /**
+         * 计算百分位数。
+         *
+         * @param counts the bucket counts
+         * @param total the sum of the counts
+         * @param percentile the percentile, between 0 and 100
+         * @return the value at the percentile
+         */
+        static long getValueAtPercentile(long[] counts, long total, double percentile) {
+            if (total <= 0)
+                return 0;
+            long target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+            long sum = 0;
+            for (int i = 0; i < counts.length; i++) {
+                sum += counts[i];
+                if (sum >= target)
+                    return getHighestValue(i);
+            }
+            return getHighestValue(counts.length - 1);
+        }
+    }
+
+    /**
+     * 一类语句的统计值，多个线程可以同时更新。
+     */
+    private static final class Accumulator {
+
+        final String fingerprint;
+        final LongAdder count = new LongAdder();
+        final LongAccumulator executionTimeMinNanos = new LongAccumulator(Math::min, Long.MAX_VALUE);
+        final LongAccumulator executionTimeMaxNanos = new LongAccumulator(Math::max, 0);
+        final LongAdder executionTimeCumulativeNanos = new LongAdder();
+        final DoubleAdder executionTimeSquareSum = new DoubleAdder();
+        final LongAccumulator rowCountMin = new LongAccumulator(Math::min, Integer.MAX_VALUE);
+        final LongAccumulator rowCountMax = new LongAccumulator(Math::max, 0);
+        final LongAdder rowCountCumulative = new LongAdder();
+        final DoubleAdder rowCountSquareSum = new DoubleAdder();
+        final LongAdder rowsReadCumulative = new LongAdder();
+        final LongAdder pageCacheHits = new LongAdder();
+        final LongAdder pageCacheMisses = new LongAdder();
+        final LongAdder lockWaitTimeCumulativeNanos = new LongAdder();
+        final LatencyHistogram histogram = new LatencyHistogram();
+        volatile long lastUpdateTime;
+
+        Accumulator(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        void update(long timeNanos, int rows, StatementCounters counters) {
+            executionTimeMinNanos.accumulate(timeNanos);
+            executionTimeMaxNanos.accumulate(timeNanos);
+            executionTimeCumulativeNanos.add(timeNanos);
+            executionTimeSquareSum.add((double) timeNanos * timeNanos);
+            rowCountMin.accumulate(rows);
+            rowCountMax.accumulate(rows);
+            rowCountCumulative.add(rows);
+            rowCountSquareSum.add((double) rows * rows);
+            histogram.record(timeNanos);
+            if (counters != null) {
+                rowsReadCumulative.add(counters.rowsRead);
+                pageCacheHits.add(counters.pageCacheHits);
+                pageCacheMisses.add(counters.pageCacheMisses);
+                lockWaitTimeCumulativeNanos.add(counters.lockWaitTimeNanos);
+            }
+            // 最后才增加次数，读取时如果次数是0就可以忽略这个还没有更新完的统计项
+            count.increment();
+            lastUpdateTime = System.currentTimeMillis();
+        }
+
+        QueryEntry snapshot() {
+            QueryEntry e = new QueryEntry(fingerprint);
+            // 读取各个计数器时其他线程可能还在更新，所以快照中的值之间不保证完全一致
+            e.count = (int) count.sum();
+            if (e.count == 0)
+                return e;
+            e.lastUpdateTime = lastUpdateTime;
+            e.executionTimeMinNanos = executionTimeMinNanos.get();
+            e.executionTimeMaxNanos = executionTimeMaxNanos.get();
+            e.executionTimeCumulativeNanos = executionTimeCumulativeNanos.sum();
+            e.executionTimeMeanNanos = (double) e.executionTimeCumulativeNanos / e.count;
+            e.executionTimeVariance = executionTimeSquareSum.sum() / e.count
+                    - e.executionTimeMeanNanos * e.executionTimeMeanNanos;
+            e.rowCountMin = (int) rowCountMin.get();
+            e.rowCountMax = (int) rowCountMax.get();
+            e.rowCountCumulative = rowCountCumulative.sum();
+            e.rowCountMean = (double) e.rowCountCumulative / e.count;
+            e.rowCountVariance = rowCountSquareSum.sum() / e.count - e.rowCountMean * e.rowCountMean;
+            e.rowsReadCumulative = rowsReadCumulative.sum();
+            e.pageCacheHits = pageCacheHits.sum();
+            e.pageCacheMisses = pageCacheMisses.sum();
+            e.lockWaitTimeCumulativeNanos = lockWaitTimeCumulativeNanos.sum();
+
+            long[] counts = histogram.getCounts();
+            long total = 0;
+            for (long c : counts)
+                total += c;
+            e.executionTimeP50Nanos = getPercentile(counts, total, 50, e.executionTimeMaxNanos);
+            e.executionTimeP95Nanos = getPercentile(counts, total, 95, e.executionTimeMaxNanos);
+            e.executionTimeP99Nanos = getPercentile(counts, total, 99, e.executionTimeMaxNanos);
+            return e;
+        }
+
+        private static long getPercentile(long[] counts, long total, double percentile, long max) {
+            // 桶的上界可能超过实际的最大值
+            return Math.min(LatencyHistogram.getValueAtPercentile(counts, total, percentile), max);
+        }
     }
 
     /**
@@ -120,6 +400,13 @@ public class QueryStatisticsData {
          */
         public long executionTimeCumulativeNanos;
 
+        /**
+         * The 50th, 95th and 99th percentile of the execution time, in nanoseconds.
+         */
+        public long executionTimeP50Nanos;
+        public long executionTimeP95Nanos;
+        public long executionTimeP99Nanos;
+
         /**
          * The minimum number of rows.
          */
@@ -145,51 +432,37 @@ public class QueryStatisticsData {
          */
         public double rowCountMean;
 
-        // Using Welford's method, see also
-        // http://en.wikipedia.org/wiki/Algorithms_for_calculating_variance
-        // http://www.johndcook.com/standard_deviation.html
+        /**
+         * The total number of rows read from the tables.
+         */
+        public long rowsReadCumulative;
 
-        private double executionTimeM2Nanos;
-        private double rowCountM2;
+        /**
+         * The number of pages found in / missing from the page cache.
+         */
+        public long pageCacheHits;
+        public long pageCacheMisses;
+
+        /**
+         * The total time spent waiting for locks, in nanoseconds.
+         */
+        public long lockWaitTimeCumulativeNanos;
+
+        private double executionTimeVariance;
+        private double rowCountVariance;
 
         public QueryEntry(String sql) {
             this.sqlStatement = sql;
         }
 
-        /**
-         * Update the statistics entry.
-         *
-         * @param timeNanos the execution time in nanos
-         * @param rows the number of rows
-         */
-        void update(long timeNanos, int rows) {
-            count++;
-            executionTimeMinNanos = Math.min(timeNanos, executionTimeMinNanos);
-            executionTimeMaxNanos = Math.max(timeNanos, executionTimeMaxNanos);
-            rowCountMin = Math.min(rows, rowCountMin);
-            rowCountMax = Math.max(rows, rowCountMax);
-
-            double rowDelta = rows - rowCountMean;
-            rowCountMean += rowDelta / count;
-            rowCountM2 += rowDelta * (rows - rowCountMean);
-
-            double timeDelta = timeNanos - executionTimeMeanNanos;
-            executionTimeMeanNanos += timeDelta / count;
-            executionTimeM2Nanos += timeDelta * (timeNanos - executionTimeMeanNanos);
-
-            executionTimeCumulativeNanos += timeNanos;
-            rowCountCumulative += rows;
-            lastUpdateTime = System.currentTimeMillis();
-        }
-
         public double getExecutionTimeStandardDeviation() {
             // population standard deviation
-            return Math.sqrt(executionTimeM2Nanos / count);
+            return Math.sqrt(Math.max(0, executionTimeVariance));
         }
 
         public double getRowCountStandardDeviation() {
             // population standard deviation
-            return Math.sqrt(rowCountM2 / count);
+            return Math.sqrt(Math.max(0, rowCountVariance));
         }
 
     }
@@ -29,6 +29,7 @@ import org.lealone.storage.PageKey;
 import org.lealone.storage.StorageCommand;
 import org.lealone.storage.StorageMap;
 import org.lealone.transaction.Transaction;
+import org.lealone.transaction.TransactionMap;
 
 public class ServerCommand implements StorageCommand {
 
@@ -129,6 +130,36 @@ public class ServerCommand implements StorageCommand {
         }
     }
 
+    @Override
+    public boolean executeAddIfAbsent(String replicationName, String mapName, ByteBuffer key, ByteBuffer value) {
+        session.setReplicationName(replicationName);
+        TransactionMap<Object, Object> map = getTransactionMap(mapName);
+        boolean result = map.addIfAbsentSync(map.getKeyType().read(key), map.getValueType().read(value));
+        addLocalTransactionNames();
+        return result;
+    }
+
+    @Override
+    public boolean executeRemove(String replicationName, String mapName, ByteBuffer key) {
+        session.setReplicationName(replicationName);
+        TransactionMap<Object, Object> map = getTransactionMap(mapName);
+        boolean result = map.tryRemoveIfPresent(map.getKeyType().read(key));
+        addLocalTransactionNames();
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private TransactionMap<Object, Object> getTransactionMap(String mapName) {
+        return (TransactionMap<Object, Object>) (StorageMap<?, ?>) session.getStorageMap(mapName);
+    }
+
+    private void addLocalTransactionNames() {
+        Transaction parentTransaction = session.getParentTransaction();
+        if (parentTransaction != null && !parentTransaction.isAutoCommit()) {
+            parentTransaction.addLocalTransactionNames(session.getTransaction().getLocalTransactionNames());
+        }
+    }
+
     @Override
     public Object executeGet(String mapName, ByteBuffer key) {
         StorageMap<Object, Object> map = session.getStorageMap(mapName);
@@ -143,10 +174,7 @@ public class ServerCommand implements StorageCommand {
         StorageMap<Object, Object> map = session.getStorageMap(mapName);
         Object result = map.append(map.getValueType().read(value));
         commandUpdateResult.addResult(this, ((ValueLong) result).getLong());
-        Transaction parentTransaction = session.getParentTransaction();
-        if (parentTransaction != null && !parentTransaction.isAutoCommit()) {
-            parentTransaction.addLocalTransactionNames(session.getTransaction().getLocalTransactionNames());
-        }
+        addLocalTransactionNames();
         return result;
     }
 
@@ -13,6 +13,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Random;
+import java.util.function.Consumer;
 
 import org.lealone.common.exceptions.DbException;
 import org.lealone.common.trace.Trace;
@@ -26,6 +27,7 @@ import org.lealone.db.index.StandardPrimaryIndex;
 import org.lealone.db.result.Result;
 import org.lealone.db.result.Row;
 import org.lealone.db.schema.Schema;
+import org.lealone.db.service.ServiceExecuterManager;
 import org.lealone.db.table.Table;
 import org.lealone.db.value.Value;
 import org.lealone.db.value.ValueLong;
@@ -70,6 +72,7 @@ public class ServerSession extends SessionBase implements Transaction.Validator
     private int throttle;
     private long lastThrottle;
     private Command currentCommand;
+    private long currentCommandId; // 每开始执行一条语句加1，用来判断子查询缓存之类的数据是否还属于当前这次执行
     private boolean allowLiterals;
     private String currentSchemaName;
     private String[] schemaSearchPath;
@@ -83,6 +86,7 @@ public class ServerSession extends SessionBase implements Transaction.Validator
     private final long sessionStart = System.currentTimeMillis();
     private long transactionStart;
     private long currentCommandStart;
+    private StatementCounters statementCounters;
     private HashMap<String, Value> variables;
     private HashSet<Result> temporaryResults;
     private int queryTimeout;
@@ -98,6 +102,8 @@ public class ServerSession extends SessionBase implements Transaction.Validator
     private final ArrayList<PreparedStatement> currentStatements = new ArrayList<>(1);
     private boolean containsDDL;
     private boolean containsDatabaseStatement;
+    // 当前事务结束(提交或回滚)之后要执行的操作，参数为true表示已经提交
+    private ArrayList<Consumer<Boolean>> transactionEndListeners;
 
     public ServerSession(Database database, User user, int id) {
         this.database = database;
@@ -513,12 +519,15 @@ public class ServerSession extends SessionBase implements Transaction.Validator
             // 避免重复commit
             Transaction transaction = this.transaction;
             this.transaction = null;
+            ArrayList<Consumer<Boolean>> listeners = transactionEndListeners;
+            transactionEndListeners = null;
             if (allLocalTransactionNames == null)
                 transaction.commit();
             else
                 transaction.commit(allLocalTransactionNames);
 
             endTransaction();
+            fireTransactionEnd(listeners, true);
         }
         if (!containsDDL) {
             // do not clean the temp tables if the last command was a
@@ -570,8 +579,11 @@ public class ServerSession extends SessionBase implements Transaction.Validator
         if (transaction != null) {
             Transaction transaction = this.transaction;
             this.transaction = null;
+            ArrayList<Consumer<Boolean>> listeners = transactionEndListeners;
+            transactionEndListeners = null;
             transaction.rollback();
             endTransaction();
+            fireTransactionEnd(listeners, false);
         }
         cleanTempTables(false);
         unlockAll();
@@ -676,6 +688,29 @@ public class ServerSession extends SessionBase implements Transaction.Validator
         locks.add(table);
     }
 
+    /**
+     * Add a listener that is called once the current transaction is committed or rolled back.
+     * The same listener is only added once per transaction.
+     *
+     * @param listener the listener, the argument is true if the transaction was committed
+     */
+    public void addTransactionEndListener(Consumer<Boolean> listener) {
+        if (transactionEndListeners == null) {
+            transactionEndListeners = new ArrayList<>(1);
+        } else if (transactionEndListeners.contains(listener)) {
+            return;
+        }
+        transactionEndListeners.add(listener);
+    }
+
+    private static void fireTransactionEnd(ArrayList<Consumer<Boolean>> listeners, boolean committed) {
+        if (listeners != null) {
+            for (int i = 0, size = listeners.size(); i < size; i++) {
+                listeners.get(i).accept(committed);
+            }
+        }
+    }
+
     /**
      * Unlock just this table.
      *
@@ -806,6 +841,8 @@ public class ServerSession extends SessionBase implements Transaction.Validator
      */
     public void setCurrentCommand(Command command) {
         this.currentCommand = command;
+        if (command != null)
+            currentCommandId++;
         if (queryTimeout > 0 && command != null) {
             long now = System.currentTimeMillis();
             currentCommandStart = now;
@@ -852,10 +889,23 @@ public class ServerSession extends SessionBase implements Transaction.Validator
         return currentCommand;
     }
 
+    public long getCurrentCommandId() {
+        return currentCommandId;
+    }
+
     public long getCurrentCommandStart() {
         return currentCommandStart;
     }
 
+    // 打开QUERY_STATISTICS后当前语句的计数器，没有打开时是null
+    public StatementCounters getStatementCounters() {
+        return statementCounters;
+    }
+
+    public void setStatementCounters(StatementCounters statementCounters) {
+        this.statementCounters = statementCounters;
+    }
+
     public boolean getAllowLiterals() {
         return allowLiterals;
     }
@@ -1456,4 +1506,9 @@ public class ServerSession extends SessionBase implements Transaction.Validator
     public String getUserName() {
         return user.getName();
     }
+
+    @Override
+    public Value executeService(String serviceName, int methodId, Value[] methodArgs) {
+        return ServiceExecuterManager.executeService(serviceName, methodId, methodArgs);
+    }
 }
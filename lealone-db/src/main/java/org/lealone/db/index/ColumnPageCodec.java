@@ -0,0 +1,344 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.db.index;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+import org.lealone.common.util.DataUtils;
+import org.lealone.db.DataBuffer;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueByte;
+import org.lealone.db.value.ValueDate;
+import org.lealone.db.value.ValueInt;
+import org.lealone.db.value.ValueLong;
+import org.lealone.db.value.ValueNull;
+import org.lealone.db.value.ValueShort;
+import org.lealone.db.value.ValueTime;
+import org.lealone.db.value.ValueTimestamp;
+import org.lealone.storage.type.StorageDataType;
+
+/**
+ * 列page的编码器，按列值的类型和分布选择编码方式:
+ * <p>
+ * 字典编码(值很少的字符串)、差值编码(整数、日期、时间)、游程编码(连续重复的值)，其他情况按行格式原样存储，
+ * 所有编码方式都用位图记录null值，null本身不再占用空间。
+ * <p>
+ * 格式: encoding(byte) + nullCount(varInt) + [null位图] + 非null值的编码数据
+ *
+ * @author zhh
+ */
+class ColumnPageCodec {
+
+    static final int ENCODING_PLAIN = 0;
+    static final int ENCODING_RLE = 1;
+    static final int ENCODING_DICTIONARY = 2;
+    static final int ENCODING_DELTA = 3;
+
+    private static final int MAX_DICTIONARY_SIZE = 256;
+
+    private ColumnPageCodec() {
+    }
+
+    static void write(DataBuffer buff, Value[] values) {
+        int len = values.length;
+        int nullCount = 0;
+        for (int i = 0; i < len; i++) {
+            if (isNull(values[i]))
+                nullCount++;
+        }
+        Value[] nonNulls = values;
+        if (nullCount > 0) {
+            nonNulls = new Value[len - nullCount];
+            for (int i = 0, j = 0; i < len; i++) {
+                if (!isNull(values[i]))
+                    nonNulls[j++] = values[i];
+            }
+        }
+        int encoding = getEncoding(nonNulls);
+        buff.put((byte) encoding);
+        buff.putVarInt(nullCount);
+        if (nullCount > 0 && nullCount < len) {
+            byte[] bitmap = new byte[(len + 7) / 8];
+            for (int i = 0; i < len; i++) {
+                if (isNull(values[i]))
+                    bitmap[i >> 3] |= 1 << (i & 7);
+            }
+            buff.put(bitmap);
+        }
+        switch (encoding) {
+        case ENCODING_RLE:
+            writeRle(buff, nonNulls);
+            break;
+        case ENCODING_DICTIONARY:
+            writeDictionary(buff, nonNulls);
+            break;
+        case ENCODING_DELTA:
+            writeDelta(buff, nonNulls);
+            break;
+        default:
+            for (Value v : nonNulls) {
+                buff.writeValue(v);
+            }
+        }
+    }
+
+    static Value[] read(ByteBuffer buff, int len, StorageDataType valueType) {
+        int encoding = buff.get();
+        int nullCount = DataUtils.readVarInt(buff);
+        byte[] bitmap = null;
+        if (nullCount > 0 && nullCount < len) {
+            bitmap = new byte[(len + 7) / 8];
+            buff.get(bitmap);
+        }
+        int count = len - nullCount;
+        Value[] nonNulls;
+        switch (encoding) {
+        case ENCODING_RLE:
+            nonNulls = readRle(buff, count, valueType);
+            break;
+        case ENCODING_DICTIONARY:
+            nonNulls = readDictionary(buff, count, valueType);
+            break;
+        case ENCODING_DELTA:
+            nonNulls = readDelta(buff, count);
+            break;
+        case ENCODING_PLAIN:
+            nonNulls = new Value[count];
+            for (int i = 0; i < count; i++) {
+                nonNulls[i] = (Value) valueType.read(buff);
+            }
+            break;
+        default:
+            throw DataUtils.newIllegalStateException(DataUtils.ERROR_FILE_CORRUPT,
+                    "Unknown column page encoding {0}", encoding);
+        }
+        if (nullCount == 0)
+            return nonNulls;
+        Value[] values = new Value[len];
+        for (int i = 0, j = 0; i < len; i++) {
+            if (bitmap == null || (bitmap[i >> 3] & (1 << (i & 7))) != 0)
+                values[i] = ValueNull.INSTANCE;
+            else
+                values[i] = nonNulls[j++];
+        }
+        return values;
+    }
+
+    private static boolean isNull(Value v) {
+        return v == null || v == ValueNull.INSTANCE;
+    }
+
+    private static int getEncoding(Value[] values) {
+        int len = values.length;
+        if (len == 0)
+            return ENCODING_PLAIN;
+        int type = values[0].getType();
+        int runs = 1;
+        for (int i = 1; i < len; i++) {
+            Value v = values[i];
+            if (v.getType() != type)
+                type = Value.UNKNOWN;
+            if (!isSame(values[i - 1], v))
+                runs++;
+        }
+        if (isDeltaType(type))
+            return runs * 4 <= len ? ENCODING_RLE : ENCODING_DELTA;
+        if (runs * 2 <= len)
+            return ENCODING_RLE;
+        if ((type == Value.STRING || type == Value.STRING_FIXED) && isLowCardinality(values))
+            return ENCODING_DICTIONARY;
+        return ENCODING_PLAIN;
+    }
+
+    // 不能直接用equals，忽略大小写的字符串会把大小写不同的值当成相同的
+    private static boolean isSame(Value a, Value b) {
+        if (a.getType() != b.getType())
+            return false;
+        if (a.getType() == Value.STRING_IGNORECASE)
+            return a.getString().equals(b.getString());
+        return a.equals(b);
+    }
+
+    private static boolean isDeltaType(int type) {
+        switch (type) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+        case Value.DATE:
+        case Value.TIME:
+        case Value.TIMESTAMP:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private static boolean isLowCardinality(Value[] values) {
+        HashMap<String, Integer> dictionary = new HashMap<>();
+        int len = values.length;
+        for (int i = 0; i < len; i++) {
+            dictionary.putIfAbsent(values[i].getString(), dictionary.size());
+            if (dictionary.size() > MAX_DICTIONARY_SIZE || dictionary.size() * 2 > len)
+                return false;
+        }
+        return true;
+    }
+
+    private static void writeRle(DataBuffer buff, Value[] values) {
+        int len = values.length;
+        for (int i = 0; i < len;) {
+            Value v = values[i];
+            int run = 1;
+            while (i + run < len && isSame(v, values[i + run]))
+                run++;
+            buff.putVarInt(run);
+            buff.writeValue(v);
+            i += run;
+        }
+    }
+
+    private static Value[] readRle(ByteBuffer buff, int count, StorageDataType valueType) {
+        Value[] values = new Value[count];
+        for (int i = 0; i < count;) {
+            int run = DataUtils.readVarInt(buff);
+            Value v = (Value) valueType.read(buff);
+            for (int end = i + run; i < end; i++) {
+                values[i] = v;
+            }
+        }
+        return values;
+    }
+
+    private static void writeDictionary(DataBuffer buff, Value[] values) {
+        int len = values.length;
+        HashMap<String, Integer> dictionary = new HashMap<>();
+        int[] indexes = new int[len];
+        Value[] entries = new Value[len];
+        for (int i = 0; i < len; i++) {
+            Value v = values[i];
+            Integer index = dictionary.get(v.getString());
+            if (index == null) {
+                index = dictionary.size();
+                dictionary.put(v.getString(), index);
+                entries[index] = v;
+            }
+            indexes[i] = index;
+        }
+        int size = dictionary.size();
+        buff.putVarInt(size);
+        for (int i = 0; i < size; i++) {
+            buff.writeValue(entries[i]);
+        }
+        for (int i = 0; i < len; i++) {
+            buff.putVarInt(indexes[i]);
+        }
+    }
+
+    private static Value[] readDictionary(ByteBuffer buff, int count, StorageDataType valueType) {
+        int size = DataUtils.readVarInt(buff);
+        Value[] entries = new Value[size];
+        for (int i = 0; i < size; i++) {
+            entries[i] = (Value) valueType.read(buff);
+        }
+        Value[] values = new Value[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = entries[DataUtils.readVarInt(buff)];
+        }
+        return values;
+    }
+
+    // 存放的是相邻两个值的差，用zigzag编码让负数也只占很少的字节，
+    // 差值溢出也没关系，解码时按同样的方式相加会回绕到原来的值
+    private static void writeDelta(DataBuffer buff, Value[] values) {
+        int type = values[0].getType();
+        buff.put((byte) type);
+        long last = 0, lastNanos = 0;
+        for (Value v : values) {
+            long x;
+            switch (type) {
+            case Value.DATE:
+                x = ((ValueDate) v).getDateValue();
+                break;
+            case Value.TIME:
+                x = ((ValueTime) v).getNanos();
+                break;
+            case Value.TIMESTAMP:
+                ValueTimestamp ts = (ValueTimestamp) v;
+                x = ts.getDateValue();
+                long nanos = ts.getNanos();
+                buff.putVarLong(zigzag(nanos - lastNanos));
+                lastNanos = nanos;
+                break;
+            default:
+                x = v.getLong();
+            }
+            buff.putVarLong(zigzag(x - last));
+            last = x;
+        }
+    }
+
+    private static Value[] readDelta(ByteBuffer buff, int count) {
+        int type = buff.get();
+        Value[] values = new Value[count];
+        long last = 0, lastNanos = 0;
+        for (int i = 0; i < count; i++) {
+            if (type == Value.TIMESTAMP)
+                lastNanos += unzigzag(DataUtils.readVarLong(buff));
+            last += unzigzag(DataUtils.readVarLong(buff));
+            Value v;
+            switch (type) {
+            case Value.BYTE:
+                v = ValueByte.get((byte) last);
+                break;
+            case Value.SHORT:
+                v = ValueShort.get((short) last);
+                break;
+            case Value.INT:
+                v = ValueInt.get((int) last);
+                break;
+            case Value.LONG:
+                v = ValueLong.get(last);
+                break;
+            case Value.DATE:
+                v = ValueDate.fromDateValue(last);
+                break;
+            case Value.TIME:
+                v = ValueTime.fromNanos(last);
+                break;
+            case Value.TIMESTAMP:
+                v = ValueTimestamp.fromDateValueAndNanos(last, lastNanos);
+                break;
+            default:
+                throw DataUtils.newIllegalStateException(DataUtils.ERROR_FILE_CORRUPT,
+                        "Unknown delta encoding type {0}", type);
+            }
+            values[i] = v;
+        }
+        return values;
+    }
+
+    private static long zigzag(long x) {
+        return (x << 1) ^ (x >> 63);
+    }
+
+    private static long unzigzag(long x) {
+        return (x >>> 1) ^ -(x & 1);
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.db.index;
+
+import java.nio.ByteBuffer;
+import java.util.function.Predicate;
+
+import org.lealone.common.util.DataUtils;
+import org.lealone.db.DataBuffer;
+import org.lealone.db.value.CompareMode;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueNull;
+
+/**
+ * 列式存储时一个leaf page中某一列的统计信息(zone map)，
+ * 范围查询时如果某一列的条件跟[min, max]没有交集，就可以跳过整个page，不需要读取它的列page。
+ *
+ * @author zhh
+ */
+public class ColumnPageStatistics {
+
+    // 太长的字符串不适合放在leaf page中
+    private static final int MAX_STRING_LENGTH = 256;
+
+    private final int rowCount;
+    private final int nullCount;
+    private final Value min; // 为null时表示不支持按大小跳过
+    private final Value max;
+
+    ColumnPageStatistics(int rowCount, int nullCount, Value min, Value max) {
+        this.rowCount = rowCount;
+        this.nullCount = nullCount;
+        this.min = min;
+        this.max = max;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getNullCount() {
+        return nullCount;
+    }
+
+    public Value getMin() {
+        return min;
+    }
+
+    public Value getMax() {
+        return max;
+    }
+
+    /**
+     * Check if the page may contain a value in the range [low, high].
+     *
+     * @param low the lower bound, or null if unbounded
+     * @param high the upper bound, or null if unbounded
+     * @param compareMode the compare mode
+     * @return false if the page can be skipped
+     */
+    public boolean mayContain(Value low, Value high, CompareMode compareMode) {
+        if (nullCount == rowCount) {
+            return false; // 全是null，任何比较都不成立
+        }
+        if (min == null) {
+            return true;
+        }
+        try {
+            if (low != null && compare(max, low, compareMode) < 0)
+                return false;
+            if (high != null && compare(min, high, compareMode) > 0)
+                return false;
+        } catch (Exception e) {
+            // 类型无法转换时不跳过，交给后面的条件判断
+        }
+        return true;
+    }
+
+    void write(DataBuffer buff) {
+        buff.putVarInt(rowCount).putVarInt(nullCount);
+        if (min == null) {
+            buff.put((byte) 0);
+        } else {
+            buff.put((byte) 1);
+            buff.writeValue(min);
+            buff.writeValue(max);
+        }
+    }
+
+    static ColumnPageStatistics read(ByteBuffer buff) {
+        int rowCount = DataUtils.readVarInt(buff);
+        int nullCount = DataUtils.readVarInt(buff);
+        Value min = null, max = null;
+        if (buff.get() == 1) {
+            min = DataBuffer.readValue(buff);
+            max = DataBuffer.readValue(buff);
+        }
+        return new ColumnPageStatistics(rowCount, nullCount, min, max);
+    }
+
+    static ColumnPageStatistics create(Value[] values, CompareMode compareMode) {
+        int nullCount = 0;
+        Value min = null, max = null;
+        boolean comparable = true;
+        for (Value v : values) {
+            if (v == null || v == ValueNull.INSTANCE) {
+                nullCount++;
+                continue;
+            }
+            if (!comparable)
+                continue;
+            if (!isComparable(v)) {
+                comparable = false;
+                min = max = null;
+                continue;
+            }
+            if (min == null) {
+                min = max = v;
+            } else if (compare(v, min, compareMode) < 0) {
+                min = v;
+            } else if (compare(v, max, compareMode) > 0) {
+                max = v;
+            }
+        }
+        return new ColumnPageStatistics(values.length, nullCount, min, max);
+    }
+
+    private static int compare(Value a, Value b, CompareMode compareMode) {
+        return compareMode == null ? a.compareTo(b) : a.compareTo(b, compareMode);
+    }
+
+    private static boolean isComparable(Value v) {
+        switch (v.getType()) {
+        case Value.BOOLEAN:
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+        case Value.DECIMAL:
+        case Value.DOUBLE:
+        case Value.FLOAT:
+        case Value.TIME:
+        case Value.DATE:
+        case Value.TIMESTAMP:
+        case Value.UUID:
+            return true;
+        case Value.STRING:
+        case Value.STRING_IGNORECASE:
+        case Value.STRING_FIXED:
+            return v.getString().length() <= MAX_STRING_LENGTH;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Create a page filter, the arrays are indexed by column id.
+     *
+     * @param lows the lower bounds, null element means unbounded
+     * @param highs the upper bounds, null element means unbounded
+     * @param compareMode the compare mode
+     * @return the page filter
+     */
+    public static Predicate<Object[]> createPageFilter(Value[] lows, Value[] highs, CompareMode compareMode) {
+        return zoneMap -> {
+            for (int i = 0, len = Math.min(zoneMap.length, lows.length); i < len; i++) {
+                if ((lows[i] != null || highs[i] != null) && zoneMap[i] instanceof ColumnPageStatistics) {
+                    if (!((ColumnPageStatistics) zoneMap[i]).mayContain(lows[i], highs[i], compareMode))
+                        return false;
+                }
+            }
+            return true;
+        };
+    }
+}
@@ -17,6 +17,12 @@
  */
 package org.lealone.db.index;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.lealone.common.exceptions.DbException;
 import org.lealone.common.util.StatementBuilder;
 import org.lealone.db.ServerSession;
 import org.lealone.db.result.Result;
@@ -26,8 +32,15 @@ import org.lealone.db.result.SortOrder;
 import org.lealone.db.table.Column;
 import org.lealone.db.table.IndexColumn;
 import org.lealone.db.table.StandardTable;
+import org.lealone.db.table.Table;
 import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueArray;
+import org.lealone.db.value.ValueLong;
+import org.lealone.db.value.ValueNull;
 import org.lealone.sql.PreparedStatement;
+import org.lealone.storage.DistributedStorageMap;
+import org.lealone.transaction.Transaction;
+import org.lealone.transaction.TransactionMap;
 
 public class GlobalUniqueIndex extends IndexBase {
 
@@ -68,6 +81,94 @@ public class GlobalUniqueIndex extends IndexBase {
 
     @Override
     public void add(ServerSession session, Row row) {
+        addRows(session, Collections.singletonList(row));
+    }
+
+    @Override
+    public boolean tryAdd(ServerSession session, Row row, Transaction.Listener globalListener) {
+        return tryAddRows(session, Collections.singletonList(row), globalListener);
+    }
+
+    @Override
+    public void addRows(ServerSession session, List<Row> rows) {
+        List<Row> sqlRows = addIndexRows(session, rows);
+        if (!sqlRows.isEmpty())
+            update(createInsert(session, sqlRows));
+    }
+
+    @Override
+    public boolean tryAddRows(ServerSession session, List<Row> rows, Transaction.Listener globalListener) {
+        List<Row> sqlRows = addIndexRows(session, rows);
+        if (!sqlRows.isEmpty())
+            tryUpdate(createInsert(session, sqlRows), globalListener);
+        return false;
+    }
+
+    @Override
+    public boolean tryRemove(ServerSession session, Row row) {
+        StandardPrimaryIndex indexTableIndex = row == null ? null : getIndexTablePrimaryIndex(session);
+        Value key = indexTableIndex == null ? null : getIndexKey(row);
+        if (key != null) {
+            return getDistributedMap(indexTableIndex).replicationRemove(session, key);
+        }
+        removeBySQL(session, row);
+        return true;
+    }
+
+    // 索引表的主键只有一个整数类型的字段时，索引表的数据map就是按唯一索引字段的值分布到各节点的，
+    // 这时直接用StorageCommand在唯一索引字段值所在的节点上增删索引记录，
+    // 在不同节点上插入相同的索引字段值时由那个节点检测到重复，其他情况才通过在索引表上执行SQL语句来写
+    private StandardPrimaryIndex getIndexTablePrimaryIndex(ServerSession session) {
+        Table indexTable = table.getSchema().findTableOrView(session, getName());
+        if (indexTable == null)
+            return null;
+        Index index = indexTable.getScanIndex(session);
+        if (index instanceof StandardPrimaryIndex) {
+            StandardPrimaryIndex primaryIndex = (StandardPrimaryIndex) index;
+            if (primaryIndex.getMainIndexColumn() != -1
+                    && primaryIndex.getStorageMap().getRawMap() instanceof DistributedStorageMap)
+                return primaryIndex;
+        }
+        return null;
+    }
+
+    private static DistributedStorageMap<?, ?> getDistributedMap(StandardPrimaryIndex indexTableIndex) {
+        return (DistributedStorageMap<?, ?>) indexTableIndex.getStorageMap().getRawMap();
+    }
+
+    // 唯一索引字段为null时不用检测重复，返回null
+    private Value getIndexKey(Row row) {
+        Value v = row.getValue(columns[0].getColumnId());
+        if (v == null || v == ValueNull.INSTANCE)
+            return null;
+        return ValueLong.get(v.getLong());
+    }
+
+    // 返回不能直接写到索引表的数据map中的记录，这些记录还要通过SQL语句来写
+    private List<Row> addIndexRows(ServerSession session, List<Row> rows) {
+        StandardPrimaryIndex indexTableIndex = getIndexTablePrimaryIndex(session);
+        if (indexTableIndex == null)
+            return rows;
+        TransactionMap<Value, VersionedValue> map = indexTableIndex.getMap(session);
+        DistributedStorageMap<?, ?> distributedMap = getDistributedMap(indexTableIndex);
+        int version = indexTableIndex.getTable().getVersion();
+        List<Row> sqlRows = new ArrayList<>(0);
+        for (Row row : rows) {
+            Value key = getIndexKey(row);
+            if (key == null) {
+                sqlRows.add(row);
+                continue;
+            }
+            // 索引表的字段是(_gui_row_id_, 唯一索引字段)
+            Value[] values = { ValueLong.get(row.getKey()), row.getValue(columns[0].getColumnId()) };
+            VersionedValue value = new VersionedValue(version, ValueArray.get(values));
+            if (!distributedMap.replicationAddIfAbsent(session, key, value, map.getValueType()))
+                throw getDuplicateKeyException(key.toString());
+        }
+        return sqlRows;
+    }
+
+    private PreparedStatement createInsert(ServerSession session, List<Row> rows) {
         StatementBuilder sql = new StatementBuilder("insert into ");
         sql.append(getName()).append("(_gui_row_id_");
 
@@ -76,27 +177,62 @@ public class GlobalUniqueIndex extends IndexBase {
             sql.append(c.getName());
         }
 
-        sql.append(") values (");
-        sql.append(row.getKey());
-
-        for (Column c : getColumns()) {
-            sql.append(",");
-            Value v = row.getValue(c.getColumnId());
-            if (v == null) {
-                sql.append("DEFAULT");
-            } else {
-                sql.append(v.getSQL());
+        sql.append(") values ");
+        for (Row row : rows) {
+            sql.appendExceptFirst(", ");
+            sql.append("(").append(row.getKey());
+            for (Column c : getColumns()) {
+                sql.append(",");
+                Value v = row.getValue(c.getColumnId());
+                if (v == null) {
+                    sql.append("DEFAULT");
+                } else {
+                    sql.append(v.getSQL());
+                }
             }
+            sql.append(")");
         }
-        sql.append(")");
 
         PreparedStatement prepared = session.prepareStatement(sql.toString(), true);
         prepared.setLocal(false);
-        prepared.update();
+        return prepared;
     }
 
-    @Override
-    public void remove(ServerSession session, Row row) {
+    // 嵌套语句是当前语句的一部分，不能在它结束时提交当前事务
+    private static <T> T runNested(ServerSession session, Supplier<T> nested) {
+        boolean autoCommit = session.isAutoCommit();
+        session.setAutoCommit(false);
+        try {
+            return nested.get();
+        } finally {
+            session.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static void update(PreparedStatement prepared) {
+        ServerSession session = (ServerSession) prepared.getSession();
+        runNested(session, () -> prepared.update());
+    }
+
+    // 异步执行，跟当前语句的其他写操作共用globalListener，执行完或出错时通知它，
+    // 由globalListener在等待异步操作完成时反复执行，直到执行完，不支持时不能让出线程，只能同步执行完
+    private static void tryUpdate(PreparedStatement prepared, Transaction.Listener globalListener) {
+        ServerSession session = (ServerSession) prepared.getSession();
+        PreparedStatement.Yieldable<Integer> yieldable = prepared.createYieldableUpdate(ar -> {
+            if (ar.isSucceeded()) {
+                globalListener.operationComplete();
+            } else {
+                globalListener.setException(DbException.convert(ar.getCause()));
+                globalListener.operationUndo();
+            }
+        });
+        if (globalListener.addPendingOperation(() -> runNested(session, () -> yieldable.run())))
+            globalListener.beforeOperation();
+        else
+            update(prepared);
+    }
+
+    private void removeBySQL(ServerSession session, Row row) {
         StatementBuilder sql = new StatementBuilder("delete from ");
         sql.append(getName());
         if (row != null) {
@@ -114,7 +250,7 @@ public class GlobalUniqueIndex extends IndexBase {
 
         PreparedStatement prepared = session.prepareStatement(sql.toString(), true);
         prepared.setLocal(false);
-        prepared.update();
+        update(prepared);
     }
 
     @Override
@@ -220,7 +356,7 @@ public class GlobalUniqueIndex extends IndexBase {
     @Override
     public void rename(String newName) {
         StatementBuilder sql = new StatementBuilder("alter table ");
-        sql.append(getName()).append(" rename to").append(newName);
+        sql.append(getName()).append(" rename to ").append(newName);
 
         PreparedStatement prepared = getDatabase().getSystemSession().prepareStatement(sql.toString(), true);
         prepared.setLocal(true);
@@ -73,6 +73,25 @@ public interface Index extends SchemaObject {
         throw DbException.getUnsupportedException("add row");
     }
 
+    /**
+     * Add multiple rows to the index.
+     *
+     * @param session the session to use
+     * @param rows the rows to add
+     */
+    default void addRows(ServerSession session, List<Row> rows) {
+        for (Row row : rows) {
+            add(session, row);
+        }
+    }
+
+    default boolean tryAddRows(ServerSession session, List<Row> rows, Transaction.Listener globalListener) {
+        for (Row row : rows) {
+            tryAdd(session, row, globalListener);
+        }
+        return false;
+    }
+
     default void update(ServerSession session, Row oldRow, Row newRow, List<Column> updateColumns) {
         Transaction.Listener listener = getTransactionListener();
         tryUpdate(session, oldRow, newRow, updateColumns, listener);
@@ -131,6 +150,62 @@ public interface Index extends SchemaObject {
      */
     double getCost(ServerSession session, int[] masks, SortOrder sortOrder);
 
+    /**
+     * Estimate the cost like {@link #getCost(ServerSession, int[], SortOrder)},
+     * but also take the columns used by the query into account.
+     *
+     * @param session the session
+     * @param masks per-column comparison bit masks
+     * @param sortOrder the sort order
+     * @param columnIndexes the ids of the columns used by the query, null means all columns
+     * @return the estimated cost
+     */
+    default double getCost(ServerSession session, int[] masks, SortOrder sortOrder, int[] columnIndexes) {
+        return getCost(session, masks, sortOrder);
+    }
+
+    /**
+     * Estimate the cost like {@link #getCost(ServerSession, int[], SortOrder, int[])},
+     * but use the fractions of rows estimated from the column statistics where they are known.
+     *
+     * @param session the session
+     * @param masks per-column comparison bit masks
+     * @param fractions per-column fraction of rows that match the conditions, 0 means unknown,
+     *              null if no column has statistics
+     * @param sortOrder the sort order
+     * @param columnIndexes the ids of the columns used by the query, null means all columns
+     * @return the estimated cost
+     */
+    default double getCost(ServerSession session, int[] masks, double[] fractions, SortOrder sortOrder,
+            int[] columnIndexes) {
+        return getCost(session, masks, sortOrder, columnIndexes);
+    }
+
+    /**
+     * Estimate the number of rows read by one lookup with the given conditions,
+     * using the same model as the cost estimation.
+     *
+     * @param masks per-column comparison bit masks, null means no conditions
+     * @param fractions per-column fraction of rows that match the conditions, 0 means unknown,
+     *              null if no column has statistics
+     * @param rowCount the number of rows in the index
+     * @return the estimated number of rows
+     */
+    default long getRowCountEstimate(int[] masks, double[] fractions, long rowCount) {
+        return rowCount;
+    }
+
+    /**
+     * Check if all the given columns can be read from the index itself,
+     * so that there is no need to look up the rows in the primary index.
+     *
+     * @param columnIndexes the ids of the columns used by the query, null means all columns
+     * @return true if the index is a covering index for these columns
+     */
+    default boolean isCovering(int[] columnIndexes) {
+        return false;
+    }
+
     /**
      * Remove the index.
      *
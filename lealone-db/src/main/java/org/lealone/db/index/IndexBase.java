@@ -14,6 +14,7 @@ import org.lealone.common.trace.Trace;
 import org.lealone.common.util.StatementBuilder;
 import org.lealone.common.util.StringUtils;
 import org.lealone.db.Constants;
+import org.lealone.db.Database;
 import org.lealone.db.DbObjectType;
 import org.lealone.db.Mode;
 import org.lealone.db.ServerSession;
@@ -162,50 +163,22 @@ public abstract class IndexBase extends SchemaObjectBase implements Index {
      * @return the estimated cost
      */
     protected long getCostRangeIndex(int[] masks, long rowCount, SortOrder sortOrder) {
+        return getCostRangeIndex(masks, null, rowCount, sortOrder);
+    }
+
+    /**
+     * Calculate the cost like {@link #getCostRangeIndex(int[], long, SortOrder)},
+     * but use the fractions of rows estimated from the column statistics where they are known.
+     *
+     * @param masks the search mask
+     * @param fractions per-column fraction of rows that match the conditions, 0 means unknown, may be null
+     * @param rowCount the number of rows in the index
+     * @param sortOrder the sort order
+     * @return the estimated cost
+     */
+    protected long getCostRangeIndex(int[] masks, double[] fractions, long rowCount, SortOrder sortOrder) {
         rowCount += Constants.COST_ROW_OFFSET;
-        long cost = rowCount;
-        long rows = rowCount;
-        int totalSelectivity = 0;
-        if (masks == null) {
-            return cost;
-        }
-        for (int i = 0, len = columns.length; i < len; i++) {
-            Column column = columns[i];
-            int index = column.getColumnId();
-            int mask = masks[index];
-            // 代价比较:
-            // EQUALITY < RANGE < END < START
-            // 如果索引字段列表的第一个字段在Where中是RANGE、START、END，那么索引字段列表中的其他字段就不需要再计算cost了，
-            // 如果是EQUALITY，则还可以继续计算cost，rows变量的值会变小，cost也会变小
-            if ((mask & IndexConditionType.EQUALITY) == IndexConditionType.EQUALITY) {
-                // 索引字段列表中的最后一个在where当中是EQUALITY，且此索引是唯一索引时，cost直接是3
-                // 因为如果最后一个索引字段是EQUALITY，说明前面的字段全是EQUALITY，
-                // 如果是唯一索引则rowCount / distinctRows是1，所以rows = Math.max(rowCount / distinctRows, 1)=1
-                // 所以cost = 2 + rows = 3
-                if (i == columns.length - 1 && getIndexType().isUnique()) {
-                    cost = 3;
-                    break;
-                }
-                totalSelectivity = 100 - ((100 - totalSelectivity) * (100 - column.getSelectivity()) / 100);
-                long distinctRows = rowCount * totalSelectivity / 100; // totalSelectivity变大时distinctRows变大
-                if (distinctRows <= 0) {
-                    distinctRows = 1;
-                }
-                rows = Math.max(rowCount / distinctRows, 1); // distinctRows变大，则rowCount / distinctRows变小，rows也变小
-                cost = 2 + rows; // rows也变小，所以cost也变小
-            } else if ((mask & IndexConditionType.RANGE) == IndexConditionType.RANGE) { // 见TableFilter.getBestPlanItem中的注释
-                cost = 2 + rows / 4;
-                break;
-            } else if ((mask & IndexConditionType.START) == IndexConditionType.START) {
-                cost = 2 + rows / 3;
-                break;
-            } else if ((mask & IndexConditionType.END) == IndexConditionType.END) { // "<="的代价要小于">="
-                cost = rows / 3;
-                break;
-            } else {
-                break;
-            }
-        }
+        long cost = getRowCountEstimate(masks, fractions, rowCount, true);
         // if the ORDER BY clause matches the ordering of this index,
         // it will be cheaper than another index, so adjust the cost accordingly
         if (sortOrder != null) {
@@ -247,6 +220,68 @@ public abstract class IndexBase extends SchemaObjectBase implements Index {
         return cost;
     }
 
+    @Override
+    public long getRowCountEstimate(int[] masks, double[] fractions, long rowCount) {
+        return getRowCountEstimate(masks, fractions, rowCount, false);
+    }
+
+    // 估算一次索引查找读到的行数，lookupCost为true时再加上查找本身的代价，得到的就是getCostRangeIndex用的cost
+    private long getRowCountEstimate(int[] masks, double[] fractions, long rowCount, boolean lookupCost) {
+        long rows = rowCount;
+        int totalSelectivity = 0;
+        double fraction = 1; // 有统计信息的字段按直方图估算的比例，跟selectivity的估算结果相乘
+        if (masks == null) {
+            return rows;
+        }
+        int lookup = lookupCost ? 2 : 0;
+        for (int i = 0, len = columns.length; i < len; i++) {
+            Column column = columns[i];
+            int index = column.getColumnId();
+            int mask = index >= 0 ? masks[index] : 0;
+            double f = fractions == null || index < 0 ? 0 : fractions[index];
+            // 代价比较:
+            // EQUALITY < RANGE < END < START
+            // 如果索引字段列表的第一个字段在Where中是RANGE、START、END，那么索引字段列表中的其他字段就不需要再计算cost了，
+            // 如果是EQUALITY，则还可以继续计算cost，rows变量的值会变小，cost也会变小
+            if ((mask & IndexConditionType.EQUALITY) == IndexConditionType.EQUALITY) {
+                // 索引字段列表中的最后一个在where当中是EQUALITY，且此索引是唯一索引时，只有一行，cost直接是3
+                // 因为如果最后一个索引字段是EQUALITY，说明前面的字段全是EQUALITY，
+                // 如果是唯一索引则rowCount / distinctRows是1，所以rows = Math.max(rowCount / distinctRows, 1)=1
+                // 所以cost = 2 + rows = 3
+                if (i == columns.length - 1 && getIndexType().isUnique()) {
+                    return lookup + 1;
+                }
+                if (f > 0) {
+                    fraction *= f;
+                } else {
+                    totalSelectivity = 100 - ((100 - totalSelectivity) * (100 - column.getSelectivity()) / 100);
+                    long distinctRows = rowCount * totalSelectivity / 100; // totalSelectivity变大时distinctRows变大
+                    if (distinctRows <= 0) {
+                        distinctRows = 1;
+                    }
+                    rows = Math.max(rowCount / distinctRows, 1); // distinctRows变大，则rowCount / distinctRows变小，rows也变小
+                }
+            } else if (f > 0 && (mask & (IndexConditionType.START | IndexConditionType.END)) != 0) {
+                // 范围条件的值已知时按直方图估算，数据倾斜时比下面的固定比例准确得多
+                return lookup + getRows(rows, fraction * f);
+            } else if ((mask & IndexConditionType.RANGE) == IndexConditionType.RANGE) { // 见TableFilter.getBestPlanItem中的注释
+                return lookup + getRows(rows, fraction) / 4;
+            } else if ((mask & IndexConditionType.START) == IndexConditionType.START) {
+                return lookup + getRows(rows, fraction) / 3;
+            } else if ((mask & IndexConditionType.END) == IndexConditionType.END) { // "<="的代价要小于">="
+                return getRows(rows, fraction) / 3;
+            } else {
+                // 第一个索引字段就没有条件时是全表扫描
+                return i == 0 ? rowCount : lookup + getRows(rows, fraction);
+            }
+        }
+        return lookup + getRows(rows, fraction); // rows变小，所以cost也变小
+    }
+
+    private static long getRows(long rows, double fraction) {
+        return fraction >= 1 ? rows : Math.max((long) (rows * fraction), 1);
+    }
+
     @Override
     public int compareRows(SearchRow rowData, SearchRow compare) {
         if (rowData == compare) {
@@ -367,6 +402,21 @@ public abstract class IndexBase extends SchemaObjectBase implements Index {
             buff.append(" COMMENT ").append(StringUtils.quoteStringSQL(comment));
         }
         buff.append('(').append(getColumnListSQL()).append(')');
+        Column[] includeColumns = indexType.getIncludeColumns();
+        if (includeColumns != null) {
+            StatementBuilder sql = new StatementBuilder(" INCLUDE(");
+            for (Column c : includeColumns) {
+                sql.appendExceptFirst(", ");
+                sql.append(c.getSQL());
+            }
+            buff.append(sql.append(')').toString());
+        }
+        Map<String, String> parameters = indexType.getParameters();
+        if (parameters != null && !parameters.isEmpty()) {
+            StatementBuilder sql = new StatementBuilder(" PARAMETERS");
+            Database.appendMap(sql, parameters);
+            buff.append(sql.toString());
+        }
         return buff.toString();
     }
 
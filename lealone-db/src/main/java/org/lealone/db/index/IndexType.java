@@ -6,6 +6,10 @@
  */
 package org.lealone.db.index;
 
+import java.util.Map;
+
+import org.lealone.db.table.Column;
+
 /**
  * Represents information about the properties of an index
  */
@@ -17,6 +21,10 @@ public class IndexType {
     private boolean scan;
     private boolean delegate;
     private boolean belongsToConstraint;
+    // CREATE INDEX ... PARAMETERS(...)中指定的存储参数，比如compress，会覆盖表的同名参数
+    private Map<String, String> parameters;
+    // CREATE INDEX ... INCLUDE(...)中指定的字段，只存放在索引的value中，不参与排序
+    private Column[] includeColumns;
 
     /**
      * Create a primary key index.
@@ -143,6 +151,22 @@ public class IndexType {
         return belongsToConstraint;
     }
 
+    public void setParameters(Map<String, String> parameters) {
+        this.parameters = parameters;
+    }
+
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+
+    public void setIncludeColumns(Column[] includeColumns) {
+        this.includeColumns = includeColumns;
+    }
+
+    public Column[] getIncludeColumns() {
+        return includeColumns;
+    }
+
     /**
      * Get the SQL snippet to create such an index.
      *
@@ -48,6 +48,11 @@ public class StandardDelegateIndex extends IndexBase implements StandardIndex {
         throw DbException.throwInternalError();
     }
 
+    @Override
+    public void addSortedRows(ServerSession session, List<Row> rows) {
+        throw DbException.throwInternalError();
+    }
+
     @Override
     public void add(ServerSession session, Row row) {
         // nothing to do
@@ -59,6 +64,17 @@ public class StandardDelegateIndex extends IndexBase implements StandardIndex {
         return false;
     }
 
+    @Override
+    public void addRows(ServerSession session, List<Row> rows) {
+        // nothing to do
+    }
+
+    @Override
+    public boolean tryAddRows(ServerSession session, List<Row> rows, Transaction.Listener globalListener) {
+        // nothing to do
+        return false;
+    }
+
     @Override
     public void update(ServerSession session, Row oldRow, Row newRow, List<Column> updateColumns) {
         // nothing to do
@@ -67,8 +83,8 @@ public class StandardDelegateIndex extends IndexBase implements StandardIndex {
     @Override
     public boolean tryUpdate(ServerSession session, Row oldRow, Row newRow, List<Column> updateColumns,
             Transaction.Listener globalListener) {
-        // nothing to do
-        return false;
+        // nothing to do，返回true让StandardTable继续更新后面的索引
+        return true;
     }
 
     @Override
@@ -78,8 +94,8 @@ public class StandardDelegateIndex extends IndexBase implements StandardIndex {
 
     @Override
     public boolean tryRemove(ServerSession session, Row row) {
-        // nothing to do
-        return false;
+        // nothing to do，同上，返回false会导致主索引中的记录没有被删除
+        return true;
     }
 
     @Override
@@ -121,7 +137,13 @@ public class StandardDelegateIndex extends IndexBase implements StandardIndex {
 
     @Override
     public double getCost(ServerSession session, int[] masks, SortOrder sortOrder) {
-        return 10 * getCostRangeIndex(masks, mainIndex.getRowCountApproximation(), sortOrder);
+        return getCost(session, masks, null, sortOrder, null);
+    }
+
+    @Override
+    public double getCost(ServerSession session, int[] masks, double[] fractions, SortOrder sortOrder,
+            int[] columnIndexes) {
+        return 10 * getCostRangeIndex(masks, fractions, mainIndex.getRowCountApproximation(), sortOrder);
     }
 
     @Override
@@ -29,6 +29,14 @@ public interface StandardIndex extends Index {
      */
     void addBufferedRows(ServerSession session, List<String> bufferNames);
 
+    /**
+     * Add the rows to the index, which must still be empty. The rows are
+     * sorted by the index columns, so the index can be built in one step.
+     *
+     * @param rows the rows
+     */
+    void addSortedRows(ServerSession session, List<Row> rows);
+
     boolean isInMemory();
 
 }
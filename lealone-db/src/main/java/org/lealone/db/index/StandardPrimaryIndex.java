@@ -14,6 +14,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import org.lealone.common.exceptions.DbException;
+import org.lealone.common.util.CaseInsensitiveMap;
 import org.lealone.common.util.DataUtils;
 import org.lealone.db.Constants;
 import org.lealone.db.ServerSession;
@@ -34,6 +35,7 @@ import org.lealone.storage.IterationParameters;
 import org.lealone.storage.PageKey;
 import org.lealone.storage.Storage;
 import org.lealone.storage.StorageMap;
+import org.lealone.storage.memory.LongKeyMemoryMap;
 import org.lealone.transaction.Transaction;
 import org.lealone.transaction.TransactionEngine;
 import org.lealone.transaction.TransactionMap;
@@ -56,7 +58,10 @@ public class StandardPrimaryIndex extends IndexBase {
 
     private final StandardTable table;
     private final String mapName;
-    private final TransactionMap<Value, VersionedValue> dataMap;
+    private final boolean isShardingMode;
+    private final Storage storage;
+    // 数据库启动时可能延迟到第一次访问时才打开
+    private volatile TransactionMap<Value, VersionedValue> dataMap;
     private int mainIndexColumn = -1;
 
     public StandardPrimaryIndex(ServerSession session, StandardTable table) {
@@ -64,6 +69,15 @@ public class StandardPrimaryIndex extends IndexBase {
                 IndexColumn.wrap(table.getColumns()));
         this.table = table;
         mapName = table.getMapNameForTable(getId());
+        // session.isShardingMode()是针对当前session的，如果是SystemSession，就算数据库是ShardingMode，也不管它
+        isShardingMode = session.isShardingMode();
+        // 后台预热map时不能再调用database的同步方法，提前取得storage
+        storage = database.getStorage(table.getStorageEngine());
+        if (!database.deferMapOpen(mapName, this::getDataMap))
+            dataMap = openMap();
+    }
+
+    private TransactionMap<Value, VersionedValue> openMap() {
         int[] sortTypes = new int[columns.length];
         for (int i = 0; i < columns.length; i++) {
             sortTypes[i] = SortOrder.ASCENDING;
@@ -72,14 +86,32 @@ public class StandardPrimaryIndex extends IndexBase {
         ValueDataType valueType = new ValueDataType(database, database.getCompareMode(), sortTypes);
         VersionedValueType vvType = new VersionedValueType(valueType, columns.length);
 
-        Storage storage = database.getStorage(table.getStorageEngine());
         TransactionEngine transactionEngine = database.getTransactionEngine();
 
-        // session.isShardingMode()是针对当前session的，如果是SystemSession，就算数据库是ShardingMode，也不管它
-        Transaction t = transactionEngine.beginTransaction(false, session.isShardingMode());
-        dataMap = t.openMap(mapName, keyType, vvType, storage, table.getParameters());
-        transactionEngine.addTransactionMap(dataMap);
+        Map<String, String> parameters = table.getParameters();
+        if (storage.isInMemory()) {
+            // 行key都是long，内存表用专门存放long key的map，不用为每条记录分配key对象和跳表节点
+            parameters = new CaseInsensitiveMap<>(parameters);
+            parameters.put("mapType", LongKeyMemoryMap.MAP_TYPE);
+        }
+        Transaction t = transactionEngine.beginTransaction(false, isShardingMode);
+        TransactionMap<Value, VersionedValue> map = t.openMap(mapName, keyType, vvType, storage, parameters);
+        transactionEngine.addTransactionMap(map);
         t.commit(); // 避免产生内部未提交的事务
+        return map;
+    }
+
+    private TransactionMap<Value, VersionedValue> getDataMap() {
+        TransactionMap<Value, VersionedValue> map = dataMap;
+        if (map == null) {
+            synchronized (this) {
+                map = dataMap;
+                if (map == null) {
+                    map = dataMap = openMap();
+                }
+            }
+        }
+        return map;
     }
 
     @Override
@@ -117,29 +149,7 @@ public class StandardPrimaryIndex extends IndexBase {
     @Override
     public boolean tryAdd(ServerSession session, Row row, final Transaction.Listener globalListener) {
         // 由系统自动增加rowKey并且应用没有指定rowKey时用append来实现(不需要检测rowKey是否重复)，其他的用addIfAbsent实现
-        boolean checkDuplicateKey = true;
-        if (mainIndexColumn == -1) {
-            if (row.getKey() == 0) {
-                checkDuplicateKey = false;
-            }
-        } else {
-            long k = row.getValue(mainIndexColumn).getLong();
-            row.setKey(k);
-        }
-
-        if (table.getContainsLargeObject()) {
-            for (int i = 0, len = row.getColumnCount(); i < len; i++) {
-                Value v = row.getValue(i);
-                Value v2 = v.link(database, getId());
-                if (v2.isLinked()) {
-                    session.unlinkAtCommitStop(v2);
-                }
-                if (v != v2) {
-                    row.setValue(i, v2);
-                }
-            }
-        }
-
+        boolean checkDuplicateKey = prepareRow(session, row);
         TransactionMap<Value, VersionedValue> map = getMap(session);
         VersionedValue value = new VersionedValue(row.getVersion(), ValueArray.get(row.getValueList()));
         Value key;
@@ -147,13 +157,7 @@ public class StandardPrimaryIndex extends IndexBase {
             Transaction.Listener localListener = new Transaction.Listener() {
                 @Override
                 public void operationUndo() {
-                    String sql = "PRIMARY KEY ON " + table.getSQL();
-                    if (mainIndexColumn >= 0 && mainIndexColumn < indexColumns.length) {
-                        sql += "(" + indexColumns[mainIndexColumn].getSQL() + ")";
-                    }
-                    DbException e = DbException.get(ErrorCode.DUPLICATE_KEY_1, sql);
-                    e.setSource(StandardPrimaryIndex.this);
-                    globalListener.setException(e);
+                    globalListener.setException(getDuplicatePrimaryKeyException());
                     globalListener.operationUndo();
                 }
 
@@ -176,6 +180,98 @@ public class StandardPrimaryIndex extends IndexBase {
         return false;
     }
 
+    @Override
+    public void addRows(ServerSession session, List<Row> rows) {
+        Transaction.Listener listener = getTransactionListener();
+        tryAddRows(session, rows, listener);
+        listener.await();
+    }
+
+    // 需要检测rowKey是否重复的记录用一次addAllIfAbsent实现，其他的用一次appendAll实现，
+    // 不管是哪种情况，globalListener都只会被回调一次
+    @Override
+    public boolean tryAddRows(ServerSession session, List<Row> rows, final Transaction.Listener globalListener) {
+        int size = rows.size();
+        ArrayList<Value> keys = new ArrayList<>(size);
+        ArrayList<VersionedValue> values = new ArrayList<>(size);
+        ArrayList<Row> appendRows = new ArrayList<>(0);
+        ArrayList<VersionedValue> appendValues = new ArrayList<>(0);
+        for (Row row : rows) {
+            boolean checkDuplicateKey = prepareRow(session, row);
+            VersionedValue value = new VersionedValue(row.getVersion(), ValueArray.get(row.getValueList()));
+            if (checkDuplicateKey) {
+                keys.add(ValueLong.get(row.getKey()));
+                values.add(value);
+            } else {
+                appendRows.add(row);
+                appendValues.add(value);
+            }
+        }
+        TransactionMap<Value, VersionedValue> map = getMap(session);
+        globalListener.beforeOperation();
+        if (!appendValues.isEmpty()) {
+            List<Value> newKeys = map.appendAll(appendValues);
+            for (int i = 0, len = appendRows.size(); i < len; i++) {
+                appendRows.get(i).setKey(newKeys.get(i).getLong());
+            }
+        }
+        if (keys.isEmpty()) {
+            globalListener.operationComplete();
+        } else {
+            map.addAllIfAbsent(keys, values, ar -> {
+                if (ar.isSucceeded() && ar.getResult() == null) {
+                    globalListener.operationComplete();
+                } else {
+                    if (ar.isSucceeded())
+                        globalListener.setException(getDuplicatePrimaryKeyException());
+                    else
+                        globalListener.setException(DbException.convert(ar.getCause()));
+                    globalListener.operationUndo();
+                }
+            });
+        }
+        session.setLastRow(rows.get(size - 1));
+        session.setLastIndex(this);
+        return false;
+    }
+
+    // 返回true表示需要检测rowKey是否重复
+    private boolean prepareRow(ServerSession session, Row row) {
+        boolean checkDuplicateKey = true;
+        if (mainIndexColumn == -1) {
+            if (row.getKey() == 0) {
+                checkDuplicateKey = false;
+            }
+        } else {
+            long k = row.getValue(mainIndexColumn).getLong();
+            row.setKey(k);
+        }
+
+        if (table.getContainsLargeObject()) {
+            for (int i = 0, len = row.getColumnCount(); i < len; i++) {
+                Value v = row.getValue(i);
+                Value v2 = v.link(database, getId());
+                if (v2.isLinked()) {
+                    session.unlinkAtCommitStop(v2);
+                }
+                if (v != v2) {
+                    row.setValue(i, v2);
+                }
+            }
+        }
+        return checkDuplicateKey;
+    }
+
+    private DbException getDuplicatePrimaryKeyException() {
+        String sql = "PRIMARY KEY ON " + table.getSQL();
+        if (mainIndexColumn >= 0 && mainIndexColumn < indexColumns.length) {
+            sql += "(" + indexColumns[mainIndexColumn].getSQL() + ")";
+        }
+        DbException e = DbException.get(ErrorCode.DUPLICATE_KEY_1, sql);
+        e.setSource(this);
+        return e;
+    }
+
     @Override
     public boolean tryUpdate(ServerSession session, Row oldRow, Row newRow, List<Column> updateColumns,
             Transaction.Listener globalListener) {
@@ -222,8 +318,11 @@ public class StandardPrimaryIndex extends IndexBase {
         }
         VersionedValue newValue = new VersionedValue(newRow.getVersion(), ValueArray.get(newRow.getValueList()));
         Value key = ValueLong.get(newRow.getKey());
+        if (globalListener != null)
+            globalListener.beforeOperation();
         boolean yieldIfNeeded = map.tryUpdate(key, newValue, columnIndexes, oldRow.getRawValue());
-        if (!yieldIfNeeded && globalListener != null)
+        // 不管成功与否都要回调，否则同步的update会一直等待
+        if (globalListener != null)
             globalListener.operationComplete();
         session.setLastRow(newRow);
         session.setLastIndex(this);
@@ -285,10 +384,37 @@ public class StandardPrimaryIndex extends IndexBase {
         return row;
     }
 
+    /**
+     * Get the rows with the given keys in one batch.
+     *
+     * @param session the session
+     * @param keys the row keys, sorted in ascending order
+     * @param columnIndexes the columns to read, null means all columns
+     * @return the rows in the same order as the keys, null if a row is not visible
+     */
+    public List<Row> getRows(ServerSession session, List<Value> keys, int[] columnIndexes) {
+        List<Object[]> valueAndRefs = getMap(session).getValueAndRefs(keys, columnIndexes);
+        List<Row> rows = new ArrayList<>(valueAndRefs.size());
+        for (int i = 0, size = valueAndRefs.size(); i < size; i++) {
+            Object[] valueAndRef = valueAndRefs.get(i);
+            VersionedValue v = (VersionedValue) valueAndRef[0];
+            if (v == null) {
+                rows.add(null);
+                continue;
+            }
+            Row row = new Row(v.value.getList(), 0);
+            row.setKey(keys.get(i).getLong());
+            row.setVersion(v.vertion);
+            row.setRawValue(valueAndRef[1]);
+            rows.add(row);
+        }
+        return rows;
+    }
+
     @Override
     public double getCost(ServerSession session, int[] masks, SortOrder sortOrder) {
         try {
-            long cost = 10 * (dataMap.rawSize() + Constants.COST_ROW_OFFSET);
+            long cost = 10 * (getDataMap().rawSize() + Constants.COST_ROW_OFFSET);
             return cost;
         } catch (IllegalStateException e) {
             throw DbException.get(ErrorCode.OBJECT_CLOSED, e);
@@ -355,7 +481,7 @@ public class StandardPrimaryIndex extends IndexBase {
      */
     public long getRowCountMax() {
         try {
-            return dataMap.rawSize();
+            return getDataMap().rawSize();
         } catch (IllegalStateException e) {
             throw DbException.get(ErrorCode.OBJECT_CLOSED, e);
         }
@@ -368,12 +494,12 @@ public class StandardPrimaryIndex extends IndexBase {
 
     @Override
     public long getDiskSpaceUsed() {
-        return dataMap.getDiskSpaceUsed();
+        return getDataMap().getDiskSpaceUsed();
     }
 
     @Override
     public long getMemorySpaceUsed() {
-        return dataMap.getMemorySpaceUsed();
+        return getDataMap().getMemorySpaceUsed();
     }
 
     /**
@@ -422,18 +548,18 @@ public class StandardPrimaryIndex extends IndexBase {
      */
     TransactionMap<Value, VersionedValue> getMap(ServerSession session) {
         if (session == null) {
-            return dataMap;
+            return getDataMap();
         }
-        return dataMap.getInstance(session.getTransaction());
+        return getDataMap().getInstance(session.getTransaction());
     }
 
     boolean isInMemory() {
-        return dataMap.isInMemory();
+        return getDataMap().isInMemory();
     }
 
     @Override
     public StorageMap<? extends Object, ? extends Object> getStorageMap() {
-        return dataMap;
+        return getDataMap();
     }
 
     private ValueLong[] getMinAndMaxValues(SearchRow first, SearchRow last) {
@@ -6,12 +6,18 @@
 package org.lealone.db.index;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.TreeSet;
 
 import org.lealone.common.exceptions.DbException;
+import org.lealone.common.util.CaseInsensitiveMap;
+import org.lealone.common.util.DataUtils;
 import org.lealone.db.ServerSession;
 import org.lealone.db.api.ErrorCode;
 import org.lealone.db.result.Row;
@@ -20,13 +26,14 @@ import org.lealone.db.result.SortOrder;
 import org.lealone.db.table.Column;
 import org.lealone.db.table.IndexColumn;
 import org.lealone.db.table.StandardTable;
-import org.lealone.db.value.CompareMode;
 import org.lealone.db.value.Value;
 import org.lealone.db.value.ValueArray;
 import org.lealone.db.value.ValueLong;
 import org.lealone.db.value.ValueNull;
+import org.lealone.storage.IterationParameters;
 import org.lealone.storage.Storage;
 import org.lealone.storage.StorageMap;
+import org.lealone.storage.type.StorageDataType;
 import org.lealone.transaction.Transaction;
 import org.lealone.transaction.TransactionEngine;
 import org.lealone.transaction.TransactionMap;
@@ -40,21 +47,32 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
     private final StandardTable table;
     private final String mapName;
     private final int keyColumns;
-    private final TransactionMap<Value, Value> dataMap;
+    // INCLUDE的字段值存放在map的value中，没有INCLUDE字段时value总是ValueNull
+    private final Column[] includeColumns;
+    private final boolean isShardingMode;
+    private final Storage storage;
+    // 数据库启动时可能延迟到第一次访问时才打开
+    private volatile TransactionMap<Value, Value> dataMap;
 
     public StandardSecondaryIndex(ServerSession session, StandardTable table, int id, String indexName,
             IndexColumn[] indexColumns, IndexType indexType) {
         super(table, id, indexName, indexType, indexColumns);
         this.table = table;
         mapName = table.getMapNameForIndex(id);
+        includeColumns = indexType.getIncludeColumns();
         if (!database.isStarting()) {
             checkIndexColumnTypes(indexColumns);
+            if (includeColumns != null)
+                checkIndexColumnTypes(IndexColumn.wrap(includeColumns));
         }
         // always store the row key in the map key,
         // even for unique indexes, as some of the index columns could be null
         keyColumns = indexColumns.length + 1;
 
-        dataMap = openMap(session, mapName);
+        isShardingMode = session.isShardingMode();
+        storage = database.getStorage(table.getStorageEngine());
+        if (!database.deferMapOpen(mapName, this::getDataMap))
+            dataMap = openMap(isShardingMode, mapName);
 
         // TODO
         // Fix bug when creating lots of temporary tables, where we could run out of transaction IDs
@@ -62,7 +80,7 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
     }
 
     // TODO 不考虑事务
-    private TransactionMap<Value, Value> openMap(ServerSession session, String mapName) {
+    private TransactionMap<Value, Value> openMap(boolean isShardingMode, String mapName) {
         int[] sortTypes = new int[keyColumns];
         for (int i = 0; i < indexColumns.length; i++) {
             sortTypes[i] = indexColumns[i].sortType;
@@ -76,11 +94,15 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
             keyType = new ValueDataType(database, database.getCompareMode(), sortTypes);
         ValueDataType valueType = new ValueDataType(null, null, null);
 
-        Storage storage = database.getStorage(table.getStorageEngine());
         TransactionEngine transactionEngine = database.getTransactionEngine();
 
-        Transaction t = transactionEngine.beginTransaction(false, session.isShardingMode());
-        TransactionMap<Value, Value> map = t.openMap(mapName, keyType, valueType, storage, table.getParameters());
+        Transaction t = transactionEngine.beginTransaction(false, isShardingMode);
+        Map<String, String> parameters = table.getParameters();
+        if (indexType.getParameters() != null) {
+            parameters = new CaseInsensitiveMap<>(parameters);
+            parameters.putAll(indexType.getParameters());
+        }
+        TransactionMap<Value, Value> map = t.openMap(mapName, keyType, valueType, storage, parameters);
         transactionEngine.addTransactionMap(map);
         t.commit(); // 避免产生内部未提交的事务
         if (!keyType.equals(map.getKeyType())) {
@@ -89,6 +111,19 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
         return map;
     }
 
+    private TransactionMap<Value, Value> getDataMap() {
+        TransactionMap<Value, Value> map = dataMap;
+        if (map == null) {
+            synchronized (this) {
+                map = dataMap;
+                if (map == null) {
+                    map = dataMap = openMap(isShardingMode, mapName);
+                }
+            }
+        }
+        return map;
+    }
+
     @Override
     public StandardTable getTable() {
         return table;
@@ -100,28 +135,26 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
 
     @Override
     public void addRowsToBuffer(ServerSession session, List<Row> rows, String bufferName) {
-        TransactionMap<Value, Value> map = openMap(session, bufferName);
-        for (Row row : rows) {
-            ValueArray key = convertToKey(row);
-            map.put(key, ValueNull.INSTANCE);
-        }
+        // buffer是临时的，不需要事务，排好序后也直接自底向上构建
+        addSortedEntries(openMap(session.isShardingMode(), bufferName), sortEntries(rows));
     }
 
     @Override
     public void addBufferedRows(ServerSession session, List<String> bufferNames) {
         ArrayList<String> mapNames = new ArrayList<>(bufferNames);
-        final CompareMode compareMode = database.getCompareMode();
+        final StorageDataType keyType = getDataMap().getKeyType();
         /**
          * A source of values.
          */
         class Source implements Comparable<Source> {
-            Value value;
-            Iterator<Value> next;
+            Entry<Value, Value> entry;
+            Iterator<Entry<Value, Value>> next;
             int sourceId;
 
             @Override
             public int compareTo(Source o) {
-                int comp = value.compareTo(o.value, compareMode);
+                // 必须跟dataMap的key顺序一致，降序的索引字段也要考虑
+                int comp = keyType.compare(entry.getKey(), o.entry.getKey());
                 if (comp == 0) {
                     comp = sourceId - o.sourceId;
                 }
@@ -130,73 +163,104 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
         }
         TreeSet<Source> sources = new TreeSet<Source>();
         for (int i = 0; i < bufferNames.size(); i++) {
-            TransactionMap<Value, Value> map = openMap(session, bufferNames.get(i));
-            Iterator<Value> it = map.keyIterator(null, true);
+            TransactionMap<Value, Value> map = openMap(session.isShardingMode(), bufferNames.get(i));
+            Iterator<Entry<Value, Value>> it = map.entryIterator((Value) null);
             if (it.hasNext()) {
                 Source s = new Source();
-                s.value = it.next();
+                s.entry = it.next();
                 s.next = it;
                 s.sourceId = i;
                 sources.add(s);
             }
         }
-        try {
-            while (true) {
-                Source s = sources.first();
-                Value v = s.value;
-
-                if (indexType.isUnique()) {
-                    Value[] array = ((ValueArray) v).getList();
-                    // don't change the original value
-                    array = array.clone();
-                    array[keyColumns - 1] = ValueLong.get(Long.MIN_VALUE);
-                    ValueArray unique = ValueArray.get(array);
-                    SearchRow row = convertToSearchRow((ValueArray) v);
-                    checkUnique(row, dataMap, unique);
-                }
-
-                dataMap.putCommitted(v, ValueNull.INSTANCE);
+        // 多路归并后的key是有序的
+        Iterator<Entry<Value, Value>> merged = new Iterator<Entry<Value, Value>>() {
+            @Override
+            public boolean hasNext() {
+                return !sources.isEmpty();
+            }
 
-                Iterator<Value> it = s.next;
-                if (!it.hasNext()) {
-                    sources.remove(s);
-                    if (sources.isEmpty()) {
-                        break;
-                    }
-                } else {
-                    Value nextValue = it.next();
-                    sources.remove(s);
-                    s.value = nextValue;
+            @Override
+            public Entry<Value, Value> next() {
+                Source s = sources.first();
+                Entry<Value, Value> e = s.entry;
+                Iterator<Entry<Value, Value>> it = s.next;
+                sources.remove(s);
+                if (it.hasNext()) {
+                    s.entry = it.next();
                     sources.add(s);
                 }
+                return e;
             }
+        };
+        try {
+            addSortedEntries(getDataMap(), merged);
         } finally {
             for (String tempMapName : mapNames) {
-                TransactionMap<Value, Value> map = openMap(session, tempMapName);
+                TransactionMap<Value, Value> map = openMap(session.isShardingMode(), tempMapName);
                 map.remove();
             }
         }
     }
 
     @Override
-    public void close(ServerSession session) {
-        // ok
+    public void addSortedRows(ServerSession session, List<Row> rows) {
+        addSortedEntries(getDataMap(), sortEntries(rows));
     }
 
-    private void checkUnique(SearchRow row, TransactionMap<Value, Value> map, ValueArray unique) {
-        Iterator<Value> it = map.keyIterator(unique, true);
-        while (it.hasNext()) {
-            ValueArray k = (ValueArray) it.next();
-            SearchRow r2 = convertToSearchRow(k);
-            if (compareRows(row, r2) != 0) {
-                break;
+    // 调用方按索引字段排序，相同索引字段的记录还需要按rowKey排序
+    private Iterator<Entry<Value, Value>> sortEntries(List<Row> rows) {
+        ArrayList<Entry<Value, Value>> entries = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            entries.add(new DataUtils.MapEntry<>(convertToKey(row), convertToValue(row)));
+        }
+        StorageDataType keyType = getDataMap().getKeyType();
+        entries.sort((e1, e2) -> keyType.compare(e1.getKey(), e2.getKey()));
+        return entries.iterator();
+    }
+
+    // 用有序的key自底向上直接构建map，唯一索引只需要跟前一个key比较就能发现重复的key
+    private void addSortedEntries(TransactionMap<Value, Value> map, Iterator<Entry<Value, Value>> sortedEntries) {
+        final StorageDataType keyType = map.getKeyType();
+        final boolean unique = indexType.isUnique();
+        Iterator<Entry<Value, Value>> entries = new Iterator<Entry<Value, Value>>() {
+            private Value last;
+            private Entry<Value, Value> next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && sortedEntries.hasNext()) {
+                    Entry<Value, Value> e = sortedEntries.next();
+                    Value v = e.getKey();
+                    if (unique && last != null && keyType.compare(last, v) == 0) {
+                        if (!containsNullAndAllowMultipleNull(convertToSearchRow((ValueArray) v))) {
+                            throw getDuplicateKeyException(v.toString());
+                        }
+                        // map中无法存放多个相等的key，只保留第一个
+                        continue;
+                    }
+                    next = e;
+                }
+                return next != null;
             }
-            if (map.get(k) != null) {
-                if (!containsNullAndAllowMultipleNull(r2)) {
-                    throw getDuplicateKeyException(k.toString());
+
+            @Override
+            public Entry<Value, Value> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
                 }
+                Entry<Value, Value> e = next;
+                last = e.getKey();
+                next = null;
+                return e;
             }
-        }
+        };
+        map.bulkLoadCommitted(entries);
+    }
+
+    @Override
+    public void close(ServerSession session) {
+        // ok
     }
 
     @Override
@@ -223,7 +287,40 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
             }
         };
         globalListener.beforeOperation();
-        map.addIfAbsent(array, ValueNull.INSTANCE, localListener);
+        map.addIfAbsent(array, convertToValue(row), localListener);
+        return false;
+    }
+
+    @Override
+    public void addRows(ServerSession session, List<Row> rows) {
+        Transaction.Listener listener = getTransactionListener();
+        tryAddRows(session, rows, listener);
+        listener.await();
+    }
+
+    @Override
+    public boolean tryAddRows(ServerSession session, List<Row> rows, Transaction.Listener globalListener) {
+        final TransactionMap<Value, Value> map = getMap(session);
+        int size = rows.size();
+        ArrayList<Value> keys = new ArrayList<>(size);
+        ArrayList<Value> values = new ArrayList<>(size);
+        for (Row row : rows) {
+            keys.add(convertToKey(row));
+            values.add(convertToValue(row));
+        }
+        globalListener.beforeOperation();
+        map.addAllIfAbsent(keys, values, ar -> {
+            if (ar.isSucceeded() && ar.getResult() == null) {
+                globalListener.operationComplete();
+            } else {
+                // 跟tryAdd一样，违反了唯一性
+                if (ar.isSucceeded())
+                    globalListener.setException(getDuplicateKeyException(ar.getResult().toString()));
+                else
+                    globalListener.setException(DbException.convert(ar.getCause()));
+                globalListener.operationUndo();
+            }
+        });
         return false;
     }
 
@@ -236,6 +333,15 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
                 return super.tryUpdate(session, oldRow, newRow, updateColumns, globalListener);
             }
         }
+        // 只更新了INCLUDE字段时索引key不变，原地更新value即可，
+        // 不能先删除再增加，因为当前事务删除的key在提交前还在map中，增加时会被当成重复的key
+        if (includeColumns != null) {
+            for (Column c : includeColumns) {
+                if (updateColumns.contains(c)) {
+                    return getMap(session).tryUpdate(convertToKey(oldRow), convertToValue(newRow));
+                }
+            }
+        }
         return true;
     }
 
@@ -251,11 +357,28 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
 
     @Override
     public Cursor find(ServerSession session, SearchRow first, SearchRow last) {
+        return find(session, first, last, 0);
+    }
+
+    @Override
+    public Cursor find(ServerSession session, IterationParameters<SearchRow> parameters) {
+        return find(session, parameters.from, parameters.to, parameters.lookupBatchSize);
+    }
+
+    private Cursor find(ServerSession session, SearchRow first, SearchRow last, int lookupBatchSize) {
         ValueArray min = convertToKey(first);
         if (min != null) {
             min.getList()[keyColumns - 1] = ValueLong.get(Long.MIN_VALUE);
         }
-        return new StandardSecondaryIndexCursor(session, getMap(session).keyIterator(min), last);
+        TransactionMap<Value, Value> map = getMap(session);
+        StandardSecondaryIndexCursor cursor;
+        if (includeColumns != null)
+            cursor = new StandardSecondaryIndexCursor(session, null, map.entryIterator(min), last);
+        else
+            cursor = new StandardSecondaryIndexCursor(session, map.keyIterator(min), null, last);
+        if (lookupBatchSize > 1)
+            cursor.setLookupBatchSize(lookupBatchSize);
+        return cursor;
     }
 
     private ValueArray convertToKey(SearchRow r) {
@@ -275,6 +398,19 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
         return ValueArray.get(array);
     }
 
+    private Value convertToValue(SearchRow r) {
+        if (includeColumns == null) {
+            return ValueNull.INSTANCE;
+        }
+        int len = includeColumns.length;
+        Value[] array = new Value[len];
+        for (int i = 0; i < len; i++) {
+            Value v = r.getValue(includeColumns[i].getColumnId());
+            array[i] = v == null ? ValueNull.INSTANCE : v;
+        }
+        return ValueArray.get(array);
+    }
+
     /**
      * Convert array of values to a SearchRow.
      *
@@ -293,13 +429,71 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
             Value v = array[i];
             searchRow.setValue(idx, v);
         }
+        // 行key就是主键字段的值，查询只用到主键字段时也不需要回表
+        int mainIndexColumn = table.getMainIndexColumn();
+        if (mainIndexColumn >= 0) {
+            Column c = table.getColumn(mainIndexColumn);
+            searchRow.setValue(mainIndexColumn, array[len].convertTo(c.getType()));
+        }
+        return searchRow;
+    }
+
+    private SearchRow convertToSearchRow(ValueArray key, Value value) {
+        SearchRow searchRow = convertToSearchRow(key);
+        if (value instanceof ValueArray) {
+            Value[] array = ((ValueArray) value).getList();
+            for (int i = 0, len = includeColumns.length; i < len; i++) {
+                searchRow.setValue(includeColumns[i].getColumnId(), array[i]);
+            }
+        }
         return searchRow;
     }
 
+    @Override
+    public boolean isCovering(int[] columnIndexes) {
+        if (columnIndexes == null) {
+            return false;
+        }
+        int mainIndexColumn = table.getMainIndexColumn();
+        for (int id : columnIndexes) {
+            if (id < 0 || id == mainIndexColumn) { // _ROWID_和主键字段就是行key
+                continue;
+            }
+            if (getColumnIndex(table.getColumn(id)) >= 0 || isIncludeColumn(id)) {
+                continue;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private boolean isIncludeColumn(int columnId) {
+        if (includeColumns != null) {
+            for (Column c : includeColumns) {
+                if (c.getColumnId() == columnId)
+                    return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public double getCost(ServerSession session, int[] masks, SortOrder sortOrder) {
+        return getCost(session, masks, sortOrder, null);
+    }
+
+    @Override
+    public double getCost(ServerSession session, int[] masks, SortOrder sortOrder, int[] columnIndexes) {
+        return getCost(session, masks, null, sortOrder, columnIndexes);
+    }
+
+    @Override
+    public double getCost(ServerSession session, int[] masks, double[] fractions, SortOrder sortOrder,
+            int[] columnIndexes) {
         try {
-            return 10 * getCostRangeIndex(masks, dataMap.rawSize(), sortOrder);
+            long cost = getCostRangeIndex(masks, fractions, getDataMap().rawSize(), sortOrder);
+            // 一半是扫描索引的代价，另一半是按行key回到主索引读记录的代价，覆盖索引不需要回表
+            return isCovering(columnIndexes) ? 5 * cost : 10 * cost;
         } catch (IllegalStateException e) {
             throw DbException.get(ErrorCode.OBJECT_CLOSED, e);
         }
@@ -329,7 +523,8 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
         Value key = first ? map.firstKey() : map.lastKey();
         while (true) {
             if (key == null) {
-                return new StandardSecondaryIndexCursor(session, Collections.<Value> emptyList().iterator(), null);
+                return new StandardSecondaryIndexCursor(session, Collections.<Value> emptyList().iterator(), null,
+                        null);
             }
             if (((ValueArray) key).getList()[0] != ValueNull.INSTANCE) {
                 break;
@@ -338,15 +533,18 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
         }
         ArrayList<Value> list = new ArrayList<>(1);
         list.add(key);
-        StandardSecondaryIndexCursor cursor = new StandardSecondaryIndexCursor(session, list.iterator(), null);
+        StandardSecondaryIndexCursor cursor = new StandardSecondaryIndexCursor(session, list.iterator(), null, null);
         cursor.next();
         return cursor;
     }
 
     @Override
     public boolean needRebuild() {
+        // 延迟打开的map不能为了判断是否要重建而打开它，已经保存过的map就不用重建了
+        if (dataMap == null)
+            return !storage.hasPersistedMap(mapName);
         try {
-            return dataMap.rawSize() == 0;
+            return getDataMap().rawSize() == 0;
         } catch (IllegalStateException e) {
             throw DbException.get(ErrorCode.OBJECT_CLOSED, e);
         }
@@ -360,7 +558,7 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
     @Override
     public long getRowCountApproximation() {
         try {
-            return dataMap.rawSize();
+            return getDataMap().rawSize();
         } catch (IllegalStateException e) {
             throw DbException.get(ErrorCode.OBJECT_CLOSED, e);
         }
@@ -368,12 +566,12 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
 
     @Override
     public long getDiskSpaceUsed() {
-        return dataMap.getDiskSpaceUsed();
+        return getDataMap().getDiskSpaceUsed();
     }
 
     @Override
     public long getMemorySpaceUsed() {
-        return dataMap.getMemorySpaceUsed();
+        return getDataMap().getMemorySpaceUsed();
     }
 
     @Override
@@ -398,19 +596,19 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
      */
     TransactionMap<Value, Value> getMap(ServerSession session) {
         if (session == null) {
-            return dataMap;
+            return getDataMap();
         }
-        return dataMap.getInstance(session.getTransaction());
+        return getDataMap().getInstance(session.getTransaction());
     }
 
     @Override
     public boolean isInMemory() {
-        return dataMap.isInMemory();
+        return getDataMap().isInMemory();
     }
 
     @Override
     public StorageMap<? extends Object, ? extends Object> getStorageMap() {
-        return dataMap;
+        return getDataMap();
     }
 
     /**
@@ -420,17 +618,37 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
 
         private final ServerSession session;
         private final Iterator<Value> it;
+        private final Iterator<Entry<Value, Value>> entryIt; // 有INCLUDE字段时才用
         private final SearchRow last;
         private Value current;
+        private Value currentValue;
         private SearchRow searchRow;
         private Row row;
 
-        public StandardSecondaryIndexCursor(ServerSession session, Iterator<Value> it, SearchRow last) {
+        // 批量回表模式: 先从索引读出一批记录，第一次需要行时把这批行key排序后一起到主索引中查找，
+        // 这样对主索引的访问接近顺序读，同一个leaf page只需要找一次，返回时仍然保持索引的顺序
+        private int maxBatchSize;
+        private int batchSize;
+        private ArrayList<SearchRow> batch;
+        private Row[] batchRows;
+        private int batchIndex;
+        private boolean end;
+
+        public StandardSecondaryIndexCursor(ServerSession session, Iterator<Value> it,
+                Iterator<Entry<Value, Value>> entryIt, SearchRow last) {
             this.session = session;
             this.it = it;
+            this.entryIt = entryIt;
             this.last = last;
         }
 
+        void setLookupBatchSize(int lookupBatchSize) {
+            maxBatchSize = lookupBatchSize;
+            // 从小批量开始逐步加倍，带LIMIT的查询不会多读太多记录
+            batchSize = Math.min(8, lookupBatchSize);
+            batch = new ArrayList<>(batchSize);
+        }
+
         @Override
         public Row get() {
             return get(null);
@@ -441,17 +659,41 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
             if (row == null) {
                 SearchRow r = getSearchRow();
                 if (r != null) {
-                    row = table.getRow(session, r.getKey(), columnIndexes);
+                    if (batch != null) {
+                        if (batchRows == null)
+                            lookupBatchRows(columnIndexes);
+                        row = batchRows[batchIndex];
+                    }
+                    if (row == null)
+                        row = table.getRow(session, r.getKey(), columnIndexes);
                 }
             }
             return row;
         }
 
+        private void lookupBatchRows(int[] columnIndexes) {
+            int size = batch.size();
+            Integer[] positions = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                positions[i] = i;
+            }
+            Arrays.sort(positions, (p1, p2) -> Long.compare(batch.get(p1).getKey(), batch.get(p2).getKey()));
+            ArrayList<Value> keys = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                keys.add(ValueLong.get(batch.get(positions[i]).getKey()));
+            }
+            List<Row> rows = table.getRows(session, keys, columnIndexes);
+            batchRows = new Row[size];
+            for (int i = 0; i < size; i++) {
+                batchRows[positions[i]] = rows.get(i);
+            }
+        }
+
         @Override
         public SearchRow getSearchRow() {
             if (searchRow == null) {
                 if (current != null) {
-                    searchRow = convertToSearchRow((ValueArray) current);
+                    searchRow = convertToSearchRow((ValueArray) current, currentValue);
                 }
             }
             return searchRow;
@@ -459,7 +701,35 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
 
         @Override
         public boolean next() {
-            current = it.hasNext() ? it.next() : null;
+            row = null;
+            if (batch != null) {
+                if (++batchIndex >= batch.size()) {
+                    fillBatch();
+                    if (batch.isEmpty()) {
+                        searchRow = null;
+                        return false;
+                    }
+                }
+                searchRow = batch.get(batchIndex);
+                return true;
+            }
+            nextEntry();
+            return current != null;
+        }
+
+        private void nextEntry() {
+            if (entryIt != null) {
+                if (entryIt.hasNext()) {
+                    Entry<Value, Value> e = entryIt.next();
+                    current = e.getKey();
+                    currentValue = e.getValue();
+                } else {
+                    current = null;
+                    currentValue = null;
+                }
+            } else {
+                current = it.hasNext() ? it.next() : null;
+            }
             searchRow = null;
             if (current != null) {
                 if (last != null && compareRows(getSearchRow(), last) > 0) {
@@ -467,8 +737,21 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
                     current = null;
                 }
             }
-            row = null;
-            return current != null;
+        }
+
+        private void fillBatch() {
+            batch.clear();
+            batchRows = null;
+            batchIndex = 0;
+            while (!end && batch.size() < batchSize) {
+                nextEntry();
+                if (current == null)
+                    end = true;
+                else
+                    batch.add(getSearchRow());
+            }
+            if (batchSize < maxBatchSize)
+                batchSize = Math.min(batchSize * 2, maxBatchSize);
         }
 
         @Override
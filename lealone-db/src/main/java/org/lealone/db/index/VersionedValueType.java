@@ -21,6 +21,7 @@ import java.nio.ByteBuffer;
 
 import org.lealone.common.util.DataUtils;
 import org.lealone.db.DataBuffer;
+import org.lealone.db.value.CompareMode;
 import org.lealone.db.value.Value;
 import org.lealone.db.value.ValueArray;
 import org.lealone.storage.type.StorageDataType;
@@ -125,6 +126,51 @@ public class VersionedValueType implements StorageDataType {
         }
     }
 
+    @Override
+    public void writeColumn(DataBuffer buff, Object[] objs, int len, int columnIndex) {
+        ColumnPageCodec.write(buff, getColumnValues(objs, len, columnIndex));
+    }
+
+    @Override
+    public void readColumn(ByteBuffer buff, Object[] objs, int len, int columnIndex) {
+        Value[] values = ColumnPageCodec.read(buff, len, valueType);
+        for (int i = 0; i < len; i++) {
+            VersionedValue v = (VersionedValue) objs[i];
+            Value[] columns = v.value.getList();
+            if (columnIndex >= 0 && columnIndex < columns.length)
+                columns[columnIndex] = values[i];
+        }
+    }
+
+    @Override
+    public Object getColumnStatistics(Object[] objs, int len, int columnIndex) {
+        CompareMode compareMode = null;
+        if (valueType instanceof ValueDataType)
+            compareMode = ((ValueDataType) valueType).compareMode;
+        return ColumnPageStatistics.create(getColumnValues(objs, len, columnIndex), compareMode);
+    }
+
+    @Override
+    public void writeColumnStatistics(DataBuffer buff, Object statistics) {
+        ((ColumnPageStatistics) statistics).write(buff);
+    }
+
+    @Override
+    public Object readColumnStatistics(ByteBuffer buff) {
+        return ColumnPageStatistics.read(buff);
+    }
+
+    private static Value[] getColumnValues(Object[] objs, int len, int columnIndex) {
+        Value[] values = new Value[len];
+        for (int i = 0; i < len; i++) {
+            VersionedValue v = (VersionedValue) objs[i];
+            Value[] columns = v.value.getList();
+            if (columnIndex >= 0 && columnIndex < columns.length)
+                values[i] = columns[columnIndex];
+        }
+        return values;
+    }
+
     @Override
     public void setColumns(Object oldObj, Object newObj, int[] columnIndexes) {
         if (columnIndexes != null) {
@@ -6,6 +6,7 @@
 package org.lealone.db.schema;
 
 import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.lealone.common.exceptions.DbException;
 import org.lealone.common.trace.Trace;
@@ -16,6 +17,15 @@ import org.lealone.db.api.ErrorCode;
 /**
  * A sequence is created using the statement
  * CREATE SEQUENCE
+ *
+ * 分配值时不加锁: 每个线程(通常就是一个Scheduler)用CAS从reservedValue中预留cacheSize个值，
+ * 然后在自己的线程里一个个分配，所以不同线程拿到的值是交错的，只在同一个线程内是递增的。
+ *
+ * 只有预留的值超过了已经写到元数据中的valueWithMargin时才需要写元数据，
+ * 而且一次会多预留几段，写元数据的次数只有预留次数的几分之一。
+ *
+ * 恢复: 重启后从最后一次写到元数据中的valueWithMargin开始分配，
+ * 已经预留但还没有分配出去的值以及崩溃前预留的值都会被跳过，不会重复分配，但是会出现空洞。
  */
 public class Sequence extends SchemaObjectBase {
 
@@ -24,10 +34,23 @@ public class Sequence extends SchemaObjectBase {
      */
     public static final int DEFAULT_CACHE_SIZE = 32;
 
-    private long value;
-    private long valueWithMargin;
-    private long increment;
-    private long cacheSize;
+    // 每次写元数据时多预留的段数
+    private static final int MARGIN_BLOCKS = 4;
+
+    // 下一个还没有被预留的值
+    private final AtomicLong reservedValue = new AtomicLong();
+    // 已经写到元数据中的值，预留的值不超过它时才能直接分配出去
+    private volatile long valueWithMargin;
+    // 正在或将要写到元数据中的值，getCreateSQL中的START WITH用这个值，写完之后才会赋给valueWithMargin
+    private long pendingValueWithMargin;
+    // 最后一次分配出去的值
+    private volatile long lastValue;
+    // modify之后各线程已经预留的值就作废了
+    private volatile int generation;
+    private final ThreadLocal<ValueBlock> localBlocks = new ThreadLocal<>();
+
+    private volatile long increment;
+    private volatile long cacheSize;
     private long minValue;
     private long maxValue;
     private boolean cycle;
@@ -38,6 +61,19 @@ public class Sequence extends SchemaObjectBase {
      */
     private long lastFlushValueWithMargin;
 
+    // 一个线程预留的一段值
+    private static class ValueBlock {
+        final int generation;
+        long next;
+        long remaining;
+
+        ValueBlock(int generation, long next, long remaining) {
+            this.generation = generation;
+            this.next = next;
+            this.remaining = remaining;
+        }
+    }
+
     /**
      * Creates a new sequence for an auto-increment column.
      *
@@ -72,13 +108,16 @@ public class Sequence extends SchemaObjectBase {
         this.increment = increment != null ? increment : 1;
         this.minValue = minValue != null ? minValue : getDefaultMinValue(startValue, this.increment);
         this.maxValue = maxValue != null ? maxValue : getDefaultMaxValue(startValue, this.increment);
-        this.value = startValue != null ? startValue : getDefaultStartValue(this.increment);
+        long value = startValue != null ? startValue : getDefaultStartValue(this.increment);
+        this.reservedValue.set(value);
         this.valueWithMargin = value;
+        this.pendingValueWithMargin = value;
+        this.lastValue = value - this.increment;
         this.cacheSize = cacheSize != null ? Math.max(1, cacheSize) : DEFAULT_CACHE_SIZE;
         this.cycle = cycle;
         this.belongsToTable = belongsToTable;
-        if (!isValid(this.value, this.minValue, this.maxValue, this.increment)) {
-            throw DbException.get(ErrorCode.SEQUENCE_ATTRIBUTES_INVALID, name, String.valueOf(this.value),
+        if (!isValid(value, this.minValue, this.maxValue, this.increment)) {
+            throw DbException.get(ErrorCode.SEQUENCE_ATTRIBUTES_INVALID, name, String.valueOf(value),
                     String.valueOf(this.minValue), String.valueOf(this.maxValue), String.valueOf(this.increment));
         }
     }
@@ -102,7 +141,7 @@ public class Sequence extends SchemaObjectBase {
      */
     public synchronized void modify(Long startValue, Long minValue, Long maxValue, Long increment) {
         if (startValue == null) {
-            startValue = this.value;
+            startValue = reservedValue.get();
         }
         if (minValue == null) {
             minValue = this.minValue;
@@ -117,11 +156,14 @@ public class Sequence extends SchemaObjectBase {
             throw DbException.get(ErrorCode.SEQUENCE_ATTRIBUTES_INVALID, getName(), String.valueOf(startValue),
                     String.valueOf(minValue), String.valueOf(maxValue), String.valueOf(increment));
         }
-        this.value = startValue;
+        this.reservedValue.set(startValue);
         this.valueWithMargin = startValue;
+        this.pendingValueWithMargin = startValue;
+        this.lastValue = startValue - increment;
         this.minValue = minValue;
         this.maxValue = maxValue;
         this.increment = increment;
+        generation++;
     }
 
     /**
@@ -189,6 +231,7 @@ public class Sequence extends SchemaObjectBase {
 
     @Override
     public synchronized String getCreateSQL() {
+        long value = pendingValueWithMargin;
         StringBuilder buff = new StringBuilder("CREATE SEQUENCE ");
         buff.append(getSQL()).append(" START WITH ").append(value);
         if (increment != 1) {
@@ -227,41 +270,98 @@ public class Sequence extends SchemaObjectBase {
      * @return the next value
      */
     public long getNext(ServerSession session) {
-        boolean needsFlush = false;
-        long retVal;
-        long flushValueWithMargin = -1;
-        synchronized (this) {
-            if ((increment > 0 && value >= valueWithMargin) || (increment < 0 && value <= valueWithMargin)) {
-                valueWithMargin += increment * cacheSize;
-                flushValueWithMargin = valueWithMargin;
-                needsFlush = true;
-            }
-            if ((increment > 0 && value > maxValue) || (increment < 0 && value < minValue)) {
+        ValueBlock block = localBlocks.get();
+        if (block == null || block.remaining <= 0 || block.generation != generation) {
+            block = reserveBlock(session);
+            localBlocks.set(block);
+        }
+        long retVal = block.next;
+        block.next += increment;
+        block.remaining--;
+        lastValue = retVal;
+        return retVal;
+    }
+
+    private ValueBlock reserveBlock(ServerSession session) {
+        while (true) {
+            int gen = generation;
+            long inc = increment;
+            long start = reservedValue.get();
+            if ((inc > 0 && start > maxValue) || (inc < 0 && start < minValue)) {
                 if (cycle) {
-                    value = increment > 0 ? minValue : maxValue;
-                    valueWithMargin = value + (increment * cacheSize);
-                    flushValueWithMargin = valueWithMargin;
-                    needsFlush = true;
+                    synchronized (this) {
+                        if (gen == generation && reservedValue.get() == start) {
+                            long value = inc > 0 ? minValue : maxValue;
+                            reservedValue.set(value);
+                            // 重新从头开始时也要写元数据
+                            valueWithMargin = value;
+                            pendingValueWithMargin = value;
+                        }
+                    }
+                    continue;
                 } else {
                     throw DbException.get(ErrorCode.SEQUENCE_EXHAUSTED, getName());
                 }
             }
-            retVal = value;
-            value += increment;
+            // 最后一段可能不足cacheSize个值
+            long count = inc > 0 ? (maxValue - start) / inc + 1 : (minValue - start) / inc + 1;
+            if (count <= 0 || count > cacheSize)
+                count = cacheSize;
+            long end = start + inc * count;
+            if (reservedValue.compareAndSet(start, end)) {
+                if (isBeyondMargin(end, inc))
+                    extendMargin(session, end, inc);
+                return new ValueBlock(gen, start, count);
+            }
         }
-        if (needsFlush) {
-            flush(session, flushValueWithMargin);
+    }
+
+    private boolean isBeyondMargin(long end, long inc) {
+        long margin = valueWithMargin;
+        return (inc > 0 && end > margin) || (inc < 0 && end < margin);
+    }
+
+    private void extendMargin(ServerSession session, long end, long inc) {
+        long margin;
+        synchronized (this) {
+            if (!isBeyondMargin(end, inc))
+                return; // 其他线程已经写过了
+            margin = end + inc * cacheSize * (MARGIN_BLOCKS - 1);
+            // 不能超出范围，否则重新打开数据库时会认为START WITH不合法
+            if (inc > 0 && (margin > maxValue || margin < end))
+                margin = maxValue;
+            else if (inc < 0 && (margin < minValue || margin > end))
+                margin = minValue;
+            // 其他线程正在写的值更大时直接用它，写元数据时总是写最大的那个值
+            if (isBeyond(pendingValueWithMargin, margin, inc))
+                margin = pendingValueWithMargin;
+            else
+                pendingValueWithMargin = margin;
         }
-        return retVal;
+        // 先写元数据再更新valueWithMargin，
+        // 否则其他线程会在元数据写完之前就把超出valueWithMargin的值分配出去，崩溃后这些值会被重复分配
+        flush(session, margin);
+        synchronized (this) {
+            if (isBeyond(margin, valueWithMargin, inc))
+                valueWithMargin = margin;
+        }
+    }
+
+    private static boolean isBeyond(long a, long b, long inc) {
+        return inc > 0 ? a > b : a < b;
     }
 
     /**
      * Flush the current value to disk.
      */
     public void flushWithoutMargin() {
+        long value = reservedValue.get();
         if (valueWithMargin != value) {
+            synchronized (this) {
+                pendingValueWithMargin = value;
+            }
+            flush(null, value);
             valueWithMargin = value;
-            flush(null, valueWithMargin);
         }
     }
 
@@ -297,15 +397,8 @@ public class Sequence extends SchemaObjectBase {
                 return;
             }
         }
-        // just for this case, use the value with the margin for the script
-        long realValue = value;
-        try {
-            value = valueWithMargin;
-            if (!isTemporary()) {
-                database.updateMeta(session, this);
-            }
-        } finally {
-            value = realValue;
+        if (!isTemporary()) {
+            database.updateMeta(session, this);
         }
         synchronized (this) {
             lastFlushValueWithMargin = flushValueWithMargin;
@@ -322,8 +415,8 @@ public class Sequence extends SchemaObjectBase {
         flushWithoutMargin();
     }
 
-    public synchronized long getCurrentValue() {
-        return value - increment;
+    public long getCurrentValue() {
+        return lastValue;
     }
 
     public void setBelongsToTable(boolean b) {
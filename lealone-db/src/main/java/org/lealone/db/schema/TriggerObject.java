@@ -284,6 +284,10 @@ public class TriggerObject extends SchemaObjectBase {
         this.rowBased = rowBased;
     }
 
+    public boolean isRowBased() {
+        return rowBased;
+    }
+
     public void setQueueSize(int size) {
         this.queueSize = size;
     }
@@ -17,10 +17,18 @@
  */
 package org.lealone.db.service;
 
+import org.lealone.common.exceptions.DbException;
+import org.lealone.db.value.Value;
+
 public interface ServiceExecuter {
 
     final String NO_RETURN_VALUE = "__NO_RETURN_VALUE__";
 
     String executeService(String serviceName, String json);
 
+    // 二进制调用路径，methodId是方法在CREATE SERVICE语句中的定义顺序，
+    // 参数和返回值直接用Value表示，由CreateService生成的代码按methodId分派，不需要比较方法名字符串
+    default Value executeService(int methodId, Value[] methodArgs) {
+        throw DbException.getUnsupportedException("binary invocation of service method " + methodId);
+    }
 }
@@ -19,6 +19,8 @@ package org.lealone.db.service;
 
 import java.util.HashMap;
 
+import org.lealone.db.value.Value;
+
 public class ServiceExecuterManager {
 
     private ServiceExecuterManager() {
@@ -55,7 +57,14 @@ public class ServiceExecuterManager {
         int dotPos = serviceName.indexOf('.');
         String methodName = serviceName.substring(dotPos + 1);
         serviceName = serviceName.substring(0, dotPos);
+        return getServiceExecuter(serviceName).executeService(methodName, json);
+    }
+
+    public static Value executeService(String serviceName, int methodId, Value[] methodArgs) {
+        return getServiceExecuter(serviceName.toUpperCase()).executeService(methodId, methodArgs);
+    }
 
+    private static ServiceExecuter getServiceExecuter(String serviceName) {
         ServiceExecuter serviceExecuter = serviceExecuters.get(serviceName);
         if (serviceExecuter == null) {
             String serviceExecuterClassName = serviceExecuterClassNames.get(serviceName);
@@ -75,6 +84,6 @@ public class ServiceExecuterManager {
                 throw new RuntimeException("service " + serviceName + " not found");
             }
         }
-        return serviceExecuter.executeService(methodName, json);
+        return serviceExecuter;
     }
 }
@@ -82,6 +82,7 @@ public class Column {
     private IExpression.Evaluator defaultExpressionEvaluator;
     private IExpression.Evaluator checkConstraintEvaluator;
     private int selectivity;
+    private volatile ColumnStatistics statistics;
     private String comment;
     private boolean primaryKey;
 
@@ -446,6 +447,9 @@ public class Column {
         if (selectivity != 0) {
             buff.append(" SELECTIVITY ").append(selectivity);
         }
+        if (statistics != null) {
+            buff.append(' ').append(statistics.getSQL());
+        }
         if (comment != null) {
             buff.append(" COMMENT ").append(StringUtils.quoteStringSQL(comment));
         }
@@ -534,6 +538,19 @@ public class Column {
         this.selectivity = selectivity;
     }
 
+    /**
+     * Get the statistics ANALYZE collected for this column.
+     *
+     * @return the statistics, or null if the column was not analyzed yet
+     */
+    public ColumnStatistics getStatistics() {
+        return statistics;
+    }
+
+    public void setStatistics(ColumnStatistics statistics) {
+        this.statistics = statistics;
+    }
+
     /**
      * Add a check constraint expression to this column. An existing check
      * constraint constraint is added using AND.
@@ -723,6 +740,7 @@ public class Column {
         comment = source.comment;
         isComputed = source.isComputed;
         selectivity = source.selectivity;
+        statistics = source.statistics;
         primaryKey = source.primaryKey;
     }
 
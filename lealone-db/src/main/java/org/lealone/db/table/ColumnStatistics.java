@@ -0,0 +1,376 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.db.table;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.lealone.db.Database;
+import org.lealone.db.ServerSession;
+import org.lealone.db.index.Cursor;
+import org.lealone.db.result.Row;
+import org.lealone.db.value.CompareMode;
+import org.lealone.db.value.DataType;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueNull;
+
+/**
+ * ANALYZE时从样本记录中得到的一个字段的统计信息，优化器用它估算查询条件会选出多少行。
+ *
+ * <p>
+ * 出现次数明显多于平均值的值(most common values)单独记录出现次数，
+ * 其他非NULL值用等高(equi-depth)直方图记录，每个桶中的记录数相同，
+ * 所以数据倾斜时等值条件和范围条件的估算结果也不会偏差太大。
+ *
+ * <p>
+ * 统计信息跟在字段定义的后面以STATISTICS(...)的形式保存在元数据表中。
+ *
+ * @author zhh
+ */
+public class ColumnStatistics {
+
+    // 太长的值不适合放在字段定义中
+    private static final int MAX_VALUE_SQL_LENGTH = 256;
+
+    private final long sampleRows; // 样本记录数
+    private final long nullCount; // 样本中NULL的个数
+    private final long distinctCount; // 估算的整个表中不同的非NULL值的个数
+    private final Value[] mostCommonValues;
+    private final long[] mostCommonCounts;
+    private final long mostCommonTotal;
+    private final Value[] histogram; // 桶的边界，n个桶有n+1个边界，没有直方图时是null
+
+    public ColumnStatistics(long sampleRows, long nullCount, long distinctCount, Value[] mostCommonValues,
+            long[] mostCommonCounts, Value[] histogram) {
+        this.sampleRows = sampleRows;
+        this.nullCount = nullCount;
+        this.distinctCount = distinctCount;
+        this.mostCommonValues = mostCommonValues;
+        this.mostCommonCounts = mostCommonCounts;
+        this.histogram = histogram;
+        long total = 0;
+        for (long c : mostCommonCounts) {
+            total += c;
+        }
+        mostCommonTotal = total;
+    }
+
+    public long getSampleRows() {
+        return sampleRows;
+    }
+
+    public long getDistinctCount() {
+        return distinctCount;
+    }
+
+    public double getNullFraction() {
+        return sampleRows == 0 ? 0 : (double) nullCount / sampleRows;
+    }
+
+    // 不属于most common values的非NULL值所占的比例
+    private double getOtherFraction() {
+        return sampleRows == 0 ? 0 : Math.max(sampleRows - nullCount - mostCommonTotal, 0) / (double) sampleRows;
+    }
+
+    /**
+     * 估算跟一个未知的值相等的记录所占的比例，用于参数和连接条件。
+     *
+     * @return the fraction of rows
+     */
+    public double getAverageEqualFraction() {
+        return distinctCount == 0 ? 0 : (1 - getNullFraction()) / distinctCount;
+    }
+
+    /**
+     * 估算等于v的记录所占的比例。
+     *
+     * @param v the value, already converted to the column type
+     * @param mode the compare mode
+     * @return the fraction of rows
+     */
+    public double getEqualFraction(Value v, CompareMode mode) {
+        if (sampleRows == 0 || v == ValueNull.INSTANCE) {
+            return 0;
+        }
+        for (int i = 0, len = mostCommonValues.length; i < len; i++) {
+            if (mostCommonValues[i].compareTypeSafe(v, mode) == 0) {
+                return (double) mostCommonCounts[i] / sampleRows;
+            }
+        }
+        long otherDistinct = Math.max(distinctCount - mostCommonValues.length, 1);
+        return getOtherFraction() / otherDistinct;
+    }
+
+    /**
+     * 估算小于v(inclusive为true时是小于等于)的记录所占的比例，不包括NULL。
+     *
+     * @param v the value, already converted to the column type
+     * @param inclusive whether rows equal to v are included
+     * @param mode the compare mode
+     * @return the fraction of rows
+     */
+    public double getLessFraction(Value v, boolean inclusive, CompareMode mode) {
+        if (sampleRows == 0 || v == ValueNull.INSTANCE) {
+            return 0;
+        }
+        long rows = 0;
+        for (int i = 0, len = mostCommonValues.length; i < len; i++) {
+            int comp = mostCommonValues[i].compareTypeSafe(v, mode);
+            if (comp < 0 || inclusive && comp == 0) {
+                rows += mostCommonCounts[i];
+            }
+        }
+        double position = histogram == null ? 0.5 : getHistogramPosition(v, inclusive, mode);
+        return (double) rows / sampleRows + getOtherFraction() * position;
+    }
+
+    // 返回直方图中小于(或小于等于)v的值所占的比例
+    private double getHistogramPosition(Value v, boolean inclusive, CompareMode mode) {
+        int buckets = histogram.length - 1;
+        int comp = v.compareTypeSafe(histogram[0], mode);
+        if (comp < 0 || comp == 0 && !inclusive) {
+            return 0;
+        }
+        comp = v.compareTypeSafe(histogram[buckets], mode);
+        if (comp > 0 || comp == 0 && inclusive) {
+            return 1;
+        }
+        // 找到v所在的桶: histogram[i] <= v < histogram[i + 1]
+        int i = 0;
+        while (i < buckets - 1 && v.compareTypeSafe(histogram[i + 1], mode) >= 0) {
+            i++;
+        }
+        return (i + interpolate(histogram[i], histogram[i + 1], v)) / buckets;
+    }
+
+    // 数字和日期时间类型在桶内按线性分布估算，其他类型取桶的中间
+    private static double interpolate(Value low, Value high, Value v) {
+        double l = toDouble(low);
+        double h = toDouble(high);
+        double x = toDouble(v);
+        if (Double.isNaN(l) || Double.isNaN(h) || Double.isNaN(x) || h <= l) {
+            return 0.5;
+        }
+        return Math.max(0, Math.min(1, (x - l) / (h - l)));
+    }
+
+    private static double toDouble(Value v) {
+        switch (v.getType()) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+        case Value.DECIMAL:
+        case Value.DOUBLE:
+        case Value.FLOAT:
+            return v.getDouble();
+        case Value.DATE:
+        case Value.TIME:
+        case Value.TIMESTAMP:
+            return v.getTimestamp().getTime();
+        default:
+            return Double.NaN;
+        }
+    }
+
+    public String getSQL() {
+        StringBuilder buff = new StringBuilder("STATISTICS(ROWS ");
+        buff.append(sampleRows).append(" NULLS ").append(nullCount).append(" DISTINCT ").append(distinctCount);
+        if (mostCommonValues.length > 0) {
+            buff.append(" VALUES(");
+            for (int i = 0, len = mostCommonValues.length; i < len; i++) {
+                if (i > 0)
+                    buff.append(", ");
+                buff.append(mostCommonValues[i].getSQL()).append(' ').append(mostCommonCounts[i]);
+            }
+            buff.append(')');
+        }
+        if (histogram != null) {
+            buff.append(" HISTOGRAM(");
+            for (int i = 0, len = histogram.length; i < len; i++) {
+                if (i > 0)
+                    buff.append(", ");
+                buff.append(histogram[i].getSQL());
+            }
+            buff.append(')');
+        }
+        return buff.append(')').toString();
+    }
+
+    @Override
+    public String toString() {
+        return getSQL();
+    }
+
+    /**
+     * 读取表中的记录，然后为每个字段生成统计信息。
+     * 跟计算selectivity的LIMIT ? SAMPLE_SIZE ?查询一样，读到sampleSize条记录就停止扫描，
+     * 所以不管表有多大，读取的记录数都不会超过sampleSize。
+     *
+     * @param session the session
+     * @param table the table
+     * @param sampleSize the number of sample rows, 0 means all rows
+     */
+    public static void analyze(ServerSession session, Table table, int sampleSize) {
+        Database db = session.getDatabase();
+        Column[] columns = table.getColumns();
+        ArrayList<Value[]> sample = new ArrayList<>();
+        boolean scanAll = true;
+        Cursor cursor = table.getScanIndex(session).find(session, null, null);
+        while (cursor.next()) {
+            if (sampleSize > 0 && sample.size() >= sampleSize) {
+                scanAll = false;
+                break;
+            }
+            Row row = cursor.get();
+            sample.add(row.getValueList().clone());
+            if ((sample.size() & 1023) == 0) {
+                session.checkCanceled();
+            }
+        }
+        long rowCount = sample.size();
+        if (!scanAll) {
+            // 没有读完时用估算的记录数来估算整个表中不同值的个数
+            rowCount = Math.max(rowCount, table.getRowCountApproximation());
+        }
+        int mostCommonCount = db.getSettings().analyzeMostCommonValues;
+        int buckets = db.getSettings().analyzeHistogramBuckets;
+        Value[] values = new Value[sample.size()];
+        for (int j = 0; j < columns.length; j++) {
+            Column column = columns[j];
+            if (!isSupported(column.getType())) {
+                continue;
+            }
+            for (int i = 0, size = sample.size(); i < size; i++) {
+                Value v = sample.get(i)[j];
+                values[i] = v == null ? ValueNull.INSTANCE : v;
+            }
+            // 空表没有可用的统计信息，也不保留过时的
+            column.setStatistics(rowCount == 0 ? null
+                    : create(values, rowCount, db.getCompareMode(), mostCommonCount, buckets));
+        }
+    }
+
+    private static boolean isSupported(int type) {
+        switch (type) {
+        case Value.ARRAY:
+        case Value.RESULT_SET:
+        case Value.JAVA_OBJECT:
+        case Value.UNKNOWN:
+            return false;
+        default:
+            return !DataType.isLargeObject(type);
+        }
+    }
+
+    private static ColumnStatistics create(Value[] sample, long rowCount, CompareMode mode, int mostCommonCount,
+            int buckets) {
+        int nonNull = 0;
+        Value[] values = new Value[sample.length];
+        for (Value v : sample) {
+            if (v != ValueNull.INSTANCE) {
+                values[nonNull++] = v;
+            }
+        }
+        long nullCount = sample.length - nonNull;
+        values = Arrays.copyOf(values, nonNull);
+        Arrays.sort(values, (a, b) -> a.compareTypeSafe(b, mode));
+
+        // 相等的值排在一起，按段统计每个值出现的次数
+        ArrayList<Value> distinctValues = new ArrayList<>();
+        ArrayList<Integer> counts = new ArrayList<>();
+        int singles = 0;
+        for (int i = 0; i < nonNull;) {
+            int end = i + 1;
+            while (end < nonNull && values[end].compareTypeSafe(values[i], mode) == 0) {
+                end++;
+            }
+            distinctValues.add(values[i]);
+            counts.add(end - i);
+            if (end - i == 1) {
+                singles++;
+            }
+            i = end;
+        }
+        int d = distinctValues.size();
+        long distinctCount = estimateDistinctCount(nonNull, d, singles,
+                sample.length == 0 ? 0 : rowCount * nonNull / sample.length);
+
+        // 出现次数超过平均值的才作为most common values
+        ArrayList<Integer> candidates = new ArrayList<>();
+        for (int i = 0; i < d; i++) {
+            int c = counts.get(i);
+            if (c > 1 && (long) c * d > nonNull && isSmall(distinctValues.get(i))) {
+                candidates.add(i);
+            }
+        }
+        candidates.sort((a, b) -> Integer.compare(counts.get(b), counts.get(a)));
+        int mcvCount = Math.min(candidates.size(), Math.max(mostCommonCount, 0));
+        Value[] mostCommonValues = new Value[mcvCount];
+        long[] mostCommonCounts = new long[mcvCount];
+        boolean[] isMostCommon = new boolean[d];
+        for (int i = 0; i < mcvCount; i++) {
+            int index = candidates.get(i);
+            mostCommonValues[i] = distinctValues.get(index);
+            mostCommonCounts[i] = counts.get(index);
+            isMostCommon[index] = true;
+        }
+
+        // 剩下的值已经是有序的，按记录数均分成buckets个桶
+        Value[] histogram = null;
+        if (buckets > 0) {
+            ArrayList<Value> others = new ArrayList<>();
+            for (int i = 0; i < d; i++) {
+                if (!isMostCommon[i]) {
+                    for (int j = 0, c = counts.get(i); j < c; j++) {
+                        others.add(distinctValues.get(i));
+                    }
+                }
+            }
+            int m = others.size();
+            if (m > 0) {
+                int n = Math.max(1, Math.min(buckets, m - 1));
+                histogram = new Value[n + 1];
+                for (int i = 0; i <= n; i++) {
+                    Value v = others.get((int) ((long) i * (m - 1) / n));
+                    if (!isSmall(v)) {
+                        histogram = null;
+                        break;
+                    }
+                    histogram[i] = v;
+                }
+            }
+        }
+        return new ColumnStatistics(sample.length, nullCount, distinctCount, mostCommonValues, mostCommonCounts,
+                histogram);
+    }
+
+    // 样本不是整个表时用Duj1估算整个表中不同值的个数:
+    // n * d / (n - f1 + f1 * n / N)，n是样本数，d是样本中不同值的个数，f1是样本中只出现一次的值的个数，N是总记录数
+    private static long estimateDistinctCount(long n, long d, long f1, long total) {
+        if (n == 0 || n >= total) {
+            return d;
+        }
+        double estimate = n * d / (n - f1 + (double) f1 * n / total);
+        return Math.max(d, Math.min(total, (long) estimate));
+    }
+
+    private static boolean isSmall(Value v) {
+        return v.getSQL().length() <= MAX_VALUE_SQL_LENGTH;
+    }
+}
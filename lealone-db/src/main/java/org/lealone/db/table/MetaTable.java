@@ -283,7 +283,11 @@ public class MetaTable extends Table {
             cols = createColumns("SQL_STATEMENT", "EXECUTION_COUNT INT", "MIN_EXECUTION_TIME DOUBLE",
                     "MAX_EXECUTION_TIME DOUBLE", "CUMULATIVE_EXECUTION_TIME DOUBLE", "AVERAGE_EXECUTION_TIME DOUBLE",
                     "STD_DEV_EXECUTION_TIME DOUBLE", "MIN_ROW_COUNT INT", "MAX_ROW_COUNT INT",
-                    "CUMULATIVE_ROW_COUNT LONG", "AVERAGE_ROW_COUNT DOUBLE", "STD_DEV_ROW_COUNT DOUBLE");
+                    "CUMULATIVE_ROW_COUNT LONG", "AVERAGE_ROW_COUNT DOUBLE", "STD_DEV_ROW_COUNT DOUBLE",
+                    // extensions
+                    "P50_EXECUTION_TIME DOUBLE", "P95_EXECUTION_TIME DOUBLE", "P99_EXECUTION_TIME DOUBLE",
+                    "CUMULATIVE_ROWS_READ LONG", "PAGE_CACHE_HITS LONG", "PAGE_CACHE_MISSES LONG",
+                    "CUMULATIVE_LOCK_WAIT_TIME DOUBLE");
             break;
         }
         case DATABASES:
@@ -1361,7 +1365,21 @@ public class MetaTable extends Table {
                             // AVERAGE_ROW_COUNT
                             "" + entry.rowCountMean,
                             // STD_DEV_ROW_COUNT
-                            "" + entry.getRowCountStandardDeviation());
+                            "" + entry.getRowCountStandardDeviation(),
+                            // P50_EXECUTION_TIME
+                            "" + entry.executionTimeP50Nanos / 1000d / 1000,
+                            // P95_EXECUTION_TIME
+                            "" + entry.executionTimeP95Nanos / 1000d / 1000,
+                            // P99_EXECUTION_TIME
+                            "" + entry.executionTimeP99Nanos / 1000d / 1000,
+                            // CUMULATIVE_ROWS_READ
+                            "" + entry.rowsReadCumulative,
+                            // PAGE_CACHE_HITS
+                            "" + entry.pageCacheHits,
+                            // PAGE_CACHE_MISSES
+                            "" + entry.pageCacheMisses,
+                            // CUMULATIVE_LOCK_WAIT_TIME
+                            "" + entry.lockWaitTimeCumulativeNanos / 1000d / 1000);
                 }
             }
             break;
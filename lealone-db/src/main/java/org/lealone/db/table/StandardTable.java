@@ -13,7 +13,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.lealone.common.concurrent.ScheduledExecutors;
 import org.lealone.common.exceptions.DbException;
 import org.lealone.common.util.CaseInsensitiveMap;
 import org.lealone.common.util.MathUtils;
@@ -64,6 +66,7 @@ public class StandardTable extends Table {
     private long lastModificationId;
     private int changesSinceAnalyze;
     private int nextAnalyze;
+    private final AtomicBoolean analyzing = new AtomicBoolean();
     private boolean containsLargeObject;
     private Column rowIdColumn;
     private boolean containsGlobalUniqueIndex;
@@ -330,6 +333,10 @@ public class StandardTable extends Table {
         return primaryIndex.getRow(session, key, columnIndexes);
     }
 
+    public List<Row> getRows(ServerSession session, List<Value> keys, int[] columnIndexes) {
+        return primaryIndex.getRows(session, keys, columnIndexes);
+    }
+
     @Override
     public Index addIndex(ServerSession session, String indexName, int indexId, IndexColumn[] cols, IndexType indexType,
             boolean create, String indexComment) {
@@ -352,7 +359,7 @@ public class StandardTable extends Table {
             index = createDelegateIndex(indexId, indexName, indexType, mainIndexColumn);
         } else {
             if (database.isStarting()) {
-                if (database.getStorage(storageEngine).hasMap(getMapNameForIndex(indexId))) {
+                if (database.getStorage(storageEngine).hasPersistedMap(getMapNameForIndex(indexId))) {
                     mainIndexColumn = -1;
                 }
             } else if (primaryIndex.getRowCountMax() != 0) {
@@ -429,8 +436,8 @@ public class StandardTable extends Table {
         // Read entries in memory, sort them, write to a new map (in sorted
         // order); repeat (using a new map for every block of 1 MB) until all
         // record are read. Merge all maps to the target (using merge sort;
-        // duplicates are detected in the target). For randomly ordered data,
-        // this should use relatively few write operations.
+        // duplicates are detected while merging). The merged entries are
+        // already sorted, so the target is built bottom-up in one step.
         // A possible optimization is: change the buffer size from "row count"
         // to "amount of memory", and buffer index keys instead of rows.
         Index scan = getScanIndex(session);
@@ -464,7 +471,8 @@ public class StandardTable extends Table {
             buffer.clear();
             index.addBufferedRows(session, bufferNames);
         } else {
-            addRowsToIndex(session, buffer, index);
+            index.addSortedRows(session, buffer);
+            buffer.clear();
         }
         if (SysProperties.CHECK && remaining != 0) {
             DbException.throwInternalError("rowcount remaining=" + remaining + " " + getName());
@@ -496,6 +504,13 @@ public class StandardTable extends Table {
         }
     }
 
+    /**
+     * 返回值等于行key的主键字段，没有时返回-1
+     */
+    public int getMainIndexColumn() {
+        return primaryIndex.getMainIndexColumn();
+    }
+
     private int getMainIndexColumn(IndexType indexType, IndexColumn[] cols) {
         if (primaryIndex.getMainIndexColumn() != -1) {
             return -1;
@@ -564,6 +579,40 @@ public class StandardTable extends Table {
         return false;
     }
 
+    @Override
+    public void addRows(ServerSession session, List<Row> rows) {
+        tryAddRows(session, rows, null);
+    }
+
+    // 每个索引只需要一次批量写操作，而不是每条记录都写一次
+    @Override
+    public boolean tryAddRows(ServerSession session, List<Row> rows, Transaction.Listener globalListener) {
+        if (rows.isEmpty())
+            return false;
+        int version = getVersion();
+        for (Row row : rows) {
+            row.setVersion(version);
+        }
+        lastModificationId = database.getNextModificationDataId();
+        Transaction t = session.getTransaction();
+        int savepointId = t.getSavepointId();
+        try {
+            // 第一个是PrimaryIndex
+            for (int i = 0, size = indexes.size(); i < size; i++) {
+                Index index = indexes.get(i);
+                if (globalListener == null) // 如果是null就用同步api
+                    index.addRows(session, rows);
+                else
+                    index.tryAddRows(session, rows, globalListener);
+            }
+        } catch (Throwable e) {
+            t.rollbackToSavepoint(savepointId);
+            throw DbException.convert(e);
+        }
+        analyzeIfRequired(session, rows.size());
+        return false;
+    }
+
     @Override
     public void updateRow(ServerSession session, Row oldRow, Row newRow, List<Column> updateColumns) {
         tryUpdateRow(session, oldRow, newRow, updateColumns, null);
@@ -644,7 +693,13 @@ public class StandardTable extends Table {
     }
 
     protected void analyzeIfRequired(ServerSession session) {
-        if (nextAnalyze == 0 || nextAnalyze > changesSinceAnalyze++) {
+        analyzeIfRequired(session, 1);
+    }
+
+    // 批量增加记录时按实际的行数计算
+    private void analyzeIfRequired(ServerSession session, int changes) {
+        changesSinceAnalyze += changes;
+        if (nextAnalyze == 0 || nextAnalyze >= changesSinceAnalyze) {
             return;
         }
         changesSinceAnalyze = 0;
@@ -652,9 +707,32 @@ public class StandardTable extends Table {
         if (n > 0) {
             nextAnalyze = n;
         }
-        // TODO
-        // int rows = session.getDatabase().getSettings().analyzeSample / 10;
-        // Analyze.analyzeTable(session, this, rows, false);
+        if (isHidden() || isTemporary() && !isGlobalTemporary() || session == null) {
+            return;
+        }
+        // 上一次还没有做完就不用再做了
+        if (!analyzing.compareAndSet(false, true)) {
+            return;
+        }
+        // 只更新内存中的统计信息，不修改元数据表，手工执行ANALYZE时才会保存。
+        // 最多只读取analyzeSample / 10条记录，并且等当前事务结束后放到后台做，
+        // 不占用当前DML语句的时间，也能读到这个事务刚修改过的记录
+        int rows = Math.max(database.getSettings().analyzeSample / 10, 1);
+        session.addTransactionEndListener(committed -> ScheduledExecutors.scheduledTasks.execute(() -> {
+            ServerSession s = null;
+            try {
+                s = database.createSession(database.getSystemSession().getUser());
+                ColumnStatistics.analyze(s, this, rows);
+                s.commit();
+            } catch (Throwable e) {
+                trace.error(e, "analyze {0}", getName());
+            } finally {
+                if (s != null) {
+                    s.close();
+                }
+                analyzing.set(false);
+            }
+        }));
     }
 
     @Override
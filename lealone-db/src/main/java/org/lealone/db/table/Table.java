@@ -7,6 +7,7 @@
 package org.lealone.db.table;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -23,6 +24,7 @@ import org.lealone.db.ServerSession;
 import org.lealone.db.api.ErrorCode;
 import org.lealone.db.auth.Right;
 import org.lealone.db.constraint.Constraint;
+import org.lealone.db.constraint.ConstraintUnique;
 import org.lealone.db.index.Index;
 import org.lealone.db.index.IndexType;
 import org.lealone.db.result.Row;
@@ -229,6 +231,26 @@ public abstract class Table extends SchemaObjectBase {
         throw newUnsupportedException();
     }
 
+    /**
+     * Add multiple rows to the table and all indexes.
+     *
+     * @param session the session
+     * @param rows the rows
+     * @throws DbException if a constraint was violated
+     */
+    public void addRows(ServerSession session, List<Row> rows) {
+        for (Row row : rows) {
+            addRow(session, row);
+        }
+    }
+
+    public boolean tryAddRows(ServerSession session, List<Row> rows, Transaction.Listener globalListener) {
+        for (Row row : rows) {
+            tryAddRow(session, row, globalListener);
+        }
+        return false;
+    }
+
     /**
      * Update a row from the table and all indexes.
      *
@@ -551,6 +573,10 @@ public abstract class Table extends SchemaObjectBase {
                     continue;
                 }
                 if (index.getColumnIndex(col) < 0) {
+                    Column[] includeColumns = index.getIndexType().getIncludeColumns();
+                    if (includeColumns != null && Arrays.asList(includeColumns).contains(col)) {
+                        throw DbException.get(ErrorCode.COLUMN_IS_REFERENCED_1, index.getSQL());
+                    }
                     continue;
                 }
                 if (index.getColumns().length == 1) {
@@ -846,6 +872,28 @@ public abstract class Table extends SchemaObjectBase {
         return (constraints != null && !constraints.isEmpty()) || (triggers != null && !triggers.isEmpty());
     }
 
+    /**
+     * 是否有需要逐行执行的行级触发器或约束。
+     * UNIQUE和PRIMARY KEY约束的checkRow什么都不做，由唯一索引检查，所以不算在内。
+     *
+     * @return true if rows need to be checked one by one
+     */
+    public boolean hasRowTriggersOrChecks() {
+        if (triggers != null) {
+            for (TriggerObject trigger : triggers) {
+                if (trigger.isRowBased())
+                    return true;
+            }
+        }
+        if (constraints != null) {
+            for (int i = 0, size = constraints.size(); i < size; i++) {
+                if (!(constraints.get(i) instanceof ConstraintUnique))
+                    return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Fire all triggers that need to be called before a row is updated.
      *
@@ -69,6 +69,16 @@ public class SourceCompiler {
         compiled.clear();
     }
 
+    /**
+     * Remove the source code of the specified class.
+     * Classes that are already loaded are not affected.
+     *
+     * @param className the class name
+     */
+    public void removeSource(String className) {
+        sources.remove(className);
+    }
+
     /**
      * Get the class object for the given name.
      *
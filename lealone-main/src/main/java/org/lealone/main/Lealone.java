@@ -112,9 +112,9 @@ public class Lealone {
         initPluggableEngines();
 
         long t1 = System.currentTimeMillis();
-        LealoneDatabase.getInstance(); // 提前触发对LealoneDatabase的初始化
+        LealoneDatabase db = LealoneDatabase.getInstance(); // 提前触发对LealoneDatabase的初始化
         long t2 = System.currentTimeMillis();
-        logger.info("Init lealone database: " + (t2 - t1) + "ms");
+        logger.info("Init lealone database: " + (t2 - t1) + "ms (" + db.getOpenStatistics() + ")");
 
         // 如果启用了集群，集群的元数据表通过嵌入式的方式访问
         if (config.protocol_server_engines != null) {
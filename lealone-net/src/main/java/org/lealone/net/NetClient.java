@@ -18,6 +18,7 @@
 package org.lealone.net;
 
 import java.net.InetSocketAddress;
+import java.util.List;
 import java.util.Map;
 
 public interface NetClient {
@@ -29,6 +30,13 @@ public interface NetClient {
 
     void removeConnection(InetSocketAddress inetSocketAddress);
 
+    void removeConnection(AsyncConnection conn);
+
+    /**
+     * 返回当前所有的物理连接，用于查看每条连接上的session数、未完成的请求数和收发的字节数
+     */
+    List<AsyncConnection> getConnections();
+
     void close();
 
     boolean isClosed();
@@ -18,16 +18,25 @@
 package org.lealone.net;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.lealone.db.Constants;
 
 public abstract class NetClientBase implements NetClient {
 
     // 使用InetSocketAddress为key而不是字符串，是因为像localhost和127.0.0.1这两种不同格式实际都是同一个意思，
     // 如果用字符串，就会产生两条AsyncConnection，这是没必要的。
-    private final ConcurrentHashMap<InetSocketAddress, AsyncConnection> asyncConnections = new ConcurrentHashMap<>();
+    // 同一个地址可以有多条物理连接，客户端session按轮询的方式分散到这些连接上，
+    // 避免大量session复用同一条连接时在单个socket和单个写队列上排队。
+    private final ConcurrentHashMap<InetSocketAddress, CopyOnWriteArrayList<AsyncConnection>> asyncConnections = new ConcurrentHashMap<>();
+    private final AtomicInteger nextConnectionIndex = new AtomicInteger();
     private final AtomicBoolean closed = new AtomicBoolean(false);
     private final AtomicBoolean opened = new AtomicBoolean(false);
 
@@ -59,11 +68,14 @@ public abstract class NetClientBase implements NetClient {
             open(config);
         }
         InetSocketAddress inetSocketAddress = endpoint.getInetSocketAddress();
-        AsyncConnection asyncConnection = getConnection(inetSocketAddress);
+        // P2P节点之间的连接由AsyncConnectionManager管理，只需要一条
+        int maxConnections = connectionManager == null ? getConnectionsPerEndpoint(config) : 1;
+        AsyncConnection asyncConnection = getConnection(inetSocketAddress, maxConnections);
         if (asyncConnection == null) {
             synchronized (this) {
-                asyncConnection = getConnection(inetSocketAddress);
+                asyncConnection = getConnection(inetSocketAddress, maxConnections);
                 if (asyncConnection == null) {
+                    int oldCount = getConnectionCount(inetSocketAddress);
                     CountDownLatch latch = new CountDownLatch(1);
                     try {
                         createConnectionInternal(endpoint, connectionManager, latch);
@@ -71,32 +83,95 @@ public abstract class NetClientBase implements NetClient {
                     } catch (Throwable e) {
                         throw new RuntimeException("Cannot connect to " + inetSocketAddress, e);
                     }
-                    asyncConnection = getConnection(inetSocketAddress);
-                    if (asyncConnection == null) {
+                    List<AsyncConnection> list = asyncConnections.get(inetSocketAddress);
+                    // 新连接总是加在最后面
+                    if (list == null || list.size() <= oldCount) {
                         throw new RuntimeException("Cannot connect to " + inetSocketAddress);
                     }
+                    asyncConnection = list.get(list.size() - 1);
                 }
             }
         }
         return asyncConnection;
     }
 
+    private static int getConnectionsPerEndpoint(Map<String, String> config) {
+        int n = 1;
+        if (config != null) {
+            String v = config.get(Constants.CLIENT_CONNECTIONS_PER_ENDPOINT_KEY);
+            if (v != null)
+                n = Integer.parseInt(v.trim());
+        }
+        return Math.max(1, n);
+    }
+
+    private int getConnectionCount(InetSocketAddress inetSocketAddress) {
+        List<AsyncConnection> list = asyncConnections.get(inetSocketAddress);
+        return list == null ? 0 : list.size();
+    }
+
+    // 连接数还没有达到上限时返回null，让调用者去创建新连接，否则按轮询的方式选一条已有的连接
+    private AsyncConnection getConnection(InetSocketAddress inetSocketAddress, int maxConnections) {
+        checkClosed();
+        List<AsyncConnection> list = asyncConnections.get(inetSocketAddress);
+        if (list == null)
+            return null;
+        while (true) {
+            int size = list.size();
+            if (size < maxConnections)
+                return null;
+            int index = (nextConnectionIndex.getAndIncrement() & Integer.MAX_VALUE) % size;
+            try {
+                return list.get(index);
+            } catch (IndexOutOfBoundsException e) {
+                // 并发删除了连接，重试
+            }
+        }
+    }
+
     @Override
     public void removeConnection(InetSocketAddress inetSocketAddress) {
         checkClosed();
-        AsyncConnection conn = asyncConnections.remove(inetSocketAddress);
-        if (conn != null && !conn.isClosed())
-            conn.close();
+        List<AsyncConnection> list = asyncConnections.remove(inetSocketAddress);
+        if (list != null) {
+            for (AsyncConnection conn : list) {
+                if (!conn.isClosed())
+                    conn.close();
+            }
+        }
     }
 
-    protected AsyncConnection getConnection(InetSocketAddress inetSocketAddress) {
+    @Override
+    public void removeConnection(AsyncConnection conn) {
         checkClosed();
-        return asyncConnections.get(inetSocketAddress);
+        InetSocketAddress inetSocketAddress = conn.getInetSocketAddress();
+        if (inetSocketAddress == null)
+            return;
+        List<AsyncConnection> list = asyncConnections.get(inetSocketAddress);
+        // 关闭连接时会回调到这里，只有第一次真正移除时才关闭，避免递归
+        // 空的list不从asyncConnections中删除，否则可能跟并发的addConnection冲突导致新连接丢失
+        if (list != null && list.remove(conn)) {
+            if (!conn.isClosed())
+                conn.close();
+        }
+    }
+
+    protected AsyncConnection getConnection(InetSocketAddress inetSocketAddress) {
+        return getConnection(inetSocketAddress, 1);
     }
 
     protected void addConnection(InetSocketAddress inetSocketAddress, AsyncConnection conn) {
         checkClosed();
-        asyncConnections.put(inetSocketAddress, conn);
+        asyncConnections.computeIfAbsent(inetSocketAddress, k -> new CopyOnWriteArrayList<>()).add(conn);
+    }
+
+    @Override
+    public List<AsyncConnection> getConnections() {
+        ArrayList<AsyncConnection> list = new ArrayList<>();
+        for (List<AsyncConnection> connections : asyncConnections.values()) {
+            list.addAll(connections);
+        }
+        return list;
     }
 
     @Override
@@ -109,10 +184,12 @@ public abstract class NetClientBase implements NetClient {
         if (!closed.compareAndSet(false, true))
             return;
         opened.set(false);
-        for (AsyncConnection conn : asyncConnections.values()) {
-            try {
-                conn.close();
-            } catch (Throwable e) {
+        for (List<AsyncConnection> list : asyncConnections.values()) {
+            for (AsyncConnection conn : list) {
+                try {
+                    conn.close();
+                } catch (Throwable e) {
+                }
             }
         }
         asyncConnections.clear();
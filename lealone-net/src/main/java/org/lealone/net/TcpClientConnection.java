@@ -19,7 +19,9 @@ package org.lealone.net;
 
 import java.io.IOException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.nio.channels.SocketChannel;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.lealone.common.exceptions.DbException;
 import org.lealone.common.logging.Logger;
@@ -41,12 +43,45 @@ public class TcpClientConnection extends TransferConnection {
     private final ConcurrentHashMap<Integer, AsyncCallback<?>> callbackMap = new ConcurrentHashMap<>();
     private final AtomicInteger nextId = new AtomicInteger(0);
     private final NetClient netClient;
+    private final LongAdder bytesReceived = new LongAdder();
 
     public TcpClientConnection(WritableChannel writableChannel, NetClient netClient) {
-        super(writableChannel, false);
+        super(new CountingWritableChannel(writableChannel), false);
         this.netClient = netClient;
     }
 
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * 已经发出但还没有收到响应的请求数
+     */
+    public int getInFlightRequestCount() {
+        return callbackMap.size();
+    }
+
+    /**
+     * 已经提交给网络层但还没有写到socket的数据包个数
+     */
+    public int getPendingWriteCount() {
+        return writableChannel.getPendingWriteCount();
+    }
+
+    public long getBytesSent() {
+        return ((CountingWritableChannel) writableChannel).bytesSent.sum();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public void handle(NetBuffer buffer) {
+        bytesReceived.add(buffer.length());
+        super.handle(buffer);
+    }
+
     public int getNextId() {
         return nextId.incrementAndGet();
     }
@@ -79,8 +114,9 @@ public class TcpClientConnection extends TransferConnection {
 
     public Session removeSession(int sessionId) {
         Session session = sessions.remove(sessionId);
+        // 同一个地址可能有多条连接，只移除当前这条
         if (netClient != null && sessions.isEmpty()) {
-            netClient.removeConnection(inetSocketAddress);
+            netClient.removeConnection(this);
         }
         return session;
     }
@@ -164,4 +200,52 @@ public class TcpClientConnection extends TransferConnection {
         if (newTargetEndpoints != null)
             session.runModeChanged(newTargetEndpoints);
     }
+
+    // 统计写出的字节数，其他操作都直接转给原来的WritableChannel
+    private static class CountingWritableChannel implements WritableChannel {
+
+        private final WritableChannel writableChannel;
+        private final LongAdder bytesSent = new LongAdder();
+
+        CountingWritableChannel(WritableChannel writableChannel) {
+            this.writableChannel = writableChannel;
+        }
+
+        @Override
+        public void write(Object data) {
+            if (data instanceof NetBuffer)
+                bytesSent.add(((NetBuffer) data).length());
+            writableChannel.write(data);
+        }
+
+        @Override
+        public void close() {
+            writableChannel.close();
+        }
+
+        @Override
+        public String getHost() {
+            return writableChannel.getHost();
+        }
+
+        @Override
+        public int getPort() {
+            return writableChannel.getPort();
+        }
+
+        @Override
+        public SocketChannel getSocketChannel() {
+            return writableChannel.getSocketChannel();
+        }
+
+        @Override
+        public NetBufferFactory getBufferFactory() {
+            return writableChannel.getBufferFactory();
+        }
+
+        @Override
+        public int getPendingWriteCount() {
+            return writableChannel.getPendingWriteCount();
+        }
+    }
 }
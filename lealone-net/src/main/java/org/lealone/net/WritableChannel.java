@@ -35,4 +35,9 @@ public interface WritableChannel {
 
     NetBufferFactory getBufferFactory();
 
+    // 已经提交但还没有写到socket的数据包个数
+    default int getPendingWriteCount() {
+        return 0;
+    }
+
 }
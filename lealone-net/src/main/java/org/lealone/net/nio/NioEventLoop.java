@@ -55,6 +55,10 @@ public interface NioEventLoop {
         getDefaultNioEventLoopImpl().addNioBuffer(channel, nioBuffer);
     }
 
+    default int getPendingWriteCount(SocketChannel channel) {
+        return getDefaultNioEventLoopImpl().getPendingWriteCount(channel);
+    }
+
     default void tryRegisterWriteOperation(Selector selector) {
         getDefaultNioEventLoopImpl().tryRegisterWriteOperation(selector);
     }
@@ -112,6 +112,12 @@ public class NioEventLoopAdapter implements NioEventLoop {
         }
     }
 
+    @Override
+    public int getPendingWriteCount(SocketChannel channel) {
+        ConcurrentLinkedQueue<ByteBuffer> queue = channels.get(channel);
+        return queue == null ? 0 : queue.size();
+    }
+
     @Override
     public void tryRegisterWriteOperation(Selector selector) {
         for (Entry<SocketChannel, ConcurrentLinkedQueue<ByteBuffer>> entry : channels.entrySet()) {
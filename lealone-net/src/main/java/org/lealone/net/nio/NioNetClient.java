@@ -23,15 +23,18 @@ import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.lealone.common.concurrent.ConcurrentUtils;
 import org.lealone.common.logging.Logger;
 import org.lealone.common.logging.LoggerFactory;
 import org.lealone.common.util.ShutdownHookUtils;
+import org.lealone.db.Constants;
 import org.lealone.db.DataBuffer;
 import org.lealone.net.AsyncConnection;
 import org.lealone.net.AsyncConnectionManager;
@@ -40,7 +43,7 @@ import org.lealone.net.NetEndpoint;
 import org.lealone.net.TcpClientConnection;
 import org.lealone.net.Transfer;
 
-public class NioNetClient extends NetClientBase implements NioEventLoop {
+public class NioNetClient extends NetClientBase {
 
     private static final Logger logger = LoggerFactory.getLogger(NioNetClient.class);
     private static final NioNetClient instance = new NioNetClient();
@@ -49,61 +52,58 @@ public class NioNetClient extends NetClientBase implements NioEventLoop {
         return instance;
     }
 
-    private NioEventLoopAdapter nioEventLoopAdapter;
+    // 每个event loop有自己的selector和线程，新连接按轮询的方式分配到不同的event loop上，
+    // 这样同一个客户端有多条连接时读写不会都挤在一个线程上
+    private ClientNioEventLoop[] eventLoops;
+    private final AtomicInteger nextEventLoopIndex = new AtomicInteger();
 
     private NioNetClient() {
     }
 
-    private synchronized void openNioEventLoopAdapter(Map<String, String> config) {
-        if (nioEventLoopAdapter == null) {
+    private synchronized void openNioEventLoops(Map<String, String> config) {
+        if (eventLoops == null) {
+            int count = getEventLoopCount(config);
+            ClientNioEventLoop[] eventLoops = new ClientNioEventLoop[count];
             try {
-                nioEventLoopAdapter = new NioEventLoopAdapter(config, "client_nio_event_loop_interval", 1000); // 默认1秒
-                ConcurrentUtils.submitTask("ClientNioEventLoopService", () -> {
-                    NioNetClient.this.run();
-                });
-                ShutdownHookUtils.addShutdownHook(this, () -> {
-                    close();
-                });
+                for (int i = 0; i < count; i++) {
+                    eventLoops[i] = new ClientNioEventLoop(
+                            new NioEventLoopAdapter(config, "client_nio_event_loop_interval", 1000)); // 默认1秒
+                }
             } catch (IOException e) {
+                for (ClientNioEventLoop eventLoop : eventLoops) {
+                    if (eventLoop != null)
+                        eventLoop.nioEventLoopAdapter.close();
+                }
                 throw new RuntimeException("Failed to open NioEventLoopAdapter", e);
             }
+            this.eventLoops = eventLoops;
+            for (int i = 0; i < count; i++) {
+                ClientNioEventLoop eventLoop = eventLoops[i];
+                String name = count == 1 ? "ClientNioEventLoopService" : "ClientNioEventLoopService-" + i;
+                ConcurrentUtils.submitTask(name, () -> {
+                    eventLoop.run();
+                });
+            }
+            ShutdownHookUtils.addShutdownHook(this, () -> {
+                close();
+            });
         }
     }
 
-    private void run() {
-        for (;;) {
-            try {
-                nioEventLoopAdapter.select();
-                if (isClosed())
-                    break;
-                Set<SelectionKey> keys = nioEventLoopAdapter.getSelector().selectedKeys();
-                try {
-                    for (SelectionKey key : keys) {
-                        if (key.isValid()) {
-                            int readyOps = key.readyOps();
-                            if ((readyOps & SelectionKey.OP_READ) != 0) {
-                                read(key);
-                            } else if ((readyOps & SelectionKey.OP_WRITE) != 0) {
-                                write(key);
-                            } else if ((readyOps & SelectionKey.OP_CONNECT) != 0) {
-                                Object att = key.attachment();
-                                connectionEstablished(key, att);
-                            } else {
-                                key.cancel();
-                            }
-                        } else {
-                            key.cancel();
-                        }
-                    }
-                } finally {
-                    keys.clear();
-                }
-                if (isClosed())
-                    break;
-            } catch (Throwable e) {
-                logger.warn(Thread.currentThread().getName() + " run exception: " + e.getMessage());
-            }
+    private static int getEventLoopCount(Map<String, String> config) {
+        int count = 1;
+        if (config != null) {
+            String v = config.get(Constants.CLIENT_NIO_EVENT_LOOP_COUNT_KEY);
+            if (v != null)
+                count = Integer.parseInt(v.trim());
         }
+        return Math.max(1, count);
+    }
+
+    private ClientNioEventLoop nextEventLoop() {
+        ClientNioEventLoop[] eventLoops = this.eventLoops;
+        int index = (nextEventLoopIndex.getAndIncrement() & Integer.MAX_VALUE) % eventLoops.length;
+        return eventLoops[index];
     }
 
     // 交由上层去解析协议包是否完整收到更好一点，因为这里假设前4个字节是包的长度，网络层不应该关心具体协议格式
@@ -149,60 +149,130 @@ public class NioNetClient extends NetClientBase implements NioEventLoop {
         return null;
     }
 
-    private void read(SelectionKey key) {
-        Attachment attachment = (Attachment) key.attachment();
-        AsyncConnection conn = attachment.conn;
-        SocketChannel channel = (SocketChannel) key.channel();
-        try {
-            while (true) {
-                DataBuffer dataBuffer = DataBuffer.create(Transfer.BUFFER_SIZE);
-                ByteBuffer buffer = dataBuffer.getBuffer();
-                int count = channel.read(buffer);
-                if (count > 0) {
-                    attachment.endOfStreamCount = 0;
-                } else {
-                    // 客户端非正常关闭时，可能会触发JDK的bug，导致run方法死循环，selector.select不会阻塞
-                    // netty框架在下面这个方法的代码中有自己的不同解决方案
-                    // io.netty.channel.nio.NioEventLoop.processSelectedKey
-                    if (count < 0) {
-                        attachment.endOfStreamCount++;
-                        if (attachment.endOfStreamCount > 3) {
-                            closeChannel(channel);
+    private class ClientNioEventLoop implements NioEventLoop {
+
+        private final NioEventLoopAdapter nioEventLoopAdapter;
+
+        ClientNioEventLoop(NioEventLoopAdapter nioEventLoopAdapter) {
+            this.nioEventLoopAdapter = nioEventLoopAdapter;
+        }
+
+        @Override
+        public NioEventLoop getDefaultNioEventLoopImpl() {
+            return nioEventLoopAdapter;
+        }
+
+        private void run() {
+            for (;;) {
+                try {
+                    nioEventLoopAdapter.select();
+                    if (isClosed())
+                        break;
+                    Set<SelectionKey> keys = nioEventLoopAdapter.getSelector().selectedKeys();
+                    try {
+                        for (SelectionKey key : keys) {
+                            if (key.isValid()) {
+                                int readyOps = key.readyOps();
+                                if ((readyOps & SelectionKey.OP_READ) != 0) {
+                                    read(key);
+                                } else if ((readyOps & SelectionKey.OP_WRITE) != 0) {
+                                    write(key);
+                                } else if ((readyOps & SelectionKey.OP_CONNECT) != 0) {
+                                    Object att = key.attachment();
+                                    connectionEstablished(key, att);
+                                } else {
+                                    key.cancel();
+                                }
+                            } else {
+                                key.cancel();
+                            }
                         }
+                    } finally {
+                        keys.clear();
                     }
-                    break;
+                    if (isClosed())
+                        break;
+                } catch (Throwable e) {
+                    logger.warn(Thread.currentThread().getName() + " run exception: " + e.getMessage());
                 }
-                buffer.flip();
-                NioBuffer nioBuffer = new NioBuffer(dataBuffer);
-                conn.handle(nioBuffer);
             }
-        } catch (IOException e) {
-            closeChannel(channel);
         }
-    }
 
-    private void connectionEstablished(SelectionKey key, Object att) throws Exception {
-        SocketChannel channel = (SocketChannel) key.channel();
-        if (!channel.isConnectionPending())
-            return;
+        private void read(SelectionKey key) {
+            Attachment attachment = (Attachment) key.attachment();
+            AsyncConnection conn = attachment.conn;
+            SocketChannel channel = (SocketChannel) key.channel();
+            try {
+                while (true) {
+                    DataBuffer dataBuffer = DataBuffer.create(Transfer.BUFFER_SIZE);
+                    ByteBuffer buffer = dataBuffer.getBuffer();
+                    int count = channel.read(buffer);
+                    if (count > 0) {
+                        attachment.endOfStreamCount = 0;
+                    } else {
+                        // 客户端非正常关闭时，可能会触发JDK的bug，导致run方法死循环，selector.select不会阻塞
+                        // netty框架在下面这个方法的代码中有自己的不同解决方案
+                        // io.netty.channel.nio.NioEventLoop.processSelectedKey
+                        if (count < 0) {
+                            attachment.endOfStreamCount++;
+                            if (attachment.endOfStreamCount > 3) {
+                                closeChannel(channel);
+                            }
+                        }
+                        break;
+                    }
+                    buffer.flip();
+                    NioBuffer nioBuffer = new NioBuffer(dataBuffer);
+                    conn.handle(nioBuffer);
+                }
+            } catch (IOException e) {
+                closeChannel(channel);
+            }
+        }
+
+        private void connectionEstablished(SelectionKey key, Object att) throws Exception {
+            SocketChannel channel = (SocketChannel) key.channel();
+            if (!channel.isConnectionPending())
+                return;
 
-        Attachment attachment = (Attachment) att;
-        AsyncConnection conn;
-        try {
-            channel.finishConnect();
-            nioEventLoopAdapter.addSocketChannel(channel);
-            NioWritableChannel writableChannel = new NioWritableChannel(channel, this);
-            if (attachment.connectionManager != null) {
-                conn = attachment.connectionManager.createConnection(writableChannel, false);
-            } else {
-                conn = new TcpClientConnection(writableChannel, this);
+            Attachment attachment = (Attachment) att;
+            AsyncConnection conn;
+            try {
+                channel.finishConnect();
+                nioEventLoopAdapter.addSocketChannel(channel);
+                NioWritableChannel writableChannel = new NioWritableChannel(channel, this);
+                if (attachment.connectionManager != null) {
+                    conn = attachment.connectionManager.createConnection(writableChannel, false);
+                } else {
+                    conn = new TcpClientConnection(writableChannel, NioNetClient.this);
+                }
+                conn.setInetSocketAddress(attachment.inetSocketAddress);
+                addConnection(attachment.inetSocketAddress, conn);
+                attachment.conn = conn;
+                channel.register(nioEventLoopAdapter.getSelector(), SelectionKey.OP_READ, attachment);
+            } finally {
+                attachment.latch.countDown();
             }
-            conn.setInetSocketAddress(attachment.inetSocketAddress);
-            addConnection(attachment.inetSocketAddress, conn);
-            attachment.conn = conn;
-            channel.register(nioEventLoopAdapter.getSelector(), SelectionKey.OP_READ, attachment);
-        } finally {
-            attachment.latch.countDown();
+        }
+
+        @Override
+        public void closeChannel(SocketChannel channel) {
+            if (channel == null) {
+                return;
+            }
+            // 同一个地址可能有多条连接，只移除这个channel对应的连接
+            Selector selector = nioEventLoopAdapter.getSelector();
+            SelectionKey key = selector == null ? null : channel.keyFor(selector);
+            if (key != null && key.attachment() instanceof Attachment) {
+                AsyncConnection conn = ((Attachment) key.attachment()).conn;
+                if (conn != null) {
+                    try {
+                        removeConnection(conn);
+                    } catch (Exception e) {
+                    }
+                }
+            }
+            nioEventLoopAdapter.closeChannel(channel);
         }
     }
 
@@ -216,16 +286,18 @@ public class NioNetClient extends NetClientBase implements NioEventLoop {
 
     @Override
     protected synchronized void openInternal(Map<String, String> config) {
-        if (nioEventLoopAdapter == null) {
-            openNioEventLoopAdapter(config);
+        if (eventLoops == null) {
+            openNioEventLoops(config);
         }
     }
 
     @Override
     protected synchronized void closeInternal() {
-        if (nioEventLoopAdapter != null) {
-            nioEventLoopAdapter.close();
-            nioEventLoopAdapter = null;
+        if (eventLoops != null) {
+            for (ClientNioEventLoop eventLoop : eventLoops) {
+                eventLoop.nioEventLoopAdapter.close();
+            }
+            eventLoops = null;
         }
     }
 
@@ -235,6 +307,7 @@ public class NioNetClient extends NetClientBase implements NioEventLoop {
         InetSocketAddress inetSocketAddress = endpoint.getInetSocketAddress();
         int socketRecvBuffer = 16 * 1024;
         int socketSendBuffer = 8 * 1024;
+        ClientNioEventLoop eventLoop = nextEventLoop();
         SocketChannel channel = null;
         try {
             channel = SocketChannel.open();
@@ -251,29 +324,11 @@ public class NioNetClient extends NetClientBase implements NioEventLoop {
             attachment.inetSocketAddress = inetSocketAddress;
             attachment.latch = latch;
 
-            register(channel, SelectionKey.OP_CONNECT, attachment);
+            eventLoop.register(channel, SelectionKey.OP_CONNECT, attachment);
             channel.connect(inetSocketAddress);
         } catch (Exception e) {
-            closeChannel(channel);
+            eventLoop.closeChannel(channel);
             throw e;
         }
     }
-
-    @Override
-    public NioEventLoop getDefaultNioEventLoopImpl() {
-        return nioEventLoopAdapter;
-    }
-
-    @Override
-    public void closeChannel(SocketChannel channel) {
-        if (channel == null) {
-            return;
-        }
-        try {
-            InetSocketAddress inetSocketAddress = (InetSocketAddress) channel.getRemoteAddress();
-            removeConnection(inetSocketAddress);
-        } catch (Exception e1) {
-        }
-        nioEventLoopAdapter.closeChannel(channel);
-    }
 }
@@ -78,4 +78,9 @@ public class NioWritableChannel implements WritableChannel {
         return NioBufferFactory.getInstance();
     }
 
+    @Override
+    public int getPendingWriteCount() {
+        return nioEventLoop.getPendingWriteCount(channel);
+    }
+
 }
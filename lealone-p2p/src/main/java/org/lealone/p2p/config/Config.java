@@ -69,6 +69,14 @@ public class Config {
         public volatile Double phi_convict_threshold = 8.0;
         public boolean cross_node_timeout = false;
 
+        // 节点间消息的压缩算法: none、lzf、lz4、deflate，只压缩序列化后不小于internode_compression_threshold字节的消息
+        public String internode_compression = "none";
+        public Integer internode_compression_threshold = 1024;
+        // 合并到一个协议包中的消息总字节数上限
+        public Integer internode_max_coalesced_bytes = 64 * 1024;
+        // 超过这个字节数的消息走单独的大消息连接，避免阻塞gossip这类小消息
+        public Integer internode_large_message_threshold = 64 * 1024;
+
         public String internode_authenticator;
 
         public SeedProviderDef seed_provider;
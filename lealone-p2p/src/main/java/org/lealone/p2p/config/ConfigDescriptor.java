@@ -63,6 +63,7 @@ public class ConfigDescriptor {
     private static IInternodeAuthenticator internodeAuthenticator;
     private static AbstractReplicationStrategy defaultReplicationStrategy;
     private static AbstractEndpointAssignmentStrategy defaultEndpointAssignmentStrategy;
+    private static String internodeCompression;
 
     public static void applyConfig(Config config) throws ConfigException {
         ConfigDescriptor.config = config;
@@ -76,6 +77,7 @@ public class ConfigDescriptor {
         if (config.cluster_config.phi_convict_threshold < 5 || config.cluster_config.phi_convict_threshold > 16) {
             throw new ConfigException("phi_convict_threshold must be between 5 and 16");
         }
+        internodeCompression = createInternodeCompression(config.cluster_config);
 
         localP2pEndpoint = createLocalP2pEndpoint(config);
         snitch = createEndpointSnitch(config.cluster_config);
@@ -110,6 +112,16 @@ public class ConfigDescriptor {
         return p2pServerEnabled;
     }
 
+    private static String createInternodeCompression(ClusterConfig config) throws ConfigException {
+        String compression = config.internode_compression;
+        if (compression == null || compression.equalsIgnoreCase("none"))
+            return null;
+        compression = compression.toUpperCase();
+        if (!compression.equals("LZF") && !compression.equals("LZ4") && !compression.equals("DEFLATE"))
+            throw new ConfigException("internode_compression must be one of none, lzf, lz4 or deflate");
+        return compression;
+    }
+
     private static NetEndpoint createLocalP2pEndpoint(Config config) throws ConfigException {
         InetAddress listenAddress = null;
         // Local IP, hostname or interface to bind services to
@@ -300,6 +312,25 @@ public class ConfigDescriptor {
         return getRpcTimeout();
     }
 
+    /**
+     * @return CompressTool使用的压缩算法名称，不压缩时返回null
+     */
+    public static String getInternodeCompression() {
+        return internodeCompression;
+    }
+
+    public static int getInternodeCompressionThreshold() {
+        return config.cluster_config.internode_compression_threshold;
+    }
+
+    public static int getInternodeMaxCoalescedBytes() {
+        return config.cluster_config.internode_max_coalesced_bytes;
+    }
+
+    public static int getInternodeLargeMessageThreshold() {
+        return config.cluster_config.internode_large_message_threshold;
+    }
+
     public static double getPhiConvictThreshold() {
         return config.cluster_config.phi_convict_threshold;
     }
@@ -17,14 +17,15 @@
  */
 package org.lealone.p2p.net;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.lealone.net.NetEndpoint;
-import org.lealone.net.Transfer;
 import org.lealone.p2p.config.ConfigDescriptor;
 
 public class MessageOut<T extends Message<T>> {
@@ -66,7 +67,13 @@ public class MessageOut<T extends Message<T>> {
         return sbuf.toString();
     }
 
-    public void serialize(Transfer transfer, DataOutput out, int version) throws IOException {
+    public byte[] toByteArray(int version) throws IOException {
+        ByteArrayOutputStream buff = new ByteArrayOutputStream();
+        serialize(new DataOutputStream(buff), version);
+        return buff.toByteArray();
+    }
+
+    public void serialize(DataOutput out, int version) throws IOException {
         from.serialize(out);
 
         out.writeInt(verb.ordinal());
@@ -77,14 +84,14 @@ public class MessageOut<T extends Message<T>> {
             out.write(entry.getValue());
         }
 
-        out.writeInt(0); // 先设为0
         if (payload != null) {
-            int lastSize = transfer.getDataOutputStreamSize();
-            payload.getSerializer().serialize(payload, out, version);
-
-            int payloadSize = transfer.getDataOutputStreamSize() - lastSize;
-            int payloadSizeStartPos = lastSize - 4;// 需要减掉4
-            transfer.setPayloadSize(payloadSizeStartPos, payloadSize); // 再回填
+            // 先序列化到临时缓冲区才能得到payload的长度
+            ByteArrayOutputStream buff = new ByteArrayOutputStream();
+            payload.getSerializer().serialize(payload, new DataOutputStream(buff), version);
+            out.writeInt(buff.size());
+            out.write(buff.toByteArray());
+        } else {
+            out.writeInt(0);
         }
     }
 }
@@ -53,6 +53,7 @@ import org.lealone.net.WritableChannel;
 import org.lealone.p2p.config.ConfigDescriptor;
 import org.lealone.p2p.gms.Gossiper;
 import org.lealone.p2p.locator.ILatencySubscriber;
+import org.lealone.p2p.net.P2pConnection.Lane;
 import org.lealone.p2p.server.ClusterMetaData;
 import org.lealone.p2p.server.P2pServer;
 import org.lealone.p2p.util.ExpiringMap;
@@ -65,7 +66,8 @@ public final class MessagingService implements MessagingServiceMBean, AsyncConne
     private static final Logger logger = LoggerFactory.getLogger(MessagingService.class);
 
     public static final int VERSION_10 = 1;
-    public static final int CURRENT_VERSION = VERSION_10;
+    public static final int VERSION_11 = 2; // 支持消息合并、压缩和大小消息分开连接
+    public static final int CURRENT_VERSION = VERSION_11;
 
     public static final String FAILURE_CALLBACK_PARAM = "CAL_BAC";
     public static final String FAILURE_RESPONSE_PARAM = "FAIL";
@@ -88,6 +90,12 @@ public final class MessagingService implements MessagingServiceMBean, AsyncConne
      */
     public static final EnumSet<Verb> DROPPABLE_VERBS = EnumSet.of(Verb.REQUEST_RESPONSE);
 
+    /**
+     * Verbs that always go over the small message connection, no matter how large they are.
+     */
+    public static final EnumSet<Verb> SMALL_LANE_VERBS = EnumSet.of(Verb.GOSSIP_DIGEST_SYN, Verb.GOSSIP_DIGEST_ACK,
+            Verb.GOSSIP_DIGEST_ACK2, Verb.GOSSIP_SHUTDOWN, Verb.ECHO);
+
     private static final int LOG_DROPPED_INTERVAL_IN_MS = 5000;
 
     /**
@@ -144,7 +152,7 @@ public final class MessagingService implements MessagingServiceMBean, AsyncConne
 
     private MessagingService() {
         for (Verb verb : DROPPABLE_VERBS) {
-            // droppedMessages.put(verb, new DroppedMessageMetrics(verb));
+            droppedMessages.put(verb, new DroppedMessageMetrics());
             lastDroppedInternal.put(verb, 0);
         }
 
@@ -300,18 +308,38 @@ public final class MessagingService implements MessagingServiceMBean, AsyncConne
                 logger.trace("{} sending {} to {}@{}", ConfigDescriptor.getLocalEndpoint(), message.verb, id, to);
         }
 
-        P2pConnection conn = getConnection(to);
+        int version = getVersion(to);
+        P2pConnection.QueuedMessage qm;
+        try {
+            qm = new P2pConnection.QueuedMessage(message, id, version);
+        } catch (IOException e) {
+            throw DbException.convert(e);
+        }
+        // 老版本的节点每个对等节点只有一条连接
+        Lane lane = Lane.SMALL;
+        if (version >= VERSION_11 && qm.data.length > ConfigDescriptor.getInternodeLargeMessageThreshold()
+                && !SMALL_LANE_VERBS.contains(message.verb))
+            lane = Lane.LARGE;
+        P2pConnection conn = getConnection(to, lane);
         if (conn != null)
-            conn.enqueue(message, id);
+            conn.enqueue(qm);
     }
 
     public P2pConnection getConnection(NetEndpoint remoteEndpoint) {
+        return getConnection(remoteEndpoint, Lane.SMALL);
+    }
+
+    private static String getConnectionKey(String hostAndPort, Lane lane) {
+        return lane == Lane.SMALL ? hostAndPort : hostAndPort + "/" + lane;
+    }
+
+    private P2pConnection getConnection(NetEndpoint remoteEndpoint, Lane lane) {
         remoteEndpoint = ClusterMetaData.getPreferredIP(remoteEndpoint);
-        String remoteHostAndPort = remoteEndpoint.getHostAndPort();
-        P2pConnection conn = connections.get(remoteHostAndPort);
+        String key = getConnectionKey(remoteEndpoint.getHostAndPort(), lane);
+        P2pConnection conn = connections.get(key);
         if (conn == null) {
             synchronized (connections) {
-                conn = connections.get(remoteHostAndPort);
+                conn = connections.get(key);
                 if (conn != null)
                     return conn;
 
@@ -320,8 +348,8 @@ public final class MessagingService implements MessagingServiceMBean, AsyncConne
                 try {
                     conn = (P2pConnection) factory.getNetClient().createConnection(config, remoteEndpoint, this);
                     String localHostAndPort = ConfigDescriptor.getLocalEndpoint().getHostAndPort();
-                    conn.initTransfer(remoteEndpoint, localHostAndPort);
-                    // connections.put(remoteHostAndPort, conn); //调用initTransfer成功后已经加到connections
+                    conn.initTransfer(remoteEndpoint, localHostAndPort, lane);
+                    // connections.put(key, conn); //调用initTransfer成功后已经加到connections
                 } catch (Exception e) {
                     String msg = "Failed to connect " + remoteEndpoint;
                     // TODO 是否不应该立刻移除节点
@@ -342,7 +370,11 @@ public final class MessagingService implements MessagingServiceMBean, AsyncConne
     }
 
     public void reconnect(NetEndpoint old, NetEndpoint to) {
-        getConnection(old).reset(to);
+        for (Lane lane : Lane.values()) {
+            P2pConnection conn = connections.get(getConnectionKey(old.getHostAndPort(), lane));
+            if (conn != null)
+                conn.reset(to);
+        }
     }
 
     /**
@@ -351,7 +383,11 @@ public final class MessagingService implements MessagingServiceMBean, AsyncConne
     public void convict(NetEndpoint ep) {
         if (logger.isDebugEnabled())
             logger.debug("Resetting pool for {}", ep);
-        getConnection(ep).reset();
+        for (Lane lane : Lane.values()) {
+            P2pConnection conn = connections.get(getConnectionKey(ep.getHostAndPort(), lane));
+            if (conn != null)
+                conn.reset();
+        }
     }
 
     public void register(ILatencySubscriber subcriber) {
@@ -402,25 +438,30 @@ public final class MessagingService implements MessagingServiceMBean, AsyncConne
     }
 
     public void addConnection(P2pConnection conn) {
-        P2pConnection oldConn = connections.put(conn.getHostAndPort(), conn);
+        P2pConnection oldConn = connections.put(getConnectionKey(conn.getHostAndPort(), conn.getLane()), conn);
         if (oldConn != null) {
             oldConn.close();
         }
     }
 
-    private void removeConnection(String hostId) {
-        P2pConnection oldConn = connections.remove(hostId);
+    private void removeConnection(String key) {
+        P2pConnection oldConn = connections.remove(key);
         if (oldConn != null) {
             oldConn.close();
         }
     }
 
     public void removeConnection(NetEndpoint ep) {
-        removeConnection(ep.getHostAndPort());
+        for (Lane lane : Lane.values())
+            removeConnection(getConnectionKey(ep.getHostAndPort(), lane));
     }
 
     public void removeConnection(P2pConnection conn) {
-        removeConnection(conn.getHostAndPort());
+        if (conn.getHostAndPort() == null) // 还没有初始化
+            return;
+        // 只移除自己，连接可能已经被同一个对等节点的新连接替换了
+        if (connections.remove(getConnectionKey(conn.getHostAndPort(), conn.getLane()), conn))
+            conn.close();
     }
 
     @Override
@@ -447,7 +488,7 @@ public final class MessagingService implements MessagingServiceMBean, AsyncConne
     public Map<String, Integer> getResponsePendingTasks() {
         Map<String, Integer> pendingTasks = new HashMap<>(connections.size());
         for (P2pConnection conn : connections.values())
-            pendingTasks.put(conn.endpoint().getHostAddress(), conn.getPendingMessages());
+            pendingTasks.merge(conn.endpoint().getHostAddress(), conn.getPendingMessages(), Integer::sum);
         return pendingTasks;
     }
 
@@ -455,7 +496,7 @@ public final class MessagingService implements MessagingServiceMBean, AsyncConne
     public Map<String, Long> getResponseCompletedTasks() {
         Map<String, Long> completedTasks = new HashMap<>(connections.size());
         for (P2pConnection conn : connections.values())
-            completedTasks.put(conn.endpoint().getHostAddress(), conn.getCompletedMesssages());
+            completedTasks.merge(conn.endpoint().getHostAddress(), conn.getCompletedMesssages(), Long::sum);
         return completedTasks;
     }
 
@@ -476,7 +517,7 @@ public final class MessagingService implements MessagingServiceMBean, AsyncConne
     public Map<String, Long> getTimeoutsPerHost() {
         Map<String, Long> result = new HashMap<>(connections.size());
         for (P2pConnection conn : connections.values()) {
-            result.put(conn.endpoint().getHostAddress(), conn.getTimeouts());
+            result.merge(conn.endpoint().getHostAddress(), conn.getTimeouts(), Long::sum);
         }
         return result;
     }
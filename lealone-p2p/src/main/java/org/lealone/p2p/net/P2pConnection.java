@@ -17,10 +17,17 @@
  */
 package org.lealone.p2p.net;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.lealone.common.compress.CompressTool;
 import org.lealone.common.logging.Logger;
 import org.lealone.common.logging.LoggerFactory;
 import org.lealone.common.util.JVMStabilityInspector;
@@ -37,6 +44,23 @@ public class P2pConnection extends TransferConnection {
 
     private static final Logger logger = LoggerFactory.getLogger(P2pConnection.class);
 
+    /**
+     * 每个对等节点有两条连接，gossip和普通的小消息走SMALL，大消息走LARGE，
+     * 这样gossip心跳不会排在大消息后面，从而避免节点被误判为宕机。
+     */
+    public static enum Lane {
+        SMALL,
+        LARGE;
+    }
+
+    // 待发送的消息先放到队列，由一个线程合并成一个协议包后再发送
+    private final ConcurrentLinkedQueue<QueuedMessage> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean writing = new AtomicBoolean();
+    private final AtomicInteger pendingMessages = new AtomicInteger();
+    private final AtomicLong completedMessages = new AtomicLong();
+    private final AtomicLong droppedMessages = new AtomicLong();
+
+    private Lane lane = Lane.SMALL;
     private String hostAndPort;
     private NetEndpoint remoteEndpoint;
     private NetEndpoint resetEndpoint; // pointer to the reset Address.
@@ -51,6 +75,10 @@ public class P2pConnection extends TransferConnection {
         return hostAndPort;
     }
 
+    public Lane getLane() {
+        return lane;
+    }
+
     @Override
     protected void handleRequest(Transfer transfer, int id, int operation) throws IOException {
         switch (operation) {
@@ -62,19 +90,26 @@ public class P2pConnection extends TransferConnection {
             receiveMessage(transfer, id);
             break;
         }
+        case Session.COMMAND_P2P_MESSAGES: {
+            receiveMessages(transfer);
+            break;
+        }
         default:
             logger.warn("Unknow operation: {}", operation);
             close();
         }
     }
 
-    synchronized void initTransfer(NetEndpoint remoteEndpoint, String localHostAndPort) throws Exception {
+    synchronized void initTransfer(NetEndpoint remoteEndpoint, String localHostAndPort, Lane lane)
+            throws Exception {
         if (this.remoteEndpoint == null) {
             this.remoteEndpoint = remoteEndpoint;
+            this.lane = lane;
             resetEndpoint = ClusterMetaData.getPreferredIP(remoteEndpoint);
             // metrics = new ConnectionMetrics(remoteEndpoint);
             hostAndPort = remoteEndpoint.getHostAndPort();
-            version = MessagingService.instance().getVersion(ConfigDescriptor.getLocalEndpoint());
+            // 用跟对方协商好的版本，老版本的节点不认识lane字段和合并后的消息包
+            version = MessagingService.instance().getVersion(remoteEndpoint);
             writeInitPacket(localHostAndPort);
             MessagingService.instance().addConnection(this);
         }
@@ -87,6 +122,8 @@ public class P2pConnection extends TransferConnection {
         transfer.writeInt(MessagingService.PROTOCOL_MAGIC);
         transfer.writeInt(version);
         transfer.writeString(localHostAndPort);
+        if (version >= MessagingService.VERSION_11)
+            transfer.writeInt(lane.ordinal());
         // AsyncCallback<Void> ac = new AsyncCallback<>();
         // transfer.addAsyncCallback(packetId, ac);
         transfer.flush();
@@ -98,6 +135,8 @@ public class P2pConnection extends TransferConnection {
             MessagingService.validateMagic(transfer.readInt());
             version = transfer.readInt();
             hostAndPort = transfer.readString();
+            if (version >= MessagingService.VERSION_11)
+                lane = Lane.values()[transfer.readInt()];
             remoteEndpoint = NetEndpoint.createP2P(hostAndPort);
             resetEndpoint = ClusterMetaData.getPreferredIP(remoteEndpoint);
             // metrics = new ConnectionMetrics(remoteEndpoint);
@@ -109,40 +148,117 @@ public class P2pConnection extends TransferConnection {
         }
     }
 
-    void enqueue(MessageOut<?> message, int id) {
-        QueuedMessage qm = new QueuedMessage(message, id);
-        try {
-            sendMessage(message, id, qm.timestamp);
-        } catch (IOException e) {
-            JVMStabilityInspector.inspectThrowable(e);
+    void enqueue(QueuedMessage qm) {
+        queue.add(qm);
+        pendingMessages.incrementAndGet();
+        // 只有一个线程负责写，其他线程把消息放到队列后就返回，
+        // 正在写的线程会把并发放入的消息合并到同一个协议包中
+        while (!queue.isEmpty() && writing.compareAndSet(false, true)) {
+            try {
+                writeQueuedMessages();
+            } catch (Throwable e) {
+                JVMStabilityInspector.inspectThrowable(e);
+            } finally {
+                writing.set(false);
+            }
         }
     }
 
-    // 不需要加synchronized，因为会创建新的临时DataOutputStream
-    private void sendMessage(MessageOut<?> message, int id, long timestamp) throws IOException {
+    private void writeQueuedMessages() throws IOException {
+        int maxCoalescedBytes = ConfigDescriptor.getInternodeMaxCoalescedBytes();
+        QueuedMessage qm = queue.poll();
+        while (qm != null) {
+            ArrayList<QueuedMessage> messages = new ArrayList<>();
+            int bytes = 0;
+            do {
+                pendingMessages.decrementAndGet();
+                if (qm.isTimedOut(qm.message.getTimeout())) {
+                    droppedMessages.incrementAndGet();
+                    MessagingService.instance().incrementDroppedMessages(qm.message.verb);
+                } else {
+                    messages.add(qm);
+                    bytes += qm.data.length;
+                }
+                qm = queue.poll();
+            } while (qm != null && bytes < maxCoalescedBytes);
+            if (!messages.isEmpty())
+                sendMessages(messages);
+        }
+    }
+
+    private void sendMessages(ArrayList<QueuedMessage> messages) throws IOException {
         checkClosed();
+        if (version < MessagingService.VERSION_11) {
+            for (QueuedMessage qm : messages)
+                sendMessage(qm);
+            completedMessages.addAndGet(messages.size());
+            return;
+        }
         Transfer transfer = new Transfer(this, writableChannel);
         DataOutputStream out = transfer.getDataOutputStream();
-        transfer.writeRequestHeaderWithoutSessionId(id, Session.COMMAND_P2P_MESSAGE);
+        transfer.writeRequestHeaderWithoutSessionId(0, Session.COMMAND_P2P_MESSAGES);
         out.writeInt(MessagingService.PROTOCOL_MAGIC);
+        out.writeInt(messages.size());
+        for (QueuedMessage qm : messages) {
+            out.writeInt(qm.id);
+            // int cast cuts off the high-order half of the timestamp, which we can assume remains
+            // the same between now and when the recipient reconstructs it.
+            out.writeInt((int) qm.timestamp);
+            out.writeBoolean(qm.compressed);
+            out.writeInt(qm.data.length);
+            out.write(qm.data);
+        }
+        transfer.flush();
+        completedMessages.addAndGet(messages.size());
+    }
 
-        // int cast cuts off the high-order half of the timestamp, which we can assume remains
-        // the same between now and when the recipient reconstructs it.
-        out.writeInt((int) timestamp);
-        message.serialize(transfer, out, version);
+    // 老版本的节点只认识COMMAND_P2P_MESSAGE，每个消息单独发送，并且不压缩
+    private void sendMessage(QueuedMessage qm) throws IOException {
+        Transfer transfer = new Transfer(this, writableChannel);
+        DataOutputStream out = transfer.getDataOutputStream();
+        transfer.writeRequestHeaderWithoutSessionId(qm.id, Session.COMMAND_P2P_MESSAGE);
+        out.writeInt(MessagingService.PROTOCOL_MAGIC);
+        out.writeInt((int) qm.timestamp);
+        // 入队时对方的版本还未知，按新版本压缩过了
+        out.write(qm.compressed ? CompressTool.getInstance().expand(qm.data) : qm.data);
         transfer.flush();
     }
 
+    private void receiveMessages(Transfer transfer) throws IOException {
+        DataInputStream in = transfer.getDataInputStream();
+        MessagingService.validateMagic(in.readInt());
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int id = in.readInt();
+            long timestamp = getTimestamp(in.readInt());
+            boolean compressed = in.readBoolean();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            if (compressed)
+                data = CompressTool.getInstance().expand(data);
+            MessageIn<?> message = MessageIn.read(new DataInputStream(new ByteArrayInputStream(data)), version,
+                    id);
+            deliver(message, id, timestamp);
+        }
+    }
+
     private void receiveMessage(Transfer transfer, int id) throws IOException {
         DataInputStream in = transfer.getDataInputStream();
         MessagingService.validateMagic(in.readInt());
-        long timestamp = System.currentTimeMillis();
         // make sure to readInt, even if cross_node_to is not enabled
-        int partial = in.readInt();
+        long timestamp = getTimestamp(in.readInt());
+        MessageIn<?> message = MessageIn.read(in, version, id);
+        deliver(message, id, timestamp);
+    }
+
+    private static long getTimestamp(int partial) {
+        long timestamp = System.currentTimeMillis();
         if (ConfigDescriptor.hasCrossNodeTimeout())
             timestamp = (timestamp & 0xFFFFFFFF00000000L) | (((partial & 0xFFFFFFFFL) << 2) >> 2);
+        return timestamp;
+    }
 
-        MessageIn<?> message = MessageIn.read(in, version, id);
+    private static void deliver(MessageIn<?> message, int id, long timestamp) {
         if (message != null) {
             MessageDeliveryTask task = new MessageDeliveryTask(message, id, timestamp);
             AsyncTaskHandlerFactory.getAsyncTaskHandler().handle(task);
@@ -171,6 +287,8 @@ public class P2pConnection extends TransferConnection {
     @Override
     public void close() {
         super.close();
+        queue.clear();
+        pendingMessages.set(0);
         reset();
     }
 
@@ -193,12 +311,28 @@ public class P2pConnection extends TransferConnection {
         final int id;
         final long timestamp;
         final boolean droppable;
+        final byte[] data; // 在发送线程中序列化好，写线程只需要复制字节
+        final boolean compressed;
 
-        QueuedMessage(MessageOut<?> message, int id) {
+        QueuedMessage(MessageOut<?> message, int id, int version) throws IOException {
             this.message = message;
             this.id = id;
             this.timestamp = System.currentTimeMillis();
             this.droppable = MessagingService.DROPPABLE_VERBS.contains(message.verb);
+
+            byte[] data = message.toByteArray(version);
+            boolean compressed = false;
+            String algorithm = ConfigDescriptor.getInternodeCompression();
+            if (algorithm != null && version >= MessagingService.VERSION_11
+                    && data.length >= ConfigDescriptor.getInternodeCompressionThreshold()) {
+                byte[] compressedData = CompressTool.getInstance().compress(data, algorithm);
+                if (compressedData.length < data.length) {
+                    data = compressedData;
+                    compressed = true;
+                }
+            }
+            this.data = data;
+            this.compressed = compressed;
         }
 
         /** don't drop a non-droppable message just because it's timestamp is expired */
@@ -211,18 +345,15 @@ public class P2pConnection extends TransferConnection {
         }
     }
 
-    // TODO
     int getPendingMessages() {
-        return 0;
+        return pendingMessages.get();
     }
 
-    // TODO
     long getCompletedMesssages() {
-        return 0;
+        return completedMessages.get();
     }
 
-    // TODO
     long getDroppedMessages() {
-        return 0;
+        return droppedMessages.get();
     }
 }
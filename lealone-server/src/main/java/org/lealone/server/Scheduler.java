@@ -24,6 +24,7 @@ import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.lealone.common.concurrent.ScheduledExecutors;
 import org.lealone.common.logging.Logger;
@@ -38,6 +39,7 @@ import org.lealone.sql.PreparedStatement;
 import org.lealone.sql.SQLStatementExecutor;
 import org.lealone.storage.PageOperation;
 import org.lealone.storage.PageOperationHandler;
+import org.lealone.storage.PageOperationMetrics;
 import org.lealone.transaction.Transaction;
 
 public class Scheduler extends Thread
@@ -63,6 +65,11 @@ public class Scheduler extends Thread
             this.si = si;
         }
 
+        // 非预编译的批量更新没有对应的语句
+        int getPriority() {
+            return stmt != null ? stmt.getPriority() : PreparedStatement.NORM_PRIORITY;
+        }
+
         void execute() {
             // 如果因为某些原因导致主动让出CPU，那么先放到队列末尾等待重新从中断处执行。
             if (yieldable.run()) {
@@ -128,6 +135,9 @@ public class Scheduler extends Thread
     }
 
     private final ConcurrentLinkedQueue<PageOperation> pageOperationQueue = new ConcurrentLinkedQueue<>();
+    // ConcurrentLinkedQueue.size()要遍历整个队列，所以单独计数
+    private final AtomicLong pageOperationSize = new AtomicLong();
+    private final PageOperationMetrics pageOperationMetrics = new PageOperationMetrics();
     private final CopyOnWriteArrayList<SessionInfo> sessions = new CopyOnWriteArrayList<>();
 
     private final ConcurrentLinkedQueue<AsyncTask> minPriorityQueue = new ConcurrentLinkedQueue<>();
@@ -190,11 +200,14 @@ public class Scheduler extends Thread
     private void runPageOperationTasks() {
         PageOperation po = pageOperationQueue.poll();
         while (po != null) {
+            long queueSize = pageOperationSize.decrementAndGet();
+            long start = System.nanoTime();
             try {
                 po.run(this);
             } catch (Throwable e) {
                 logger.warn("Failed to run page operation: " + po, e);
             }
+            pageOperationMetrics.record(start, queueSize);
             po = pageOperationQueue.poll();
         }
     }
@@ -206,12 +219,18 @@ public class Scheduler extends Thread
 
     @Override
     public long getLoad() {
-        return maxPriorityQueue.size() + minPriorityQueue.size() + normPriorityQueue.size() + pageOperationQueue.size()
+        return maxPriorityQueue.size() + minPriorityQueue.size() + normPriorityQueue.size() + pageOperationSize.get()
                 + sessions.size();
     }
 
+    @Override
+    public PageOperationMetrics getMetrics() {
+        return pageOperationMetrics;
+    }
+
     @Override
     public void handlePageOperation(PageOperation po) {
+        pageOperationSize.incrementAndGet();
         pageOperationQueue.add(po);
         wakeUp();
     }
@@ -353,9 +372,9 @@ public class Scheduler extends Thread
                 }
             }
 
-            if (pc.stmt.getPriority() > priority) {
+            if (pc.getPriority() > priority) {
                 bestQueue = preparedCommands;
-                priority = pc.stmt.getPriority();
+                priority = pc.getPriority();
             }
         }
 
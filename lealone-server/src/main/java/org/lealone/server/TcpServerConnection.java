@@ -22,7 +22,6 @@ import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
@@ -41,6 +40,7 @@ import org.lealone.db.DataBuffer;
 import org.lealone.db.Session;
 import org.lealone.db.SysProperties;
 import org.lealone.db.api.ErrorCode;
+import org.lealone.db.async.AsyncResult;
 import org.lealone.db.async.AsyncTask;
 import org.lealone.db.result.Result;
 import org.lealone.db.value.Value;
@@ -58,6 +58,7 @@ import org.lealone.storage.LobStorage;
 import org.lealone.storage.PageKey;
 import org.lealone.storage.StorageMap;
 import org.lealone.storage.type.StorageDataType;
+import org.lealone.transaction.TransactionMap;
 
 /**
  * 这里只处理客户端通过TCP连到服务器端后的协议，可以在一个TCP连接中打开多个session
@@ -285,6 +286,18 @@ public class TcpServerConnection extends TransferConnection {
         }
     }
 
+    private void sendBatchResult(Transfer transfer, Session session, int id, AsyncResult<int[]> ar) {
+        if (ar.isSucceeded()) {
+            try {
+                writeBatchResult(transfer, session, id, ar.getResult());
+            } catch (Exception e) {
+                sendError(transfer, id, e);
+            }
+        } else {
+            sendError(transfer, id, ar.getCause());
+        }
+    }
+
     private static void writeBatchResult(Transfer transfer, Session session, int id, int[] result) throws IOException {
         writeResponseHeader(transfer, session, id);
         for (int i = 0; i < result.length; i++)
@@ -627,6 +640,37 @@ public class TcpServerConnection extends TransferConnection {
             transfer.flush();
             break;
         }
+        case Session.COMMAND_STORAGE_ADD_IF_ABSENT:
+        case Session.COMMAND_STORAGE_DISTRIBUTED_TRANSACTION_ADD_IF_ABSENT:
+        case Session.COMMAND_STORAGE_REMOVE:
+        case Session.COMMAND_STORAGE_DISTRIBUTED_TRANSACTION_REMOVE: {
+            boolean isAdd = operation == Session.COMMAND_STORAGE_ADD_IF_ABSENT
+                    || operation == Session.COMMAND_STORAGE_DISTRIBUTED_TRANSACTION_ADD_IF_ABSENT;
+            boolean isDistributed = operation == Session.COMMAND_STORAGE_DISTRIBUTED_TRANSACTION_ADD_IF_ABSENT
+                    || operation == Session.COMMAND_STORAGE_DISTRIBUTED_TRANSACTION_REMOVE;
+            String mapName = transfer.readString();
+            byte[] key = transfer.readBytes();
+            byte[] value = isAdd ? transfer.readBytes() : null;
+            if (isDistributed) {
+                session.setAutoCommit(false);
+                session.setRoot(false);
+            }
+            session.setReplicationName(transfer.readString());
+
+            TransactionMap<Object, Object> map = (TransactionMap<Object, Object>) session.getStorageMap(mapName);
+            Object k = map.getKeyType().read(ByteBuffer.wrap(key));
+            boolean result;
+            if (isAdd)
+                result = map.addIfAbsentSync(k, map.getValueType().read(ByteBuffer.wrap(value)));
+            else
+                result = map.tryRemoveIfPresent(k);
+            writeResponseHeader(transfer, session, id);
+            if (isDistributed)
+                transfer.writeString(session.getTransaction().getLocalTransactionNames());
+            transfer.writeBoolean(result);
+            transfer.flush();
+            break;
+        }
         case Session.COMMAND_STORAGE_DISTRIBUTED_TRANSACTION_GET:
         case Session.COMMAND_STORAGE_GET: {
             String mapName = transfer.readString();
@@ -717,6 +761,20 @@ public class TcpServerConnection extends TransferConnection {
             transfer.flush();
             break;
         }
+        case Session.COMMAND_EXECUTE_SERVICE: {
+            String serviceName = transfer.readString();
+            int methodId = transfer.readInt();
+            int size = transfer.readInt();
+            Value[] methodArgs = new Value[size];
+            for (int i = 0; i < size; i++) {
+                methodArgs[i] = transfer.readValue();
+            }
+            Value result = session.executeService(serviceName, methodId, methodArgs);
+            writeResponseHeader(transfer, session, id);
+            transfer.writeValue(result);
+            transfer.flush();
+            break;
+        }
         case Session.COMMAND_GET_META_DATA: {
             int objectId = transfer.readInt();
             PreparedStatement command = (PreparedStatement) cache.getObject(id, false);
@@ -763,37 +821,28 @@ public class TcpServerConnection extends TransferConnection {
         }
         case Session.COMMAND_BATCH_STATEMENT_UPDATE: {
             int size = transfer.readInt();
-            int[] result = new int[size];
-            for (int i = 0; i < size; i++) {
-                String sql = transfer.readString();
-                PreparedStatement command = session.prepareStatement(sql, -1);
-                try {
-                    result[i] = command.executeUpdate();
-                } catch (Exception e) {
-                    result[i] = Statement.EXECUTE_FAILED;
-                }
-            }
-            writeBatchResult(transfer, session, id, result);
+            List<String> batchCommands = new ArrayList<>(size);
+            for (int i = 0; i < size; i++)
+                batchCommands.add(transfer.readString());
+            YieldableBatchUpdate yieldable = new YieldableBatchUpdate(session, batchCommands,
+                    ar -> sendBatchResult(transfer, session, id, ar));
+            addPreparedCommandToQueue(transfer, id, session, sessionId, null, yieldable);
             break;
         }
         case Session.COMMAND_BATCH_STATEMENT_PREPARED_UPDATE: {
             int size = transfer.readInt();
             PreparedStatement command = (PreparedStatement) cache.getObject(id, false);
-            List<? extends CommandParameter> params = command.getParameters();
-            int paramsSize = params.size();
-            int[] result = new int[size];
+            int paramsSize = command.getParameters().size();
+            List<Value[]> batchParameters = new ArrayList<>(size);
             for (int i = 0; i < size; i++) {
-                for (int j = 0; j < paramsSize; j++) {
-                    CommandParameter p = params.get(j);
-                    p.setValue(transfer.readValue());
-                }
-                try {
-                    result[i] = command.executeUpdate();
-                } catch (Exception e) {
-                    result[i] = Statement.EXECUTE_FAILED;
-                }
+                Value[] values = new Value[paramsSize];
+                for (int j = 0; j < paramsSize; j++)
+                    values[j] = transfer.readValue();
+                batchParameters.add(values);
             }
-            writeBatchResult(transfer, session, id, result);
+            YieldableBatchUpdate yieldable = new YieldableBatchUpdate(session, command, batchParameters,
+                    ar -> sendBatchResult(transfer, session, id, ar));
+            addPreparedCommandToQueue(transfer, id, session, sessionId, command, yieldable);
             break;
         }
         case Session.COMMAND_CLOSE: {
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.server;
+
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.lealone.db.CommandParameter;
+import org.lealone.db.Session;
+import org.lealone.db.SessionStatus;
+import org.lealone.db.async.AsyncHandler;
+import org.lealone.db.async.AsyncResult;
+import org.lealone.db.value.Value;
+import org.lealone.sql.PreparedStatement;
+import org.lealone.storage.PageKey;
+
+/**
+ * JDBC的批量更新，跟普通的语句一样放到session的命令队列中由Scheduler调度执行，
+ * 每执行完一条语句都可以让出Scheduler，不会因为一个大的批量更新阻塞其他session的命令。
+ *
+ * 预编译的单行INSERT先尝试合并成一条多行INSERT执行，只需要按批写索引和提交一次事务，
+ * 失败时回滚整条语句，然后再逐条执行，这样每条记录的执行结果跟逐条执行时是一样的。
+ *
+ * @author zhh
+ */
+class YieldableBatchUpdate implements PreparedStatement.Yieldable<int[]> {
+
+    // 逐条执行时每执行这么多条语句就让出一次Scheduler
+    private static final int YIELD_INTERVAL = 64;
+
+    private final Session session;
+    private final PreparedStatement command; // 非预编译的批量更新为null
+    private final List<String> batchCommands;
+    private final List<Value[]> batchParameters;
+    private final AsyncHandler<AsyncResult<int[]>> asyncHandler;
+    private final int size;
+    private final int[] result;
+    private final AtomicInteger completed = new AtomicInteger();
+
+    private PreparedStatement batchStatement;
+    private PreparedStatement.Yieldable<?> current;
+    private boolean batchFailed;
+    private int index;
+
+    YieldableBatchUpdate(Session session, List<String> batchCommands, AsyncHandler<AsyncResult<int[]>> asyncHandler) {
+        this(session, null, batchCommands, null, asyncHandler);
+    }
+
+    YieldableBatchUpdate(Session session, PreparedStatement command, List<Value[]> batchParameters,
+            AsyncHandler<AsyncResult<int[]>> asyncHandler) {
+        this(session, command, null, batchParameters, asyncHandler);
+    }
+
+    private YieldableBatchUpdate(Session session, PreparedStatement command, List<String> batchCommands,
+            List<Value[]> batchParameters, AsyncHandler<AsyncResult<int[]>> asyncHandler) {
+        this.session = session;
+        this.command = command;
+        this.batchCommands = batchCommands;
+        this.batchParameters = batchParameters;
+        this.asyncHandler = asyncHandler;
+        size = command != null ? batchParameters.size() : batchCommands.size();
+        result = new int[size];
+        if (command != null && size > 1)
+            batchStatement = command.createBatchStatement(batchParameters);
+    }
+
+    @Override
+    public boolean run() {
+        if (size == 0) {
+            complete();
+            return false;
+        }
+        if (batchStatement != null) {
+            if (current == null) {
+                current = batchStatement.createYieldableUpdate(ar -> {
+                    if (ar.isSucceeded()) {
+                        for (int i = 0; i < size; i++)
+                            result[i] = 1;
+                        complete();
+                    } else {
+                        batchFailed = true;
+                    }
+                });
+            }
+            boolean yield;
+            try {
+                yield = current.run();
+            } catch (Throwable t) {
+                yield = false;
+                batchFailed = true;
+            }
+            if (yield)
+                return true;
+            current = null;
+            batchStatement = null;
+            if (!batchFailed)
+                return false;
+        }
+        int count = 0;
+        while (index < size) {
+            if (current == null) {
+                // 等前一条语句的事务提交完成后再执行下一条
+                if (session.getStatus() == SessionStatus.COMMITTING_TRANSACTION || count >= YIELD_INTERVAL)
+                    return true;
+                current = createYieldableUpdate(index);
+                if (current == null) {
+                    index++;
+                    continue;
+                }
+            }
+            boolean yield;
+            try {
+                yield = current.run();
+            } catch (Throwable t) {
+                yield = false;
+                setResult(index, Statement.EXECUTE_FAILED);
+            }
+            if (yield)
+                return true;
+            current = null;
+            index++;
+            count++;
+        }
+        return false;
+    }
+
+    private PreparedStatement.Yieldable<?> createYieldableUpdate(int i) {
+        PreparedStatement stmt;
+        try {
+            if (command != null) {
+                stmt = command;
+                List<? extends CommandParameter> params = command.getParameters();
+                Value[] values = batchParameters.get(i);
+                for (int j = 0, len = params.size(); j < len; j++) {
+                    params.get(j).setValue(values[j]);
+                }
+            } else {
+                stmt = session.prepareStatement(batchCommands.get(i), -1);
+            }
+        } catch (Throwable t) {
+            setResult(i, Statement.EXECUTE_FAILED);
+            return null;
+        }
+        return stmt.createYieldableUpdate(ar -> {
+            setResult(i, ar.isSucceeded() ? ar.getResult() : Statement.EXECUTE_FAILED);
+        });
+    }
+
+    private void setResult(int i, int updateCount) {
+        result[i] = updateCount;
+        if (completed.incrementAndGet() == size)
+            complete();
+    }
+
+    // 在自动提交模式下最后一条语句的结果要等事务提交后才回调，所以可能在其他线程中调用
+    private void complete() {
+        AsyncResult<int[]> ar = new AsyncResult<>();
+        ar.setResult(result);
+        asyncHandler.handle(ar);
+    }
+
+    @Override
+    public int[] getResult() {
+        return result;
+    }
+
+    @Override
+    public void setPageKeys(List<PageKey> pageKeys) {
+    }
+}
@@ -45,6 +45,7 @@ import org.lealone.db.schema.FunctionAlias;
 import org.lealone.db.schema.Schema;
 import org.lealone.db.schema.Sequence;
 import org.lealone.db.table.Column;
+import org.lealone.db.table.ColumnStatistics;
 import org.lealone.db.table.CreateTableData;
 import org.lealone.db.table.DummyTable;
 import org.lealone.db.table.IndexColumn;
@@ -529,6 +530,9 @@ public class Parser implements SQLParser {
         Backup command = new Backup(session);
         read("TO");
         command.setFileName(readExpression());
+        if (readIf("LAST_DATE")) {
+            command.setLastDate(readExpression());
+        }
         return command;
     }
 
@@ -3765,6 +3769,9 @@ public class Parser implements SQLParser {
             int value = readPositiveInt();
             column.setSelectivity(value);
         }
+        if (readIf("STATISTICS")) {
+            column.setStatistics(parseColumnStatistics(column));
+        }
         String comment = readCommentIf();
         if (comment != null) {
             column.setComment(comment);
@@ -3772,6 +3779,49 @@ public class Parser implements SQLParser {
         return column;
     }
 
+    // 格式见ColumnStatistics.getSQL()
+    private ColumnStatistics parseColumnStatistics(Column column) {
+        read("(");
+        read("ROWS");
+        long rows = readLong();
+        read("NULLS");
+        long nulls = readLong();
+        read("DISTINCT");
+        long distinct = readLong();
+        ArrayList<Value> values = Utils.newSmallArrayList();
+        ArrayList<Long> counts = Utils.newSmallArrayList();
+        if (readIf("VALUES")) {
+            read("(");
+            do {
+                values.add(readStatisticsValue(column));
+                counts.add(readLong());
+            } while (readIf(","));
+            read(")");
+        }
+        Value[] histogram = null;
+        if (readIf("HISTOGRAM")) {
+            ArrayList<Value> bounds = Utils.newSmallArrayList();
+            read("(");
+            do {
+                bounds.add(readStatisticsValue(column));
+            } while (readIf(","));
+            read(")");
+            histogram = bounds.toArray(new Value[bounds.size()]);
+        }
+        read(")");
+        long[] countArray = new long[counts.size()];
+        for (int i = 0; i < countArray.length; i++) {
+            countArray[i] = counts.get(i);
+        }
+        return new ColumnStatistics(rows, nulls, distinct, values.toArray(new Value[values.size()]), countArray,
+                histogram);
+    }
+
+    private Value readStatisticsValue(Column column) {
+        Expression expr = readExpression().optimize(session);
+        return column.convert(expr.getValue(session));
+    }
+
     private void parseAutoIncrement(Column column) {
         long start = 1, increment = 1;
         if (readIf("(")) {
@@ -4037,6 +4087,10 @@ public class Parser implements SQLParser {
             command.setComment(readCommentIf());
             read("(");
             command.setIndexColumns(parseIndexColumnList());
+            if (readIf("INCLUDE")) {
+                read("(");
+                command.setIncludeColumns(parseColumnList());
+            }
 
             if (readIf("USING")) {
                 if (hash) {
@@ -4052,6 +4106,9 @@ public class Parser implements SQLParser {
 
             }
             command.setHash(hash);
+            if (readIf("PARAMETERS")) {
+                command.setParameters(parseParameters());
+            }
             return command;
         }
     }
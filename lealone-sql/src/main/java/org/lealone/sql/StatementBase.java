@@ -10,6 +10,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 
 import org.lealone.common.exceptions.DbException;
 import org.lealone.common.trace.Trace;
@@ -18,7 +19,9 @@ import org.lealone.db.CommandParameter;
 import org.lealone.db.CommandUpdateResult;
 import org.lealone.db.Constants;
 import org.lealone.db.Database;
+import org.lealone.db.QueryStatisticsData;
 import org.lealone.db.ServerSession;
+import org.lealone.db.StatementCounters;
 import org.lealone.db.SysProperties;
 import org.lealone.db.api.DatabaseEventListener;
 import org.lealone.db.api.ErrorCode;
@@ -72,6 +75,7 @@ public abstract class StatementBase implements PreparedStatement, ParsedStatemen
 
     private long modificationMetaId;
     private int objectId;
+    private String fingerprint;
     private int currentRowNumber;
     private int rowScanCount;
     private boolean canReuse;
@@ -272,6 +276,18 @@ public abstract class StatementBase implements PreparedStatement, ParsedStatemen
         return sql;
     }
 
+    /**
+     * Get the normalized SQL statement used to group the query statistics.
+     *
+     * @return the fingerprint
+     */
+    public String getFingerprint() {
+        // 同一个语句对象会多次执行，只需要生成一次
+        if (fingerprint == null && sql != null)
+            fingerprint = QueryStatisticsData.getFingerprint(sql);
+        return fingerprint;
+    }
+
     /**
      * Get the object id to use for the database object that is created in this
      * statement. This id is only set when the object is persistent.
@@ -347,8 +363,9 @@ public abstract class StatementBase implements PreparedStatement, ParsedStatemen
      *
      * @param startTimeNanos when the statement was started
      * @param rowCount the query or update row count
+     * @param counters the counters collected during the execution, may be null
      */
-    void trace(long startTimeNanos, int rowCount) {
+    void trace(long startTimeNanos, int rowCount, StatementCounters counters) {
         if (startTimeNanos > 0 && session.getTrace().isInfoEnabled()) {
             long deltaTimeNanos = System.nanoTime() - startTimeNanos;
             String params = Trace.formatParams(getParameters());
@@ -357,8 +374,11 @@ public abstract class StatementBase implements PreparedStatement, ParsedStatemen
 
         // startTimeNanos can be zero for the command that actually turns on statistics
         if (startTimeNanos > 0 && session.getDatabase().getQueryStatistics()) {
-            long deltaTimeNanos = System.nanoTime() - startTimeNanos;
-            session.getDatabase().getQueryStatisticsData().update(getSQL(), deltaTimeNanos, rowCount);
+            QueryStatisticsData data = session.getDatabase().getQueryStatisticsData();
+            if (data != null) { // 可能已经被其他session关掉了
+                long deltaTimeNanos = System.nanoTime() - startTimeNanos;
+                data.update(getFingerprint(), deltaTimeNanos, rowCount, counters);
+            }
         }
     }
 
@@ -605,6 +625,18 @@ public abstract class StatementBase implements PreparedStatement, ParsedStatemen
         return getSQL();
     }
 
+    /**
+     * EXPLAIN ANALYZE在执行语句前调用，让语句在执行时收集各个算子的运行时统计信息，
+     * 然后由getPlanSQL输出。
+     *
+     * @param analyze whether to collect the statistics
+     */
+    public void setAnalyze(boolean analyze) {
+        TableFilter tf = getTableFilter();
+        if (tf != null)
+            tf.visit(f -> f.setAnalyze(analyze));
+    }
+
     @Override
     public YieldableBase<Integer> createYieldableUpdate(AsyncHandler<AsyncResult<Integer>> asyncHandler) {
         return new DefaultYieldableUpdate(this, asyncHandler);
@@ -636,10 +668,13 @@ public abstract class StatementBase implements PreparedStatement, ParsedStatemen
         protected long startTimeNanos;
         protected boolean isUpdate;
         protected boolean callStop = true;
+        protected final StatementCounters counters;
 
         private State state = State.start;
         private int savepointId = 0;
         private long lockStartTime;
+        private long lockWaitStartNanos; // 最近一次遇到锁冲突的时间，重试时清零
+        private long lockWaitTimeNanos; // 每次从锁冲突到下一次重试之间的时间之和
 
         public YieldableBase(StatementBase statement, AsyncHandler<AsyncResult<T>> asyncHandler) {
             this.statement = statement;
@@ -647,6 +682,7 @@ public abstract class StatementBase implements PreparedStatement, ParsedStatemen
             this.trace = session.getDatabase().getTrace(Trace.COMMAND);
             this.asyncHandler = asyncHandler;
             this.async = asyncHandler != null;
+            this.counters = session.getDatabase().getQueryStatistics() ? new StatementCounters() : null;
         }
 
         // 子类通常只需要实现以下三个方法
@@ -666,7 +702,10 @@ public abstract class StatementBase implements PreparedStatement, ParsedStatemen
                     asyncResult = new AsyncResult<>();
                     asyncResult.setResult(result);
                 }
-                statement.trace(startTimeNanos, rowCount);
+                if (counters != null && lockWaitTimeNanos > 0) {
+                    counters.lockWaitTimeNanos = lockWaitTimeNanos;
+                }
+                statement.trace(startTimeNanos, rowCount, counters);
                 setProgress(DatabaseEventListener.STATE_STATEMENT_END);
             }
         }
@@ -683,6 +722,20 @@ public abstract class StatementBase implements PreparedStatement, ParsedStatemen
 
         @Override
         public final boolean run() {
+            if (counters == null)
+                return runSteps();
+            // 语句每执行一步都可能让出线程，所以每一步都要设置和恢复当前线程的计数器，
+            // 存储层通过当前线程的计数器来统计page缓存的命中情况
+            StatementCounters old = StatementCounters.setCurrent(counters);
+            session.setStatementCounters(counters);
+            try {
+                return runSteps();
+            } finally {
+                StatementCounters.setCurrent(old);
+            }
+        }
+
+        private boolean runSteps() {
             switch (state) {
             case start:
                 if (start()) {
@@ -752,6 +805,11 @@ public abstract class StatementBase implements PreparedStatement, ParsedStatemen
             Database database = session.getDatabase();
             try {
                 database.checkPowerOff();
+                if (lockWaitStartNanos > 0) {
+                    // 遇到锁冲突后让出线程，现在重试，重试本身的执行时间不算等待锁的时间
+                    lockWaitTimeNanos += System.nanoTime() - lockWaitStartNanos;
+                    lockWaitStartNanos = 0;
+                }
                 try {
                     return executeInternal();
                 } catch (DbException e) {
@@ -813,6 +871,9 @@ public abstract class StatementBase implements PreparedStatement, ParsedStatemen
                     throw DbException.get(ErrorCode.LOCK_TIMEOUT_1, e.getCause(), "");
                 }
             }
+            if (counters != null) {
+                lockWaitStartNanos = System.nanoTime();
+            }
             lockStartTime = now;
         }
 
@@ -820,6 +881,7 @@ public abstract class StatementBase implements PreparedStatement, ParsedStatemen
             stopInternal();
             session.closeTemporaryResults();
             session.setCurrentCommand(null);
+            session.setStatementCounters(null);
             if (asyncResult != null) {
                 if (session.isAutoCommit() && session.getReplicationName() == null) { // 在复制模式下不能自动提交
                     // 等到事务日志写成功后再返回语句的执行结果
@@ -861,6 +923,8 @@ public abstract class StatementBase implements PreparedStatement, ParsedStatemen
         protected final AtomicInteger pendingOperationCounter = new AtomicInteger();
         protected volatile RuntimeException pendingOperationException;
         protected boolean loopEnd;
+        // 比如全局唯一索引在索引表上执行的嵌套语句，跟当前语句在同一个线程中执行
+        private ArrayList<BooleanSupplier> pendingOperations;
 
         public YieldableListenableUpdateBase(StatementBase statement, AsyncHandler<AsyncResult<Integer>> asyncHandler) {
             super(statement, asyncHandler);
@@ -872,6 +936,8 @@ public abstract class StatementBase implements PreparedStatement, ParsedStatemen
 
         @Override
         protected boolean executeInternal() {
+            if (pendingOperations != null)
+                pendingOperations.removeIf(operation -> !operation.getAsBoolean());
             if (!loopEnd) {
                 if (executeAndListen()) {
                     return true;
@@ -910,6 +976,14 @@ public abstract class StatementBase implements PreparedStatement, ParsedStatemen
         public void setException(RuntimeException e) {
             pendingOperationException = e;
         }
+
+        @Override
+        public boolean addPendingOperation(BooleanSupplier operation) {
+            if (pendingOperations == null)
+                pendingOperations = new ArrayList<>(1);
+            pendingOperations.add(operation);
+            return true;
+        }
     }
 
     public static abstract class YieldableQueryBase extends YieldableBase<Result> {
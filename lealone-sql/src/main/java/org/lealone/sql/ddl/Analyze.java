@@ -13,6 +13,7 @@ import org.lealone.db.ServerSession;
 import org.lealone.db.auth.Right;
 import org.lealone.db.result.Result;
 import org.lealone.db.table.Column;
+import org.lealone.db.table.ColumnStatistics;
 import org.lealone.db.table.Table;
 import org.lealone.db.table.TableType;
 import org.lealone.db.value.Value;
@@ -118,6 +119,8 @@ public class Analyze extends DefinitionStatement {
                 columns[j].setSelectivity(selectivity);
             }
         }
+        // 再按抽样的记录生成直方图等统计信息，跟selectivity一起保存到元数据表中
+        ColumnStatistics.analyze(session, table, sample);
         if (manual) {
             db.updateMeta(session, table);
         } else {
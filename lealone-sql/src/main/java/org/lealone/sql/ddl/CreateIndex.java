@@ -6,6 +6,9 @@
  */
 package org.lealone.sql.ddl;
 
+import java.util.HashSet;
+import java.util.Map;
+
 import org.lealone.common.exceptions.DbException;
 import org.lealone.db.Constants;
 import org.lealone.db.DbObjectType;
@@ -14,6 +17,7 @@ import org.lealone.db.api.ErrorCode;
 import org.lealone.db.auth.Right;
 import org.lealone.db.index.IndexType;
 import org.lealone.db.schema.Schema;
+import org.lealone.db.table.Column;
 import org.lealone.db.table.IndexColumn;
 import org.lealone.db.table.Table;
 import org.lealone.sql.SQLStatement;
@@ -30,9 +34,11 @@ public class CreateIndex extends SchemaStatement {
     private String tableName;
     private String indexName;
     private IndexColumn[] indexColumns;
+    private String[] includeColumnNames;
     private boolean ifNotExists;
     private boolean primaryKey, unique, hash;
     private String comment;
+    private Map<String, String> parameters;
 
     public CreateIndex(ServerSession session, Schema schema) {
         super(session, schema);
@@ -55,6 +61,10 @@ public class CreateIndex extends SchemaStatement {
         this.indexColumns = columns;
     }
 
+    public void setIncludeColumns(String[] includeColumnNames) {
+        this.includeColumnNames = includeColumnNames;
+    }
+
     public void setIfNotExists(boolean ifNotExists) {
         this.ifNotExists = ifNotExists;
     }
@@ -63,6 +73,10 @@ public class CreateIndex extends SchemaStatement {
         this.primaryKey = b;
     }
 
+    public boolean isPrimaryKey() {
+        return primaryKey;
+    }
+
     public void setUnique(boolean b) {
         this.unique = b;
     }
@@ -75,6 +89,10 @@ public class CreateIndex extends SchemaStatement {
         this.comment = comment;
     }
 
+    public void setParameters(Map<String, String> parameters) {
+        this.parameters = parameters;
+    }
+
     @Override
     public int update() {
         Schema schema = getSchema();
@@ -107,12 +125,35 @@ public class CreateIndex extends SchemaStatement {
             } else {
                 indexType = IndexType.createNonUnique(hash);
             }
+            indexType.setParameters(parameters);
             IndexColumn.mapColumns(indexColumns, table);
+            if (includeColumnNames != null) {
+                if (primaryKey || hash) {
+                    throw DbException.getUnsupportedException("INCLUDE columns for primary key or hash index");
+                }
+                indexType.setIncludeColumns(getIncludeColumns(table));
+            }
             table.addIndex(session, indexName, id, indexColumns, indexType, create, comment);
         }
         return 0;
     }
 
+    private Column[] getIncludeColumns(Table table) {
+        HashSet<Column> set = new HashSet<>();
+        for (IndexColumn c : indexColumns) {
+            set.add(c.column);
+        }
+        Column[] columns = new Column[includeColumnNames.length];
+        for (int i = 0; i < columns.length; i++) {
+            Column c = table.getColumn(includeColumnNames[i]);
+            if (!set.add(c)) {
+                throw DbException.get(ErrorCode.DUPLICATE_COLUMN_NAME_1, c.getName());
+            }
+            columns[i] = c;
+        }
+        return columns;
+    }
+
     @Override
     public boolean isReplicationStatement() {
         return true;
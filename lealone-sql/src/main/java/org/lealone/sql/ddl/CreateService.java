@@ -32,6 +32,9 @@ import org.lealone.db.table.CreateTableData;
 import org.lealone.db.table.IndexColumn;
 import org.lealone.db.table.Table;
 import org.lealone.db.value.DataType;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueNull;
+import org.lealone.db.value.ValueString;
 import org.lealone.sql.SQLStatement;
 import org.lealone.sql.optimizer.TableFilter;
 
@@ -305,10 +308,13 @@ public class CreateService extends SchemaStatement {
         StringBuilder buff = new StringBuilder();
         StringBuilder ibuff = new StringBuilder();
         StringBuilder proxyMethodsBuff = new StringBuilder();
+        StringBuilder binaryProxyMethodsBuff = new StringBuilder();
 
         TreeSet<String> importSet = new TreeSet<>();
         importSet.add("io.vertx.core.json.JsonArray");
         importSet.add("org.lealone.client.ClientServiceProxy");
+        importSet.add(Value.class.getName());
+        importSet.add(ValueNull.class.getName());
 
         String serviceName = toClassName(data.tableName);
 
@@ -317,10 +323,16 @@ public class CreateService extends SchemaStatement {
         buff.append("    static ").append(serviceName).append(" create(String url) {\r\n");
         buff.append("        return new Proxy(url);\r\n");
         buff.append("    }\r\n");
+        buff.append("\r\n");
+        buff.append("    static ").append(serviceName).append(" createBinary(String url) {\r\n");
+        buff.append("        return new BinaryProxy(url);\r\n");
+        buff.append("    }\r\n");
 
+        int methodId = 0;
         for (CreateTable m : serviceMethods) {
             buff.append("\r\n");
             proxyMethodsBuff.append("\r\n");
+            binaryProxyMethodsBuff.append("\r\n");
             CreateTableData data = m.data;
             Column returnColumn = data.columns.get(data.columns.size() - 1);
             String returnType = getTypeName(returnColumn, importSet);
@@ -331,6 +343,7 @@ public class CreateService extends SchemaStatement {
             proxyMethodsBuff.append("        public ").append(returnType).append(" ").append(methodName).append("(");
 
             StringBuilder argsBuff = new StringBuilder();
+            StringBuilder valueArgsBuff = new StringBuilder();
             argsBuff.append("            JsonArray ja = new JsonArray();\r\n");
             for (int i = 0, size = data.columns.size() - 1; i < size; i++) {
                 if (i != 0) {
@@ -342,6 +355,7 @@ public class CreateService extends SchemaStatement {
                 String cName = toFieldName(c.getName());
                 buff.append(cType).append(" ").append(cName);
                 proxyMethodsBuff.append(cType).append(" ").append(cName);
+                valueArgsBuff.append(", ").append(getToValueCode(c, cName, importSet));
                 if (c.getTable() != null) {
                     importSet.add("io.vertx.core.json.JsonObject");
                     argsBuff.append("            ja.add(JsonObject.mapFrom(").append(cName).append("));\r\n");
@@ -372,6 +386,23 @@ public class CreateService extends SchemaStatement {
                 proxyMethodsBuff.append("            return null;\r\n");
             }
             proxyMethodsBuff.append("        }\r\n");
+
+            // BinaryProxy的方法与Proxy的方法签名相同，只是按方法id调用，参数和返回值都用Value编码
+            int pos = proxyMethodsBuff.lastIndexOf("        @Override\r\n");
+            int end = proxyMethodsBuff.indexOf("{\r\n", pos) + 3;
+            binaryProxyMethodsBuff.append(proxyMethodsBuff, pos, end);
+            binaryProxyMethodsBuff.append("            ");
+            if (!returnType.equalsIgnoreCase("void")) {
+                binaryProxyMethodsBuff.append("Value result = ");
+            }
+            binaryProxyMethodsBuff.append("ClientServiceProxy.executeService(url, \"").append(this.data.tableName)
+                    .append("\", ").append(methodId).append(valueArgsBuff).append(");\r\n");
+            if (!returnType.equalsIgnoreCase("void")) {
+                binaryProxyMethodsBuff.append("            return ")
+                        .append(getFromValueCode(returnColumn, returnType, "result", importSet)).append(";\r\n");
+            }
+            binaryProxyMethodsBuff.append("        }\r\n");
+            methodId++;
         }
 
         // 生成Proxy类
@@ -385,6 +416,18 @@ public class CreateService extends SchemaStatement {
         buff.append("        }\r\n");
         buff.append(proxyMethodsBuff);
         buff.append("    }\r\n");
+
+        // 生成BinaryProxy类
+        buff.append("\r\n");
+        buff.append("    static class BinaryProxy implements ").append(serviceName).append(" {\r\n");
+        buff.append("\r\n");
+        buff.append("        private final String url;\r\n");
+        buff.append("\r\n");
+        buff.append("        private BinaryProxy(String url) {\r\n");
+        buff.append("            this.url = url;\r\n");
+        buff.append("        }\r\n");
+        buff.append(binaryProxyMethodsBuff);
+        buff.append("    }\r\n");
         buff.append("}\r\n");
 
         ibuff.append("package ").append(packageName).append(";\r\n");
@@ -446,6 +489,15 @@ public class CreateService extends SchemaStatement {
         }
         buff.append("        switch (methodName) {\r\n");
 
+        // 二进制调用路径，按方法id分派
+        StringBuilder binaryBuff = new StringBuilder();
+        importSet.add(Value.class.getName());
+        importSet.add(ValueNull.class.getName());
+        binaryBuff.append("\r\n");
+        binaryBuff.append("    @Override\r\n");
+        binaryBuff.append("    public Value executeService(int methodId, Value[] methodArgs) {\r\n");
+        binaryBuff.append("        switch (methodId) {\r\n");
+
         boolean hasNoReturnValueMethods = false;
         int index = 0;
         for (CreateTable m : serviceMethods) {
@@ -462,6 +514,7 @@ public class CreateService extends SchemaStatement {
             StringBuilder argsBuff = new StringBuilder();
             String methodName = toMethodName(data.tableName);
             buff.append("        case \"").append(data.tableName).append("\":\r\n");
+            binaryBuff.append("        case ").append(index - 1).append(": // ").append(data.tableName).append("\r\n");
             // 有参数，参数放在一个json数组中
             int size = data.columns.size() - 1;
             if (size > 0) {
@@ -469,7 +522,6 @@ public class CreateService extends SchemaStatement {
                 buff.append("            ja = new JsonArray(json);\r\n");
                 for (int i = 0; i < size; i++) {
                     if (i != 0) {
-                        buff.append(", ");
                         argsBuff.append(", ");
                     }
                     Column c = data.columns.get(i);
@@ -477,15 +529,27 @@ public class CreateService extends SchemaStatement {
                     String cName = "p_" + toFieldName(c.getName()) + index;
                     buff.append("            ").append(cType).append(" ").append(cName).append(" = ")
                             .append(getJsonArrayMethodName(cType, i)).append(";\r\n");
+                    binaryBuff.append("            ").append(cType).append(" ").append(cName).append(" = ")
+                            .append(getFromValueCode(c, cType, "methodArgs[" + i + "]", importSet))
+                            .append(";\r\n");
                     argsBuff.append(cName);
                 }
             }
             boolean isVoid = returnType.equalsIgnoreCase("void");
             buff.append("            ");
+            binaryBuff.append("            ");
             if (!isVoid) {
                 buff.append(returnType).append(" ").append(resultVarName).append(" = ");
+                binaryBuff.append(returnType).append(" ").append(resultVarName).append(" = ");
             }
             buff.append("this.s.").append(methodName).append("(").append(argsBuff).append(");\r\n");
+            binaryBuff.append("this.s.").append(methodName).append("(").append(argsBuff).append(");\r\n");
+            if (!isVoid) {
+                binaryBuff.append("            return ")
+                        .append(getToValueCode(returnColumn, resultVarName, importSet)).append(";\r\n");
+            } else {
+                binaryBuff.append("            return ValueNull.INSTANCE;\r\n");
+            }
             if (!isVoid) {
                 buff.append("            if (").append(resultVarName).append(" == null)\r\n");
                 buff.append("                return null;\r\n");
@@ -509,6 +573,12 @@ public class CreateService extends SchemaStatement {
             buff.append("        return NO_RETURN_VALUE;\r\n");
 
         buff.append("    }\r\n");
+
+        binaryBuff.append("        default:\r\n");
+        binaryBuff.append("            throw new RuntimeException(\"no method: \" + methodId);\r\n");
+        binaryBuff.append("        }\r\n");
+        binaryBuff.append("    }\r\n");
+        buff.append(binaryBuff);
         buff.append("}\r\n");
 
         ibuff.append("package ").append(getExecuterPackageName()).append(";\r\n");
@@ -648,6 +718,105 @@ public class CreateService extends SchemaStatement {
         }
     }
 
+    // 生成把java对象转成Value的代码
+    private static String getToValueCode(Column c, String varName, TreeSet<String> importSet) {
+        String code;
+        if (c.getTable() != null) {
+            importSet.add("io.vertx.core.json.JsonObject");
+            importSet.add(ValueString.class.getName());
+            code = "ValueString.get(JsonObject.mapFrom(" + varName + ").encode())";
+        } else {
+            String valueClassName = getValueClassName(c.getType());
+            importSet.add(Value.class.getPackage().getName() + "." + valueClassName);
+            code = valueClassName + ".get(" + varName + ")";
+        }
+        return varName + " == null ? ValueNull.INSTANCE : " + code;
+    }
+
+    // 生成把Value转成java对象的代码，ValueNull对应null
+    private static String getFromValueCode(Column c, String cType, String varName, TreeSet<String> importSet) {
+        String code;
+        if (c.getTable() != null) {
+            importSet.add("io.vertx.core.json.JsonObject");
+            code = "new JsonObject(" + varName + ".getString()).mapTo(" + cType + ".class)";
+        } else {
+            code = varName + "." + getValueGetterName(c.getType()) + "()";
+        }
+        return varName + " == ValueNull.INSTANCE ? null : " + code;
+    }
+
+    private static String getValueClassName(int type) {
+        switch (type) {
+        case Value.BOOLEAN:
+            return "ValueBoolean";
+        case Value.BYTE:
+            return "ValueByte";
+        case Value.SHORT:
+            return "ValueShort";
+        case Value.INT:
+            return "ValueInt";
+        case Value.LONG:
+            return "ValueLong";
+        case Value.DECIMAL:
+            return "ValueDecimal";
+        case Value.TIME:
+            return "ValueTime";
+        case Value.DATE:
+            return "ValueDate";
+        case Value.TIMESTAMP:
+            return "ValueTimestamp";
+        case Value.BYTES:
+        case Value.UUID:
+            return "ValueBytes";
+        case Value.STRING:
+        case Value.STRING_IGNORECASE:
+        case Value.STRING_FIXED:
+            return "ValueString";
+        case Value.DOUBLE:
+            return "ValueDouble";
+        case Value.FLOAT:
+            return "ValueFloat";
+        default:
+            throw DbException.throwInternalError("type=" + type);
+        }
+    }
+
+    private static String getValueGetterName(int type) {
+        switch (type) {
+        case Value.BOOLEAN:
+            return "getBoolean";
+        case Value.BYTE:
+            return "getByte";
+        case Value.SHORT:
+            return "getShort";
+        case Value.INT:
+            return "getInt";
+        case Value.LONG:
+            return "getLong";
+        case Value.DECIMAL:
+            return "getBigDecimal";
+        case Value.TIME:
+            return "getTime";
+        case Value.DATE:
+            return "getDate";
+        case Value.TIMESTAMP:
+            return "getTimestamp";
+        case Value.BYTES:
+        case Value.UUID:
+            return "getBytes";
+        case Value.STRING:
+        case Value.STRING_IGNORECASE:
+        case Value.STRING_FIXED:
+            return "getString";
+        case Value.DOUBLE:
+            return "getDouble";
+        case Value.FLOAT:
+            return "getFloat";
+        default:
+            throw DbException.throwInternalError("type=" + type);
+        }
+    }
+
     private static String m(String str, int i) {
         return str + "(ja.getValue(" + i + ").toString())";
     }
@@ -663,6 +832,7 @@ public class CreateService extends SchemaStatement {
         case "SHORT":
             return m("Short.valueOf", i);
         case "INT":
+        case "INTEGER":
             return m("Integer.valueOf", i);
         case "LONG":
             return m("Long.valueOf", i);
@@ -190,8 +190,14 @@ public class CreateTable extends SchemaStatement {
                 for (Sequence sequence : sequences) {
                     table.addSequence(sequence);
                 }
+                // 有AS SELECT时，二级索引和唯一约束等插入数据后再创建，
+                // 这样创建索引时可以先排序再自底向上构建btree，比逐条插入记录时同步更新索引快得多
+                ArrayList<DefinitionStatement> deferredCommands = new ArrayList<>();
                 for (DefinitionStatement command : constraintCommands) {
-                    command.update();
+                    if (asQuery != null && isIndexCommand(command))
+                        deferredCommands.add(command);
+                    else
+                        command.update();
                 }
                 if (asQuery != null) {
                     Insert insert = new Insert(session);
@@ -200,6 +206,9 @@ public class CreateTable extends SchemaStatement {
                     insert.setInsertFromSelect(true);
                     insert.prepare();
                     insert.update();
+                    for (DefinitionStatement command : deferredCommands) {
+                        command.update();
+                    }
                 }
             } catch (DbException e) {
                 db.checkPowerOff();
@@ -213,6 +222,13 @@ public class CreateTable extends SchemaStatement {
         return 0;
     }
 
+    // primary key需要在插入数据前创建，byte/short/int/long类型的单字段primary key会直接作为rowKey
+    private static boolean isIndexCommand(DefinitionStatement command) {
+        if (command instanceof CreateIndex)
+            return !((CreateIndex) command).isPrimaryKey();
+        return ((AlterTableAddConstraint) command).getType() == SQLStatement.ALTER_TABLE_ADD_CONSTRAINT_UNIQUE;
+    }
+
     private void generateColumnsFromQuery() {
         int columnCount = asQuery.getColumnCount();
         ArrayList<Expression> expressions = asQuery.getExpressions();
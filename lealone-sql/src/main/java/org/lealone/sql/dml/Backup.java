@@ -7,16 +7,18 @@
 package org.lealone.sql.dml;
 
 import org.lealone.db.ServerSession;
+import org.lealone.db.value.Value;
 import org.lealone.sql.SQLStatement;
 import org.lealone.sql.expression.Expression;
 
 /**
  * This class represents the statement
- * BACKUP
+ * BACKUP TO fileName [LAST_DATE lastDate]
  */
 public class Backup extends ManipulationStatement {
 
     private Expression fileNameExpr;
+    private Expression lastDateExpr;
 
     public Backup(ServerSession session) {
         super(session);
@@ -36,12 +38,32 @@ public class Backup extends ManipulationStatement {
         this.fileNameExpr = fileName;
     }
 
+    public void setLastDate(Expression lastDate) {
+        this.lastDateExpr = lastDate;
+    }
+
     @Override
     public int update() {
         String fileName = fileNameExpr.getValue(session).getString();
         session.getUser().checkAdmin();
-        session.getDatabase().backupTo(fileName);
+        session.getDatabase().backupTo(fileName, getLastDate());
         return 0;
     }
 
+    // 可以是毫秒数，也可以是时间戳
+    private Long getLastDate() {
+        if (lastDateExpr == null)
+            return null;
+        Value v = lastDateExpr.getValue(session);
+        switch (v.getType()) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+            return v.getLong();
+        default:
+            return v.convertTo(Value.TIMESTAMP).getTimestamp().getTime();
+        }
+    }
+
 }
@@ -12,6 +12,7 @@ import java.util.TreeMap;
 
 import org.lealone.db.Database;
 import org.lealone.db.ServerSession;
+import org.lealone.db.StatementCounters;
 import org.lealone.db.result.LocalResult;
 import org.lealone.db.result.Result;
 import org.lealone.db.table.Column;
@@ -77,12 +78,34 @@ public class Explain extends ManipulationStatement {
             String plan;
             if (executeCommand) {
                 db.statisticsStart();
-                if (command.isQuery()) {
-                    command.query(maxRows);
-                } else {
-                    command.update();
+                // 执行时各个算子通过当前线程的计数器统计page缓存命中次数和让出线程的次数
+                StatementCounters counters = new StatementCounters();
+                StatementCounters old = StatementCounters.setCurrent(counters);
+                command.setAnalyze(true);
+                if (command instanceof Query) {
+                    // 每次都要真正执行
+                    ((Query) command).disableCache();
                 }
+                long rowCount;
+                long start = System.nanoTime();
+                try {
+                    if (command.isQuery()) {
+                        rowCount = command.query(maxRows).getRowCount();
+                    } else {
+                        rowCount = command.update();
+                    }
+                } finally {
+                    StatementCounters.setCurrent(old);
+                }
+                long nanos = System.nanoTime() - start;
                 plan = command.getPlanSQL();
+                command.setAnalyze(false);
+                StringBuilder summary = new StringBuilder("\n/* total: rows: ").append(rowCount);
+                summary.append(", time: ").append(nanos / 1000 / 1000d).append(" ms");
+                summary.append(", page cache hits: ").append(counters.pageCacheHits);
+                summary.append(", page cache misses: ").append(counters.pageCacheMisses);
+                summary.append(", yields: ").append(counters.yields).append(" */");
+                plan += summary.toString();
                 Map<String, Integer> statistics = db.statisticsEnd();
                 if (statistics != null) {
                     int total = 0;
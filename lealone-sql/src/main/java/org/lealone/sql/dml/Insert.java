@@ -7,6 +7,7 @@
 package org.lealone.sql.dml;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import org.lealone.common.exceptions.DbException;
 import org.lealone.common.util.StatementBuilder;
@@ -26,6 +27,7 @@ import org.lealone.sql.PreparedStatement;
 import org.lealone.sql.SQLStatement;
 import org.lealone.sql.expression.Expression;
 import org.lealone.sql.expression.Parameter;
+import org.lealone.sql.expression.ValueExpression;
 
 /**
  * This class represents the statement
@@ -120,6 +122,36 @@ public class Insert extends ManipulationStatement implements ResultTarget {
         return this;
     }
 
+    @Override
+    public PreparedStatement createBatchStatement(List<Value[]> batchParameters) {
+        // 只合并单行VALUES，并且参数只能直接出现在VALUES中，不能是表达式的一部分
+        if (query != null || list.size() != 1 || parameters == null || parameters.isEmpty())
+            return null;
+        Expression[] expr = list.get(0);
+        for (Expression e : expr) {
+            if (e != null && !(e instanceof Parameter) && !e.isConstant())
+                return null;
+        }
+        Insert insert = new Insert(session);
+        insert.setTable(table);
+        insert.setColumns(columns);
+        for (Value[] values : batchParameters) {
+            Expression[] row = new Expression[expr.length];
+            for (int i = 0; i < expr.length; i++) {
+                Expression e = expr[i];
+                if (e instanceof Parameter)
+                    row[i] = ValueExpression.get(values[((Parameter) e).getIndex()]);
+                else
+                    row[i] = e;
+            }
+            insert.addRow(row);
+        }
+        insert.setParameterList(new ArrayList<>(0));
+        insert.setSQL(getSQL());
+        insert.setLocal(isLocal());
+        return insert.prepare();
+    }
+
     @Override
     public int update() {
         // 以同步的方式运行
@@ -211,6 +243,12 @@ public class Insert extends ManipulationStatement implements ResultTarget {
         return rowNumber;
     }
 
+    @Override
+    public void setAnalyze(boolean analyze) {
+        if (query != null)
+            query.setAnalyze(analyze);
+    }
+
     @Override
     public String getPlanSQL() {
         StatementBuilder buff = new StatementBuilder("INSERT INTO ");
@@ -275,12 +313,17 @@ public class Insert extends ManipulationStatement implements ResultTarget {
 
     private static class YieldableInsert extends YieldableListenableUpdateBase {
 
+        // 多行VALUES和INSERT ... SELECT攒够这么多行后才按批写入
+        private static final int BATCH_SIZE = 512;
+
         final Insert statement;
         final Table table;
         final int listSize;
 
         int index;
         Result rows;
+        // 没有行级触发器和约束时按批写入，每个索引每一批只需要一次批量写操作
+        ArrayList<Row> batchRows;
 
         public YieldableInsert(Insert statement, AsyncHandler<AsyncResult<Integer>> asyncHandler) {
             super(statement, asyncHandler);
@@ -298,6 +341,9 @@ public class Insert extends ManipulationStatement implements ResultTarget {
                 table.lock(session, true, false);
                 rows = statement.query.query(0);
             }
+            if ((rows != null || listSize > 1) && !table.hasRowTriggersOrChecks()) {
+                batchRows = new ArrayList<>(rows != null ? BATCH_SIZE : Math.min(BATCH_SIZE, listSize));
+            }
             return false;
         }
 
@@ -332,17 +378,23 @@ public class Insert extends ManipulationStatement implements ResultTarget {
                     }
                     affectedRows++;
                     table.validateConvertUpdateSequence(session, newRow);
-                    boolean done = table.fireBeforeRow(session, null, newRow); // INSTEAD OF触发器会返回true
-                    if (!done) {
-                        // 直到事务commit或rollback时才解琐，见ServerSession.unlockAll()
-                        table.lock(session, true, false);
-                        if (async)
-                            table.tryAddRow(session, newRow, this);
-                        else
-                            table.addRow(session, newRow);
-                        table.fireAfterRow(session, null, newRow, false);
+                    if (batchRows != null) {
+                        addBatchRow(newRow);
+                    } else {
+                        boolean done = table.fireBeforeRow(session, null, newRow); // INSTEAD OF触发器会返回true
+                        if (!done) {
+                            // 直到事务commit或rollback时才解琐，见ServerSession.unlockAll()
+                            table.lock(session, true, false);
+                            if (async)
+                                table.tryAddRow(session, newRow, this);
+                            else
+                                table.addRow(session, newRow);
+                            table.fireAfterRow(session, null, newRow, false);
+                        }
                     }
                     if (async && yieldIfNeeded) {
+                        index++;
+                        flushBatchRows();
                         return true;
                     }
                 }
@@ -362,22 +414,47 @@ public class Insert extends ManipulationStatement implements ResultTarget {
                         }
                     }
                     table.validateConvertUpdateSequence(session, newRow);
-                    boolean done = table.fireBeforeRow(session, null, newRow);
-                    if (!done) {
-                        if (async)
-                            table.tryAddRow(session, newRow, this);
-                        else
-                            table.addRow(session, newRow);
-                        table.fireAfterRow(session, null, newRow, false);
+                    if (batchRows != null) {
+                        addBatchRow(newRow);
+                    } else {
+                        boolean done = table.fireBeforeRow(session, null, newRow);
+                        if (!done) {
+                            if (async)
+                                table.tryAddRow(session, newRow, this);
+                            else
+                                table.addRow(session, newRow);
+                            table.fireAfterRow(session, null, newRow, false);
+                        }
                     }
                     if (async && yieldIfNeeded) {
+                        flushBatchRows();
                         return true;
                     }
                 }
                 rows.close();
             }
+            flushBatchRows();
             loopEnd = true;
             return false;
         }
+
+        private void addBatchRow(Row newRow) {
+            batchRows.add(newRow);
+            if (batchRows.size() >= BATCH_SIZE) {
+                flushBatchRows();
+            }
+        }
+
+        private void flushBatchRows() {
+            if (batchRows == null || batchRows.isEmpty())
+                return;
+            // 直到事务commit或rollback时才解琐，见ServerSession.unlockAll()
+            table.lock(session, true, false);
+            if (async)
+                table.tryAddRows(session, batchRows, this);
+            else
+                table.addRows(session, batchRows);
+            batchRows = new ArrayList<>(BATCH_SIZE);
+        }
     }
 }
@@ -249,6 +249,12 @@ public class Merge extends ManipulationStatement {
         }
     }
 
+    @Override
+    public void setAnalyze(boolean analyze) {
+        if (query != null)
+            query.setAnalyze(analyze);
+    }
+
     @Override
     public String getPlanSQL() {
         StatementBuilder buff = new StatementBuilder("MERGE INTO ");
@@ -282,6 +282,10 @@ public abstract class Query extends ManipulationStatement implements org.lealone
         this.sampleSizeExpr = sampleSize;
     }
 
+    public Expression getSampleSize() {
+        return sampleSizeExpr;
+    }
+
     /**
      * Get the sample size, if set.
      *
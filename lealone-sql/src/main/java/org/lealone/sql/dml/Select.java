@@ -43,14 +43,17 @@ import org.lealone.db.value.ValueNull;
 import org.lealone.sql.PreparedStatement;
 import org.lealone.sql.SQLStatement;
 import org.lealone.sql.expression.Calculator;
+import org.lealone.sql.expression.CompiledExpression;
 import org.lealone.sql.expression.Expression;
 import org.lealone.sql.expression.ExpressionColumn;
+import org.lealone.sql.expression.ExpressionCompiler;
 import org.lealone.sql.expression.ExpressionVisitor;
 import org.lealone.sql.expression.Parameter;
 import org.lealone.sql.expression.SelectOrderBy;
 import org.lealone.sql.expression.condition.Comparison;
 import org.lealone.sql.expression.condition.ConditionAndOr;
 import org.lealone.sql.optimizer.ColumnResolver;
+import org.lealone.sql.optimizer.OperatorStatistics;
 import org.lealone.sql.optimizer.Optimizer;
 import org.lealone.sql.optimizer.TableFilter;
 
@@ -88,9 +91,19 @@ public class Select extends Query {
     private double cost;
     private boolean isQuickAggregateQuery, isDistinctQuery, isDistinctQueryForMultiFields;
     private boolean sortUsingIndex;
+    private HashSet<Column> referencedColumns;
 
     private final ResultCache resultCache = new ResultCache();
     private QueryOperator queryOperator;
+    // 以下两个字段只在EXPLAIN ANALYZE时使用，分别统计queryOperator.run和queryOperator.stop(排序、生成结果集)
+    private OperatorStatistics operatorStatistics;
+    private OperatorStatistics resultStatistics;
+
+    // 执行次数达到expressionCompileThreshold后编译where条件和select列表中的表达式
+    private int executeCount;
+    private boolean expressionsCompiled;
+    private CompiledExpression compiledCondition;
+    private Expression[] compiledExpressions;
 
     public Select(ServerSession session) {
         super(session);
@@ -998,10 +1011,25 @@ public class Select extends Query {
                 buff.append("\n/* group sorted */");
             }
         }
+        if (operatorStatistics != null && queryOperator != null) {
+            StringBuilder s = new StringBuilder("\n/* ");
+            s.append(queryOperator.getClass().getSimpleName()).append(": ");
+            operatorStatistics.appendTo(s).append(" */");
+            s.append("\n/* result: ");
+            resultStatistics.appendTo(s).append(" */");
+            buff.append(s.toString());
+        }
         // buff.append("\n/* cost: " + cost + " */");
         return buff.toString();
     }
 
+    @Override
+    public void setAnalyze(boolean analyze) {
+        super.setAnalyze(analyze);
+        operatorStatistics = analyze ? new OperatorStatistics() : null;
+        resultStatistics = analyze ? new OperatorStatistics() : null;
+    }
+
     @Override
     public int getColumnCount() {
         return visibleColumnCount;
@@ -1209,16 +1237,37 @@ public class Select extends Query {
         return topTableFilter;
     }
 
+    public boolean isForUpdate() {
+        return isForUpdate;
+    }
+
+    // 选择索引时就要用到，所以不能依赖expressionArray，字段集合在prepare之后不再变化，只需要算一次
     public HashSet<Column> getReferencedColumns() {
-        int len = expressionArray.length;
-        HashSet<Column> columnSet = new HashSet<>(len);
-        for (int i = 0; i < len; i++) {
-            expressionArray[i].getColumns(columnSet);
+        if (referencedColumns == null) {
+            int len = expressions.size();
+            HashSet<Column> columnSet = new HashSet<>(len);
+            for (int i = 0; i < len; i++) {
+                expressions.get(i).getColumns(columnSet);
+            }
+            if (condition != null)
+                condition.getColumns(columnSet);
+            for (TableFilter f : topFilters) {
+                getFilterColumns(f, columnSet);
+            }
+            referencedColumns = columnSet;
         }
-        if (condition != null)
-            condition.getColumns(columnSet);
+        return referencedColumns;
+    }
 
-        return columnSet;
+    // outer join的ON条件和TableFilter自己的过滤条件不在condition中
+    private static void getFilterColumns(TableFilter f, HashSet<Column> columnSet) {
+        for (; f != null; f = f.getJoin()) {
+            if (f.getJoinCondition() != null)
+                f.getJoinCondition().getColumns(columnSet);
+            if (f.getFilterCondition() != null)
+                f.getFilterCondition().getColumns(columnSet);
+            getFilterColumns(f.getNestedJoin(), columnSet);
+        }
     }
 
     // test only
@@ -1237,7 +1286,39 @@ public class Select extends Query {
         return resultCache.getResult(maxRows, target, false);
     }
 
+    private void compileExpressions() {
+        int threshold = session.getDatabase().getSettings().expressionCompileThreshold;
+        if (threshold <= 0 || ++executeCount < threshold) {
+            return;
+        }
+        expressionsCompiled = true;
+        if (condition != null) {
+            compiledCondition = ExpressionCompiler.compileCondition(session, condition);
+        }
+        // 只有QueryFlat会用到编译后的select列表
+        if (!isQuickAggregateQuery && !isGroupQuery && !isDistinctQuery && !isDistinctQueryForMultiFields) {
+            int size = expressions.size();
+            Expression[] array = new Expression[size];
+            boolean compiled = false;
+            for (int i = 0; i < size; i++) {
+                Expression e = ExpressionCompiler.compileExpression(session, expressions.get(i));
+                if (e != null) {
+                    compiled = true;
+                } else {
+                    e = expressions.get(i);
+                }
+                array[i] = e;
+            }
+            if (compiled) {
+                compiledExpressions = array;
+            }
+        }
+    }
+
     private LocalResult queryWithoutCache(int maxRows, ResultTarget target, boolean async) {
+        if (!expressionsCompiled) {
+            compileExpressions();
+        }
         // 按JDBC规范的要求，当调用java.sql.Statement.setMaxRows时，
         // 如果maxRows是0，表示不限制行数，相当于没有调用过setMaxRows一样，
         // 如果小余0，已经在客户端抛了无效参数异常，所以这里统一处理: 当limitRows小于0时表示不限制行数。
@@ -1317,8 +1398,20 @@ public class Select extends Query {
         queryOperator.async = async;
         queryOperator.start();
         if (!async) {
-            queryOperator.run();
-            queryOperator.stop();
+            if (operatorStatistics == null) {
+                queryOperator.run();
+                queryOperator.stop();
+            } else {
+                operatorStatistics.reset();
+                operatorStatistics.start();
+                queryOperator.run();
+                operatorStatistics.stop(queryOperator.rowNumber);
+                resultStatistics.reset();
+                resultStatistics.start();
+                queryOperator.stop();
+                LocalResult r = queryOperator.localResult;
+                resultStatistics.stop(r == null ? 0 : r.getRowCount());
+            }
             return queryOperator.localResult;
         }
         return null;
@@ -1478,8 +1571,14 @@ public class Select extends Query {
         int sampleSize;
         boolean loopEnd;
         boolean async;
+        Expression condition; // where条件，可能是编译后的
 
         void start() {
+            condition = Select.this.condition;
+            // 编译后又加了新的条件(比如视图的条件)时，编译后的条件就不能用了
+            if (compiledCondition != null && compiledCondition.getExpression() == condition) {
+                condition = compiledCondition;
+            }
             limitRows = maxRows;
             // 并不会按offset先跳过前面的行数，而是limitRows加上offset，读够limitRows+offset行，然后再从result中跳
             // 因为可能需要排序，offset是相对于最后的结果来说的，而不是排序前的结果
@@ -1526,6 +1625,7 @@ public class Select extends Query {
     private class QueryFlat extends QueryOperator {
         @Override
         void run() {
+            Expression[] columns = compiledExpressions;
             while (topTableFilter.next()) {
                 boolean yieldIfNeeded = setCurrentRowNumber(rowNumber + 1);
                 if (condition == null || Boolean.TRUE.equals(condition.getBooleanValue(session))) {
@@ -1536,7 +1636,7 @@ public class Select extends Query {
                     }
                     Value[] row = new Value[columnCount];
                     for (int i = 0; i < columnCount; i++) {
-                        Expression expr = expressions.get(i);
+                        Expression expr = columns != null ? columns[i] : expressions.get(i);
                         row[i] = expr.getValue(session);
                     }
                     result.addRow(row);
@@ -347,6 +347,12 @@ public class SelectUnion extends Query implements ISelectUnion {
         }
     }
 
+    @Override
+    public void setAnalyze(boolean analyze) {
+        left.setAnalyze(analyze);
+        right.setAnalyze(analyze);
+    }
+
     @Override
     public String getPlanSQL() {
         StringBuilder buff = new StringBuilder();
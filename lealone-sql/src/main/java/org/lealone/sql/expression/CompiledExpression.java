@@ -0,0 +1,225 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.sql.expression;
+
+import org.lealone.db.ServerSession;
+import org.lealone.db.value.Value;
+import org.lealone.sql.optimizer.ColumnResolver;
+import org.lealone.sql.optimizer.TableFilter;
+
+/**
+ * 用ExpressionCompiler生成的java类来计算的表达式。
+ * 
+ * 除了getValue和getBooleanValue，其他方法都转给原来的表达式，所以执行计划、列信息等都跟原来一样。
+ * 生成的代码遇到编译时没有预料到的情况(比如参数的类型变了、整数溢出)时会返回DEOPT，
+ * 这时退回到原来的表达式解释执行，次数太多时就不再使用生成的代码。
+ */
+public class CompiledExpression extends Expression {
+
+    private static final int MAX_DEOPTS = 64;
+
+    /**
+     * 生成的类的父类。
+     */
+    public abstract static class Evaluator {
+
+        /**
+         * 生成的代码无法处理当前行，需要解释执行。
+         */
+        public static final int DEOPT = 2;
+
+        /**
+         * 生成的代码中不能编译的子表达式，包括字段、参数等，按下标引用。
+         */
+        protected Expression[] e;
+
+        /**
+         * 整数常量和浮点数常量。
+         */
+        protected long[] l;
+        protected double[] c;
+
+        void init(Expression[] expressions, long[] longs, double[] doubles) {
+            this.e = expressions;
+            this.l = longs;
+            this.c = doubles;
+        }
+
+        /**
+         * 计算条件表达式。
+         *
+         * @param session the session
+         * @return 1表示true，0表示false，-1表示null，或者DEOPT
+         */
+        public int test(ServerSession session) {
+            return DEOPT;
+        }
+
+        /**
+         * 计算表达式的值。
+         *
+         * @param session the session
+         * @return 表达式的值，返回null表示需要解释执行
+         */
+        public Value getValue(ServerSession session) {
+            return null;
+        }
+    }
+
+    private final Expression expr;
+    private final boolean condition;
+    private Evaluator evaluator;
+    private int deopts;
+
+    CompiledExpression(Expression expr, boolean condition, Evaluator evaluator) {
+        this.expr = expr;
+        this.condition = condition;
+        this.evaluator = evaluator;
+    }
+
+    public Expression getExpression() {
+        return expr;
+    }
+
+    public boolean isCompiled() {
+        return evaluator != null;
+    }
+
+    private void deopt() {
+        if (++deopts >= MAX_DEOPTS) {
+            evaluator = null;
+        }
+    }
+
+    @Override
+    public Value getValue(ServerSession session) {
+        Evaluator evaluator = this.evaluator;
+        if (evaluator != null && !condition) {
+            Value v = evaluator.getValue(session);
+            if (v != null) {
+                return v;
+            }
+            deopt();
+        }
+        return expr.getValue(session);
+    }
+
+    @Override
+    public Boolean getBooleanValue(ServerSession session) {
+        Evaluator evaluator = this.evaluator;
+        if (evaluator != null && condition) {
+            switch (evaluator.test(session)) {
+            case 1:
+                return Boolean.TRUE;
+            case 0:
+                return Boolean.FALSE;
+            case -1:
+                return null;
+            default:
+                deopt();
+            }
+        }
+        return expr.getBooleanValue(session);
+    }
+
+    @Override
+    public int getType() {
+        return expr.getType();
+    }
+
+    @Override
+    public void mapColumns(ColumnResolver resolver, int level) {
+        expr.mapColumns(resolver, level);
+    }
+
+    @Override
+    public Expression optimize(ServerSession session) {
+        // 重新优化后表达式树可能变了，生成的代码就不能再用了
+        return expr.optimize(session);
+    }
+
+    @Override
+    public void setEvaluatable(TableFilter tableFilter, boolean value) {
+        expr.setEvaluatable(tableFilter, value);
+    }
+
+    @Override
+    public int getScale() {
+        return expr.getScale();
+    }
+
+    @Override
+    public long getPrecision() {
+        return expr.getPrecision();
+    }
+
+    @Override
+    public int getDisplaySize() {
+        return expr.getDisplaySize();
+    }
+
+    @Override
+    public String getSQL(boolean isDistributed) {
+        return expr.getSQL(isDistributed);
+    }
+
+    @Override
+    public void updateAggregate(ServerSession session) {
+        expr.updateAggregate(session);
+    }
+
+    @Override
+    public boolean isEverything(ExpressionVisitor visitor) {
+        return expr.isEverything(visitor);
+    }
+
+    @Override
+    public int getCost() {
+        return expr.getCost();
+    }
+
+    @Override
+    public String getColumnName() {
+        return expr.getColumnName();
+    }
+
+    @Override
+    public String getSchemaName() {
+        return expr.getSchemaName();
+    }
+
+    @Override
+    public String getTableName() {
+        return expr.getTableName();
+    }
+
+    @Override
+    public int getNullable() {
+        return expr.getNullable();
+    }
+
+    @Override
+    public String getAlias() {
+        return expr.getAlias();
+    }
+
+    @Override
+    public Expression getNonAliasExpression() {
+        return expr.getNonAliasExpression();
+    }
+}
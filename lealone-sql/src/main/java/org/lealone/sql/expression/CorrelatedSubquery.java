@@ -0,0 +1,421 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.sql.expression;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+
+import org.lealone.common.exceptions.DbException;
+import org.lealone.common.util.SmallLRUCache;
+import org.lealone.db.Database;
+import org.lealone.db.ServerSession;
+import org.lealone.db.index.Cursor;
+import org.lealone.db.result.Row;
+import org.lealone.db.table.Table;
+import org.lealone.db.value.CompareMode;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueArray;
+import org.lealone.db.value.ValueBoolean;
+import org.lealone.db.value.ValueNull;
+import org.lealone.sql.dml.Query;
+import org.lealone.sql.dml.Select;
+import org.lealone.sql.expression.condition.Comparison;
+import org.lealone.sql.expression.condition.ConditionAndOr;
+import org.lealone.sql.optimizer.TableFilter;
+
+/**
+ * 执行依赖外层查询的子查询(EXISTS、IN(SELECT ...)和标量子查询)时使用，避免每一条外层记录都执行一次子查询。
+ *
+ * <p>
+ * 1. 按外层列的值缓存子查询的结果，外层列的值重复时直接返回缓存的结果。
+ * <p>
+ * 2. 对于只通过等值条件跟外层查询关联的单表EXISTS和IN子查询，
+ * 当逐行执行子查询的累计代价超过扫描一遍内表的代价时，扫描一遍内表建立hash表，
+ * 之后每条外层记录只需要在hash表中查找一次，相当于hash semi join，NOT EXISTS、NOT IN就是anti join。
+ *
+ * <p>
+ * 缓存只在同一个session的同一次语句执行中有效，数据有变化时也会失效。
+ */
+public class CorrelatedSubquery {
+
+    public static final int EXISTS = 0;
+    public static final int IN = 1;
+    public static final int SCALAR = 2;
+
+    private final Query query;
+    private final int type;
+
+    private boolean initialized;
+    private boolean disabled;
+    private ExpressionColumn[] outerColumns;
+    private int cacheSize;
+
+    // 以下字段用于hash semi join，innerKeys跟outerKeys一一对应，都是等值条件的两边
+    private TableFilter innerFilter;
+    private Expression[] innerKeys;
+    private Expression[] outerKeys;
+    private int[] keyTypes;
+    private Expression[] innerConditions;
+    private Expression inColumn; // IN(SELECT ...)的select列
+    private int inColumnType;
+    private double lookupCost;
+
+    private ServerSession lastSession;
+    private long lastCommandId;
+    private long lastModificationDataId;
+    private SmallLRUCache<Value, Value> cache;
+    private Value lastKey;
+    private int evaluations;
+    private boolean hashTableFailed;
+    private HashMap<Value, InValues> hashTable;
+
+    public CorrelatedSubquery(Query query, int type) {
+        this.query = query;
+        this.type = type;
+    }
+
+    /**
+     * 尝试从缓存或hash表中得到子查询的结果。
+     * 返回null时调用者需要自己执行子查询，然后调用{@link #setValue(Value)}把结果放入缓存。
+     *
+     * @param session the session
+     * @param left IN(SELECT ...)左边的值，其他类型的子查询是null
+     * @return the result or null
+     */
+    public Value getValue(ServerSession session, Value left) {
+        lastKey = null;
+        if (!initialized) {
+            init(session);
+        }
+        if (disabled) {
+            return null;
+        }
+        Database db = session.getDatabase();
+        if (lastSession != session || lastCommandId != session.getCurrentCommandId()
+                || lastModificationDataId != db.getModificationDataId()) {
+            lastSession = session;
+            lastCommandId = session.getCurrentCommandId();
+            lastModificationDataId = db.getModificationDataId();
+            cache = null;
+            hashTable = null;
+            hashTableFailed = false;
+            evaluations = 0;
+        }
+        if (hashTable == null && innerFilter != null && !hashTableFailed) {
+            // 逐行执行子查询的代价累计超过扫描一遍内表时再建hash表，这样内表很大而外层记录很少时不会变慢
+            evaluations++;
+            if (evaluations * lookupCost >= innerFilter.getTable().getRowCountApproximation()) {
+                buildHashTable(session);
+            }
+        }
+        if (hashTable != null) {
+            Value v = probe(session, left);
+            if (v != null)
+                return v;
+        }
+        if (cacheSize <= 0) {
+            return null;
+        }
+        int len = outerColumns.length;
+        Value[] values = new Value[left == null ? len : len + 1];
+        for (int i = 0; i < len; i++) {
+            values[i] = outerColumns[i].getValue(session);
+        }
+        if (left != null) {
+            values[len] = left;
+        }
+        Value key = ValueArray.get(values);
+        if (cache != null) {
+            Value v = cache.get(key);
+            if (v != null) {
+                return v;
+            }
+        }
+        lastKey = key;
+        return null;
+    }
+
+    /**
+     * 缓存调用者自己执行子查询得到的结果，必须紧跟在返回null的{@link #getValue(ServerSession, Value)}之后调用。
+     *
+     * @param value the result of the subquery
+     */
+    public void setValue(Value value) {
+        if (lastKey != null) {
+            if (cache == null) {
+                cache = SmallLRUCache.newInstance(cacheSize);
+            }
+            cache.put(lastKey, value);
+            lastKey = null;
+        }
+    }
+
+    private void init(ServerSession session) {
+        initialized = true;
+        Database db = session.getDatabase();
+        if (!db.getSettings().optimizeCorrelatedSubqueries
+                || !query.isEverything(ExpressionVisitor.DETERMINISTIC_VISITOR)) {
+            disabled = true;
+            return;
+        }
+        LinkedHashSet<ExpressionColumn> set = new LinkedHashSet<>();
+        query.isEverything(ExpressionVisitor.getOuterColumnsVisitor(set));
+        // 不依赖外层查询的子查询由Query自己的结果缓存处理
+        if (set.isEmpty()) {
+            disabled = true;
+            return;
+        }
+        // 子查询只通过这些列读取外层查询的值，所以可以用它们的值作为缓存的key，
+        // 但是忽略大小写的字符串值相等时，子查询的结果不一定相同
+        for (ExpressionColumn c : set) {
+            if (c.getType() == Value.STRING_IGNORECASE) {
+                disabled = true;
+                return;
+            }
+        }
+        outerColumns = set.toArray(new ExpressionColumn[0]);
+        cacheSize = db.getSettings().subqueryCacheSize;
+        if (type != SCALAR && db.getCompareMode().getName().equals(CompareMode.OFF)) {
+            initHashSemiJoin();
+        }
+    }
+
+    private void initHashSemiJoin() {
+        if (!(query instanceof Select)) {
+            return;
+        }
+        Select select = (Select) query;
+        if (select.isGroupQuery() || select.isForUpdate() || select.getLimit() != null || select.getOffset() != null
+                || select.getSampleSize() != null || select.getCondition() == null) {
+            return;
+        }
+        ArrayList<TableFilter> filters = select.getTopFilters();
+        if (filters.size() != 1) {
+            return;
+        }
+        TableFilter filter = filters.get(0);
+        if (filter.getJoin() != null || filter.getNestedJoin() != null) {
+            return;
+        }
+        Expression inColumn = null;
+        if (type == IN) {
+            inColumn = select.getExpressions().get(0);
+            if (hasOuterColumns(inColumn) || !isHashable(inColumn.getType())) {
+                return;
+            }
+        }
+        ArrayList<Expression> conditions = new ArrayList<>();
+        addConditions(select.getCondition(), conditions);
+        ArrayList<Expression> innerKeys = new ArrayList<>();
+        ArrayList<Expression> outerKeys = new ArrayList<>();
+        ArrayList<Expression> innerConditions = new ArrayList<>();
+        for (Expression e : conditions) {
+            if (!hasOuterColumns(e)) {
+                innerConditions.add(e);
+                continue;
+            }
+            if (!(e instanceof Comparison) || ((Comparison) e).getCompareType() != Comparison.EQUAL) {
+                return;
+            }
+            Expression left = ((Comparison) e).getLeft();
+            Expression right = ((Comparison) e).getRight();
+            if (isOuterOnly(left, filter) && !hasOuterColumns(right)) {
+                innerKeys.add(right);
+                outerKeys.add(left);
+            } else if (isOuterOnly(right, filter) && !hasOuterColumns(left)) {
+                innerKeys.add(left);
+                outerKeys.add(right);
+            } else {
+                return;
+            }
+        }
+        int size = innerKeys.size();
+        int[] keyTypes = new int[size];
+        for (int i = 0; i < size; i++) {
+            int t = Value.getHigherOrder(innerKeys.get(i).getType(), outerKeys.get(i).getType());
+            if (!isHashable(t)) {
+                return;
+            }
+            keyTypes[i] = t;
+        }
+        // 内表的记录数由buildHashTable按满足内层条件的记录数来限制
+        if (size == 0) {
+            return;
+        }
+        this.innerFilter = filter;
+        this.innerKeys = innerKeys.toArray(new Expression[size]);
+        this.outerKeys = outerKeys.toArray(new Expression[size]);
+        this.keyTypes = keyTypes;
+        this.innerConditions = innerConditions.toArray(new Expression[0]);
+        this.inColumn = inColumn;
+        if (inColumn != null)
+            inColumnType = inColumn.getType();
+        lookupCost = Math.max(1, query.getCost());
+    }
+
+    private static void addConditions(Expression e, ArrayList<Expression> conditions) {
+        if (e instanceof ConditionAndOr && ((ConditionAndOr) e).getAndOrType() == ConditionAndOr.AND) {
+            addConditions(((ConditionAndOr) e).getLeft(), conditions);
+            addConditions(((ConditionAndOr) e).getRight(), conditions);
+        } else {
+            conditions.add(e);
+        }
+    }
+
+    // 子查询中的表达式所在的层级比子查询本身高一层
+    private static boolean hasOuterColumns(Expression e) {
+        HashSet<ExpressionColumn> set = new HashSet<>();
+        e.isEverything(ExpressionVisitor.getOuterColumnsVisitor(set).incrementQueryLevel(1));
+        return !set.isEmpty();
+    }
+
+    private static boolean isOuterOnly(Expression e, TableFilter innerFilter) {
+        return hasOuterColumns(e) && e.isEverything(ExpressionVisitor.getNotFromResolverVisitor(innerFilter))
+                && e.isEverything(ExpressionVisitor.DETERMINISTIC_VISITOR);
+    }
+
+    // 这些类型的Value在equals和hashCode上跟比较的结果一致
+    private static boolean isHashable(int type) {
+        switch (type) {
+        case Value.BOOLEAN:
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+        case Value.DATE:
+        case Value.TIME:
+        case Value.TIMESTAMP:
+        case Value.STRING:
+        case Value.UUID:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private void buildHashTable(ServerSession session) {
+        HashMap<Value, InValues> hashTable = new HashMap<>();
+        int maxRows = session.getDatabase().getMaxMemoryRows();
+        Table table = innerFilter.getTable();
+        try {
+            Cursor cursor = table.getScanIndex(session).find(session, null, null);
+            while (cursor.next()) {
+                Row row = cursor.get();
+                innerFilter.set(row);
+                if (!isTrue(session)) {
+                    continue;
+                }
+                Value key = getKey(session, innerKeys);
+                if (key == null) {
+                    continue;
+                }
+                InValues values = hashTable.get(key);
+                if (values == null) {
+                    if (hashTable.size() >= maxRows) {
+                        hashTableFailed = true;
+                        return;
+                    }
+                    // EXISTS只需要知道有没有，所有的key共用一个空的InValues
+                    values = inColumn == null ? EMPTY : new InValues();
+                    hashTable.put(key, values);
+                }
+                if (inColumn != null) {
+                    Value v = inColumn.getValue(session);
+                    if (v == ValueNull.INSTANCE) {
+                        values.hasNull = true;
+                    } else {
+                        values.add(v.convertTo(inColumnType));
+                    }
+                }
+            }
+        } catch (DbException e) {
+            // 逐行执行子查询时不一定会遇到这样的记录，所以不能直接抛出异常，改用原来的方式
+            hashTableFailed = true;
+            return;
+        } finally {
+            innerFilter.set(null);
+        }
+        this.hashTable = hashTable;
+    }
+
+    private boolean isTrue(ServerSession session) {
+        for (Expression e : innerConditions) {
+            if (!Boolean.TRUE.equals(e.getBooleanValue(session))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 只要有一个值是NULL，等值条件就不成立，返回null
+    private Value getKey(ServerSession session, Expression[] keys) {
+        int len = keys.length;
+        if (len == 1) {
+            Value v = keys[0].getValue(session);
+            return v == ValueNull.INSTANCE ? null : v.convertTo(keyTypes[0]);
+        }
+        Value[] values = new Value[len];
+        for (int i = 0; i < len; i++) {
+            Value v = keys[i].getValue(session);
+            if (v == ValueNull.INSTANCE) {
+                return null;
+            }
+            values[i] = v.convertTo(keyTypes[i]);
+        }
+        return ValueArray.get(values);
+    }
+
+    private Value probe(ServerSession session, Value left) {
+        InValues values;
+        try {
+            Value key = getKey(session, outerKeys);
+            values = key == null ? null : hashTable.get(key);
+        } catch (DbException e) {
+            // 类型转换失败时让子查询自己去处理
+            return null;
+        }
+        if (type == EXISTS) {
+            return ValueBoolean.get(values != null);
+        }
+        // 跟ConditionInSelect的语义保持一致
+        if (values == null) {
+            return ValueBoolean.get(false);
+        } else if (left == ValueNull.INSTANCE) {
+            return left;
+        }
+        if (values.contains(left.convertTo(inColumnType))) {
+            return ValueBoolean.get(true);
+        }
+        if (values.hasNull) {
+            return ValueNull.INSTANCE;
+        }
+        return ValueBoolean.get(false);
+    }
+
+    /**
+     * 内表中关联条件的值相同的那些记录在IN(SELECT ...)的select列上的值
+     */
+    private static class InValues extends HashSet<Value> {
+        private static final long serialVersionUID = 1L;
+        boolean hasNull;
+    }
+
+    private static final InValues EMPTY = new InValues();
+}
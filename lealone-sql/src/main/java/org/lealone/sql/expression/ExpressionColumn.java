@@ -327,6 +327,11 @@ public class ExpressionColumn extends Expression {
         case ExpressionVisitor.GET_COLUMNS:
             visitor.addColumn(column);
             return true;
+        case ExpressionVisitor.GET_OUTER_COLUMNS:
+            // 跟INDEPENDENT相反，属于外层查询的列
+            if (this.queryLevel >= visitor.getQueryLevel())
+                visitor.addOuterColumn(this);
+            return true;
         default:
             throw DbException.throwInternalError("type=" + visitor.getType());
         }
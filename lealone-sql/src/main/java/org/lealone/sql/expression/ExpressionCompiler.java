@@ -0,0 +1,545 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.sql.expression;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.lealone.common.exceptions.DbException;
+import org.lealone.db.Constants;
+import org.lealone.db.DbObject;
+import org.lealone.db.DbObjectType;
+import org.lealone.db.ServerSession;
+import org.lealone.db.util.SourceCompiler;
+import org.lealone.db.value.Value;
+import org.lealone.sql.expression.condition.Comparison;
+import org.lealone.sql.expression.condition.ConditionAndOr;
+import org.lealone.sql.expression.condition.ConditionNot;
+
+/**
+ * 把表达式树编译成java类，生成的类继承CompiledExpression.Evaluator，用SourceCompiler编译。
+ * 
+ * 只编译AND/OR/NOT、数值比较、IS [NOT] NULL以及整数的加减乘和取负，
+ * 数值都用int/long/double这样的基本类型来计算，不需要为中间结果创建Value对象。
+ * 其他子表达式(字段、参数、函数、字符串比较等)不编译，在生成的代码中直接调用它们的getValue。
+ * 
+ * 常量和不编译的子表达式都放在数组中，生成的代码只跟表达式的结构有关，所以结构相同的表达式只编译一次。
+ * 
+ * 生成的代码遇到溢出等情况时返回DEOPT，再用原来的表达式从头解释执行，不编译的子表达式会被计算两次，
+ * 所以包含NEXT VALUE FOR、RAND、用户自定义函数这类结果不确定或有副作用的子表达式时不编译。
+ */
+public class ExpressionCompiler {
+
+    private static final String PACKAGE_NAME = Constants.USER_PACKAGE + ".expression";
+    private static final AtomicInteger nextClassId = new AtomicInteger();
+
+    // 每个数据库最多缓存这么多编译好的类，超过后清空重来
+    private static final int MAX_COMPILED_CLASSES = 1000;
+    // 编译失败的源代码在缓存中对应的值，避免反复编译
+    private static final Class<?> FAILED = Void.class;
+
+    private final StringBuilder body = new StringBuilder();
+    private final ArrayList<Expression> leaves = new ArrayList<>();
+    private final ArrayList<Long> longs = new ArrayList<>();
+    private final ArrayList<Double> doubles = new ArrayList<>();
+    private final String deopt;
+    private int indent = 2;
+    private int nextVarId;
+    private int compiledNodes;
+
+    private ExpressionCompiler(String deopt) {
+        this.deopt = deopt;
+    }
+
+    /**
+     * 编译where条件，只能用它的getBooleanValue。
+     *
+     * @param session the session
+     * @param condition the condition
+     * @return 编译后的表达式，如果不值得编译或编译失败返回null
+     */
+    public static CompiledExpression compileCondition(ServerSession session, Expression condition) {
+        if (!isDeterministic(condition)) {
+            return null;
+        }
+        ExpressionCompiler c = new ExpressionCompiler("return DEOPT;");
+        String r = c.genBoolean(condition);
+        return c.compile(session, condition, true, "public int test(ServerSession session)", "return " + r + ";");
+    }
+
+    /**
+     * 编译select列表中的一个表达式，目前只编译整数运算。
+     *
+     * @param session the session
+     * @param expr the expression, may be an alias
+     * @return 编译后的表达式，如果不值得编译或编译失败返回null
+     */
+    public static CompiledExpression compileExpression(ServerSession session, Expression expr) {
+        Expression e = expr.getNonAliasExpression();
+        if (!(e instanceof Operation) || !isCompilable((Operation) e) || !isDeterministic(e)) {
+            return null;
+        }
+        ExpressionCompiler c = new ExpressionCompiler("return null;");
+        String v = c.box(c.genNumber(e), e.getType());
+        return c.compile(session, expr, false, "public Value getValue(ServerSession session)", "return " + v + ";");
+    }
+
+    private CompiledExpression compile(ServerSession session, Expression expr, boolean condition, String method,
+            String result) {
+        if (compiledNodes == 0) {
+            return null;
+        }
+        String source = "    " + method + " {\n" + body + "        " + result + "\n    }\n";
+        ConcurrentHashMap<String, Class<?>> compiledClasses = session.getDatabase().getCompiledExpressions();
+        Class<?> clazz = compiledClasses.get(source);
+        if (clazz == FAILED) {
+            return null;
+        }
+        if (clazz == null) {
+            try {
+                clazz = compileClass(session, source);
+            } catch (Throwable t) {
+                // 比如运行环境中没有javac，这时继续解释执行
+                clazz = FAILED;
+                DbException.traceThrowable(t);
+            }
+            if (compiledClasses.size() >= MAX_COMPILED_CLASSES) {
+                compiledClasses.clear();
+            }
+            Class<?> old = compiledClasses.putIfAbsent(source, clazz);
+            if (old != null) {
+                clazz = old;
+            }
+            if (clazz == FAILED) {
+                return null;
+            }
+        }
+        CompiledExpression.Evaluator evaluator;
+        try {
+            evaluator = (CompiledExpression.Evaluator) clazz.getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            throw DbException.convert(e);
+        }
+        long[] longArray = new long[longs.size()];
+        for (int i = 0; i < longArray.length; i++) {
+            longArray[i] = longs.get(i);
+        }
+        double[] doubleArray = new double[doubles.size()];
+        for (int i = 0; i < doubleArray.length; i++) {
+            doubleArray[i] = doubles.get(i);
+        }
+        evaluator.init(leaves.toArray(new Expression[leaves.size()]), longArray, doubleArray);
+        return new CompiledExpression(expr, condition, evaluator);
+    }
+
+    private static Class<?> compileClass(ServerSession session, String method) throws ClassNotFoundException {
+        String className = "Expression" + nextClassId.incrementAndGet();
+        StringBuilder buff = new StringBuilder();
+        buff.append("package ").append(PACKAGE_NAME).append(";\n\n");
+        buff.append("import java.math.BigDecimal;\n");
+        buff.append("import org.lealone.db.ServerSession;\n");
+        buff.append("import org.lealone.db.value.*;\n");
+        buff.append("import org.lealone.sql.expression.CompiledExpression;\n\n");
+        buff.append("public class ").append(className).append(" extends CompiledExpression.Evaluator {\n");
+        buff.append(method);
+        buff.append("}\n");
+        String fullClassName = PACKAGE_NAME + "." + className;
+        SourceCompiler compiler = session.getDatabase().getCompiler();
+        synchronized (compiler) {
+            compiler.setSource(fullClassName, buff.toString());
+            try {
+                return compiler.getClass(fullClassName);
+            } finally {
+                // 类名不会重复使用，加载后就不再需要源代码了
+                compiler.removeSource(fullClassName);
+            }
+        }
+    }
+
+    /**
+     * 表达式中不能有结果不确定的子表达式(比如RAND)，也不能引用用户自定义函数、自定义聚合函数和序列。
+     */
+    private static boolean isDeterministic(Expression e) {
+        if (!e.isEverything(ExpressionVisitor.DETERMINISTIC_VISITOR)) {
+            return false;
+        }
+        HashSet<DbObject> dependencies = new HashSet<>();
+        e.isEverything(ExpressionVisitor.getDependenciesVisitor(dependencies));
+        for (DbObject obj : dependencies) {
+            DbObjectType type = obj.getType();
+            if (type == DbObjectType.FUNCTION_ALIAS || type == DbObjectType.AGGREGATE
+                    || type == DbObjectType.SEQUENCE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 返回表达式用哪种基本类型来计算: Value.INT(int)、Value.LONG(long)、Value.DOUBLE(double)，
+     * 不能用基本类型计算时返回Value.UNKNOWN。
+     */
+    private static int getKind(Expression e) {
+        switch (e.getType()) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+            return Value.INT;
+        case Value.LONG:
+            return Value.LONG;
+        case Value.DOUBLE:
+            return Value.DOUBLE;
+        case Value.DECIMAL:
+            // 整数的加减乘运算结果是DECIMAL类型，没有溢出时跟用long算出来的一样
+            if (e instanceof Operation && isCompilable((Operation) e)) {
+                return Value.LONG;
+            } else if (e instanceof ValueExpression && getLong(((ValueExpression) e).getValue(null)) != null) {
+                return Value.LONG;
+            }
+        }
+        return Value.UNKNOWN;
+    }
+
+    private static boolean isIntegral(int kind) {
+        return kind == Value.INT || kind == Value.LONG;
+    }
+
+    private static boolean isCompilable(Operation op) {
+        switch (op.getOpType()) {
+        case Operation.PLUS:
+        case Operation.MINUS:
+        case Operation.MULTIPLY:
+            return op.getType() == Value.DECIMAL && isIntegral(getKind(op.getLeft()))
+                    && isIntegral(getKind(op.getRight()));
+        case Operation.NEGATE: {
+            // BYTE和SHORT取负时的溢出范围跟int不一样，不编译
+            int type = op.getLeft().getType();
+            return type == Value.INT || type == Value.LONG || type == Value.DOUBLE
+                    || type == Value.DECIMAL && getKind(op.getLeft()) == Value.LONG;
+        }
+        default:
+            return false;
+        }
+    }
+
+    private static Long getLong(Value v) {
+        if (v.getType() != Value.DECIMAL) {
+            return null;
+        }
+        try {
+            return v.getBigDecimal().longValueExact();
+        } catch (ArithmeticException e) {
+            return null;
+        }
+    }
+
+    private static String getJavaType(int kind) {
+        switch (kind) {
+        case Value.INT:
+            return "int";
+        case Value.LONG:
+            return "long";
+        default:
+            return "double";
+        }
+    }
+
+    private static String getTypeName(int type) {
+        switch (type) {
+        case Value.BYTE:
+            return "Value.BYTE";
+        case Value.SHORT:
+            return "Value.SHORT";
+        case Value.INT:
+            return "Value.INT";
+        case Value.LONG:
+            return "Value.LONG";
+        case Value.DOUBLE:
+            return "Value.DOUBLE";
+        default:
+            return "Value.DECIMAL";
+        }
+    }
+
+    private String newVar(String prefix) {
+        return prefix + (nextVarId++);
+    }
+
+    private void line(String code) {
+        for (int i = 0; i < indent; i++) {
+            body.append("    ");
+        }
+        body.append(code).append('\n');
+    }
+
+    private void begin(String code) {
+        line(code);
+        indent++;
+    }
+
+    private void end(String code) {
+        indent--;
+        line(code);
+    }
+
+    /**
+     * 不编译的子表达式，调用它的getValue。
+     *
+     * @return 保存值的变量名
+     */
+    private String genLeaf(Expression e) {
+        String v = newVar("v");
+        line("Value " + v + " = e[" + leaves.size() + "].getValue(session);");
+        leaves.add(e);
+        return v;
+    }
+
+    private String genValue(Expression e) {
+        if (e instanceof Operation && isCompilable((Operation) e)) {
+            NumberVar n = genNumber(e);
+            String v = newVar("v");
+            line("Value " + v + " = " + box(n, e.getType()) + ";");
+            return v;
+        }
+        return genLeaf(e);
+    }
+
+    private String box(NumberVar n, int type) {
+        String v;
+        switch (type) {
+        case Value.INT:
+            v = "ValueInt.get(" + n.value + ")";
+            break;
+        case Value.LONG:
+            v = "ValueLong.get(" + n.value + ")";
+            break;
+        case Value.DOUBLE:
+            v = "ValueDouble.get(" + n.value + ")";
+            break;
+        default:
+            v = "ValueDecimal.get(BigDecimal.valueOf(" + n.value + "))";
+        }
+        return n.isNull + " ? ValueNull.INSTANCE : " + v;
+    }
+
+    /**
+     * 生成条件表达式的代码，结果是1(true)、0(false)或-1(null)。
+     *
+     * @return 保存结果的变量名
+     */
+    private String genBoolean(Expression e) {
+        if (e instanceof ConditionAndOr) {
+            ConditionAndOr c = (ConditionAndOr) e;
+            compiledNodes++;
+            // 跟解释执行一样，AND的左边是false、OR的左边是true时不计算右边
+            int shortCircuit = c.getAndOrType() == ConditionAndOr.AND ? 0 : 1;
+            String l = genBoolean(c.getLeft());
+            String r = newVar("b");
+            line("int " + r + ";");
+            begin("if (" + l + " == " + shortCircuit + ") {");
+            line(r + " = " + shortCircuit + ";");
+            end("} else {");
+            indent++;
+            String r2 = genBoolean(c.getRight());
+            line(r + " = " + r2 + " == " + shortCircuit + " ? " + shortCircuit + " : (" + l + " == -1 || " + r2
+                    + " == -1 ? -1 : " + (1 - shortCircuit) + ");");
+            end("}");
+            return r;
+        } else if (e instanceof ConditionNot) {
+            compiledNodes++;
+            String c = genBoolean(((ConditionNot) e).getCondition());
+            String r = newVar("b");
+            line("int " + r + " = " + c + " == -1 ? -1 : 1 - " + c + ";");
+            return r;
+        } else if (e instanceof Comparison) {
+            String r = genComparison((Comparison) e);
+            if (r != null) {
+                return r;
+            }
+        }
+        String v = genLeaf(e);
+        String r = newVar("b");
+        line("int " + r + " = " + v + " == ValueNull.INSTANCE ? -1 : (" + v + ".getBoolean() ? 1 : 0);");
+        return r;
+    }
+
+    private String genComparison(Comparison c) {
+        int compareType = c.getCompareType();
+        Expression left = c.getLeft();
+        Expression right = c.getRight();
+        if (right == null) {
+            if (compareType != Comparison.IS_NULL && compareType != Comparison.IS_NOT_NULL) {
+                return null;
+            }
+            compiledNodes++;
+            String v = genValue(left);
+            String r = newVar("b");
+            String op = compareType == Comparison.IS_NULL ? " == " : " != ";
+            line("int " + r + " = " + v + op + "ValueNull.INSTANCE ? 1 : 0;");
+            return r;
+        }
+        String op;
+        switch (compareType) {
+        case Comparison.EQUAL:
+            op = " == ";
+            break;
+        case Comparison.NOT_EQUAL:
+            op = " != ";
+            break;
+        case Comparison.BIGGER_EQUAL:
+            op = " >= ";
+            break;
+        case Comparison.BIGGER:
+            op = " > ";
+            break;
+        case Comparison.SMALLER_EQUAL:
+            op = " <= ";
+            break;
+        case Comparison.SMALLER:
+            op = " < ";
+            break;
+        default:
+            return null;
+        }
+        int leftKind = getKind(left);
+        int rightKind = getKind(right);
+        if (leftKind == Value.UNKNOWN || rightKind == Value.UNKNOWN) {
+            return null;
+        }
+        compiledNodes++;
+        String r = newVar("b");
+        line("int " + r + ";");
+        // 跟解释执行一样，左边是null时不计算右边
+        NumberVar l = genNumber(left);
+        begin("if (" + l.isNull + ") {");
+        line(r + " = -1;");
+        end("} else {");
+        indent++;
+        NumberVar n = genNumber(right);
+        begin("if (" + n.isNull + ") {");
+        line(r + " = -1;");
+        end("} else {");
+        indent++;
+        String cmp;
+        if (leftKind == Value.DOUBLE || rightKind == Value.DOUBLE) {
+            // 跟ValueDouble.compareSecure一样用Double.compare
+            cmp = "Double.compare(" + l.value + ", " + n.value + ")" + op + "0";
+        } else {
+            cmp = l.value + op + n.value;
+        }
+        line(r + " = " + cmp + " ? 1 : 0;");
+        end("}");
+        end("}");
+        return r;
+    }
+
+    private NumberVar genNumber(Expression e) {
+        int kind = getKind(e);
+        if (e instanceof Operation && isCompilable((Operation) e)) {
+            return genOperation((Operation) e, kind);
+        }
+        NumberVar n = new NumberVar(newVar("n"), newVar("x"));
+        String javaType = getJavaType(kind);
+        if (e instanceof ValueExpression) {
+            Value v = ((ValueExpression) e).getValue(null);
+            String constant;
+            if (kind == Value.DOUBLE) {
+                constant = "c[" + doubles.size() + "]";
+                doubles.add(v.getDouble());
+            } else {
+                constant = (kind == Value.INT ? "(int) " : "") + "l[" + longs.size() + "]";
+                longs.add(v.getType() == Value.DECIMAL ? getLong(v) : v.getLong());
+            }
+            line("boolean " + n.isNull + " = false;");
+            line(javaType + " " + n.value + " = " + constant + ";");
+            return n;
+        }
+        // 参数的类型在两次执行之间可能会变，所以要检查值的类型跟编译时是否一样
+        String v = genLeaf(e);
+        String getter = kind == Value.INT ? "getInt" : (kind == Value.LONG ? "getLong" : "getDouble");
+        line("boolean " + n.isNull + " = " + v + " == ValueNull.INSTANCE;");
+        line(javaType + " " + n.value + " = 0;");
+        begin("if (!" + n.isNull + ") {");
+        begin("if (" + v + ".getType() != " + getTypeName(e.getType()) + ") {");
+        line(deopt);
+        end("}");
+        line(n.value + " = " + v + "." + getter + "();");
+        end("}");
+        return n;
+    }
+
+    private NumberVar genOperation(Operation op, int kind) {
+        compiledNodes++;
+        String javaType = getJavaType(kind);
+        NumberVar l = genNumber(op.getLeft());
+        NumberVar n;
+        String code;
+        if (op.getOpType() == Operation.NEGATE) {
+            n = new NumberVar(newVar("n"), newVar("x"));
+            line("boolean " + n.isNull + " = " + l.isNull + ";");
+            code = kind == Value.DOUBLE ? "-" + l.value : "Math.negateExact(" + l.value + ")";
+        } else {
+            // 跟解释执行一样，左右两边都要计算
+            NumberVar r = genNumber(op.getRight());
+            n = new NumberVar(newVar("n"), newVar("x"));
+            line("boolean " + n.isNull + " = " + l.isNull + " || " + r.isNull + ";");
+            String method;
+            switch (op.getOpType()) {
+            case Operation.PLUS:
+                method = "addExact";
+                break;
+            case Operation.MINUS:
+                method = "subtractExact";
+                break;
+            default:
+                method = "multiplyExact";
+            }
+            // 用long计算，java会自动把int转成long
+            code = "Math." + method + "((long) " + l.value + ", " + r.value + ")";
+        }
+        line(javaType + " " + n.value + " = 0;");
+        begin("if (!" + n.isNull + ") {");
+        if (kind == Value.DOUBLE) {
+            line(n.value + " = " + code + ";");
+        } else {
+            // 溢出时让解释执行抛出跟原来一样的异常
+            begin("try {");
+            line(n.value + " = " + code + ";");
+            end("} catch (ArithmeticException ex) {");
+            indent++;
+            line(deopt);
+            end("}");
+        }
+        end("}");
+        return n;
+    }
+
+    // 保存一个数值的两个局部变量: 是否为null以及基本类型的值
+    private static class NumberVar {
+        final String isNull;
+        final String value;
+
+        NumberVar(String isNull, String value) {
+            this.isNull = isNull;
+            this.value = value;
+        }
+    }
+}
@@ -87,6 +87,12 @@ public class ExpressionVisitor {
      */
     public static final int GET_COLUMNS = 8;
 
+    /**
+     * Get all columns that belong to a higher level query (the correlated
+     * columns of a subquery).
+     */
+    public static final int GET_OUTER_COLUMNS = 9;
+
     /**
      * The visitor singleton for the type QUERY_COMPARABLE.
      */
@@ -99,9 +105,15 @@ public class ExpressionVisitor {
     private final Table table;
     private final long[] maxDataModificationId;
     private final ColumnResolver resolver;
+    private final Set<ExpressionColumn> outerColumns;
 
     private ExpressionVisitor(int type, int queryLevel, Set<DbObject> dependencies, Set<Column> columns, Table table,
             ColumnResolver resolver, long[] maxDataModificationId) {
+        this(type, queryLevel, dependencies, columns, table, resolver, maxDataModificationId, null);
+    }
+
+    private ExpressionVisitor(int type, int queryLevel, Set<DbObject> dependencies, Set<Column> columns, Table table,
+            ColumnResolver resolver, long[] maxDataModificationId, Set<ExpressionColumn> outerColumns) {
         this.type = type;
         this.queryLevel = queryLevel;
         this.dependencies = dependencies;
@@ -109,6 +121,7 @@ public class ExpressionVisitor {
         this.table = table;
         this.resolver = resolver;
         this.maxDataModificationId = maxDataModificationId;
+        this.outerColumns = outerColumns;
     }
 
     private ExpressionVisitor(int type) {
@@ -119,6 +132,7 @@ public class ExpressionVisitor {
         this.table = null;
         this.resolver = null;
         this.maxDataModificationId = null;
+        this.outerColumns = null;
     }
 
     /**
@@ -162,6 +176,18 @@ public class ExpressionVisitor {
         return new ExpressionVisitor(GET_COLUMNS, 0, null, columns, null, null, null);
     }
 
+    /**
+     * Create a new visitor to get all columns of higher level queries.
+     * The visitor must be passed to Query.isEverything, or be incremented
+     * by one query level before being passed to an expression of the query.
+     *
+     * @param outerColumns the set to add the columns to
+     * @return the new visitor
+     */
+    public static ExpressionVisitor getOuterColumnsVisitor(Set<ExpressionColumn> outerColumns) {
+        return new ExpressionVisitor(GET_OUTER_COLUMNS, 0, null, null, null, null, null, outerColumns);
+    }
+
     public static ExpressionVisitor getMaxModificationIdVisitor() {
         return new ExpressionVisitor(SET_MAX_DATA_MODIFICATION_ID, 0, null, null, null, null, new long[1]);
     }
@@ -187,6 +213,16 @@ public class ExpressionVisitor {
         columns.add(column);
     }
 
+    /**
+     * Add a column of a higher level query.
+     * This is used for GET_OUTER_COLUMNS visitors.
+     *
+     * @param column the column expression
+     */
+    public void addOuterColumn(ExpressionColumn column) {
+        outerColumns.add(column);
+    }
+
     /**
      * Get the dependency set.
      * This is used for GET_DEPENDENCIES visitors.
@@ -207,7 +243,7 @@ public class ExpressionVisitor {
 
     public ExpressionVisitor incrementQueryLevel(int offset) {
         return new ExpressionVisitor(type, queryLevel + offset, dependencies, columns, table, resolver,
-                maxDataModificationId);
+                maxDataModificationId, outerColumns);
     }
 
     /**
@@ -70,6 +70,18 @@ public class Operation extends Expression {
         this.right = right;
     }
 
+    public int getOpType() {
+        return opType;
+    }
+
+    public Expression getLeft() {
+        return left;
+    }
+
+    public Expression getRight() {
+        return right;
+    }
+
     @Override
     public String getSQL(boolean isDistributed) {
         String sql;
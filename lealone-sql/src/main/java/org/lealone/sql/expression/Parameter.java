@@ -168,6 +168,7 @@ public class Parameter extends Expression implements CommandParameter {
         case ExpressionVisitor.OPTIMIZABLE_MIN_MAX_COUNT_ALL:
         case ExpressionVisitor.DETERMINISTIC:
         case ExpressionVisitor.GET_COLUMNS:
+        case ExpressionVisitor.GET_OUTER_COLUMNS:
             return true;
         case ExpressionVisitor.INDEPENDENT:
             return value != null;
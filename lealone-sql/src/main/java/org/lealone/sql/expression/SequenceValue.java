@@ -85,6 +85,7 @@ public class SequenceValue extends Expression {
         case ExpressionVisitor.OPTIMIZABLE_MIN_MAX_COUNT_ALL:
         case ExpressionVisitor.NOT_FROM_RESOLVER:
         case ExpressionVisitor.GET_COLUMNS:
+        case ExpressionVisitor.GET_OUTER_COLUMNS:
             return true;
         case ExpressionVisitor.DETERMINISTIC:
         case ExpressionVisitor.INDEPENDENT:
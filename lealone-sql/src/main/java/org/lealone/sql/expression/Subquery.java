@@ -26,14 +26,26 @@ import org.lealone.sql.optimizer.TableFilter;
 public class Subquery extends Expression {
 
     private final Query query;
+    private final CorrelatedSubquery correlatedSubquery;
     private Expression expression;
 
     public Subquery(Query query) {
         this.query = query;
+        correlatedSubquery = new CorrelatedSubquery(query, CorrelatedSubquery.SCALAR);
     }
 
     @Override
     public Value getValue(ServerSession session) {
+        Value v = correlatedSubquery.getValue(session, null);
+        if (v != null) {
+            return v;
+        }
+        v = getValueInternal(session);
+        correlatedSubquery.setValue(v);
+        return v;
+    }
+
+    private Value getValueInternal(ServerSession session) {
         query.setSession(session);
         Result result = query.query(2);// session.createSubqueryResult(query, 2); // query.query(2);
         try {
@@ -160,6 +160,7 @@ public class ValueExpression extends Expression {
         case ExpressionVisitor.GET_DEPENDENCIES:
         case ExpressionVisitor.QUERY_COMPARABLE:
         case ExpressionVisitor.GET_COLUMNS:
+        case ExpressionVisitor.GET_OUTER_COLUMNS:
             return true;
         default:
             throw DbException.throwInternalError("type=" + visitor.getType());
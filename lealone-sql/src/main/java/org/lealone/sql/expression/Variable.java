@@ -75,6 +75,7 @@ public class Variable extends Expression {
         case ExpressionVisitor.QUERY_COMPARABLE:
         case ExpressionVisitor.GET_DEPENDENCIES:
         case ExpressionVisitor.GET_COLUMNS:
+        case ExpressionVisitor.GET_OUTER_COLUMNS:
             return true;
         case ExpressionVisitor.DETERMINISTIC:
             return false;
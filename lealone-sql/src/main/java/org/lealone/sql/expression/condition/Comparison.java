@@ -121,6 +121,14 @@ public class Comparison extends Condition {
         return compareType;
     }
 
+    public Expression getLeft() {
+        return left;
+    }
+
+    public Expression getRight() {
+        return right;
+    }
+
     @Override
     public String getSQL(boolean isDistributed) {
         String sql;
@@ -45,6 +45,18 @@ public class ConditionAndOr extends Condition {
         }
     }
 
+    public int getAndOrType() {
+        return andOrType;
+    }
+
+    public Expression getLeft() {
+        return left;
+    }
+
+    public Expression getRight() {
+        return right;
+    }
+
     @Override
     public String getSQL(boolean isDistributed) {
         String sql;
@@ -12,6 +12,7 @@ import org.lealone.db.result.Result;
 import org.lealone.db.value.Value;
 import org.lealone.db.value.ValueBoolean;
 import org.lealone.sql.dml.Query;
+import org.lealone.sql.expression.CorrelatedSubquery;
 import org.lealone.sql.expression.Expression;
 import org.lealone.sql.expression.ExpressionVisitor;
 import org.lealone.sql.optimizer.ColumnResolver;
@@ -23,18 +24,26 @@ import org.lealone.sql.optimizer.TableFilter;
 public class ConditionExists extends Condition {
 
     private final Query query;
+    private final CorrelatedSubquery correlatedSubquery;
 
     public ConditionExists(Query query) {
         this.query = query;
+        correlatedSubquery = new CorrelatedSubquery(query, CorrelatedSubquery.EXISTS);
     }
 
     @Override
     public Value getValue(ServerSession session) {
+        Value v = correlatedSubquery.getValue(session, null);
+        if (v != null) {
+            return v;
+        }
         query.setSession(session);
         Result result = query.query(1);// session.createSubqueryResult(query, 1);
         session.addTemporaryResult(result);
         boolean r = result.getRowCount() > 0;
-        return ValueBoolean.get(r);
+        v = ValueBoolean.get(r);
+        correlatedSubquery.setValue(v);
+        return v;
     }
 
     @Override
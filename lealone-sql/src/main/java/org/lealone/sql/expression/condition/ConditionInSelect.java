@@ -15,6 +15,7 @@ import org.lealone.db.value.Value;
 import org.lealone.db.value.ValueBoolean;
 import org.lealone.db.value.ValueNull;
 import org.lealone.sql.dml.Query;
+import org.lealone.sql.expression.CorrelatedSubquery;
 import org.lealone.sql.expression.Expression;
 import org.lealone.sql.expression.ExpressionColumn;
 import org.lealone.sql.expression.ExpressionVisitor;
@@ -33,6 +34,7 @@ public class ConditionInSelect extends Condition {
     private final Query query;
     private final boolean all;
     private final int compareType;
+    private final CorrelatedSubquery correlatedSubquery;
 
     public ConditionInSelect(Database database, Expression left, Query query, boolean all, int compareType) {
         this.database = database;
@@ -40,14 +42,27 @@ public class ConditionInSelect extends Condition {
         this.query = query;
         this.all = all;
         this.compareType = compareType;
+        // 只有IN才能转成hash semi join，其他的比较只按外层列的值缓存结果
+        correlatedSubquery = new CorrelatedSubquery(query,
+                !all && compareType == Comparison.EQUAL ? CorrelatedSubquery.IN : CorrelatedSubquery.SCALAR);
     }
 
     @Override
     public Value getValue(ServerSession session) {
+        Value l = left.getValue(session);
+        Value v = correlatedSubquery.getValue(session, l);
+        if (v != null) {
+            return v;
+        }
+        v = getValue(session, l);
+        correlatedSubquery.setValue(v);
+        return v;
+    }
+
+    private Value getValue(ServerSession session, Value l) {
         query.setSession(session);
         SubqueryResult rows = new SubqueryResult(query, 0); // query.query(0);
         session.addTemporaryResult(rows);
-        Value l = left.getValue(session);
         if (rows.getRowCount() == 0) {
             return ValueBoolean.get(all);
         } else if (l == ValueNull.INSTANCE) {
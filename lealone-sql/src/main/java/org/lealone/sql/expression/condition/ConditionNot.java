@@ -26,6 +26,10 @@ public class ConditionNot extends Condition {
         this.condition = condition;
     }
 
+    public Expression getCondition() {
+        return condition;
+    }
+
     @Override
     public Expression getNotIfPossible(ServerSession session) {
         return condition;
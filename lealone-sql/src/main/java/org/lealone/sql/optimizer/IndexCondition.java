@@ -18,9 +18,11 @@ import org.lealone.db.ServerSession;
 import org.lealone.db.index.IndexConditionType;
 import org.lealone.db.result.Result;
 import org.lealone.db.table.Column;
+import org.lealone.db.table.ColumnStatistics;
 import org.lealone.db.table.TableType;
 import org.lealone.db.value.CompareMode;
 import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueNull;
 import org.lealone.sql.dml.Query;
 import org.lealone.sql.expression.Expression;
 import org.lealone.sql.expression.ExpressionColumn;
@@ -232,6 +234,120 @@ public class IndexCondition {
         }
     }
 
+    /**
+     * 用字段的统计信息估算每个字段上的索引条件会选出的记录所占的比例。
+     * 同一个字段上有多个条件时取最小的，同时有下界和上界时按区间估算。
+     *
+     * @param session the session
+     * @param columnCount the number of columns of the table
+     * @param indexConditions the index conditions
+     * @return per-column fractions, 0 means unknown, or null if no column has statistics
+     */
+    public static double[] getFractions(ServerSession session, int columnCount,
+            ArrayList<IndexCondition> indexConditions) {
+        double[] equals = null, lows = null, highs = null, notNulls = null;
+        for (int i = 0, size = indexConditions.size(); i < size; i++) {
+            IndexCondition condition = indexConditions.get(i);
+            Column column = condition.column;
+            int id = column == null ? -1 : column.getColumnId();
+            if (id < 0 || column.getStatistics() == null || condition.isAlwaysFalse()
+                    || !condition.isEvaluatable()) {
+                continue;
+            }
+            double f = condition.getFraction(session, column.getStatistics());
+            if (f < 0) {
+                continue;
+            }
+            if (equals == null) {
+                equals = new double[columnCount];
+                lows = new double[columnCount];
+                highs = new double[columnCount];
+                notNulls = new double[columnCount];
+                Arrays.fill(equals, 1);
+                Arrays.fill(lows, 1);
+                Arrays.fill(highs, 1);
+            }
+            notNulls[id] = 1 - column.getStatistics().getNullFraction();
+            if (condition.isStart() && condition.isEnd() || !condition.isStart() && !condition.isEnd()) {
+                equals[id] = Math.min(equals[id], f);
+            } else if (condition.isStart()) {
+                lows[id] = Math.min(lows[id], f);
+            } else {
+                highs[id] = Math.min(highs[id], f);
+            }
+        }
+        if (equals == null) {
+            return null;
+        }
+        double[] fractions = new double[columnCount];
+        for (int id = 0; id < columnCount; id++) {
+            double f = equals[id];
+            if (lows[id] < 1 && highs[id] < 1) {
+                // x >= a的比例加上x <= b的比例减去非NULL值的比例就是a <= x <= b的比例
+                f = Math.min(f, Math.max(lows[id] + highs[id] - notNulls[id], 0));
+            } else {
+                f = Math.min(f, Math.min(lows[id], highs[id]));
+            }
+            // 估算的结果是0时也不能当成未知
+            fractions[id] = f >= 1 ? 0 : Math.max(f, Double.MIN_NORMAL);
+        }
+        return fractions;
+    }
+
+    // 返回-1表示无法估算
+    private double getFraction(ServerSession session, ColumnStatistics stats) {
+        CompareMode mode = session.getDatabase().getCompareMode();
+        Value v;
+        switch (compareType) {
+        case Comparison.EQUAL:
+        case Comparison.EQUAL_NULL_SAFE:
+            v = getConstantValue(session, expression);
+            if (v == null) {
+                return stats.getAverageEqualFraction();
+            } else if (v == ValueNull.INSTANCE) {
+                return compareType == Comparison.EQUAL_NULL_SAFE ? stats.getNullFraction() : 0;
+            }
+            return stats.getEqualFraction(v, mode);
+        case Comparison.IN_LIST: {
+            double f = 0;
+            for (Expression e : expressionList) {
+                v = getConstantValue(session, e);
+                f += v == null ? stats.getAverageEqualFraction() : stats.getEqualFraction(v, mode);
+            }
+            return Math.min(f, 1);
+        }
+        case Comparison.BIGGER_EQUAL:
+        case Comparison.BIGGER:
+            v = getConstantValue(session, expression);
+            if (v == null) {
+                return -1;
+            }
+            double less = stats.getLessFraction(v, compareType == Comparison.BIGGER, mode);
+            return Math.max(1 - stats.getNullFraction() - less, 0);
+        case Comparison.SMALLER_EQUAL:
+        case Comparison.SMALLER:
+            v = getConstantValue(session, expression);
+            if (v == null) {
+                return -1;
+            }
+            return stats.getLessFraction(v, compareType == Comparison.SMALLER_EQUAL, mode);
+        default:
+            return -1;
+        }
+    }
+
+    // 只有常量才能在生成执行计划时知道值，参数和其他表的字段都是null
+    private Value getConstantValue(ServerSession session, Expression e) {
+        if (!e.isConstant()) {
+            return null;
+        }
+        try {
+            return column.convert(e.getValue(session));
+        } catch (DbException ex) {
+            return null;
+        }
+    }
+
     /**
      * Check if the result is always false.
      *
@@ -281,6 +397,17 @@ public class IndexCondition {
         return compareType;
     }
 
+    /**
+     * Check if this condition can be used to skip whole pages by their zone maps
+     * (column storage), that is a deterministic range or equality comparison.
+     *
+     * @return true if it can
+     */
+    public boolean isPageFilter() {
+        return (isStart() || isEnd()) && column.getColumnId() >= 0 && expression != null
+                && expression.isEverything(ExpressionVisitor.DETERMINISTIC_VISITOR) && isEvaluatable();
+    }
+
     /**
      * Get the referenced column.
      *
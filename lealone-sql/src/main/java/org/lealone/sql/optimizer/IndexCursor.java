@@ -10,9 +10,11 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 
 import org.lealone.common.exceptions.DbException;
 import org.lealone.db.ServerSession;
+import org.lealone.db.index.ColumnPageStatistics;
 import org.lealone.db.index.Cursor;
 import org.lealone.db.index.Index;
 import org.lealone.db.result.Result;
@@ -48,11 +50,17 @@ public class IndexCursor implements Cursor {
     private Value[] inList;
     private Result inResult;
     private HashSet<Value> inResultTested;
+    private ArrayList<IndexCondition> pageFilterConditions;
+    private int lookups; // 调用了多少次index.find，用于EXPLAIN ANALYZE
 
     public IndexCursor(TableFilter filter) {
         this.tableFilter = filter;
     }
 
+    public void setPageFilterConditions(ArrayList<IndexCondition> pageFilterConditions) {
+        this.pageFilterConditions = pageFilterConditions;
+    }
+
     public void setIndex(Index index) {
         this.index = index;
         this.table = index.getTable();
@@ -83,13 +91,21 @@ public class IndexCursor implements Cursor {
         if (!alwaysFalse) {
             Select select = tableFilter.getSelect();
             int[] columnIndexes = null;
+            int lookupBatchSize = 0;
             if (select != null) {
                 columnIndexes = tableFilter.createColumnIndexes(select.getReferencedColumns());
+                // 只读查询需要回表时，先从二级索引读出一批行key，排序后再批量到主索引中查找
+                if (!select.isForUpdate() && !index.isCovering(columnIndexes))
+                    lookupBatchSize = s.getDatabase().getSettings().indexLookupBatchSize;
             } else {
                 columnIndexes = tableFilter.getColumnIndexes(); // update和delete在prepare阶段就设置好了
             }
             IterationParameters<SearchRow> parameters = IterationParameters.create(start, end, pageKeys, columnIndexes);
+            parameters.lookupBatchSize = lookupBatchSize;
+            if (select != null)
+                parameters.pageFilter = createPageFilter(s);
             cursor = index.find(tableFilter.getSession(), parameters);
+            lookups++;
         }
     }
 
@@ -163,6 +179,44 @@ public class IndexCursor implements Cursor {
         }
     }
 
+    // 把不能用于索引查找的条件转成每一列的取值范围，用于按zone map跳过整个page
+    private Predicate<Object[]> createPageFilter(ServerSession session) {
+        if (pageFilterConditions == null || pageFilterConditions.isEmpty()) {
+            return null;
+        }
+        int columnCount = table.getColumns().length;
+        Value[] lows = new Value[columnCount];
+        Value[] highs = new Value[columnCount];
+        boolean found = false;
+        for (int i = 0, size = pageFilterConditions.size(); i < size; i++) {
+            IndexCondition condition = pageFilterConditions.get(i);
+            Column column = condition.getColumn();
+            Value v = condition.getCurrentValue(session);
+            // 只有按列的类型比较时，zone map中的min/max才跟逐行判断的结果一致
+            if (v == null || v == ValueNull.INSTANCE
+                    || Value.getHigherOrder(column.getType(), v.getType()) != column.getType()) {
+                continue;
+            }
+            try {
+                v = column.convert(v);
+            } catch (DbException e) {
+                continue;
+            }
+            int id = column.getColumnId();
+            if (condition.isStart()) {
+                lows[id] = getMax(session, lows[id], v, true);
+            }
+            if (condition.isEnd()) {
+                highs[id] = getMax(session, highs[id], v, false);
+            }
+            found = true;
+        }
+        if (!found) {
+            return null;
+        }
+        return ColumnPageStatistics.createPageFilter(lows, highs, table.getDatabase().getCompareMode());
+    }
+
     private boolean canUseIndexForIn(Column column) {
         if (inColumn != null) {
             // only one IN(..) condition can be used at the same time
@@ -224,6 +278,14 @@ public class IndexCursor implements Cursor {
         return comp > 0 ? a : b;
     }
 
+    public int getLookups() {
+        return lookups;
+    }
+
+    public void resetLookups() {
+        lookups = 0;
+    }
+
     /**
      * Check if the result is empty for sure.
      *
@@ -304,6 +366,7 @@ public class IndexCursor implements Cursor {
         }
         start.setValue(id, v);
         cursor = index.find(tableFilter.getSession(), start, start);
+        lookups++;
     }
 
     @Override
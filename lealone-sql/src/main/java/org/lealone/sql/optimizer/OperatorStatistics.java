@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.sql.optimizer;
+
+import org.lealone.db.StatementCounters;
+
+/**
+ * EXPLAIN ANALYZE时一个算子(TableFilter、聚合、排序等)的运行时统计信息。
+ * 
+ * 只有执行EXPLAIN ANALYZE时才会创建，正常执行语句时不会有额外开销。
+ * 时间和page计数都包含了下层算子的部分，比如join时外层表的时间包含了内层表的时间。
+ */
+public class OperatorStatistics {
+
+    private long rows;
+    private long nanos;
+    private long pageCacheHits;
+    private long pageCacheMisses;
+    private long yields;
+
+    private long startNanos;
+    private long startPageCacheHits;
+    private long startPageCacheMisses;
+    private long startYields;
+
+    public void reset() {
+        rows = nanos = pageCacheHits = pageCacheMisses = yields = 0;
+    }
+
+    public void start() {
+        StatementCounters counters = StatementCounters.getCurrent();
+        if (counters != null) {
+            startPageCacheHits = counters.pageCacheHits;
+            startPageCacheMisses = counters.pageCacheMisses;
+            startYields = counters.yields;
+        }
+        startNanos = System.nanoTime();
+    }
+
+    public void stop(long rows) {
+        nanos += System.nanoTime() - startNanos;
+        this.rows += rows;
+        StatementCounters counters = StatementCounters.getCurrent();
+        if (counters != null) {
+            pageCacheHits += counters.pageCacheHits - startPageCacheHits;
+            pageCacheMisses += counters.pageCacheMisses - startPageCacheMisses;
+            yields += counters.yields - startYields;
+        }
+    }
+
+    public void addRows(long rows) {
+        this.rows += rows;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * Append the statistics to the plan.
+     *
+     * @param buff the target buffer
+     * @return the buffer
+     */
+    public StringBuilder appendTo(StringBuilder buff) {
+        buff.append("rows: ").append(rows);
+        buff.append(", time: ").append(nanos / 1000 / 1000d).append(" ms");
+        buff.append(", page cache hits: ").append(pageCacheHits);
+        buff.append(", page cache misses: ").append(pageCacheMisses);
+        buff.append(", yields: ").append(yields);
+        return buff;
+    }
+}
@@ -260,6 +260,39 @@ public class Optimizer {
      * @return the plan item
      */
     public static PlanItem getBestPlanItem(ServerSession session, int[] masks, Table table, SortOrder sortOrder) {
+        return getBestPlanItem(session, masks, table, sortOrder, null);
+    }
+
+    /**
+     * Get the best plan for the given search mask and the columns used by the query.
+     *
+     * @param session the session
+     * @param masks per-column comparison bit masks, null means 'always false',
+     *              see constants in IndexCondition
+     * @param sortOrder the sort order
+     * @param columnIndexes the ids of the columns used by the query, null means all columns
+     * @return the plan item
+     */
+    public static PlanItem getBestPlanItem(ServerSession session, int[] masks, Table table, SortOrder sortOrder,
+            int[] columnIndexes) {
+        return getBestPlanItem(session, masks, null, table, sortOrder, columnIndexes);
+    }
+
+    /**
+     * Get the best plan for the given search mask, the fractions of rows estimated from
+     * the column statistics and the columns used by the query.
+     *
+     * @param session the session
+     * @param masks per-column comparison bit masks, null means 'always false',
+     *              see constants in IndexCondition
+     * @param fractions per-column fraction of rows that match the conditions, 0 means unknown,
+     *              see IndexCondition.getFractions
+     * @param sortOrder the sort order
+     * @param columnIndexes the ids of the columns used by the query, null means all columns
+     * @return the plan item
+     */
+    public static PlanItem getBestPlanItem(ServerSession session, int[] masks, double[] fractions, Table table,
+            SortOrder sortOrder, int[] columnIndexes) {
         PlanItem item = new PlanItem();
         item.setIndex(table.getScanIndex(session));
         item.cost = item.getIndex().getCost(session, null, null);
@@ -267,7 +300,7 @@ public class Optimizer {
         if (indexes != null && masks != null) {
             for (int i = 1, size = indexes.size(); i < size; i++) {
                 Index index = indexes.get(i);
-                double cost = index.getCost(session, masks, sortOrder);
+                double cost = index.getCost(session, masks, fractions, sortOrder, columnIndexes);
                 if (cost < item.cost) {
                     item.cost = cost;
                     item.setIndex(index);
@@ -19,6 +19,7 @@ import org.lealone.common.util.StringUtils;
 import org.lealone.common.util.Utils;
 import org.lealone.db.ServerSession;
 import org.lealone.db.Session;
+import org.lealone.db.StatementCounters;
 import org.lealone.db.SysProperties;
 import org.lealone.db.auth.Right;
 import org.lealone.db.index.Index;
@@ -59,6 +60,8 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
     private Index index;
     private int scanCount;
     private boolean evaluatable;
+    private OperatorStatistics statistics; // 只在EXPLAIN ANALYZE时使用
+    private long estimatedRows;
 
     /**
      * Indicates that this filter is used in the plan.
@@ -75,6 +78,12 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
      */
     private final ArrayList<IndexCondition> indexConditions = Utils.newSmallArrayList();
 
+    /**
+     * The conditions that can't be used for index lookup, but for skipping
+     * pages by their zone maps (column storage).
+     */
+    private final ArrayList<IndexCondition> pageFilterConditions = Utils.newSmallArrayList();
+
     /**
      * Additional conditions that can't be used for index lookup, but for row
      * filter for this table (ID=ID, NAME LIKE '%X%')
@@ -191,7 +200,8 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
             if (select != null) {
                 sortOrder = select.getSortOrder();
             }
-            item = Optimizer.getBestPlanItem(s, masks, table, sortOrder);
+            double[] fractions = masks == null ? null : IndexCondition.getFractions(s, len, indexConditions);
+            item = Optimizer.getBestPlanItem(s, masks, fractions, table, sortOrder, getReferencedColumnIndexes());
             // The more index conditions, the earlier the table.
             // This is to ensure joins without indexes run quickly:
             // x (x.a=10); y (x.b=y.b) - see issue 113
@@ -270,12 +280,16 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
                 Column col = condition.getColumn();
                 if (col.getColumnId() >= 0) {
                     if (index.getColumnIndex(col) < 0) {
+                        // 不能用于索引查找，但是列式存储时还可以用来跳过整个page
+                        if (condition.isPageFilter())
+                            pageFilterConditions.add(condition);
                         indexConditions.remove(i);
                         i--;
                     }
                 }
             }
         }
+        cursor.setPageFilterConditions(pageFilterConditions);
         if (nestedJoin != null) {
             if (SysProperties.CHECK && nestedJoin == this) {
                 DbException.throwInternalError("self join");
@@ -304,6 +318,12 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
     public void startQuery(ServerSession s) {
         this.session = s;
         scanCount = 0;
+        if (statistics != null) {
+            statistics.reset();
+            cursor.resetLookups();
+            // 在执行前估算，执行后表的行数可能已经变了
+            estimatedRows = getEstimatedRows();
+        }
         if (nestedJoin != null) {
             nestedJoin.startQuery(s);
         }
@@ -326,12 +346,33 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
         foundOne = false;
     }
 
+    /**
+     * Collect the runtime statistics of this table filter (for EXPLAIN ANALYZE).
+     *
+     * @param analyze whether to collect the statistics
+     */
+    public void setAnalyze(boolean analyze) {
+        statistics = analyze ? new OperatorStatistics() : null;
+    }
+
     /**
      * Check if there are more rows to read.
      *
      * @return true if there are
      */
     public boolean next() {
+        if (statistics == null)
+            return nextRow();
+        // 行数在nextRow中统计，因为join时返回true的次数是join之后的行数
+        statistics.start();
+        try {
+            return nextRow();
+        } finally {
+            statistics.stop(0);
+        }
+    }
+
+    private boolean nextRow() {
         if (state == AFTER_LAST) {
             return false;
         } else if (state == BEFORE_FIRST) {
@@ -370,6 +411,9 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
                     currentSearchRow = cursor.getSearchRow();
                     current = null;
                     state = FOUND;
+                    StatementCounters counters = session.getStatementCounters();
+                    if (counters != null)
+                        counters.rowsRead++;
                 } else {
                     state = AFTER_LAST;
                 }
@@ -399,6 +443,8 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
             if (state == FOUND) {
                 if (joinConditionOk) {
                     foundOne = true;
+                    if (statistics != null)
+                        statistics.addRows(1);
                 } else {
                     continue;
                 }
@@ -689,6 +735,9 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
             buff.append('\n');
             StatementBuilder planBuff = new StatementBuilder();
             planBuff.append(index.getPlanSQL());
+            if (isIndexOnly()) {
+                planBuff.append(" (index only)");
+            }
             if (indexConditions.size() > 0) {
                 planBuff.append(": ");
                 for (IndexCondition condition : indexConditions) {
@@ -718,12 +767,35 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
             condition = "/* WHERE " + StringUtils.quoteRemarkSQL(condition) + "\n*/";
             buff.append(StringUtils.indent(condition, 4, false));
         }
-        if (scanCount > 0) {
+        if (statistics != null) {
+            StringBuilder s = new StringBuilder("\n    /* scanCount: ").append(scanCount);
+            s.append(", estimated rows per loop: ").append(estimatedRows);
+            s.append(", loops: ").append(cursor.getLookups()).append(", ");
+            buff.append(statistics.appendTo(s)).append(" */");
+        } else if (scanCount > 0) {
             buff.append("\n    /* scanCount: ").append(scanCount).append(" */");
         }
         return buff.toString();
     }
 
+    // 跟代价估算用同一个模型估算每次用索引查找时读到的行数
+    private long getEstimatedRows() {
+        long rowCount = table.getRowCountApproximation();
+        if (index == null || indexConditions.isEmpty()) {
+            return rowCount;
+        }
+        int[] masks = new int[table.getColumns().length];
+        for (IndexCondition condition : indexConditions) {
+            if (condition.isAlwaysFalse())
+                return 0;
+            int id = condition.getColumn().getColumnId();
+            if (id >= 0)
+                masks[id] |= condition.getMask(indexConditions);
+        }
+        double[] fractions = IndexCondition.getFractions(session, masks.length, indexConditions);
+        return index.getRowCountEstimate(masks, fractions, rowCount);
+    }
+
     /**
      * Remove all index conditions that are not used by the current index.
      */
@@ -1119,11 +1191,17 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
     }
 
     public int[] createColumnIndexes(Set<Column> columnSet) {
+        int[] columnIndexes = toColumnIndexes(columnSet);
+        this.columnIndexes = columnIndexes;
+        return columnIndexes;
+    }
+
+    private int[] toColumnIndexes(Set<Column> columnSet) {
         int size = columnSet.size(); // size可能比原来的expressionArray大
         int[] columnIndexes = new int[size];
         int i = 0;
         for (Column c : columnSet) {
-            if (c.getTable() == table) {
+            if (c != null && c.getTable() == table) {
                 columnIndexes[i++] = c.getColumnId(); // 索引从0开始，columnId也是从0开始
             }
         }
@@ -1134,7 +1212,25 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
         }
 
         Arrays.sort(columnIndexes);
-        this.columnIndexes = columnIndexes;
         return columnIndexes;
     }
+
+    // 查询用到的本表字段，选择索引时用来判断是否只扫描索引就够了，
+    // update、delete和select for update要锁住主索引中的记录，不能只扫描索引
+    private int[] getReferencedColumnIndexes() {
+        if (select == null || select.isForUpdate()) {
+            return null;
+        }
+        return toColumnIndexes(select.getReferencedColumns());
+    }
+
+    /**
+     * Check if the query only needs to read the chosen index, without looking up the rows
+     * in the primary index.
+     *
+     * @return true if this is an index-only scan
+     */
+    public boolean isIndexOnly() {
+        return index != null && index.isCovering(getReferencedColumnIndexes());
+    }
 }
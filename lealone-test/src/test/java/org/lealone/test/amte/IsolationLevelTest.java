@@ -17,8 +17,23 @@
  */
 package org.lealone.test.amte;
 
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
 import org.junit.Test;
+import org.lealone.db.index.ColumnPageStatistics;
+import org.lealone.db.index.ValueDataType;
+import org.lealone.db.index.VersionedValue;
+import org.lealone.db.index.VersionedValueType;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueArray;
+import org.lealone.db.value.ValueInt;
+import org.lealone.db.value.ValueLong;
+import org.lealone.storage.IterationParameters;
 import org.lealone.storage.Storage;
+import org.lealone.storage.aose.btree.PageStorageMode;
 import org.lealone.test.TestBase;
 import org.lealone.transaction.Transaction;
 import org.lealone.transaction.TransactionEngine;
@@ -37,6 +52,7 @@ public class IsolationLevelTest extends TestBase {
         try {
             test1();
             test2();
+            test3();
         } finally {
             te.close();
         }
@@ -118,4 +134,54 @@ public class IsolationLevelTest extends TestBase {
         assertEquals("c", map2.get("3"));
         assertEquals("c", map3.get("3"));
     }
+
+    // 列式存储时leaf page的zone map要覆盖旧版本，否则老事务能读到的记录所在的page会被跳过
+    private void test3() {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("pageStorageMode", PageStorageMode.COLUMN_STORAGE.name());
+        Transaction t1 = te.beginTransaction(false);
+        TransactionMap<ValueLong, VersionedValue> map1 = t1.openMap(mapName + "_zone",
+                new ValueDataType(null, null, null),
+                new VersionedValueType(new ValueDataType(null, null, null), 1), storage, parameters);
+        map1.clear();
+        for (int i = 1; i <= 100; i++) {
+            map1.put(ValueLong.get(i), createVersionedValue(i));
+        }
+        t1.commit();
+
+        Transaction t2 = te.beginTransaction(false);
+        t2.setIsolationLevel(Transaction.IL_REPEATABLE_READ);
+        TransactionMap<ValueLong, VersionedValue> map2 = map1.getInstance(t2);
+
+        Transaction t3 = te.beginTransaction(false);
+        TransactionMap<ValueLong, VersionedValue> map3 = map1.getInstance(t3);
+        map3.put(ValueLong.get(1), createVersionedValue(1000));
+        t3.commit();
+        // 保存时生成zone map，最新版本的值都不等于1
+        map1.save();
+
+        // t2只能读到旧版本的1
+        assertEquals(1, countEquals(map2, 1));
+        assertEquals(0, countEquals(map1, 1));
+        assertEquals(1, countEquals(map1, 1000));
+        map1.remove();
+    }
+
+    private static VersionedValue createVersionedValue(int v) {
+        return new VersionedValue(1, ValueArray.get(new Value[] { ValueInt.get(v) }));
+    }
+
+    private static int countEquals(TransactionMap<ValueLong, VersionedValue> map, int v) {
+        Value[] lows = { ValueInt.get(v) };
+        Value[] highs = { ValueInt.get(v) };
+        IterationParameters<ValueLong> parameters = IterationParameters.create(null, 0);
+        parameters.pageFilter = ColumnPageStatistics.createPageFilter(lows, highs, null);
+        Iterator<Entry<ValueLong, VersionedValue>> it = map.entryIterator(parameters);
+        int count = 0;
+        while (it.hasNext()) {
+            if (it.next().getValue().value.getList()[0].getInt() == v)
+                count++;
+        }
+        return count;
+    }
 }
@@ -13,12 +13,17 @@
  */
 package org.lealone.test.aose;
 
+import java.io.File;
+import java.io.IOException;
+
 import org.junit.Test;
+import org.lealone.common.util.IOUtils;
 import org.lealone.db.value.ValueString;
 import org.lealone.storage.aose.AOStorage;
 import org.lealone.storage.aose.AOStorageBuilder;
 import org.lealone.storage.aose.btree.BTreeMap;
 import org.lealone.storage.fs.FilePath;
+import org.lealone.storage.fs.FileUtils;
 import org.lealone.test.TestBase;
 
 public class AOStorageTest extends TestBase {
@@ -31,6 +36,8 @@ public class AOStorageTest extends TestBase {
         try {
             testOpenMap();
             testBackupTo();
+            testFileBlockCache();
+            testMmapChunkFile();
             testDrop();
         } finally {
             storage.close();
@@ -67,6 +74,149 @@ public class AOStorageTest extends TestBase {
         assertTrue(p.exists());
         assertTrue(!p.isDirectory());
         assertTrue(p.size() > 0);
+
+        // 在线备份，备份之后存储依然可用
+        assertFalse(storage.isClosed());
+        assertEquals("value1", map.get(1));
+
+        // 备份到目录
+        String dir = joinDirs("testBackup", "backup2") + File.separator;
+        FileUtils.deleteRecursive(dir, false);
+        storage.backupTo(dir);
+        String mapDir = dir + getBackupEntryNameBase() + File.separator + map.getName();
+        assertTrue(FileUtils.exists(mapDir + File.separator + "chunkMetaData"));
+        int fullCount = FilePath.get(mapDir).newDirectoryStream().size();
+        assertTrue(fullCount > 1);
+
+        // 增量备份，只包含新的chunk文件
+        long lastDate = System.currentTimeMillis();
+        try {
+            Thread.sleep(1000); // 有些文件系统的修改时间精度是秒
+        } catch (InterruptedException e) {
+        }
+        for (int i = 101; i <= 200; i++) {
+            map.put(i, "value" + i);
+        }
+        String dir2 = joinDirs("testBackup", "backup3") + File.separator;
+        FileUtils.deleteRecursive(dir2, false);
+        storage.backupTo(dir2, lastDate);
+        String mapDir2 = dir2 + getBackupEntryNameBase() + File.separator + map.getName();
+        assertEquals(2, FilePath.get(mapDir2).newDirectoryStream().size()); // 一个新chunk加chunkMetaData
+
+        // 把增量备份合并到全量备份中，然后从备份中打开
+        try {
+            for (FilePath f : FilePath.get(mapDir2).newDirectoryStream()) {
+                IOUtils.copyFiles(f.toString(), mapDir + File.separator + f.getName());
+            }
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        AOStorageBuilder builder = new AOStorageBuilder();
+        builder.storagePath(dir + getBackupEntryNameBase());
+        builder.encryptionKey("mykey".toCharArray());
+        AOStorage storage2 = builder.openStorage();
+        try {
+            BTreeMap<Integer, String> map2 = storage2.openBTreeMap(map.getName());
+            assertEquals(200, map2.size());
+            assertEquals("value200", map2.get(200));
+        } finally {
+            storage2.close();
+        }
+    }
+
+    void testFileBlockCache() {
+        testFileBlockCache("none", true);
+        testFileBlockCache("global", true);
+        testFileBlockCache("file", false);
+
+        AOStorageBuilder builder = new AOStorageBuilder();
+        builder.storagePath(joinDirs("aose", "testFileBlockCache_unknown"));
+        builder.fileBlockCache("xxx");
+        AOStorage storage2 = builder.openStorage();
+        try {
+            BTreeMap<Integer, String> map = storage2.openBTreeMap("AOStorageTest_testFileBlockCache");
+            map.put(1, "value1");
+            map.save();
+            fail();
+        } catch (IllegalArgumentException e) {
+        } finally {
+            storage2.close();
+        }
+    }
+
+    private void testFileBlockCache(String mode, boolean direct) {
+        String storagePath = joinDirs("aose", "testFileBlockCache_" + mode);
+        FileUtils.deleteRecursive(storagePath, true);
+        String mapName = "AOStorageTest_testFileBlockCache";
+        for (int round = 0; round < 2; round++) {
+            AOStorageBuilder builder = new AOStorageBuilder();
+            builder.storagePath(storagePath).pageSplitSize(1024);
+            builder.fileBlockCache(mode);
+            if (direct)
+                builder.directReadBuffer();
+            AOStorage storage2 = builder.openStorage();
+            try {
+                BTreeMap<Integer, String> map = storage2.openBTreeMap(mapName);
+                if (round == 0) {
+                    for (int i = 1; i <= 1000; i++) {
+                        map.put(i, "value" + i);
+                    }
+                    map.save();
+                } else {
+                    // 重新打开后page都要从chunk文件中读
+                    assertEquals(1000, map.size());
+                    for (int i = 1; i <= 1000; i++) {
+                        assertEquals("value" + i, map.get(i));
+                    }
+                }
+            } finally {
+                storage2.close();
+            }
+        }
+    }
+
+    void testMmapChunkFile() {
+        String storagePath = joinDirs("aose", "testMmapChunkFile");
+        FileUtils.deleteRecursive(storagePath, true);
+        String mapName = "AOStorageTest_testMmapChunkFile";
+        for (int round = 0; round < 3; round++) {
+            AOStorageBuilder builder = new AOStorageBuilder();
+            builder.storagePath(storagePath).pageSplitSize(1024).minFillRate(30);
+            builder.mmapChunkFile();
+            AOStorage storage2 = builder.openStorage();
+            try {
+                BTreeMap<Integer, String> map = storage2.openBTreeMap(mapName);
+                if (round == 0) {
+                    for (int i = 1; i <= 1000; i++) {
+                        map.put(i, "value" + i);
+                    }
+                    map.save();
+                } else if (round == 1) {
+                    // 先从映射的chunk文件中读，然后多次重写，让旧的chunk被回收
+                    assertEquals("value500", map.get(500));
+                    for (int n = 0; n < 5; n++) {
+                        // 原地写入不会让已经保存过的page重新保存，所以先清空再写
+                        map.clear();
+                        for (int i = 1; i <= 1000; i++) {
+                            map.put(i, "value" + i + "_" + n);
+                        }
+                        map.save();
+                    }
+                    assertEquals("value500_4", map.get(500));
+                } else {
+                    assertEquals(1000, map.size());
+                    for (int i = 1; i <= 1000; i++) {
+                        assertEquals("value" + i + "_4", map.get(i));
+                    }
+                }
+            } finally {
+                storage2.close();
+            }
+        }
+    }
+
+    private String getBackupEntryNameBase() {
+        return FilePath.get(storage.getStoragePath()).getName();
     }
 
     void testOpenMap() {
@@ -17,12 +17,20 @@
  */
 package org.lealone.test.aose;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.CountDownLatch;
 
 import org.junit.Test;
 import org.lealone.storage.StorageMapCursor;
 import org.lealone.storage.aose.AOStorage;
 import org.lealone.storage.aose.btree.BTreeMap;
+import org.lealone.storage.aose.btree.BTreePage;
+import org.lealone.storage.aose.btree.CompressionStatistics;
 import org.lealone.test.TestBase;
 
 public class BTreeMapTest extends TestBase {
@@ -38,6 +46,10 @@ public class BTreeMapTest extends TestBase {
         testCompact();
         testSplit();
         testRemove();
+        testBatchOperations();
+        testBulkLoad();
+        testFillFactor();
+        testCompression();
     }
 
     private void init() {
@@ -290,4 +302,209 @@ public class BTreeMapTest extends TestBase {
 
         map.printPage();
     }
+
+    void testBatchOperations() {
+        openMap();
+        map.clear();
+        int count = 5000;
+        List<Integer> keys = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            keys.add(i);
+        }
+        // 打乱顺序，让每一批都跨越多个leaf page
+        Collections.shuffle(keys);
+        List<String> values = new ArrayList<>(count);
+        for (Integer key : keys) {
+            values.add("value-" + key);
+        }
+        List<String> oldValues = map.putAll(keys, values);
+        assertEquals(count, oldValues.size());
+        for (String v : oldValues) {
+            assertNull(v);
+        }
+        assertEquals(count, map.size());
+        for (int i = 1; i <= count; i++) {
+            assertEquals("value-" + i, map.get(i));
+        }
+
+        // 已经存在的key返回旧值，跟putIfAbsent一样
+        List<Integer> keys2 = new ArrayList<>();
+        List<String> values2 = new ArrayList<>();
+        keys2.add(count + 1);
+        values2.add("new");
+        keys2.add(10);
+        values2.add("new");
+        keys2.add(count + 1);
+        values2.add("new2");
+        CountDownLatch latch = new CountDownLatch(1);
+        map.putAllIfAbsent(keys2, values2, ar -> {
+            List<String> list = ar.getResult();
+            assertNull(list.get(0));
+            assertEquals("value-10", list.get(1));
+            assertEquals("new", list.get(2));
+            latch.countDown();
+        });
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        assertEquals(count + 1, map.size());
+
+        // 有序的key会复用同一个leaf page，不存在的key返回null
+        List<Integer> getKeys = new ArrayList<>();
+        for (int i = 0; i <= count + 10; i += 3) {
+            getKeys.add(i);
+        }
+        List<String> getValues = map.getAll(getKeys, null);
+        assertEquals(getKeys.size(), getValues.size());
+        for (int i = 0, size = getKeys.size(); i < size; i++) {
+            int key = getKeys.get(i);
+            if (key == 0 || key > count + 1)
+                assertNull(getValues.get(i));
+            else if (key == count + 1)
+                assertEquals("new", getValues.get(i));
+            else
+                assertEquals("value-" + key, getValues.get(i));
+        }
+
+        oldValues = map.removeAll(keys);
+        for (int i = 0; i < count; i++) {
+            assertEquals("value-" + keys.get(i), oldValues.get(i));
+        }
+        assertEquals(1, map.size());
+        assertEquals("new", map.get(count + 1));
+    }
+
+    void testBulkLoad() {
+        openMap();
+        map.clear();
+        int count = 10000;
+        TreeMap<Integer, String> data = new TreeMap<>();
+        for (int i = 1; i <= count; i++) {
+            data.put(i * 2, "value-" + i * 2);
+        }
+        map.bulkLoad(data.entrySet().iterator());
+        assertEquals(count, map.size());
+        assertEquals(2, (int) map.firstKey());
+        assertEquals(count * 2, (int) map.lastKey());
+        for (Map.Entry<Integer, String> e : data.entrySet()) {
+            assertEquals(e.getValue(), map.get(e.getKey()));
+        }
+        StorageMapCursor<Integer, String> cursor = map.cursor();
+        int key = 0;
+        while (cursor.hasNext()) {
+            cursor.next();
+            key += 2;
+            assertEquals(key, (int) cursor.getKey());
+        }
+        assertEquals(count * 2, key);
+
+        // 导入的page已经直接写到chunk中了，重新打开后从chunk文件中读
+        map.close();
+        openMap();
+        assertEquals(count, map.size());
+        for (Map.Entry<Integer, String> e : data.entrySet()) {
+            assertEquals(e.getValue(), map.get(e.getKey()));
+        }
+
+        // 导入后依然可以正常切割page
+        for (int i = 1; i <= count; i++) {
+            map.put(i * 2 - 1, "value-" + (i * 2 - 1));
+        }
+        assertEquals(count * 2, map.size());
+        assertEquals("value-9999", map.get(9999));
+
+        // 只能导入到空map中
+        try {
+            map.bulkLoad(data.entrySet().iterator());
+            fail();
+        } catch (IllegalStateException e) {
+        }
+
+        // key必须是有序的
+        map.clear();
+        TreeMap<Integer, String> unsorted = new TreeMap<>(Collections.reverseOrder());
+        unsorted.put(1, "a");
+        unsorted.put(2, "b");
+        try {
+            map.bulkLoad(unsorted.entrySet().iterator());
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        map.clear();
+    }
+
+    void testFillFactor() {
+        // 顺序追加时左边的page按fillFactor保留记录，fillFactor=50就相当于从中间切割
+        int pages50 = appendAndCountLeafPages("50");
+        int pages100 = appendAndCountLeafPages("100");
+        assertTrue(pages100 * 3 / 2 < pages50);
+
+        try {
+            appendAndCountLeafPages("30");
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    private int appendAndCountLeafPages(String fillFactor) {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("fillFactor", fillFactor);
+        BTreeMap<Integer, String> map = storage.openBTreeMap("BTreeMapTest_fillFactor" + fillFactor, null, null,
+                parameters);
+        int count = 10000;
+        for (int i = 1; i <= count; i++) {
+            map.put(i, "value-" + i);
+        }
+        assertEquals(count, map.size());
+        assertEquals("value-5000", map.get(5000));
+        int pages = countLeafPages(map.getRootPage());
+        map.remove();
+        return pages;
+    }
+
+    private static int countLeafPages(BTreePage p) {
+        if (p.isLeaf())
+            return 1;
+        int count = 0;
+        for (int i = 0, size = p.getRawChildPageCount(); i < size; i++) {
+            count += countLeafPages(p.getChildPage(i));
+        }
+        return count;
+    }
+
+    void testCompression() {
+        int count = 5000;
+        for (String compress : new String[] { "lzf", "lz4", "lz4hc", "deflate", "3" }) {
+            String mapName = "BTreeMapTest_compress_" + compress;
+            Map<String, String> parameters = new HashMap<>();
+            parameters.put("compress", compress);
+            BTreeMap<Integer, String> map = storage.openBTreeMap(mapName, null, null, parameters);
+            for (int i = 1; i <= count; i++) {
+                map.put(i, "the quick brown fox jumps over the lazy dog, row " + i);
+            }
+            map.save();
+            CompressionStatistics stats = map.getCompressionStatistics();
+            assertTrue(stats.getCompressedPages() > 0);
+            assertTrue(stats.getRatio() < 0.5);
+            map.close();
+
+            // 重新打开后page缓存是空的，读数据时要解压
+            map = storage.openBTreeMap(mapName, null, null, parameters);
+            for (int i = 1; i <= count; i++) {
+                assertEquals("the quick brown fox jumps over the lazy dog, row " + i, map.get(i));
+            }
+            assertTrue(map.getCompressionStatistics().getExpandedPages() > 0);
+            map.remove();
+        }
+
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("compress", "zstd");
+        try {
+            storage.openBTreeMap("BTreeMapTest_compress_zstd", null, null, parameters);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
 }
@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.aose;
+
+import org.junit.Test;
+import org.lealone.storage.aose.AOStorageEngine;
+import org.lealone.storage.aose.btree.PageStorageMode;
+import org.lealone.test.sql.SqlTestBase;
+
+// 列式存储时WHERE中不能用于索引查找的条件会按leaf page的zone map跳过整个page，
+// 原地修改过的page不能再按旧的zone map跳过
+public class ColumnStorageSqlTest extends SqlTestBase {
+
+    private final String tableName = "ColumnStorageSqlTest";
+    private final int rowCount = 2000;
+
+    public ColumnStorageSqlTest() {
+        super("ColumnStorageSqlTest");
+        initTransactionEngine();
+        setEmbedded(true);
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("drop table IF EXISTS " + tableName);
+        executeUpdate("create table IF NOT EXISTS " + tableName + "(pk int primary key, f1 int, f2 varchar) Engine "
+                + AOStorageEngine.NAME + " PARAMETERS(pageStorageMode='" + PageStorageMode.COLUMN_STORAGE.name()
+                + "', pageSplitSize='1024')");
+        for (int row = 1; row <= rowCount; row++) {
+            executeUpdate("insert into " + tableName + " values(" + row + ", " + row + ", 'value-" + row + "')");
+        }
+        // 保存之后leaf page会从内存中释放，再读取时才有zone map
+        executeUpdate("checkpoint");
+
+        assertEquals(11, count("f1 between 1000 and 1010"));
+        assertEquals(0, count("f1 > " + rowCount));
+
+        // update是对value原地compareAndSet的，pk=5所在的page不能再按旧的zone map跳过
+        executeUpdate("update " + tableName + " set f1 = " + (rowCount * 10) + " where pk = 5");
+        assertEquals(1, count("f1 > " + rowCount));
+        assertEquals(1, count("f1 = " + (rowCount * 10)));
+        assertEquals(0, count("f1 = 5"));
+
+        executeUpdate("delete from " + tableName + " where pk = 1000");
+        assertEquals(10, count("f1 between 1000 and 1010"));
+    }
+
+    private int count(String where) throws Exception {
+        sql = "select count(*) from " + tableName + " where " + where;
+        return getIntValue(1, true);
+    }
+}
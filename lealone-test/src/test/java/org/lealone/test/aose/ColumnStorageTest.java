@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.aose;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.lealone.db.index.ColumnPageStatistics;
+import org.lealone.db.index.ValueDataType;
+import org.lealone.db.index.VersionedValue;
+import org.lealone.db.index.VersionedValueType;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueArray;
+import org.lealone.db.value.ValueInt;
+import org.lealone.db.value.ValueLong;
+import org.lealone.db.value.ValueNull;
+import org.lealone.db.value.ValueString;
+import org.lealone.db.value.ValueTimestamp;
+import org.lealone.storage.IterationParameters;
+import org.lealone.storage.StorageMapCursor;
+import org.lealone.storage.aose.AOStorage;
+import org.lealone.storage.aose.btree.BTreeMap;
+import org.lealone.storage.aose.btree.PageStorageMode;
+import org.lealone.test.TestBase;
+import org.lealone.transaction.amte.TransactionalValue;
+import org.lealone.transaction.amte.TransactionalValueType;
+
+public class ColumnStorageTest extends TestBase {
+
+    private final int rowCount = 2000;
+    private final int columnCount = 5;
+    private final String mapName = "ColumnStorageTest";
+    private AOStorage storage;
+    private TransactionalValueType tvType;
+    private Map<String, String> parameters;
+
+    @Test
+    public void run() {
+        storage = AOStorageTest.openStorage(4 * 1024);
+        ValueDataType valueType = new ValueDataType(null, null, null);
+        tvType = new TransactionalValueType(new VersionedValueType(valueType, columnCount));
+        parameters = new HashMap<>();
+        parameters.put("pageStorageMode", PageStorageMode.COLUMN_STORAGE.name());
+
+        BTreeMap<ValueLong, TransactionalValue> map = openMap();
+        map.clear();
+        for (int row = 1; row <= rowCount; row++) {
+            VersionedValue vv = new VersionedValue(row, ValueArray.get(createColumns(row)));
+            map.put(ValueLong.get(row), TransactionalValue.createCommitted(vv));
+        }
+        map.save();
+        map.close();
+
+        // 重新打开后page都要从硬盘读取，会用到列page的编码和leaf page的zone map
+        map = openMap();
+        testEncodings(map);
+        testZoneMap(map);
+        map.remove();
+    }
+
+    private BTreeMap<ValueLong, TransactionalValue> openMap() {
+        return storage.openBTreeMap(mapName, new ValueDataType(null, null, null), tvType, parameters);
+    }
+
+    private static Value[] createColumns(int row) {
+        Value[] columns = new Value[5];
+        columns[0] = ValueInt.get(row); // 差值编码
+        columns[1] = ValueString.get("type-" + (row % 3)); // 字典编码
+        columns[2] = ValueLong.get(100); // 游程编码
+        columns[3] = row % 2 == 0 ? ValueNull.INSTANCE : ValueString.get("value-" + row); // null位图
+        columns[4] = ValueTimestamp.fromDateValueAndNanos(20201020, row * 1000_000_000L);
+        return columns;
+    }
+
+    private void testEncodings(BTreeMap<ValueLong, TransactionalValue> map) {
+        IterationParameters<ValueLong> parameters = IterationParameters.create(null);
+        parameters.allColumns = true;
+        StorageMapCursor<ValueLong, TransactionalValue> cursor = map.cursor(parameters);
+        int row = 0;
+        while (cursor.hasNext()) {
+            cursor.next();
+            row++;
+            VersionedValue vv = (VersionedValue) cursor.getValue().getValue();
+            Value[] expected = createColumns(row);
+            Value[] columns = vv.value.getList();
+            for (int col = 0; col < columnCount; col++) {
+                assertEquals(expected[col], columns[col]);
+            }
+        }
+        assertEquals(rowCount, row);
+    }
+
+    private void testZoneMap(BTreeMap<ValueLong, TransactionalValue> map) {
+        int low = 1000, high = 1010;
+        Value[] lows = new Value[columnCount];
+        Value[] highs = new Value[columnCount];
+        lows[0] = ValueInt.get(low);
+        highs[0] = ValueInt.get(high);
+        IterationParameters<ValueLong> parameters = IterationParameters.create(null, 0);
+        parameters.pageFilter = ColumnPageStatistics.createPageFilter(lows, highs, null);
+        StorageMapCursor<ValueLong, TransactionalValue> cursor = map.cursor(parameters);
+        int rows = 0, matched = 0;
+        while (cursor.hasNext()) {
+            cursor.next();
+            rows++;
+            VersionedValue vv = (VersionedValue) cursor.getValue().getValue();
+            int v = vv.value.getList()[0].getInt();
+            if (v >= low && v <= high)
+                matched++;
+        }
+        // 满足条件的记录一条都不能少，不满足条件的page被跳过了
+        assertEquals(high - low + 1, matched);
+        assertTrue(rows < rowCount);
+
+        // 只有一半是null的列，每个page都有非null的值，不能跳过
+        lows = new Value[columnCount];
+        highs = new Value[columnCount];
+        lows[3] = ValueString.get("a");
+        parameters = IterationParameters.create(null, 3);
+        parameters.pageFilter = ColumnPageStatistics.createPageFilter(lows, highs, null);
+        cursor = map.cursor(parameters);
+        rows = 0;
+        while (cursor.hasNext()) {
+            cursor.next();
+            rows++;
+        }
+        assertEquals(rowCount, rows);
+    }
+}
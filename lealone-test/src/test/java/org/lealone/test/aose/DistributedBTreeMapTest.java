@@ -19,6 +19,7 @@ package org.lealone.test.aose;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -34,6 +35,7 @@ import org.lealone.storage.aose.AOStorage;
 import org.lealone.storage.aose.btree.BTreeMap;
 import org.lealone.storage.aose.btree.BTreePage;
 import org.lealone.storage.aose.btree.DistributedBTreeMap;
+import org.lealone.storage.aose.btree.LeafPageMigration;
 import org.lealone.storage.aose.btree.PageReference;
 import org.lealone.test.TestBase;
 
@@ -50,6 +52,12 @@ public class DistributedBTreeMapTest extends TestBase {
         testLeafPageRemove();
     }
 
+    @Test
+    public void runLeafPageMigration() {
+        init();
+        testLeafPageMigration();
+    }
+
     private void init() {
         int pageSplitSize = 16 * 1024;
         pageSplitSize = 4 * 1024;
@@ -185,6 +193,26 @@ public class DistributedBTreeMapTest extends TestBase {
             pf.setReplicationHostIds(replicationHostIds);
     }
 
+    void testLeafPageMigration() {
+        DistributedBTreeMap<Integer, String> map = openDistributedBTreeMap("testLeafPageMigration");
+        map.clear();
+        for (int i = 1; i <= 6000; i++) {
+            map.put(i, "value" + i);
+        }
+        // page没有复制节点信息，所以每个page都会移动失败，重试之后仍然失败
+        LeafPageMigration migration = new LeafPageMigration(null, new String[0], new String[0], 2, 0, 1);
+        try {
+            migration.run(Arrays.asList(map));
+            fail();
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+        }
+        String progress = migration.getProgress().get(map.getName());
+        assertTrue(progress.startsWith("moved: 0, remaining: "));
+        assertFalse(progress.contains("failed: 0,"));
+        assertEquals(6000, map.size());
+    }
+
     void testRemotePage() {
         String mapName = "RemotePageTest";
         String dir = storagePath + File.separator + mapName;
@@ -0,0 +1,320 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.aose;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.lealone.common.util.DataUtils;
+import org.lealone.db.index.ValueDataType;
+import org.lealone.db.value.ValueLong;
+import org.lealone.storage.StorageMapCursor;
+import org.lealone.storage.memory.LongKeyMemoryMap;
+import org.lealone.storage.memory.MemoryMap;
+import org.lealone.storage.memory.MemoryStorage;
+import org.lealone.storage.type.ObjectDataType;
+import org.lealone.test.TestBase;
+
+public class MemoryMapTest extends TestBase {
+
+    private final MemoryStorage storage = new MemoryStorage();
+
+    private String mapType;
+
+    @Test
+    public void run() throws Exception {
+        mapType = null;
+        testSizeAndMemory();
+        testMaxMemorySize();
+        testConcurrentMaxMemorySize();
+
+        mapType = LongKeyMemoryMap.MAP_TYPE;
+        testSizeAndMemory();
+        testMaxMemorySize();
+        testConcurrentMaxMemorySize();
+        testLongKeyMap();
+        testConcurrentLongKeyMap();
+        testConcurrentClear();
+    }
+
+    private MemoryMap<ValueLong, String> openMap(String name, HashMap<String, String> parameters) {
+        if (mapType != null) {
+            if (parameters == null)
+                parameters = new HashMap<>();
+            parameters.put("mapType", mapType);
+            name += "_" + mapType;
+        }
+        return storage.openMap(name, new ValueDataType(null, null, null), new ObjectDataType(), parameters);
+    }
+
+    void testSizeAndMemory() {
+        MemoryMap<ValueLong, String> map = openMap("MemoryMapTest_testSizeAndMemory", null);
+        if (mapType != null)
+            assertTrue(map instanceof LongKeyMemoryMap);
+        for (int i = 100; i >= 1; i--) {
+            map.put(ValueLong.get(i), "value" + i);
+        }
+        assertEquals(100, map.size());
+        assertEquals(1, map.firstKey().getLong());
+        assertEquals(100, map.lastKey().getLong());
+        long memory = map.getMemorySpaceUsed();
+        assertTrue(memory > 0);
+
+        map.put(ValueLong.get(1), "value1"); // 更新不改变记录数
+        assertEquals(100, map.size());
+        assertNotNull(map.putIfAbsent(ValueLong.get(2), "v"));
+        assertEquals(100, map.size());
+        assertEquals(memory, map.getMemorySpaceUsed());
+
+        map.remove(ValueLong.get(50));
+        assertEquals(99, map.size());
+        assertTrue(map.getMemorySpaceUsed() < memory);
+
+        StorageMapCursor<ValueLong, String> cursor = map.cursor(ValueLong.get(91));
+        while (cursor.hasNext()) {
+            cursor.next();
+            cursor.remove();
+        }
+        assertEquals(89, map.size());
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(0, map.getMemorySpaceUsed());
+    }
+
+    void testMaxMemorySize() {
+        HashMap<String, String> parameters = new HashMap<>();
+        parameters.put(MemoryMap.MAX_MEMORY_SIZE, "1024");
+        MemoryMap<ValueLong, String> map = openMap("MemoryMapTest_testMaxMemorySize", parameters);
+        int count = 0;
+        try {
+            for (int i = 1; i <= 1000; i++) {
+                map.put(ValueLong.get(i), "value" + i);
+                count++;
+            }
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals(DataUtils.ERROR_WRITING_FAILED, DataUtils.getErrorCode(e.getMessage()));
+        }
+        assertEquals(count, map.size());
+        // 超出上限后依然可以更新和删除记录
+        map.put(ValueLong.get(1), "v");
+        map.remove(ValueLong.get(1));
+        map.put(ValueLong.get(1), "v");
+        assertEquals(count, map.size());
+    }
+
+    // 多个线程同时插入时也不能超出内存上限太多，最多超出每个线程插入的最后一条记录
+    void testConcurrentMaxMemorySize() throws Exception {
+        HashMap<String, String> parameters = new HashMap<>();
+        int maxMemorySize = 64 * 1024;
+        parameters.put(MemoryMap.MAX_MEMORY_SIZE, maxMemorySize + "");
+        MemoryMap<ValueLong, String> map = openMap("MemoryMapTest_testConcurrentMaxMemorySize", parameters);
+        int threadCount = 8;
+        AtomicInteger key = new AtomicInteger();
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    while (true) {
+                        int k = key.incrementAndGet();
+                        if (k % 2 == 0)
+                            map.put(ValueLong.get(k), "value" + k);
+                        else
+                            map.putIfAbsent(ValueLong.get(k), "value" + k);
+                    }
+                } catch (IllegalStateException e) {
+                }
+            });
+            threads[i].start();
+        }
+        for (int i = 0; i < threadCount; i++) {
+            threads[i].join();
+        }
+        long memory = map.getMemorySpaceUsed();
+        assertTrue(memory >= maxMemorySize);
+        long maxRowMemory = memory / map.size() * 2;
+        assertTrue(memory < maxMemorySize + threadCount * maxRowMemory);
+    }
+
+    // 跟TreeMap的结果对比，覆盖leaf page的切割和合并
+    void testLongKeyMap() {
+        MemoryMap<ValueLong, String> map = openMap("MemoryMapTest_testLongKeyMap", null);
+        TreeMap<Long, String> expected = new TreeMap<>();
+        Random random = new Random(1);
+        for (int i = 0; i < 50000; i++) {
+            long k = random.nextInt(5000) - 2500;
+            int op = random.nextInt(10);
+            if (op < 6) {
+                assertEquals(expected.put(k, "v" + i), map.put(ValueLong.get(k), "v" + i));
+            } else if (op < 7) {
+                assertEquals(expected.putIfAbsent(k, "v" + i), map.putIfAbsent(ValueLong.get(k), "v" + i));
+            } else {
+                assertEquals(expected.remove(k), map.remove(ValueLong.get(k)));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        checkLongKeyMap(expected, map);
+
+        // 只在右边追加，再从左边删除，合并后不能留下空的leaf page
+        map.clear();
+        expected.clear();
+        for (long k = Long.MAX_VALUE - 10000; k < Long.MAX_VALUE; k++) {
+            map.put(ValueLong.get(k), "v" + k);
+            expected.put(k, "v" + k);
+        }
+        map.put(ValueLong.get(Long.MAX_VALUE), "max");
+        expected.put(Long.MAX_VALUE, "max");
+        map.put(ValueLong.get(Long.MIN_VALUE), "min");
+        expected.put(Long.MIN_VALUE, "min");
+        checkLongKeyMap(expected, map);
+        for (long k = Long.MAX_VALUE - 10000; k < Long.MAX_VALUE - 100; k++) {
+            assertEquals(expected.remove(k), map.remove(ValueLong.get(k)));
+        }
+        checkLongKeyMap(expected, map);
+        assertNull(map.higherKey(ValueLong.get(Long.MAX_VALUE)));
+        assertNull(map.lowerKey(ValueLong.get(Long.MIN_VALUE)));
+    }
+
+    private void checkLongKeyMap(TreeMap<Long, String> expected, MemoryMap<ValueLong, String> map) {
+        assertEquals(expected.firstKey().longValue(), map.firstKey().getLong());
+        assertEquals(expected.lastKey().longValue(), map.lastKey().getLong());
+        for (long k : new long[] { Long.MIN_VALUE, -2501, -1, 0, 1, 2501, Long.MAX_VALUE - 5000, Long.MAX_VALUE }) {
+            ValueLong key = ValueLong.get(k);
+            assertEquals(expected.get(k), map.get(key));
+            assertEquals(expected.ceilingKey(k), toLong(map.ceilingKey(key)));
+            assertEquals(expected.floorKey(k), toLong(map.floorKey(key)));
+            assertEquals(expected.higherKey(k), toLong(map.higherKey(key)));
+            assertEquals(expected.lowerKey(k), toLong(map.lowerKey(key)));
+        }
+        for (Map.Entry<Long, String> e : expected.entrySet()) {
+            assertEquals(e.getValue(), map.get(ValueLong.get(e.getKey())));
+        }
+        StorageMapCursor<ValueLong, String> cursor = map.cursor();
+        int count = 0;
+        for (Map.Entry<Long, String> e : expected.entrySet()) {
+            assertTrue(cursor.hasNext());
+            assertEquals(e.getKey().longValue(), cursor.next().getLong());
+            assertEquals(e.getValue(), cursor.getValue());
+            count++;
+        }
+        assertFalse(cursor.hasNext());
+        assertEquals(expected.size(), count);
+        Long from = expected.ceilingKey(0L);
+        cursor = map.cursor(ValueLong.get(0));
+        if (from == null) {
+            assertFalse(cursor.hasNext());
+        } else {
+            assertTrue(cursor.hasNext());
+            assertEquals(from.longValue(), cursor.next().getLong());
+        }
+    }
+
+    private static Long toLong(ValueLong v) {
+        return v == null ? null : v.getLong();
+    }
+
+    // 多个线程插入和删除不同的key，同时有线程读，最后的结果要跟单线程一样
+    void testConcurrentLongKeyMap() throws Exception {
+        MemoryMap<ValueLong, String> map = openMap("MemoryMapTest_testConcurrentLongKeyMap", null);
+        int threadCount = 8;
+        int count = 20000;
+        Thread[] threads = new Thread[threadCount];
+        AtomicInteger errors = new AtomicInteger();
+        for (int i = 0; i < threadCount; i++) {
+            int t = i;
+            threads[i] = new Thread(() -> {
+                Random random = new Random(t);
+                for (int j = 0; j < count; j++) {
+                    long k = j * threadCount + t; // 每个线程的key不同，但是交错地落在同一些leaf page中
+                    map.put(ValueLong.get(k), "v" + k);
+                    if (!("v" + k).equals(map.get(ValueLong.get(k))))
+                        errors.incrementAndGet();
+                    if (j % 3 == 0) {
+                        map.remove(ValueLong.get(k));
+                        if (map.get(ValueLong.get(k)) != null)
+                            errors.incrementAndGet();
+                    }
+                    long r = random.nextInt(count * threadCount);
+                    map.get(ValueLong.get(r));
+                }
+            });
+            threads[i].start();
+        }
+        for (int i = 0; i < threadCount; i++) {
+            threads[i].join();
+        }
+        assertEquals(0, errors.get());
+        TreeMap<Long, String> expected = new TreeMap<>();
+        for (int t = 0; t < threadCount; t++) {
+            for (int j = 0; j < count; j++) {
+                if (j % 3 != 0) {
+                    long k = j * threadCount + t;
+                    expected.put(k, "v" + k);
+                }
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        checkLongKeyMap(expected, map);
+    }
+
+    // clear跟写操作并发执行时，写操作不能写到已经丢弃的leaf page中，计数器也要跟实际的记录一致
+    void testConcurrentClear() throws Exception {
+        MemoryMap<ValueLong, String> map = openMap("MemoryMapTest_testConcurrentClear", null);
+        int threadCount = 8;
+        int count = 20000;
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            int t = i;
+            threads[i] = new Thread(() -> {
+                Random random = new Random(t);
+                for (int j = 0; j < count; j++) {
+                    long k = random.nextInt(count);
+                    if (j % 4 == 0)
+                        map.remove(ValueLong.get(k));
+                    else
+                        map.put(ValueLong.get(k), "v" + k);
+                    if (t == 0 && j % 1000 == 0)
+                        map.clear();
+                }
+            });
+            threads[i].start();
+        }
+        for (int i = 0; i < threadCount; i++) {
+            threads[i].join();
+        }
+        int rows = 0;
+        StorageMapCursor<ValueLong, String> cursor = map.cursor();
+        while (cursor.hasNext()) {
+            cursor.next();
+            rows++;
+        }
+        assertEquals(rows, map.size());
+        cursor = map.cursor();
+        while (cursor.hasNext()) {
+            map.remove(cursor.next());
+        }
+        assertEquals(0, map.size());
+        assertEquals(0, map.getMemorySpaceUsed());
+        assertTrue(map.isEmpty());
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.client;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+
+import org.junit.Test;
+import org.lealone.db.Constants;
+import org.lealone.net.AsyncConnection;
+import org.lealone.net.TcpClientConnection;
+import org.lealone.net.nio.NioNetClient;
+import org.lealone.test.sql.SqlTestBase;
+
+public class ConnectionStripingTest extends SqlTestBase {
+
+    public ConnectionStripingTest() {
+        addConnectionParameter(Constants.CLIENT_CONNECTIONS_PER_ENDPOINT_KEY, "2");
+        addConnectionParameter(Constants.CLIENT_NIO_EVENT_LOOP_COUNT_KEY, "2");
+    }
+
+    @Test
+    public void run() throws Exception {
+        ArrayList<Connection> list = new ArrayList<>();
+        try {
+            for (int i = 0; i < 4; i++) {
+                list.add(getConnection());
+            }
+            for (Connection conn : list) {
+                try (Statement stmt = conn.createStatement()) {
+                    ResultSet rs = stmt.executeQuery("SELECT 1");
+                    assertTrue(rs.next());
+                    assertEquals(1, rs.getInt(1));
+                    rs.close();
+                }
+            }
+
+            // 5个session(包括SqlTestBase打开的那个)分散到2条物理连接上
+            int connectionCount = 0;
+            int sessionCount = 0;
+            for (AsyncConnection ac : NioNetClient.getInstance().getConnections()) {
+                if (ac instanceof TcpClientConnection) {
+                    TcpClientConnection c = (TcpClientConnection) ac;
+                    connectionCount++;
+                    sessionCount += c.getSessionCount();
+                    assertTrue(c.getBytesSent() > 0);
+                    assertTrue(c.getBytesReceived() > 0);
+                    assertEquals(0, c.getInFlightRequestCount());
+                }
+            }
+            assertTrue(connectionCount >= 2);
+            assertTrue(sessionCount >= 5);
+        } finally {
+            for (Connection conn : list) {
+                conn.close();
+            }
+        }
+    }
+}
@@ -17,6 +17,9 @@
  */
 package org.lealone.test.db.schema;
 
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.junit.Test;
 import org.lealone.db.api.ErrorCode;
 import org.lealone.db.result.Result;
@@ -27,6 +30,7 @@ public class SequenceTest extends DbObjectTestBase {
 
     @Test
     public void run() {
+        concurrentNext();
         create();
         alter();
         drop();
@@ -65,6 +69,43 @@ public class SequenceTest extends DbObjectTestBase {
         assertEquals(20000, sequence.getMaxValue());
     }
 
+    void concurrentNext() {
+        // 临时的sequence不用写元数据
+        Sequence sequence = new Sequence(schema, db.allocateObjectId(), "myseq2", 1L, 1L, 10L, null, null, false,
+                false);
+        sequence.setTemporary(true);
+        int threadCount = 8;
+        int count = 1000;
+        Set<Long> values = ConcurrentHashMap.newKeySet();
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(() -> {
+                long last = 0;
+                for (int j = 0; j < count; j++) {
+                    long v = sequence.getNext(null);
+                    // 同一个线程内是递增的
+                    assertTrue(v > last);
+                    last = v;
+                    values.add(v);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+            }
+        }
+        // 不会重复分配
+        assertEquals(threadCount * count, values.size());
+
+        // 修改之后各线程预留的值都作废
+        sequence.modify(100000L, null, null, null);
+        assertEquals(100000, sequence.getNext(null));
+        assertEquals(100000, sequence.getCurrentValue());
+    }
+
     void drop() {
         try {
             executeUpdate("DROP SEQUENCE IF EXISTS myseq");
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.db.table;
+
+import org.junit.Test;
+import org.lealone.db.table.Column;
+import org.lealone.test.db.DbObjectTestBase;
+
+// 修改的记录数达到ANALYZE_AUTO后在后台抽样更新内存中的统计信息
+public class AutoAnalyzeTest extends DbObjectTestBase {
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS AutoAnalyzeTest");
+        executeUpdate("CREATE TABLE AutoAnalyzeTest (f1 int primary key, f2 int)");
+        Column f2 = schema.findTableOrView(session, "AutoAnalyzeTest").getColumn("f2");
+        assertNull(f2.getStatistics());
+
+        int rows = db.getSettings().analyzeAuto + 1;
+        executeUpdate("INSERT INTO AutoAnalyzeTest SELECT x, mod(x, 10) FROM system_range(1, " + rows + ")");
+        // 事务结束后才开始
+        assertNull(f2.getStatistics());
+        session.commit();
+        for (int i = 0; i < 100 && f2.getStatistics() == null; i++) {
+            Thread.sleep(50);
+        }
+        assertNotNull(f2.getStatistics());
+        // 最多只读取ANALYZE_SAMPLE / 10条记录
+        assertTrue(f2.getStatistics().getSampleRows() <= Math.max(db.getSettings().analyzeSample / 10, 1));
+        // 不修改元数据表
+        assertFalse(db.findMeta(session, f2.getTable().getId()).getValue(2).getString().contains("STATISTICS("));
+
+        session.setAutoCommit(false);
+        executeUpdate("DROP TABLE AutoAnalyzeTest");
+        session.commit();
+        session.setAutoCommit(true);
+    }
+}
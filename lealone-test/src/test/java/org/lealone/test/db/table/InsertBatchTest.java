@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.db.table;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.lealone.db.index.Index;
+import org.lealone.db.table.Table;
+import org.lealone.test.db.DbObjectTestBase;
+
+// 多行INSERT只有在没有行级触发器和CHECK、外键约束时才按批写入，PRIMARY KEY和UNIQUE约束不影响
+public class InsertBatchTest extends DbObjectTestBase {
+
+    private final AtomicInteger batchCalls = new AtomicInteger();
+    private final AtomicInteger rowCalls = new AtomicInteger();
+
+    @Test
+    public void run() {
+        executeUpdate("DROP TABLE IF EXISTS InsertBatchTest");
+        executeUpdate("CREATE TABLE InsertBatchTest (f1 int primary key, f2 varchar unique, f3 int)");
+        Table table = schema.findTableOrView(session, "InsertBatchTest");
+        assertFalse(table.hasRowTriggersOrChecks());
+
+        insert(table, "(1, 'a1', 1), (2, 'a2', 2), (3, 'a3', 3)");
+        assertEquals(1, batchCalls.get());
+        assertEquals(0, rowCalls.get());
+        assertEquals(3, getInt("SELECT count(*) FROM InsertBatchTest", 1));
+
+        // 同一批中有重复的key时整条语句失败
+        try {
+            insert(table, "(4, 'a4', 4), (5, 'a4', 5)");
+            fail();
+        } catch (Exception e) {
+        }
+        assertEquals(3, getInt("SELECT count(*) FROM InsertBatchTest", 1));
+
+        // 有CHECK约束时逐行写入
+        executeUpdate("ALTER TABLE InsertBatchTest ADD CONSTRAINT InsertBatchTestCheck CHECK f3 > 0");
+        assertTrue(table.hasRowTriggersOrChecks());
+        insert(table, "(6, 'a6', 6), (7, 'a7', 7)");
+        assertEquals(0, batchCalls.get());
+        assertEquals(2, rowCalls.get());
+        assertEquals(5, getInt("SELECT count(*) FROM InsertBatchTest", 1));
+
+        executeUpdate("DROP TABLE InsertBatchTest");
+    }
+
+    // 把f2上的唯一索引换成能统计调用次数的代理，执行完再换回来
+    private void insert(Table table, String values) {
+        batchCalls.set(0);
+        rowCalls.set(0);
+        ArrayList<Index> indexes = table.getIndexes();
+        int i = indexes.size() - 1;
+        Index index = indexes.get(i);
+        indexes.set(i, (Index) Proxy.newProxyInstance(Index.class.getClassLoader(), new Class<?>[] { Index.class },
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (name.equals("addRows") || name.equals("tryAddRows"))
+                        batchCalls.incrementAndGet();
+                    else if (name.equals("add") || name.equals("tryAdd"))
+                        rowCalls.incrementAndGet();
+                    try {
+                        return method.invoke(index, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }));
+        try {
+            executeUpdate("INSERT INTO InsertBatchTest(f1, f2, f3) VALUES" + values);
+        } finally {
+            indexes.set(i, index);
+        }
+    }
+}
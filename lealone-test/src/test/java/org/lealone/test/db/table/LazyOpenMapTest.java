@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.db.table;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Test;
+import org.lealone.db.Database;
+import org.lealone.db.index.Index;
+import org.lealone.db.index.StandardPrimaryIndex;
+import org.lealone.db.index.StandardSecondaryIndex;
+import org.lealone.db.table.StandardTable;
+import org.lealone.storage.Storage;
+import org.lealone.test.db.DbObjectTestBase;
+
+public class LazyOpenMapTest extends DbObjectTestBase {
+
+    @Test
+    public void run() {
+        executeUpdate("DROP TABLE IF EXISTS LazyOpenMapTest1");
+        executeUpdate("DROP TABLE IF EXISTS LazyOpenMapTest2");
+        executeUpdate("CREATE TABLE LazyOpenMapTest1 (f1 int primary key, f2 int)");
+        executeUpdate("CREATE INDEX IF NOT EXISTS LazyOpenMapTest1_f2 ON LazyOpenMapTest1(f2)");
+        executeUpdate("CREATE TABLE LazyOpenMapTest2 (f1 int, f2 int)");
+        for (int i = 1; i <= 100; i++) {
+            executeUpdate("INSERT INTO LazyOpenMapTest1(f1, f2) VALUES(" + i + ", " + (i % 10) + ")");
+            executeUpdate("INSERT INTO LazyOpenMapTest2(f1, f2) VALUES(" + i + ", " + i + ")");
+        }
+
+        // 重新打开数据库，表和索引的map都延迟到第一次访问时才打开
+        ArrayList<String> mapNames = getMapNames("LazyOpenMapTest1");
+        assertEquals(2, mapNames.size());
+        reopen(false, mapNames);
+        Storage storage = getStorage("LazyOpenMapTest1");
+        // 启动过程中(包括判断索引是否需要重建)都不能打开map
+        for (String mapName : mapNames) {
+            assertFalse(storage.hasMap(mapName));
+            assertTrue(storage.hasPersistedMap(mapName));
+        }
+        assertEquals(100, getInt("SELECT count(*) FROM LazyOpenMapTest1", 1));
+        assertEquals(10, getInt("SELECT count(*) FROM LazyOpenMapTest1 WHERE f2 = 3", 1));
+        // 没有访问过的表也能直接删除
+        executeUpdate("DROP TABLE LazyOpenMapTest2");
+        assertNull(db.findSchema("PUBLIC").findTableOrView(session, "LazyOpenMapTest2"));
+        for (String mapName : mapNames) {
+            assertTrue(storage.hasMap(mapName));
+        }
+
+        // 启动后在后台预热
+        reopen(true, mapNames);
+        executeUpdate("INSERT INTO LazyOpenMapTest1(f1, f2) VALUES(101, 3)");
+        assertEquals(101, getInt("SELECT count(*) FROM LazyOpenMapTest1", 1));
+        assertEquals(11, getInt("SELECT count(*) FROM LazyOpenMapTest1 WHERE f2 = 3", 1));
+        executeUpdate("DROP TABLE LazyOpenMapTest1");
+    }
+
+    private Storage getStorage(String tableName) {
+        StandardTable table = (StandardTable) schema.findTableOrView(session, tableName);
+        return db.getStorage(table.getStorageEngine());
+    }
+
+    private ArrayList<String> getMapNames(String tableName) {
+        ArrayList<String> mapNames = new ArrayList<>();
+        for (Index index : schema.findTableOrView(session, tableName).getIndexes()) {
+            if (index instanceof StandardPrimaryIndex)
+                mapNames.add(((StandardPrimaryIndex) index).getMapName());
+            else if (index instanceof StandardSecondaryIndex)
+                mapNames.add(((StandardSecondaryIndex) index).getMapName());
+        }
+        return mapNames;
+    }
+
+    private void reopen(boolean warmUp, ArrayList<String> mapNames) {
+        // copy会复用原有的存储，所以先保存并关闭表和索引的map，这样才跟真正重启数据库一样
+        Storage storage = getStorage("LazyOpenMapTest1");
+        db.getTransactionEngine().checkpoint();
+        for (String mapName : mapNames) {
+            storage.getMap(mapName).save();
+            storage.closeMap(mapName);
+        }
+        HashMap<String, String> parameters = new HashMap<>();
+        parameters.put("MAP_WARM_UP_THREADS", warmUp ? "2" : "0");
+        db.alterParameters(parameters);
+        Database db2 = db.copy();
+        assertTrue(db2 != db);
+        assertTrue(db2 == session.getDatabase());
+        String statistics = db2.getOpenStatistics();
+        assertNotNull(statistics);
+        assertFalse(statistics.contains("maps deferred: 0"));
+        db = db2;
+        schema = db.findSchema(schema.getName());
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.db.table;
+
+import org.junit.Test;
+import org.lealone.db.Database;
+import org.lealone.db.table.Column;
+import org.lealone.db.table.Table;
+import org.lealone.test.db.DbObjectTestBase;
+
+// 修改表的元数据时是原地更新元数据表中的记录
+public class UpdateMetaTest extends DbObjectTestBase {
+
+    @Test
+    public void run() {
+        executeUpdate("DROP TABLE IF EXISTS UpdateMetaTest");
+        executeUpdate("CREATE TABLE UpdateMetaTest (f1 int primary key, f2 int, f3 varchar)");
+        for (int i = 1; i <= 100; i++) {
+            executeUpdate("INSERT INTO UpdateMetaTest(f1, f2, f3) VALUES(" + i + ", " + (i % 10) + ", 'v" + i + "')");
+        }
+
+        // 连续修改多次，每次都能看到最新的值
+        executeUpdate("ALTER TABLE UpdateMetaTest ALTER COLUMN f2 SELECTIVITY 20");
+        assertTrue(getMetaSQL().contains("SELECTIVITY 20"));
+        executeUpdate("ALTER TABLE UpdateMetaTest ALTER COLUMN f2 SELECTIVITY 30");
+        assertTrue(getMetaSQL().contains("SELECTIVITY 30"));
+
+        // 在同一个事务中多次修改
+        session.setAutoCommit(false);
+        executeUpdate("ALTER TABLE UpdateMetaTest ALTER COLUMN f3 SELECTIVITY 40");
+        executeUpdate("ALTER TABLE UpdateMetaTest ALTER COLUMN f3 SELECTIVITY 50");
+        session.commit();
+        session.setAutoCommit(true);
+        assertTrue(getMetaSQL().contains("SELECTIVITY 50"));
+
+        // 自动提交时前一条语句可能还没提交完，后一条语句要等它提交后再更新元数据
+        executeUpdate("ANALYZE");
+        executeUpdate("ANALYZE");
+        executeUpdate("ALTER TABLE UpdateMetaTest ALTER COLUMN f2 SELECTIVITY 60");
+        executeUpdate("ANALYZE");
+        executeUpdate("INSERT INTO UpdateMetaTest(f1, f2, f3) VALUES(101, 1, 'v101')");
+        // 自动提交是异步的，重新打开数据库前要确保已经提交
+        session.setAutoCommit(false);
+        executeUpdate("ANALYZE");
+        session.commit();
+        session.setAutoCommit(true);
+        assertTrue(getMetaSQL().contains("STATISTICS(ROWS 101 NULLS 0"));
+        int selectivity = schema.findTableOrView(session, "UpdateMetaTest").getColumn("f2").getSelectivity();
+
+        // 重新打开数据库后能读到最后一次ANALYZE的结果
+        Database db2 = db.copy();
+        assertTrue(db2 != db);
+        db = db2;
+        schema = db.findSchema(schema.getName());
+        Table table = schema.findTableOrView(session, "UpdateMetaTest");
+        Column f2 = table.getColumn("f2");
+        assertEquals(selectivity, f2.getSelectivity());
+        assertNotNull(f2.getStatistics());
+        assertEquals(101, f2.getStatistics().getSampleRows());
+        assertEquals(101, getInt("SELECT count(*) FROM UpdateMetaTest", 1));
+        int id = table.getId();
+        session.setAutoCommit(false);
+        executeUpdate("DROP TABLE UpdateMetaTest");
+        session.commit();
+        session.setAutoCommit(true);
+
+        // 提交之后被删除的对象的id就能重用了
+        executeUpdate("CREATE TABLE UpdateMetaTest (f1 int primary key)");
+        assertTrue(schema.findTableOrView(session, "UpdateMetaTest").getId() <= id);
+        session.setAutoCommit(false);
+        executeUpdate("DROP TABLE UpdateMetaTest");
+        session.commit();
+        session.setAutoCommit(true);
+    }
+
+    private String getMetaSQL() {
+        Table table = schema.findTableOrView(session, "UpdateMetaTest");
+        return db.findMeta(session, table.getId()).getValue(2).getString();
+    }
+}
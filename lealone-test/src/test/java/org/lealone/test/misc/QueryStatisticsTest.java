@@ -19,6 +19,7 @@ package org.lealone.test.misc;
 
 import org.junit.Test;
 import org.lealone.common.trace.TraceSystem;
+import org.lealone.db.QueryStatisticsData;
 import org.lealone.test.sql.SqlTestBase;
 
 public class QueryStatisticsTest extends SqlTestBase {
@@ -30,10 +31,13 @@ public class QueryStatisticsTest extends SqlTestBase {
 
     @Test
     public void run() throws Exception {
+        stmt.executeUpdate("set QUERY_STATISTICS 0"); // 清除之前的统计信息
         stmt.executeUpdate("set QUERY_STATISTICS 1");
         stmt.executeUpdate("set QUERY_STATISTICS_MAX_ENTRIES 200");
         insert();
         select();
+        testFingerprint();
+        stmt.executeUpdate("set QUERY_STATISTICS 0");
     }
 
     void insert() throws Exception {
@@ -52,6 +56,35 @@ public class QueryStatisticsTest extends SqlTestBase {
 
         sql = "select * from INFORMATION_SCHEMA.QUERY_STATISTICS";
         printResultSet();
+
+        // 只有常量不同的insert语句归为一类
+        sql = "select EXECUTION_COUNT, CUMULATIVE_ROW_COUNT from INFORMATION_SCHEMA.QUERY_STATISTICS"
+                + " where SQL_STATEMENT = 'INSERT INTO QUERYSTATISTICSTEST(F1, F2, F3) VALUES(?,?,?)'";
+        assertEquals(4, getIntValue(1));
+        assertEquals(4, getIntValue(2, true));
+
+        stmt.executeQuery("select f1 from QueryStatisticsTest where f2 = 2 and f1 in(1, 3)").close();
+        stmt.executeQuery("select f1 from QueryStatisticsTest where f2 = 3 and f1 in(5)").close();
+        sql = "select EXECUTION_COUNT, CUMULATIVE_ROW_COUNT, CUMULATIVE_ROWS_READ,"
+                + " MIN_EXECUTION_TIME <= P50_EXECUTION_TIME, P50_EXECUTION_TIME <= P95_EXECUTION_TIME,"
+                + " P95_EXECUTION_TIME <= P99_EXECUTION_TIME, P99_EXECUTION_TIME <= MAX_EXECUTION_TIME"
+                + " from INFORMATION_SCHEMA.QUERY_STATISTICS"
+                + " where SQL_STATEMENT = 'SELECT F1 FROM QUERYSTATISTICSTEST WHERE F2 = ? AND F1 IN(...)'";
+        assertEquals(2, getIntValue(1));
+        assertEquals(2, getIntValue(2));
+        assertEquals(8, getIntValue(3));
+        for (int i = 4; i <= 7; i++)
+            assertTrue(getBooleanValue(i));
+        closeResultSet();
     }
 
+    void testFingerprint() {
+        assertEquals("SELECT * FROM T WHERE NAME = ? AND ID > -? AND F1 = ?",
+                QueryStatisticsData.getFingerprint("select *  from t\n where name = 'a''b' -- comment\n"
+                        + " and id > -1.5e10 and /* x */ f1 = ?"));
+        assertEquals("SELECT \"a1\" FROM T2 WHERE ID IN(...)",
+                QueryStatisticsData.getFingerprint("select \"a1\" from t2 where id in ( 1, 2,3 )"));
+        assertEquals("SELECT * FROM T WHERE ID IN(...) LIMIT ?",
+                QueryStatisticsData.getFingerprint("select * from t where id in (?,?) limit 10"));
+    }
 }
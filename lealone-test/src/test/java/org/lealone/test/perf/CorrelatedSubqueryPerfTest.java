@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.perf;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.lealone.db.LealoneDatabase;
+import org.lealone.test.TestBase;
+
+// 对比逐行执行相关子查询和转成hash semi join之后的性能，需要先启动TcpServerStart
+// 先预热再测量，订单表的customer_id上没有索引
+public class CorrelatedSubqueryPerfTest {
+
+    private static final int CUSTOMER_COUNT = 1000;
+    private static final int ORDER_COUNT = 20000;
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASUREMENT_ITERATIONS = 5;
+
+    private static final String SQL = "SELECT count(*) FROM CorrelatedSubqueryPerfCustomer c"
+            + " WHERE NOT EXISTS(SELECT 1 FROM CorrelatedSubqueryPerfOrder o"
+            + " WHERE o.customer_id = c.id AND o.status = ?)";
+
+    public static void main(String[] args) throws Exception {
+        TestBase test = new TestBase();
+        try (Connection conn = test.getConnection(LealoneDatabase.NAME)) {
+            Statement stmt = conn.createStatement();
+            stmt.executeUpdate("CREATE DATABASE IF NOT EXISTS CorrelatedSubqueryPerfTest0"
+                    + " PARAMETERS(OPTIMIZE_CORRELATED_SUBQUERIES='false')");
+            stmt.executeUpdate("CREATE DATABASE IF NOT EXISTS CorrelatedSubqueryPerfTest1"
+                    + " PARAMETERS(OPTIMIZE_CORRELATED_SUBQUERIES='true')");
+        }
+        double nestedLoop = run(test, "CorrelatedSubqueryPerfTest0");
+        double semiJoin = run(test, "CorrelatedSubqueryPerfTest1");
+        System.out.println(String.format("nested loop: %.3f ms/op, hash semi join: %.3f ms/op, speedup: %.2fx",
+                nestedLoop, semiJoin, nestedLoop / semiJoin));
+    }
+
+    private static double run(TestBase test, String dbName) throws Exception {
+        try (Connection conn = test.getConnection(dbName)) {
+            init(conn);
+            PreparedStatement ps = conn.prepareStatement(SQL);
+            ps.setString(1, "A");
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                execute(ps, i);
+            }
+            long t1 = System.nanoTime();
+            for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+                execute(ps, WARMUP_ITERATIONS + i);
+            }
+            double ms = (System.nanoTime() - t1) / 1000000.0 / MEASUREMENT_ITERATIONS;
+            System.out.println(String.format("%s: %.3f ms/op", dbName, ms));
+            ps.close();
+            return ms;
+        }
+    }
+
+    private static void init(Connection conn) throws Exception {
+        Statement stmt = conn.createStatement();
+        stmt.executeUpdate("DROP TABLE IF EXISTS CorrelatedSubqueryPerfCustomer");
+        stmt.executeUpdate("DROP TABLE IF EXISTS CorrelatedSubqueryPerfOrder");
+        stmt.executeUpdate("CREATE TABLE CorrelatedSubqueryPerfCustomer(id int primary key, name varchar)");
+        stmt.executeUpdate("CREATE TABLE CorrelatedSubqueryPerfOrder"
+                + "(id int primary key, customer_id int, status varchar)");
+        PreparedStatement ps = conn.prepareStatement("INSERT INTO CorrelatedSubqueryPerfCustomer VALUES(?,?)");
+        for (int i = 1; i <= CUSTOMER_COUNT; i++) {
+            ps.setInt(1, i);
+            ps.setString(2, "c" + i);
+            ps.addBatch();
+        }
+        ps.executeBatch();
+        ps.close();
+        ps = conn.prepareStatement("INSERT INTO CorrelatedSubqueryPerfOrder VALUES(?,?,?)");
+        for (int i = 1; i <= ORDER_COUNT; i++) {
+            ps.setInt(1, i);
+            ps.setInt(2, i % (CUSTOMER_COUNT * 2)); // 一半的客户没有订单
+            ps.setString(3, i % 3 == 0 ? "A" : "B");
+            ps.addBatch();
+            if (i % 1000 == 0) {
+                ps.executeBatch();
+            }
+        }
+        ps.close();
+        stmt.close();
+    }
+
+    private static void execute(PreparedStatement ps, int iteration) throws Exception {
+        // 每次用不同的maxRows，避免直接复用上一次的结果
+        ps.setMaxRows(1000 + iteration);
+        ResultSet rs = ps.executeQuery();
+        rs.next();
+        rs.close();
+    }
+}
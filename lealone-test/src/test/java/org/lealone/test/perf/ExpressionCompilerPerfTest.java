@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.perf;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.lealone.db.LealoneDatabase;
+import org.lealone.test.TestBase;
+
+// 对比解释执行和编译执行where条件的性能，需要先启动TcpServerStart
+// 跟JMH一样先预热再测量，每轮都是对全表执行一次过滤
+public class ExpressionCompilerPerfTest {
+
+    private static final int ROW_COUNT = 200000;
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int MEASUREMENT_ITERATIONS = 50;
+
+    private static final String SQL = "SELECT count(*) FROM ExpressionCompilerPerfTest"
+            + " WHERE (f1 > ? AND f2 - f1 * 3 < 5000000) OR (f3 < 1.5 AND f1 + f2 <> 7) OR f4 IS NULL";
+
+    public static void main(String[] args) throws Exception {
+        TestBase test = new TestBase();
+        try (Connection conn = test.getConnection(LealoneDatabase.NAME)) {
+            Statement stmt = conn.createStatement();
+            stmt.executeUpdate("CREATE DATABASE IF NOT EXISTS ExpressionCompilerPerfTest0"
+                    + " PARAMETERS(EXPRESSION_COMPILE_THRESHOLD='0')");
+            stmt.executeUpdate("CREATE DATABASE IF NOT EXISTS ExpressionCompilerPerfTest1"
+                    + " PARAMETERS(EXPRESSION_COMPILE_THRESHOLD='1')");
+        }
+        double interpreted = run(test, "ExpressionCompilerPerfTest0");
+        double compiled = run(test, "ExpressionCompilerPerfTest1");
+        System.out.println(String.format("interpreted: %.3f ms/op, compiled: %.3f ms/op, speedup: %.2fx", interpreted,
+                compiled, interpreted / compiled));
+    }
+
+    private static double run(TestBase test, String dbName) throws Exception {
+        try (Connection conn = test.getConnection(dbName)) {
+            init(conn);
+            PreparedStatement ps = conn.prepareStatement(SQL);
+            ps.setInt(1, ROW_COUNT / 2);
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                execute(ps, i);
+            }
+            long t1 = System.nanoTime();
+            for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+                execute(ps, WARMUP_ITERATIONS + i);
+            }
+            double ms = (System.nanoTime() - t1) / 1000000.0 / MEASUREMENT_ITERATIONS;
+            System.out.println(String.format("%s: %.3f ms/op", dbName, ms));
+            ps.close();
+            return ms;
+        }
+    }
+
+    private static void init(Connection conn) throws Exception {
+        Statement stmt = conn.createStatement();
+        stmt.executeUpdate("DROP TABLE IF EXISTS ExpressionCompilerPerfTest");
+        stmt.executeUpdate("CREATE TABLE ExpressionCompilerPerfTest"
+                + "(pk int primary key, f1 int, f2 bigint, f3 double, f4 int)");
+        PreparedStatement ps = conn.prepareStatement("INSERT INTO ExpressionCompilerPerfTest VALUES(?,?,?,?,?)");
+        for (int i = 1; i <= ROW_COUNT; i++) {
+            ps.setInt(1, i);
+            ps.setInt(2, i);
+            ps.setLong(3, i * 31L);
+            ps.setDouble(4, (i % 100) / 10.0);
+            ps.setInt(5, i % 1000);
+            ps.addBatch();
+            if (i % 1000 == 0) {
+                ps.executeBatch();
+            }
+        }
+        ps.close();
+        stmt.close();
+    }
+
+    private static void execute(PreparedStatement ps, int iteration) throws Exception {
+        // 每次用不同的maxRows，避免直接复用上一次的结果
+        ps.setMaxRows(1000 + iteration);
+        ResultSet rs = ps.executeQuery();
+        rs.next();
+        rs.close();
+    }
+}
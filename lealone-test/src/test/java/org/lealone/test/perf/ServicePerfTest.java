@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.perf;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.Statement;
+
+import org.lealone.client.jdbc.JdbcConnection;
+import org.lealone.db.LealoneDatabase;
+import org.lealone.db.Session;
+import org.lealone.db.service.ServiceExecuter;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueInt;
+import org.lealone.test.TestBase;
+import org.lealone.test.perf.executer.PerfServiceExecuter;
+
+// 对比服务调用的json路径和二进制路径，需要先启动TcpServerStart
+public class ServicePerfTest {
+
+    public static void main(String[] args) throws Exception {
+        run();
+    }
+
+    static final int loop = 20000;
+
+    static void run() throws Exception {
+        Connection conn = new TestBase().getConnection(LealoneDatabase.NAME);
+        Statement stmt = conn.createStatement();
+        // 生成的代码不需要编译，只是借此在服务端注册org.lealone.test.perf.executer.PerfServiceExecuter
+        stmt.executeUpdate("CREATE SERVICE IF NOT EXISTS perf_service (add(a int, b int) long)"
+                + " PACKAGE 'org.lealone.test.perf' IMPLEMENT BY 'org.lealone.test.perf.PerfService'"
+                + " GENERATE CODE '" + TestBase.TEST_DIR + "/service'");
+        stmt.close();
+
+        CallableStatement cs = conn.prepareCall("{? = call EXECUTE_SERVICE_WITH_RETURN_VALUE(?,?)}");
+        Session session = ((JdbcConnection) conn).getSession();
+        for (int i = 0; i < 3; i++) {
+            System.out.println("json   path: " + json(cs) + " ms");
+            System.out.println("binary path: " + binary(session) + " ms");
+        }
+        cs.close();
+        conn.close();
+
+        // 不经过网络，只对比编解码和方法分派
+        ServiceExecuter executer = new PerfServiceExecuter();
+        for (int i = 0; i < 3; i++) {
+            System.out.println("local json   path: " + localJson(executer) + " ms");
+            System.out.println("local binary path: " + localBinary(executer) + " ms");
+        }
+    }
+
+    static long json(CallableStatement cs) throws Exception {
+        long t1 = System.currentTimeMillis();
+        for (int i = 0; i < loop; i++) {
+            cs.setString(2, "PERF_SERVICE.ADD");
+            cs.setString(3, "[" + i + "," + i + "]");
+            cs.registerOutParameter(1, java.sql.Types.VARCHAR);
+            cs.execute();
+            check(i, Long.valueOf(cs.getString(1)));
+        }
+        return System.currentTimeMillis() - t1;
+    }
+
+    static long binary(Session session) {
+        long t1 = System.currentTimeMillis();
+        for (int i = 0; i < loop; i++) {
+            Value result = session.executeService("PERF_SERVICE", 0, new Value[] { ValueInt.get(i), ValueInt.get(i) });
+            check(i, result.getLong());
+        }
+        return System.currentTimeMillis() - t1;
+    }
+
+    static long localJson(ServiceExecuter executer) {
+        long t1 = System.currentTimeMillis();
+        for (int i = 0; i < loop * 10; i++) {
+            check(i, Long.valueOf(executer.executeService("ADD", "[" + i + "," + i + "]")));
+        }
+        return System.currentTimeMillis() - t1;
+    }
+
+    static long localBinary(ServiceExecuter executer) {
+        long t1 = System.currentTimeMillis();
+        for (int i = 0; i < loop * 10; i++) {
+            Value result = executer.executeService(0, new Value[] { ValueInt.get(i), ValueInt.get(i) });
+            check(i, result.getLong());
+        }
+        return System.currentTimeMillis() - t1;
+    }
+
+    static void check(int i, long result) {
+        if (result != 2L * i)
+            throw new AssertionError("expected " + 2L * i + " but was " + result);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.perf.btree;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.lealone.db.value.ValueInt;
+import org.lealone.db.value.ValueString;
+import org.lealone.storage.PageOperationHandler;
+import org.lealone.storage.PageOperationHandlerFactory;
+import org.lealone.storage.aose.AOStorage;
+import org.lealone.storage.aose.AOStorageBuilder;
+import org.lealone.storage.aose.btree.BTreeMap;
+import org.lealone.storage.fs.FileUtils;
+import org.lealone.test.TestBase;
+
+// 多个map同时随机写入时，page切割产生的AddChild操作分散到多个node page处理器上执行，
+// 看看node page处理器个数对写入吞吐量的影响
+public class NodePageOperationHandlerPerfTest {
+
+    public static void main(String[] args) throws Exception {
+        new NodePageOperationHandlerPerfTest().run();
+    }
+
+    private final int leafHandlerCount = 4;
+    private final int mapCount = 8;
+    private final int rowCount = 200000; // 每个map的记录数
+    private final int loop = 3;
+
+    public void run() throws Exception {
+        for (int i = 0; i < loop; i++) {
+            for (int nodeHandlerCount : new int[] { 1, 2, 4 }) {
+                run(i, nodeHandlerCount);
+            }
+            System.out.println();
+        }
+    }
+
+    private void run(int round, int nodeHandlerCount) throws Exception {
+        HashMap<String, String> config = new HashMap<>();
+        config.put("page_operation_handler_count", String.valueOf(leafHandlerCount + nodeHandlerCount));
+        config.put("node_page_operation_handler_count", String.valueOf(nodeHandlerCount));
+        PageOperationHandlerFactory pohFactory = PageOperationHandlerFactory.create(config);
+
+        // AOStorageBuilder会按storagePath缓存AOStorage，所以每次用不同的目录
+        String storagePath = TestBase.joinDirs("aose", "NodePageOperationHandlerPerfTest",
+                round + "-" + nodeHandlerCount);
+        FileUtils.deleteRecursive(storagePath, true);
+        AOStorageBuilder builder = new AOStorageBuilder(config, pohFactory);
+        builder.storagePath(storagePath).pageSplitSize(1024).inMemory();
+        AOStorage storage = builder.openStorage();
+
+        @SuppressWarnings("unchecked")
+        BTreeMap<Integer, String>[] maps = new BTreeMap[mapCount];
+        for (int i = 0; i < mapCount; i++) {
+            maps[i] = storage.openBTreeMap("map" + i, ValueInt.type, ValueString.type, null);
+        }
+
+        int total = mapCount * rowCount;
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger pending = new AtomicInteger(total);
+        Thread[] threads = new Thread[mapCount];
+        long t1 = System.currentTimeMillis();
+        for (int i = 0; i < mapCount; i++) {
+            BTreeMap<Integer, String> map = maps[i];
+            threads[i] = new Thread(() -> {
+                Random random = new Random();
+                for (int j = 0; j < rowCount; j++) {
+                    map.put(random.nextInt(), "value", ar -> {
+                        if (pending.decrementAndGet() == 0)
+                            latch.countDown();
+                    });
+                }
+            });
+            threads[i].start();
+        }
+        latch.await();
+        long t2 = System.currentTimeMillis();
+
+        System.out.println("node page handlers: " + nodeHandlerCount + ", leaf page handlers: " + leafHandlerCount
+                + ", maps: " + mapCount + ", rows: " + total + ", time: " + (t2 - t1) + " ms, throughput: "
+                + (total * 1000L / Math.max(1, t2 - t1)) + " rows/s");
+        for (PageOperationHandler h : pohFactory.getNodePageOperationHandlers()) {
+            System.out.println("  " + h + ": " + h.getMetrics());
+        }
+
+        for (Thread t : threads)
+            t.join();
+        storage.close();
+        pohFactory.stopHandlers();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.perf.executer;
+
+import org.lealone.db.service.ServiceExecuter;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueLong;
+import org.lealone.db.value.ValueNull;
+
+/**
+ * 手写的PERF_SERVICE执行器，两条调用路径的写法与CreateService生成的代码一致，
+ * 只是json参数不依赖JsonArray，直接解析"[a,b]"。
+ */
+public class PerfServiceExecuter implements ServiceExecuter {
+
+    public PerfServiceExecuter() {
+    }
+
+    private Long add(Integer a, Integer b) {
+        return (long) a + b;
+    }
+
+    @Override
+    public String executeService(String methodName, String json) {
+        switch (methodName) {
+        case "ADD":
+            int pos = json.indexOf(',');
+            Integer p_a1 = Integer.valueOf(json.substring(1, pos).trim());
+            Integer p_b1 = Integer.valueOf(json.substring(pos + 1, json.length() - 1).trim());
+            Long result1 = add(p_a1, p_b1);
+            if (result1 == null)
+                return null;
+            return result1.toString();
+        default:
+            throw new RuntimeException("no method: " + methodName);
+        }
+    }
+
+    @Override
+    public Value executeService(int methodId, Value[] methodArgs) {
+        switch (methodId) {
+        case 0: // ADD
+            Integer p_a1 = methodArgs[0] == ValueNull.INSTANCE ? null : methodArgs[0].getInt();
+            Integer p_b1 = methodArgs[1] == ValueNull.INSTANCE ? null : methodArgs[1].getInt();
+            Long result1 = add(p_a1, p_b1);
+            return result1 == null ? ValueNull.INSTANCE : ValueLong.get(result1);
+        default:
+            throw new RuntimeException("no method: " + methodId);
+        }
+    }
+}
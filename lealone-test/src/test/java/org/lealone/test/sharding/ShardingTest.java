@@ -17,8 +17,11 @@
  */
 package org.lealone.test.sharding;
 
+import java.sql.SQLException;
+
 import org.junit.Test;
 import org.lealone.db.LealoneDatabase;
+import org.lealone.db.api.ErrorCode;
 import org.lealone.test.sql.SqlTestBase;
 
 public class ShardingTest extends SqlTestBase {
@@ -58,6 +61,54 @@ public class ShardingTest extends SqlTestBase {
         // new ShardingCrudTest(dbName).runTest();
 
         new ShardingFindTest(dbName).runTest();
+        new ShardingGlobalUniqueIndexTest(dbName).runTest();
+    }
+
+    // 主键不同的记录会被分到不同的节点上，唯一索引字段的值相同时也要能检测到重复
+    class ShardingGlobalUniqueIndexTest extends SqlTestBase {
+
+        private final String name = "ShardingTest_GlobalUniqueIndex";
+
+        public ShardingGlobalUniqueIndexTest(String dbName) {
+            super(dbName);
+        }
+
+        @Override
+        protected void test() throws Exception {
+            executeUpdate("drop table IF EXISTS " + name);
+            executeUpdate("create table IF NOT EXISTS " + name + "(f1 int primary key, f2 int, f3 int)");
+            executeUpdate("create unique index IF NOT EXISTS " + name + "_f2 on " + name + "(f2)");
+            for (int i = 1; i <= 500; i++) {
+                executeUpdate("insert into " + name + "(f1, f2, f3) values(" + i + "," + i + "," + i + ")");
+            }
+
+            // f1离得很远，f2跟已有的记录重复
+            assertDuplicate("insert into " + name + "(f1, f2, f3) values(100000, 1, 1)");
+            assertDuplicate("insert into " + name + "(f1, f2, f3) values(100001, 500, 500)");
+
+            // 同一条多行INSERT中的记录在不同的节点上重复
+            assertDuplicate("insert into " + name + "(f1, f2, f3) values(200000, 600, 1), (300000, 600, 1)");
+            assertCount(500);
+
+            // 删除之后可以重新插入
+            executeUpdate("delete from " + name + " where f1 = 1");
+            executeUpdate("insert into " + name + "(f1, f2, f3) values(100000, 1, 1)");
+            assertCount(500);
+        }
+
+        private void assertCount(int expected) throws Exception {
+            sql = "select count(*) from " + name;
+            assertEquals(expected, getIntValue(1, true));
+        }
+
+        private void assertDuplicate(String sql) {
+            try {
+                stmt.executeUpdate(sql);
+                fail(sql);
+            } catch (SQLException e) {
+                assertEquals(ErrorCode.DUPLICATE_KEY_1, e.getErrorCode());
+            }
+        }
     }
 
     class ShardingFindTest extends SqlTestBase {
@@ -22,7 +22,7 @@ import org.lealone.test.sql.SqlTestBase;
 
 public class ExplainTest extends SqlTestBase {
     @Test
-    public void run() {
+    public void run() throws Exception {
         executeUpdate("drop table IF EXISTS ExplainTest");
         executeUpdate("create table IF NOT EXISTS ExplainTest(id int, name varchar(500), b boolean)");
         executeUpdate("CREATE INDEX IF NOT EXISTS ExplainTestIndex ON ExplainTest(name)");
@@ -58,5 +58,46 @@ public class ExplainTest extends SqlTestBase {
                 + "AS(select * from ExplainTest UNION ALL select * from ExplainTest) select f1, f2 from myTempViewName";
         sql = "EXPLAIN " + sql;
         printResultSet();
+
+        testExplainAnalyze();
+    }
+
+    private void testExplainAnalyze() throws Exception {
+        executeUpdate("delete from ExplainTest");
+        for (int i = 1; i <= 20; i++)
+            executeUpdate("insert into ExplainTest(id, name, b) values(" + i + ", 'n" + (i % 5) + "', true)");
+
+        sql = "EXPLAIN ANALYZE select * from ExplainTest where name = 'n1' and id > 3";
+        String plan = getStringValue(1, true);
+        System.out.println(plan);
+        // id > 3不是表过滤器的条件，是在QueryFlat中判断的
+        assertTrue(plan.contains("loops: 1, rows: 4,"));
+        // 跟代价估算用同一个模型: name列没有统计信息，按默认的selectivity估算成20 / 10行
+        assertTrue(plan.contains("estimated rows per loop: 2, loops: 1,"));
+        assertTrue(plan.contains("/* QueryFlat: rows: 3,"));
+        assertTrue(plan.contains("/* result: rows: 3,"));
+        assertTrue(plan.contains("/* total: rows: 3,"));
+
+        sql = "EXPLAIN ANALYZE select name, count(*) from ExplainTest group by name order by name";
+        plan = getStringValue(1, true);
+        System.out.println(plan);
+        assertTrue(plan.contains("scanCount: 21, estimated rows per loop: 20, loops: 1, rows: 20,"));
+        assertTrue(plan.contains("/* QueryGroupSorted: rows: 20,"));
+        assertTrue(plan.contains("/* total: rows: 5,"));
+
+        // join时内层表每读一行外层表的记录就要查找一次
+        sql = "EXPLAIN ANALYZE select * from ExplainTest t1, ExplainTest t2 where t1.id = t2.id and t1.id < 4";
+        plan = getStringValue(1, true);
+        System.out.println(plan);
+        assertTrue(plan.contains("loops: 1, rows: 3,"));
+        assertTrue(plan.contains("loops: 3, rows: 60,"));
+
+        sql = "EXPLAIN ANALYZE delete from ExplainTest where name = 'n2'";
+        plan = getStringValue(1, true);
+        System.out.println(plan);
+        assertTrue(plan.contains("loops: 1, rows: 4,"));
+        assertTrue(plan.contains("/* total: rows: 4,"));
+        sql = "select count(*) from ExplainTest";
+        assertEquals(16, getIntValue(1, true));
     }
 }
@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.sql.index;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+
+import org.junit.Test;
+import org.lealone.test.sql.SqlTestBase;
+
+public class BatchedLookupTest extends SqlTestBase {
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("drop table IF EXISTS BatchedLookupTest");
+        executeUpdate("create table IF NOT EXISTS BatchedLookupTest(id int primary key, f1 int, f2 varchar(50))");
+        // f1和id的顺序完全不同，通过f1索引回表时行key是乱序的
+        executeUpdate("insert into BatchedLookupTest select x, mod(x * 7919, 2000), 'v' || x from system_range(1, 2000)");
+        executeUpdate("CREATE INDEX IF NOT EXISTS BatchedLookupTest_f1 ON BatchedLookupTest(f1)");
+
+        // 批量回表后仍然按索引的顺序返回
+        ArrayList<Integer> ids = getIds("select id, f1 from BatchedLookupTest where f1 between 100 and 1500");
+        assertEquals(1401, ids.size());
+        ArrayList<Integer> expected = getIds(
+                "select id, f1 from BatchedLookupTest where f1 + 0 between 100 and 1500 order by f1");
+        assertEquals(expected, ids);
+
+        sql = "select sum(id), count(f2) from BatchedLookupTest where f1 >= 1000";
+        assertEquals(getIntValue(1, true), sum(getIds("select id, f1 from BatchedLookupTest where f1 + 0 >= 1000")));
+
+        sql = "select f2 from BatchedLookupTest where f1 >= 10 limit 1";
+        assertEquals("v" + idOf(10), getStringValue(1, true));
+
+        // 当前事务未提交的记录也要能看到
+        conn.setAutoCommit(false);
+        executeUpdate("insert into BatchedLookupTest values(3000, 101, 'new')");
+        executeUpdate("update BatchedLookupTest set f2 = 'updated' where id = " + idOf(102));
+        sql = "select count(*) from BatchedLookupTest where f1 between 101 and 102 and f2 in ('new', 'updated')";
+        assertEquals(2, getIntValue(1, true));
+        conn.rollback();
+        conn.setAutoCommit(true);
+        sql = "select count(id) from BatchedLookupTest where f1 between 101 and 102 and f2 in ('new', 'updated')";
+        assertEquals(0, getIntValue(1, true));
+    }
+
+    private ArrayList<Integer> getIds(String sql) throws Exception {
+        ArrayList<Integer> ids = new ArrayList<>();
+        ResultSet rs = stmt.executeQuery(sql);
+        while (rs.next()) {
+            ids.add(rs.getInt(1));
+        }
+        rs.close();
+        return ids;
+    }
+
+    private static int sum(ArrayList<Integer> ids) {
+        int sum = 0;
+        for (int id : ids) {
+            sum += id;
+        }
+        return sum;
+    }
+
+    // mod(x * 7919, 2000)是1到2000的一个排列，找出f1对应的id
+    private static int idOf(int f1) {
+        for (int x = 1; x <= 2000; x++) {
+            if (x * 7919 % 2000 == f1)
+                return x;
+        }
+        return -1;
+    }
+}
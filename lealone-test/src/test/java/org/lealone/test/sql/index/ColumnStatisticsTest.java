@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.sql.index;
+
+import org.junit.Test;
+import org.lealone.test.sql.SqlTestBase;
+
+public class ColumnStatisticsTest extends SqlTestBase {
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("drop table IF EXISTS ColumnStatisticsTest");
+        executeUpdate("create table IF NOT EXISTS ColumnStatisticsTest(id int primary key, f1 int, f2 int, f3 int)");
+        // f1有90%是0，其他值都只出现一次；f2有50个不同的值，分布均匀；f3有95%大于等于900
+        executeUpdate("insert into ColumnStatisticsTest select x, 0, mod(x, 50), 900 + mod(x, 100)"
+                + " from system_range(1, 5000)");
+        executeUpdate("update ColumnStatisticsTest set f1 = id where mod(id, 10) = 9");
+        executeUpdate("update ColumnStatisticsTest set f3 = mod(id, 900) where mod(id, 20) = 0");
+        executeUpdate("CREATE INDEX IF NOT EXISTS ColumnStatisticsTest_f1 ON ColumnStatisticsTest(f1)");
+        executeUpdate("CREATE INDEX IF NOT EXISTS ColumnStatisticsTest_f2 ON ColumnStatisticsTest(f2)");
+        executeUpdate("CREATE INDEX IF NOT EXISTS ColumnStatisticsTest_f3 ON ColumnStatisticsTest(f3)");
+        executeUpdate("ANALYZE");
+
+        sql = "select SQL from INFORMATION_SCHEMA.TABLES where TABLE_NAME = 'COLUMNSTATISTICSTEST'";
+        String tableSQL = getStringValue(1, true);
+        assertTrue(tableSQL.contains("STATISTICS(ROWS 5000 NULLS 0"));
+        assertTrue(tableSQL.contains("HISTOGRAM("));
+
+        // f1 = 0选出90%的记录，应该用f2的索引
+        sql = "select count(*) from ColumnStatisticsTest where f1 = 0 and f2 = 7";
+        assertTrue(getExplain().contains("COLUMNSTATISTICSTEST_F2"));
+        assertEquals(100, getIntValue(1, true));
+
+        // f1 = 19只有一条记录，应该用f1的索引
+        sql = "select count(*) from ColumnStatisticsTest where f1 = 19 and f2 = 19";
+        assertTrue(getExplain().contains("COLUMNSTATISTICSTEST_F1"));
+        assertEquals(1, getIntValue(1, true));
+
+        // f3 >= 900选出95%的记录，f3 < 100只有很少的记录
+        sql = "select count(*) from ColumnStatisticsTest where f3 >= 900 and f2 = 7";
+        assertTrue(getExplain().contains("COLUMNSTATISTICSTEST_F2"));
+        sql = "select count(*) from ColumnStatisticsTest where f3 < 100 and f2 = 7";
+        assertTrue(getExplain().contains("COLUMNSTATISTICSTEST_F3"));
+
+        // 只读取SAMPLE_SIZE条记录
+        executeUpdate("ANALYZE SAMPLE_SIZE 1000");
+        sql = "select SQL from INFORMATION_SCHEMA.TABLES where TABLE_NAME = 'COLUMNSTATISTICSTEST'";
+        assertTrue(getStringValue(1, true).contains("STATISTICS(ROWS 1000 NULLS 0"));
+
+        // 统计信息保存在字段定义中，能重新解析
+        executeUpdate("drop table IF EXISTS ColumnStatisticsTest2");
+        executeUpdate("create table IF NOT EXISTS ColumnStatisticsTest2(id int primary key,"
+                + " f1 varchar STATISTICS(ROWS 10 NULLS 1 DISTINCT 3 VALUES('a' 6, 'b' 2) HISTOGRAM('c', 'c')),"
+                + " f2 date STATISTICS(ROWS 10 NULLS 0 DISTINCT 10 HISTOGRAM(DATE '2020-01-01', DATE '2020-12-31')))");
+        sql = "select SQL from INFORMATION_SCHEMA.TABLES where TABLE_NAME = 'COLUMNSTATISTICSTEST2'";
+        tableSQL = getStringValue(1, true);
+        assertTrue(tableSQL.contains("STATISTICS(ROWS 10 NULLS 1 DISTINCT 3 VALUES('a' 6, 'b' 2) HISTOGRAM('c', 'c'))"));
+        assertTrue(tableSQL.contains("HISTOGRAM(DATE '2020-01-01', DATE '2020-12-31')"));
+    }
+
+    private String getExplain() throws Exception {
+        rs = stmt.executeQuery("EXPLAIN " + sql);
+        rs.next();
+        String plan = rs.getString(1);
+        closeResultSet();
+        return plan;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.sql.index;
+
+import org.junit.Test;
+import org.lealone.test.sql.SqlTestBase;
+
+public class CoveringIndexTest extends SqlTestBase {
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("drop table IF EXISTS CoveringIndexTest");
+        executeUpdate("create table IF NOT EXISTS CoveringIndexTest"
+                + "(id int primary key, f1 int, f2 varchar(50), f3 varchar(50), f4 varchar(500))");
+        // 先有记录再建索引，走重建索引的流程
+        executeUpdate("insert into CoveringIndexTest values(1, 10, 'a1', 'b1', 'c1'), (2, 20, 'a2', 'b2', 'c2')");
+        executeUpdate("CREATE INDEX IF NOT EXISTS CoveringIndexTest_f1 ON CoveringIndexTest(f1) INCLUDE(f2, f3)");
+        executeUpdate("insert into CoveringIndexTest values(3, 30, 'a3', 'b3', 'c3')");
+
+        sql = "select SQL from INFORMATION_SCHEMA.INDEXES where INDEX_NAME = 'COVERINGINDEXTEST_F1'";
+        assertTrue(getStringValue(1, true).contains("INCLUDE(F2, F3)"));
+
+        sql = "select id, f1, f2, f3 from CoveringIndexTest where f1 >= 20";
+        assertTrue(getExplain().contains("(index only)"));
+        sql = "select f4 from CoveringIndexTest where f1 >= 20";
+        assertFalse(getExplain().contains("(index only)"));
+
+        sql = "select f2, f3 from CoveringIndexTest where f1 = 30";
+        assertEquals("a3", getStringValue(1));
+        assertEquals("b3", getStringValue(2, true));
+
+        // 只更新INCLUDE字段时原地更新索引的value
+        executeUpdate("update CoveringIndexTest set f2 = 'a33' where id = 3");
+        sql = "select f2 from CoveringIndexTest where f1 = 30";
+        assertEquals("a33", getStringValue(1, true));
+
+        executeUpdate("update CoveringIndexTest set f1 = 40, f3 = 'b4' where id = 3");
+        sql = "select count(*) from CoveringIndexTest where f1 = 30";
+        assertEquals(0, getIntValue(1, true));
+        sql = "select id, f2, f3 from CoveringIndexTest where f1 = 40";
+        assertEquals(3, getIntValue(1));
+        assertEquals("a33", getStringValue(2));
+        assertEquals("b4", getStringValue(3, true));
+
+        executeUpdate("delete from CoveringIndexTest where f1 = 40");
+        sql = "select count(f2) from CoveringIndexTest where f1 > 0";
+        assertEquals(2, getIntValue(1, true));
+
+        try {
+            stmt.executeUpdate("alter table CoveringIndexTest drop column f2");
+            fail();
+        } catch (Exception e) {
+            assertTrue(e.getMessage().contains("COVERINGINDEXTEST_F1"));
+        }
+        try {
+            stmt.executeUpdate("CREATE INDEX CoveringIndexTest_f1_2 ON CoveringIndexTest(f1) INCLUDE(f1)");
+            fail();
+        } catch (Exception e) {
+            assertTrue(e.getMessage().contains("F1"));
+        }
+    }
+
+    private String getExplain() throws Exception {
+        rs = stmt.executeQuery("EXPLAIN " + sql);
+        rs.next();
+        String plan = rs.getString(1);
+        closeResultSet();
+        return plan;
+    }
+}
@@ -17,7 +17,9 @@
  */
 package org.lealone.test.sql.misc;
 
+import java.sql.BatchUpdateException;
 import java.sql.PreparedStatement;
+import java.sql.Statement;
 
 import org.junit.Test;
 import org.lealone.test.sql.SqlTestBase;
@@ -28,6 +30,8 @@ public class BatchTest extends SqlTestBase {
         init();
         testStatementBatch();
         testPreparedStatementBatch();
+        testLargeBatch();
+        testFailedBatch();
     }
 
     void init() throws Exception {
@@ -73,4 +77,67 @@ public class BatchTest extends SqlTestBase {
 
         ps.close();
     }
+
+    // 超过client.batch.chunk.size时会分多次发送
+    void testLargeBatch() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS BatchTest2");
+        executeUpdate("CREATE TABLE IF NOT EXISTS BatchTest2(f1 int primary key, f2 int)");
+        sql = "INSERT INTO BatchTest2(f1, f2) VALUES(?, ?)";
+        PreparedStatement ps = conn.prepareStatement(sql);
+        int count = 2500;
+        for (int i = 1; i <= count; i++) {
+            ps.setInt(1, i);
+            ps.setInt(2, i * 2);
+            ps.addBatch();
+        }
+        int[] result = ps.executeBatch();
+        assertEquals(count, result.length);
+        for (int i = 0; i < count; i++) {
+            assertEquals(1, result[i]);
+        }
+        ps.close();
+
+        sql = "SELECT count(*) FROM BatchTest2";
+        assertEquals(count, getIntValue(1, true));
+    }
+
+    // 合并成多行INSERT失败后逐条执行，每条记录的结果跟逐条执行时一样
+    void testFailedBatch() throws Exception {
+        sql = "INSERT INTO BatchTest2(f1, f2) VALUES(?, ?)";
+        PreparedStatement ps = conn.prepareStatement(sql);
+        for (int i = 3001; i <= 3005; i++) {
+            ps.setInt(1, i == 3003 ? 1 : i); // 主键1已经存在
+            ps.setInt(2, i);
+            ps.addBatch();
+        }
+        int[] result = executeFailedBatch(ps);
+        assertEquals(5, result.length);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i == 2 ? Statement.EXECUTE_FAILED : 1, result[i]);
+        }
+        ps.close();
+
+        stmt.clearBatch();
+        stmt.addBatch("INSERT INTO BatchTest2(f1, f2) VALUES(4001, 1)");
+        stmt.addBatch("INSERT INTO BatchTest2_not_exists(f1, f2) VALUES(4002, 1)");
+        stmt.addBatch("INSERT INTO BatchTest2(f1, f2) VALUES(4003, 1)");
+        result = executeFailedBatch(stmt);
+        assertEquals(1, result[0]);
+        assertEquals(Statement.EXECUTE_FAILED, result[1]);
+        assertEquals(1, result[2]);
+        stmt.clearBatch();
+
+        sql = "SELECT count(*) FROM BatchTest2";
+        assertEquals(2500 + 4 + 2, getIntValue(1, true));
+    }
+
+    private static int[] executeFailedBatch(Statement s) throws Exception {
+        try {
+            s.executeBatch();
+            fail();
+            return null;
+        } catch (BatchUpdateException e) {
+            return e.getUpdateCounts();
+        }
+    }
 }
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.sql.misc;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+
+import org.junit.Test;
+import org.lealone.db.LealoneDatabase;
+import org.lealone.db.api.ErrorCode;
+import org.lealone.test.sql.SqlTestBase;
+
+// 执行两次后就编译where条件和select列表，编译前后的结果必须一样
+public class ExpressionCompilerTest extends SqlTestBase {
+
+    private static final String DB_NAME = "ExpressionCompilerTestDB";
+
+    public ExpressionCompilerTest() {
+        super(LealoneDatabase.NAME);
+    }
+
+    @Test
+    public void run() throws Exception {
+        stmt.executeUpdate("CREATE DATABASE IF NOT EXISTS " + DB_NAME
+                + " PARAMETERS(EXPRESSION_COMPILE_THRESHOLD='2')");
+        try (Connection conn = getConnection(DB_NAME)) {
+            Statement stmt = conn.createStatement();
+            stmt.executeUpdate("DROP TABLE IF EXISTS ExpressionCompilerTest");
+            stmt.executeUpdate("CREATE TABLE ExpressionCompilerTest"
+                    + "(pk int primary key, f1 int, f2 bigint, f3 double, f4 smallint, f5 varchar)");
+            for (int i = 1; i <= 50; i++) {
+                String f1 = i % 7 == 0 ? "null" : String.valueOf(i - 25);
+                String f2 = i % 5 == 0 ? "null" : String.valueOf(i * 100000000000L);
+                String f3 = i % 6 == 0 ? "null" : String.valueOf(i / 4.0);
+                stmt.executeUpdate("INSERT INTO ExpressionCompilerTest VALUES(" + i + ", " + f1 + ", " + f2 + ", "
+                        + f3 + ", " + (i % 3) + ", 'v" + i + "')");
+            }
+            stmt.executeUpdate("INSERT INTO ExpressionCompilerTest VALUES(51, 2147483647, -9223372036854775808,"
+                    + " -0.0, -32768, null)");
+
+            String select = "SELECT pk, f1 + 1, -f1, f2 - f1 * 2, -f3, f1 * f4 FROM ExpressionCompilerTest WHERE ";
+            testQuery(conn, select + "f1 > 0 AND f2 < 3000000000000");
+            testQuery(conn, select + "f1 + 10 >= 5 OR f3 < 2.5");
+            testQuery(conn, select + "NOT (f1 <> 3) OR f1 IS NULL OR f2 IS NULL");
+            testQuery(conn, select + "f3 = 0 OR f3 > f1 AND f4 <> 1");
+            testQuery(conn, select + "f1 * 3 - f2 < -500000000000 AND f5 LIKE 'v1%'");
+            testQuery(conn, select + "(f1 > 20 OR f3 IS NOT NULL) AND NOT (f4 = 2)");
+            // 用long计算溢出时退回到解释执行，结果是DECIMAL
+            testQuery(conn, "SELECT pk, f1 * f2, f2 - 1 FROM ExpressionCompilerTest WHERE f2 - 1 < 0 OR pk > 40");
+            testQuery(conn, "SELECT pk, -f2 FROM ExpressionCompilerTest", ErrorCode.NUMERIC_VALUE_OUT_OF_RANGE_1);
+
+            // 溢出后退回到解释执行时不能再算一次NEXT VALUE FOR，所以带序列的表达式不编译
+            stmt.executeUpdate("DROP SEQUENCE IF EXISTS ExpressionCompilerSeq");
+            stmt.executeUpdate("CREATE SEQUENCE ExpressionCompilerSeq");
+            PreparedStatement seq = conn.prepareStatement(
+                    "SELECT (NEXT VALUE FOR ExpressionCompilerSeq) + f2 * 2 FROM ExpressionCompilerTest WHERE pk = 51");
+            for (int i = 1; i <= 4; i++) {
+                seq.setMaxRows(1000 + i);
+                ResultSet rs = seq.executeQuery();
+                assertTrue(rs.next());
+                BigDecimal expected = BigDecimal.valueOf(Long.MIN_VALUE).multiply(BigDecimal.valueOf(2));
+                assertEquals(expected.add(BigDecimal.valueOf(i)).toString(), rs.getString(1));
+                rs.close();
+            }
+            seq.close();
+
+            // 参数的类型变了之后要退回到解释执行
+            PreparedStatement ps = conn.prepareStatement(
+                    "SELECT count(*) FROM ExpressionCompilerTest WHERE f1 > ? AND f2 + ? < 4000000000000");
+            for (int i = 0; i < 6; i++) {
+                ps.setMaxRows(1000 + i);
+                if (i < 3) {
+                    ps.setInt(1, 10);
+                    ps.setInt(2, 1);
+                } else {
+                    ps.setLong(1, 10L);
+                    ps.setDouble(2, 1.5);
+                }
+                ResultSet rs = ps.executeQuery();
+                assertTrue(rs.next());
+                assertEquals(5, rs.getInt(1));
+                rs.close();
+            }
+            ps.close();
+        }
+    }
+
+    private void testQuery(Connection conn, String sql) throws Exception {
+        testQuery(conn, sql, 0);
+    }
+
+    private void testQuery(Connection conn, String sql, int errorCode) throws Exception {
+        PreparedStatement ps = conn.prepareStatement(sql);
+        ArrayList<String> expected = null;
+        for (int i = 0; i < 4; i++) {
+            ArrayList<String> rows = new ArrayList<>();
+            // 每次都用不同的maxRows，避免直接复用上一次的结果
+            ps.setMaxRows(1000 + i);
+            try {
+                ResultSet rs = ps.executeQuery();
+                int columnCount = rs.getMetaData().getColumnCount();
+                while (rs.next()) {
+                    StringBuilder buff = new StringBuilder();
+                    for (int j = 1; j <= columnCount; j++) {
+                        buff.append(rs.getString(j)).append(',');
+                    }
+                    rows.add(buff.toString());
+                }
+                rs.close();
+                if (errorCode != 0) {
+                    fail(sql);
+                }
+            } catch (SQLException e) {
+                if (errorCode == 0) {
+                    throw e;
+                }
+                assertEquals(errorCode, ((SQLException) getRootCause(e)).getErrorCode());
+            }
+            if (expected == null) {
+                expected = rows;
+            } else {
+                assertEquals(sql, expected, rows);
+            }
+        }
+        ps.close();
+    }
+}
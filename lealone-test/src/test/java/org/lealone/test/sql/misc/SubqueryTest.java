@@ -17,6 +17,9 @@
  */
 package org.lealone.test.sql.misc;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
 import org.junit.Test;
 import org.lealone.test.sql.SqlTestBase;
 
@@ -25,6 +28,7 @@ public class SubqueryTest extends SqlTestBase {
     public void run() throws Exception {
         init();
         testSelect();
+        testCorrelatedSubquery();
     }
 
     void init() throws Exception {
@@ -65,4 +69,72 @@ public class SubqueryTest extends SqlTestBase {
                 + " AND f2 < SOME(SELECT f2 FROM SubqueryTest WHERE pk>='04')";
         assertEquals(5, getIntValue(1, true));
     }
+
+    void testCorrelatedSubquery() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS SubqueryTestCustomer");
+        executeUpdate("DROP TABLE IF EXISTS SubqueryTestOrder");
+        executeUpdate("CREATE TABLE SubqueryTestCustomer(id int PRIMARY KEY, region int)");
+        executeUpdate("CREATE TABLE SubqueryTestOrder(id int PRIMARY KEY, customer_id int, status varchar)");
+        executeUpdate("INSERT INTO SubqueryTestCustomer VALUES(1, 1), (2, 1), (3, 2), (4, 2), (5, NULL), (6, 3)");
+        executeUpdate("INSERT INTO SubqueryTestOrder VALUES(1, 1, 'A'), (2, 1, 'B'), (3, 2, 'A'), (4, 4, 'A')," //
+                + " (5, NULL, 'A'), (6, 9, 'B'), (7, 4, NULL)");
+
+        // 执行两次，第二次可以用到缓存或hash表
+        for (int i = 0; i < 2; i++) {
+            sql = "SELECT count(*) FROM SubqueryTestCustomer c" //
+                    + " WHERE EXISTS(SELECT 1 FROM SubqueryTestOrder o WHERE o.customer_id = c.id)";
+            assertEquals(3, getIntValue(1, true));
+
+            sql = "SELECT count(*) FROM SubqueryTestCustomer c" //
+                    + " WHERE NOT EXISTS(SELECT 1 FROM SubqueryTestOrder o WHERE o.customer_id = c.id)";
+            assertEquals(3, getIntValue(1, true));
+
+            sql = "SELECT count(*) FROM SubqueryTestCustomer c WHERE EXISTS(SELECT 1 FROM SubqueryTestOrder o" //
+                    + " WHERE c.id = o.customer_id AND o.status = 'B')";
+            assertEquals(1, getIntValue(1, true));
+
+            sql = "SELECT count(*) FROM SubqueryTestCustomer c WHERE EXISTS(SELECT 1 FROM SubqueryTestOrder o" //
+                    + " WHERE o.customer_id = c.id AND o.id = c.region)";
+            assertEquals(1, getIntValue(1, true));
+
+            sql = "SELECT count(*) FROM SubqueryTestCustomer c" //
+                    + " WHERE 'A' IN(SELECT o.status FROM SubqueryTestOrder o WHERE o.customer_id = c.id)";
+            assertEquals(3, getIntValue(1, true));
+
+            // 客户4的订单中有NULL，NOT IN的结果是NULL
+            sql = "SELECT count(*) FROM SubqueryTestCustomer c" //
+                    + " WHERE 'B' NOT IN(SELECT o.status FROM SubqueryTestOrder o WHERE o.customer_id = c.id)";
+            assertEquals(4, getIntValue(1, true));
+
+            sql = "SELECT count(*) FROM SubqueryTestCustomer c" //
+                    + " WHERE (SELECT count(*) FROM SubqueryTestOrder o WHERE o.customer_id = c.id) >= 2";
+            assertEquals(2, getIntValue(1, true));
+
+            // 外层的customer_id有重复值
+            sql = "SELECT count(*) FROM SubqueryTestOrder o WHERE EXISTS(SELECT 1 FROM SubqueryTestCustomer c" //
+                    + " WHERE c.id = o.customer_id AND c.region = 1)";
+            assertEquals(3, getIntValue(1, true));
+
+            sql = "SELECT count(*) FROM SubqueryTestOrder o" //
+                    + " WHERE (SELECT c.region FROM SubqueryTestCustomer c WHERE c.id = o.customer_id) = 2";
+            assertEquals(2, getIntValue(1, true));
+        }
+
+        // 数据变化后不能再用之前的结果
+        sql = "SELECT count(*) FROM SubqueryTestCustomer c" //
+                + " WHERE EXISTS(SELECT 1 FROM SubqueryTestOrder o WHERE o.customer_id = c.id)";
+        PreparedStatement ps = conn.prepareStatement(sql);
+        ps.setMaxRows(1);
+        ResultSet rs = ps.executeQuery();
+        assertTrue(rs.next());
+        assertEquals(3, rs.getInt(1));
+        rs.close();
+        executeUpdate("INSERT INTO SubqueryTestOrder VALUES(8, 3, 'A')");
+        ps.setMaxRows(2);
+        rs = ps.executeQuery();
+        assertTrue(rs.next());
+        assertEquals(4, rs.getInt(1));
+        rs.close();
+        ps.close();
+    }
 }